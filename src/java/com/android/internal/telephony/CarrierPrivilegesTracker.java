@@ -49,6 +49,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.PersistableBundle;
 import android.os.Process;
+import android.os.RegistrantList;
 import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -66,6 +67,7 @@ import android.util.LocalLog;
 import android.util.Pair;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.uicc.IccUtils;
 import com.android.internal.telephony.uicc.UiccPort;
 import com.android.internal.telephony.uicc.UiccProfile;
@@ -184,6 +186,13 @@ public class CarrierPrivilegesTracker extends Handler {
     private final TelephonyRegistryManager mTelephonyRegistryManager;
 
     @NonNull private final LocalLog mLocalLog = new LocalLog(64);
+
+    /**
+     * In-process registrants notified when the carrier privileges of any phone change. The result
+     * is the phone id.
+     */
+    private static final RegistrantList sCarrierPrivilegesChangedRegistrants =
+            new RegistrantList();
     // Stores rules for Carrier Config-loaded rules
     @NonNull private final List<UiccAccessRule> mCarrierConfigRules = new ArrayList<>();
     // Stores rules for SIM-loaded rules.
@@ -336,6 +345,34 @@ public class CarrierPrivilegesTracker extends Handler {
                 }
             };
 
+    /**
+     * Register for carrier privileges changes of any phone, for components in the phone process
+     * that cache decisions based on carrier privileges. The result of the notification is the
+     * phone id.
+     *
+     * It doesn't trigger callback upon registration.
+     */
+    public static void registerForCarrierPrivilegesChanged(Handler h, int what, Object obj) {
+        sCarrierPrivilegesChangedRegistrants.addUnique(h, what, obj);
+    }
+
+    /**
+     * Unregister for carrier privileges changes.
+     */
+    public static void unregisterForCarrierPrivilegesChanged(Handler h) {
+        sCarrierPrivilegesChangedRegistrants.remove(h);
+    }
+
+    /**
+     * Notify the in-process registrants that the carrier privileges of a phone changed.
+     *
+     * @param phoneId The phone id.
+     */
+    @VisibleForTesting
+    public static void notifyCarrierPrivilegesChangedRegistrants(int phoneId) {
+        sCarrierPrivilegesChangedRegistrants.notifyResult(phoneId);
+    }
+
     public CarrierPrivilegesTracker(
             @NonNull Looper looper, @NonNull Phone phone, @NonNull Context context) {
         super(looper);
@@ -686,6 +723,7 @@ public class CarrierPrivilegesTracker extends Handler {
                         mPhone.getPhoneId(),
                         Collections.unmodifiableSet(mPrivilegedPackageInfo.mPackageNames),
                         Collections.unmodifiableSet(mPrivilegedPackageInfo.mUids));
+                notifyCarrierPrivilegesChangedRegistrants(mPhone.getPhoneId());
             }
 
             if (carrierServiceChanged) {
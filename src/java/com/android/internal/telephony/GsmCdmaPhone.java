@@ -106,6 +106,7 @@ import com.android.internal.telephony.data.AccessNetworksManager;
 import com.android.internal.telephony.data.DataNetworkController;
 import com.android.internal.telephony.data.LinkBandwidthEstimator;
 import com.android.internal.telephony.domainselection.DomainSelectionResolver;
+import com.android.internal.telephony.emergency.EmergencyContext;
 import com.android.internal.telephony.emergency.EmergencyNumberTracker;
 import com.android.internal.telephony.emergency.EmergencyStateTracker;
 import com.android.internal.telephony.flags.FeatureFlags;
@@ -1396,6 +1397,30 @@ public class GsmCdmaPhone extends Phone {
         }
     }
 
+    /**
+     * Check if the number is an emergency number on any phone, as
+     * {@link TelephonyManager#isEmergencyNumber(String)} does. The emergency context is used when
+     * it has the emergency numbers of all phones, to avoid the binder call on the dial path.
+     */
+    private boolean isEmergencyNumberOnAnyPhone(EmergencyContext emergencyContext,
+            TelephonyManager tm, String dialString) {
+        if (!emergencyContext.hasEmergencyNumbers(getPhoneId())) {
+            return tm.isEmergencyNumber(dialString);
+        }
+        Phone[] phones = PhoneFactory.getPhones();
+        for (Phone phone : phones) {
+            if (!emergencyContext.hasEmergencyNumbers(phone.getPhoneId())) {
+                return tm.isEmergencyNumber(dialString);
+            }
+        }
+        for (Phone phone : phones) {
+            if (emergencyContext.isEmergencyNumber(phone.getPhoneId(), dialString)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public Connection dial(String dialString, @NonNull DialArgs dialArgs,
             Consumer<Phone> chosenPhoneConsumer) throws CallStateException {
@@ -1428,13 +1453,16 @@ public class GsmCdmaPhone extends Phone {
         // some carriers which do not want to handle dial requests for numbers which are in the
         // emergency number list on another SIM, but is not on theirs.  In this case we will use the
         // emergency number list for this carrier's SIM only.
+        EmergencyContext emergencyContext = EmergencyContext.getCurrent();
         if (useOnlyDialedSimEccList) {
-            isEmergency = getEmergencyNumberTracker().isEmergencyNumber(dialString);
+            isEmergency = emergencyContext.hasEmergencyNumbers(getPhoneId())
+                    ? emergencyContext.isEmergencyNumber(getPhoneId(), dialString)
+                    : getEmergencyNumberTracker().isEmergencyNumber(dialString);
             logi("dial; isEmergency=" + isEmergency
                     + " (based on this phone only); globalIsEmergency="
-                    + tm.isEmergencyNumber(dialString));
+                    + isEmergencyNumberOnAnyPhone(emergencyContext, tm, dialString));
         } else {
-            isEmergency = tm.isEmergencyNumber(dialString);
+            isEmergency = isEmergencyNumberOnAnyPhone(emergencyContext, tm, dialString);
             logi("dial; isEmergency=" + isEmergency + " (based on all phones)");
         }
 
@@ -54,14 +54,17 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Looper;
 import android.os.Message;
+import android.os.PersistableBundle;
 import android.os.PowerManager;
 import android.os.PowerWhitelistManager;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.os.storage.StorageManager;
 import android.provider.Telephony;
 import android.provider.Telephony.Sms.Intents;
 import android.service.carrier.CarrierMessagingService;
+import android.telephony.CarrierConfigManager;
 import android.telephony.SmsMessage;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
@@ -283,6 +286,28 @@ public abstract class InboundSmsHandler extends StateMachine {
 
     private List<SmsFilter> mSmsFilters;
 
+    /** Whether {@link #mSmsFilters} was set by {@link #setSmsFiltersForTesting}. */
+    private boolean mSmsFiltersSetForTesting;
+
+    // The stages of the default SMS filters. They are kept when the filters are rebuilt, so that
+    // their counters cover the lifetime of the handler.
+    private final SmsFilterStage mCarrierServicesFilterStage;
+    private final SmsFilterStage mVisualVoicemailFilterStage;
+    private final SmsFilterStage mMissedIncomingCallFilterStage;
+
+    /** The missed incoming call SMS filter, for the current carrier config. */
+    private MissedIncomingCallSmsFilter mMissedIncomingCallSmsFilter;
+
+    private final CarrierConfigManager.CarrierConfigChangeListener mCarrierConfigChangeListener =
+            (slotIndex, subId, carrierId, specificCarrierId) -> {
+                if (slotIndex == mPhone.getPhoneId()) {
+                    onCarrierConfigChanged();
+                }
+            };
+
+    /** Segments of the multi-part messages waiting for reassembly, backed by the raw table. */
+    private final SmsReassemblyIndex mReassemblyIndex = new SmsReassemblyIndex();
+
     /**
      * Create a new SMS broadcast helper.
      * @param name the class name for logging
@@ -312,7 +337,20 @@ public abstract class InboundSmsHandler extends StateMachine {
                 (PowerWhitelistManager) mContext.getSystemService(Context.POWER_WHITELIST_MANAGER);
         mCellBroadcastServiceManager = new CellBroadcastServiceManager(context, phone);
 
+        mCarrierServicesFilterStage = new SmsFilterStage("CarrierServicesSmsFilter",
+                this::filterSmsWithCarrierServices);
+        mVisualVoicemailFilterStage = new SmsFilterStage("VisualVoicemailSmsFilter",
+                this::filterVisualVoicemailSms);
+        mMissedIncomingCallFilterStage = new SmsFilterStage("MissedIncomingCallSmsFilter",
+                this::filterMissedIncomingCallSms);
         mSmsFilters = createDefaultSmsFilters();
+        CarrierConfigManager configManager =
+                (CarrierConfigManager) mContext.getSystemService(Context.CARRIER_CONFIG_SERVICE);
+        if (configManager != null) {
+            // Rebuild the filters on the handler thread, where they are invoked.
+            configManager.registerCarrierConfigChangeListener(getHandler()::post,
+                    mCarrierConfigChangeListener);
+        }
 
         addState(mDefaultState);
         addState(mStartupState, mDefaultState);
@@ -337,6 +375,11 @@ public abstract class InboundSmsHandler extends StateMachine {
     @Override
     protected void onQuitting() {
         mWapPush.dispose();
+        CarrierConfigManager configManager =
+                (CarrierConfigManager) mContext.getSystemService(Context.CARRIER_CONFIG_SERVICE);
+        if (configManager != null) {
+            configManager.unregisterCarrierConfigChangeListener(mCarrierConfigChangeListener);
+        }
         mCellBroadcastServiceManager.disable();
 
         while (mWakeLock.isHeld()) {
@@ -920,93 +963,58 @@ public abstract class InboundSmsHandler extends StateMachine {
             block = BlockChecker.isBlocked(mContext, tracker.getDisplayAddress(), null);
         } else {
             // multi-part message
-            Cursor cursor = null;
+            String refNumber = Integer.toString(tracker.getReferenceNumber());
             try {
-                // used by several query selection arguments
-                String refNumber = Integer.toString(tracker.getReferenceNumber());
-                String count = Integer.toString(tracker.getMessageCount());
-
-                // query for all segments and broadcast message if we have all the parts
-                String[] whereArgs = {address, refNumber, count};
-                cursor = mResolver.query(sRawUri, PDU_SEQUENCE_PORT_PROJECTION,
-                        tracker.getQueryForSegments(), whereArgs, null);
-
-                int cursorCount = cursor.getCount();
-                if (cursorCount < messageCount) {
-                    // Wait for the other message parts to arrive. It's also possible for the last
-                    // segment to arrive before processing the EVENT_BROADCAST_SMS for one of the
-                    // earlier segments. In that case, the broadcast will be sent as soon as all
-                    // segments are in the table, and any later EVENT_BROADCAST_SMS messages will
-                    // get a row count of 0 and return.
-                    log("processMessagePart: returning false. Only " + cursorCount + " of "
-                            + messageCount + " segments " + " have arrived. refNumber: "
+                // Segments written to the raw table are added to the index as they arrive, so the
+                // raw table only needs to be read the first time a message is seen, e.g. if some
+                // of its segments were received before the device rebooted.
+                if (!mReassemblyIndex.isTracked(tracker)
+                        && !loadSegmentsFromRawTable(tracker)) {
+                    // It's possible for the last segment to arrive before processing the
+                    // EVENT_BROADCAST_SMS for one of the earlier segments. In that case, the
+                    // broadcast is sent as soon as all segments are in place, and any later
+                    // EVENT_BROADCAST_SMS messages will find no segment and return.
+                    log("processMessagePart: returning false. No segment found. refNumber: "
                             + refNumber, tracker.getMessageId());
                     return false;
                 }
-
-                // All the parts are in place, deal with them
-                pdus = new byte[messageCount][];
-                timestamps = new long[messageCount];
-                while (cursor.moveToNext()) {
-                    // subtract offset to convert sequence to 0-based array index
-                    int index = cursor.getInt(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
-                            .get(SEQUENCE_COLUMN)) - tracker.getIndexOffset();
-
-                    // The invalid PDUs can be received and stored in the raw table. The range
-                    // check ensures the process not crash even if the seqNumber in the
-                    // UserDataHeader is invalid.
-                    if (index >= pdus.length || index < 0) {
-                        loge(String.format(
-                                "processMessagePart: invalid seqNumber = %d, messageCount = %d",
-                                index + tracker.getIndexOffset(),
-                                messageCount),
-                                tracker.getMessageId());
-                        continue;
-                    }
-
-                    pdus[index] = HexDump.hexStringToByteArray(cursor.getString(
-                            PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING.get(PDU_COLUMN)));
-
-                    // Read the destination port from the first segment (needed for CDMA WAP PDU).
-                    // It's not a bad idea to prefer the port from the first segment in other cases.
-                    if (index == 0 && !cursor.isNull(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
-                            .get(DESTINATION_PORT_COLUMN))) {
-                        int port = cursor.getInt(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
-                                .get(DESTINATION_PORT_COLUMN));
-                        // strip format flags and convert to real port number, or -1
-                        port = InboundSmsTracker.getRealDestPort(port);
-                        if (port != -1) {
-                            destPort = port;
-                        }
-                    }
-
-                    timestamps[index] = cursor.getLong(
-                            PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING.get(DATE_COLUMN));
-
-                    // check if display address should be blocked or not
-                    if (!block) {
-                        // Depending on the nature of the gateway, the display origination address
-                        // is either derived from the content of the SMS TP-OA field, or the TP-OA
-                        // field contains a generic gateway address and the from address is added
-                        // at the beginning in the message body. In that case only the first SMS
-                        // (part of Multi-SMS) comes with the display originating address which
-                        // could be used for block checking purpose.
-                        block = BlockChecker.isBlocked(mContext,
-                                cursor.getString(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
-                                        .get(DISPLAY_ADDRESS_COLUMN)), null);
-                    }
-                }
-                log("processMessagePart: all " + messageCount + " segments "
-                        + " received. refNumber: " + refNumber, tracker.getMessageId());
             } catch (SQLException e) {
                 loge("processMessagePart: Can't access multipart SMS database, "
                         + SmsController.formatCrossStackMessageId(tracker.getMessageId()), e);
                 return false;
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
+            }
+
+            SmsReassemblyIndex.AssembledMessage message = mReassemblyIndex.takeIfComplete(tracker);
+            if (message == null) {
+                // Wait for the other message parts to arrive.
+                log("processMessagePart: returning false. Only "
+                        + mReassemblyIndex.getSegmentCount(tracker) + " of " + messageCount
+                        + " segments " + " have arrived. refNumber: " + refNumber,
+                        tracker.getMessageId());
+                return false;
+            }
+
+            // All the parts are in place, deal with them
+            pdus = message.pdus;
+            timestamps = message.timestamps;
+            // Prefer the destination port from the first segment (needed for CDMA WAP PDU).
+            if (message.destPort != -1) {
+                destPort = message.destPort;
+            }
+            for (String displayAddress : message.displayAddresses) {
+                // Depending on the nature of the gateway, the display origination address is
+                // either derived from the content of the SMS TP-OA field, or the TP-OA field
+                // contains a generic gateway address and the from address is added at the
+                // beginning in the message body. In that case only the first SMS (part of
+                // Multi-SMS) comes with the display originating address which could be used for
+                // block checking purpose.
+                if (BlockChecker.isBlocked(mContext, displayAddress, null)) {
+                    block = true;
+                    break;
                 }
             }
+            log("processMessagePart: all " + messageCount + " segments "
+                    + " received. refNumber: " + refNumber, tracker.getMessageId());
         }
 
         final boolean isWapPush = (destPort == SmsHeader.PORT_WAP_PUSH);
@@ -1138,6 +1146,60 @@ public abstract class InboundSmsHandler extends StateMachine {
         return true;
     }
 
+    /**
+     * Called when the segments of an incomplete multi-part message were deleted from the raw
+     * table outside of this handler, e.g. because they expired.
+     *
+     * @param tracker any segment of the message
+     */
+    public void onMultiPartSegmentsDeleted(InboundSmsTracker tracker) {
+        mReassemblyIndex.remove(tracker);
+    }
+
+    /**
+     * Load the segments of the multi-part message of the given tracker from the raw table and
+     * start tracking them in {@link #mReassemblyIndex}.
+     *
+     * @param tracker any segment of the message
+     * @return true if at least one segment was found; false otherwise
+     */
+    private boolean loadSegmentsFromRawTable(InboundSmsTracker tracker) throws SQLException {
+        String[] whereArgs = {tracker.getAddress(), Integer.toString(tracker.getReferenceNumber()),
+                Integer.toString(tracker.getMessageCount())};
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(sRawUri, PDU_SEQUENCE_PORT_PROJECTION,
+                    tracker.getQueryForSegments(), whereArgs, null);
+            if (cursor == null || cursor.getCount() == 0) {
+                return false;
+            }
+
+            mReassemblyIndex.startTracking(tracker);
+            while (cursor.moveToNext()) {
+                int destPortIndex =
+                        PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING.get(DESTINATION_PORT_COLUMN);
+                // strip format flags and convert to real port number, or -1
+                int destPort = cursor.isNull(destPortIndex)
+                        ? -1 : InboundSmsTracker.getRealDestPort(cursor.getInt(destPortIndex));
+                mReassemblyIndex.putSegment(tracker,
+                        cursor.getInt(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
+                                .get(SEQUENCE_COLUMN)),
+                        HexDump.hexStringToByteArray(cursor.getString(
+                                PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING.get(PDU_COLUMN))),
+                        cursor.getLong(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
+                                .get(DATE_COLUMN)),
+                        destPort,
+                        cursor.getString(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
+                                .get(DISPLAY_ADDRESS_COLUMN)));
+            }
+            return true;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
     /**
      * Processes the message part while the credential-encrypted storage is still locked.
      *
@@ -1206,63 +1268,88 @@ public abstract class InboundSmsHandler extends StateMachine {
     }
 
     /**
-     * Creates the default filters used to filter SMS messages.
+     * Creates the default filters used to filter SMS messages, for the current carrier config.
      *
      * <p>Currently 3 filters exist: the carrier package, the VisualVoicemailSmsFilter, and the
-     * missed incoming call SMS filter.
+     * missed incoming call SMS filter. The missed incoming call SMS filter is left out if the
+     * carrier config does not configure it, since it could never match.
      *
      * <p>Since the carrier filter is asynchronous, if a message passes through the carrier filter,
      * the remaining filters will be applied in the callback.
      */
     private List<SmsFilter> createDefaultSmsFilters() {
+        PersistableBundle carrierConfig = null;
+        CarrierConfigManager configManager =
+                (CarrierConfigManager) mContext.getSystemService(Context.CARRIER_CONFIG_SERVICE);
+        if (configManager != null) {
+            carrierConfig = configManager.getConfigForSubId(mPhone.getSubId());
+        }
+        mMissedIncomingCallSmsFilter = new MissedIncomingCallSmsFilter(mPhone, carrierConfig);
+
         List<SmsFilter> smsFilters = new ArrayList<>(3);
-        smsFilters.add(
-                (pdus, destPort, tracker, resultReceiver, userUnlocked, block, remainingFilters)
-                        -> {
-                    CarrierServicesSmsFilterCallback filterCallback =
-                            new CarrierServicesSmsFilterCallback(
-                                    pdus, destPort, tracker, tracker.getFormat(), resultReceiver,
-                                    userUnlocked,
-                                    tracker.isClass0(), tracker.getSubId(), tracker.getMessageId(),
-                                    block, remainingFilters);
-                    CarrierServicesSmsFilter carrierServicesFilter = new CarrierServicesSmsFilter(
-                            mContext, mPhone, pdus, destPort, tracker.getFormat(),
-                            filterCallback, getName() + "::CarrierServicesSmsFilter",
-                            mCarrierServiceLocalLog, tracker.getMessageId());
-                    if (carrierServicesFilter.filter()) {
-                        log("SMS is being handled by carrier service", tracker.getMessageId());
-                        return true;
-                    } else {
-                        return false;
-                    }
-                });
-        smsFilters.add(
-                (pdus, destPort, tracker, resultReceiver, userUnlocked, block, remainingFilters)
-                        -> {
-                    if (VisualVoicemailSmsFilter.filter(
-                            mContext, pdus, tracker.getFormat(), destPort, tracker.getSubId())) {
-                        logWithLocalLog("Visual voicemail SMS dropped", tracker.getMessageId());
-                        dropFilteredSms(tracker, resultReceiver, block);
-                        return true;
-                    }
-                    return false;
-                });
-        smsFilters.add(
-                (pdus, destPort, tracker, resultReceiver, userUnlocked, block, remainingFilters)
-                        -> {
-                    MissedIncomingCallSmsFilter missedIncomingCallSmsFilter =
-                            new MissedIncomingCallSmsFilter(mPhone);
-                    if (missedIncomingCallSmsFilter.filter(pdus, tracker.getFormat())) {
-                        logWithLocalLog("Missed incoming call SMS received",
-                                tracker.getMessageId());
-                        dropFilteredSms(tracker, resultReceiver, block);
-                        return true;
-                    }
-                    return false;
-                });
+        smsFilters.add(mCarrierServicesFilterStage);
+        smsFilters.add(mVisualVoicemailFilterStage);
+        if (mMissedIncomingCallSmsFilter.isConfigured()) {
+            smsFilters.add(mMissedIncomingCallFilterStage);
+        }
         return smsFilters;
     }
 
+    /**
+     * Rebuilds the default SMS filters for the new carrier config.
+     */
+    private void onCarrierConfigChanged() {
+        if (!mSmsFiltersSetForTesting) {
+            mSmsFilters = createDefaultSmsFilters();
+            log("onCarrierConfigChanged: missed incoming call SMS filter configured="
+                    + mMissedIncomingCallSmsFilter.isConfigured());
+        }
+    }
+
+    private boolean filterSmsWithCarrierServices(byte[][] pdus, int destPort,
+            InboundSmsTracker tracker, SmsBroadcastReceiver resultReceiver, boolean userUnlocked,
+            boolean block, List<SmsFilter> remainingFilters) {
+        CarrierServicesSmsFilterCallback filterCallback =
+                new CarrierServicesSmsFilterCallback(
+                        pdus, destPort, tracker, tracker.getFormat(), resultReceiver,
+                        userUnlocked,
+                        tracker.isClass0(), tracker.getSubId(), tracker.getMessageId(),
+                        block, remainingFilters);
+        CarrierServicesSmsFilter carrierServicesFilter = new CarrierServicesSmsFilter(
+                mContext, mPhone, pdus, destPort, tracker.getFormat(),
+                filterCallback, getName() + "::CarrierServicesSmsFilter",
+                mCarrierServiceLocalLog, tracker.getMessageId());
+        if (carrierServicesFilter.filter()) {
+            log("SMS is being handled by carrier service", tracker.getMessageId());
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private boolean filterVisualVoicemailSms(byte[][] pdus, int destPort,
+            InboundSmsTracker tracker, SmsBroadcastReceiver resultReceiver, boolean userUnlocked,
+            boolean block, List<SmsFilter> remainingFilters) {
+        if (VisualVoicemailSmsFilter.filter(
+                mContext, pdus, tracker.getFormat(), destPort, tracker.getSubId())) {
+            logWithLocalLog("Visual voicemail SMS dropped", tracker.getMessageId());
+            dropFilteredSms(tracker, resultReceiver, block);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean filterMissedIncomingCallSms(byte[][] pdus, int destPort,
+            InboundSmsTracker tracker, SmsBroadcastReceiver resultReceiver, boolean userUnlocked,
+            boolean block, List<SmsFilter> remainingFilters) {
+        if (mMissedIncomingCallSmsFilter.filter(pdus, tracker.getFormat())) {
+            logWithLocalLog("Missed incoming call SMS received", tracker.getMessageId());
+            dropFilteredSms(tracker, resultReceiver, block);
+            return true;
+        }
+        return false;
+    }
+
     private void dropFilteredSms(
             InboundSmsTracker tracker, SmsBroadcastReceiver resultReceiver, boolean block) {
         if (block) {
@@ -1651,6 +1738,8 @@ public abstract class InboundSmsHandler extends StateMachine {
                 // set the delete selection args for multi-part message
                 String[] deleteWhereArgs = {address, refNumber, count};
                 tracker.setDeleteWhere(tracker.getQueryForSegments(), deleteWhereArgs);
+                // keep the reassembly index in sync with the raw table
+                mReassemblyIndex.addSegment(tracker);
             }
             return Intents.RESULT_SMS_HANDLED;
         } catch (Exception e) {
@@ -2039,6 +2128,13 @@ public abstract class InboundSmsHandler extends StateMachine {
         pw.increaseIndent();
         mCarrierServiceLocalLog.dump(fd, pw, args);
         pw.decreaseIndent();
+        pw.println("Incomplete multi-part messages: " + mReassemblyIndex.size());
+        pw.println("SMS filter stages:");
+        pw.increaseIndent();
+        pw.println(mCarrierServicesFilterStage);
+        pw.println(mVisualVoicemailFilterStage);
+        pw.println(mMissedIncomingCallFilterStage);
+        pw.decreaseIndent();
         pw.decreaseIndent();
     }
 
@@ -2076,6 +2172,15 @@ public abstract class InboundSmsHandler extends StateMachine {
         } else {
             mSmsFilters = smsFilters;
         }
+        mSmsFiltersSetForTesting = smsFilters != null;
+    }
+
+    /**
+     * @return The SMS filters used by {@link #filterSms}.
+     */
+    @VisibleForTesting
+    public List<SmsFilter> getSmsFilters() {
+        return mSmsFilters;
     }
 
     /**
@@ -2181,4 +2286,71 @@ public abstract class InboundSmsHandler extends StateMachine {
                 SmsBroadcastReceiver resultReceiver, boolean userUnlocked, boolean block,
                 List<SmsFilter> remainingFilters);
     }
+
+    /**
+     * A stage of the SMS filter pipeline. It counts how many messages the filter was invoked for
+     * and diverted, and how long the filter took to decide. For an asynchronous filter, only the
+     * synchronous part is measured.
+     */
+    @VisibleForTesting
+    public static final class SmsFilterStage implements SmsFilter {
+        private final String mName;
+        private final SmsFilter mFilter;
+        private long mInvocationCount;
+        private long mHitCount;
+        private long mTotalLatencyNanos;
+        private long mMaxLatencyNanos;
+
+        public SmsFilterStage(@NonNull String name, @NonNull SmsFilter filter) {
+            mName = name;
+            mFilter = filter;
+        }
+
+        @Override
+        public boolean filterSms(byte[][] pdus, int destPort, InboundSmsTracker tracker,
+                SmsBroadcastReceiver resultReceiver, boolean userUnlocked, boolean block,
+                List<SmsFilter> remainingFilters) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            boolean hit = mFilter.filterSms(pdus, destPort, tracker, resultReceiver, userUnlocked,
+                    block, remainingFilters);
+            long latencyNanos = SystemClock.elapsedRealtimeNanos() - start;
+            synchronized (this) {
+                mInvocationCount++;
+                if (hit) {
+                    mHitCount++;
+                }
+                mTotalLatencyNanos += latencyNanos;
+                mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latencyNanos);
+            }
+            return hit;
+        }
+
+        /** @return The name of the stage. */
+        public @NonNull String getName() {
+            return mName;
+        }
+
+        /** @return The number of messages the filter was invoked for. */
+        public synchronized long getInvocationCount() {
+            return mInvocationCount;
+        }
+
+        /** @return The number of messages the filter diverted. */
+        public synchronized long getHitCount() {
+            return mHitCount;
+        }
+
+        /** @return The total time the filter took, in nanoseconds. */
+        public synchronized long getTotalLatencyNanos() {
+            return mTotalLatencyNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return mName + ": invocations=" + mInvocationCount + ", hits=" + mHitCount
+                    + ", averageLatencyUs=" + (mInvocationCount == 0
+                            ? 0 : mTotalLatencyNanos / mInvocationCount / 1000)
+                    + ", maxLatencyUs=" + (mMaxLatencyNanos / 1000);
+        }
+    }
 }
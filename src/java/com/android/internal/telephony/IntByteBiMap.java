@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable bidirectional map between small non-negative {@code int} keys and {@code byte}
+ * values.
+ *
+ * <p>Unlike {@link BiMap}, keys and values are not boxed: both directions are looked up in
+ * arrays indexed directly by the key and by the unsigned value, so lookups never allocate.
+ */
+public final class IntByteBiMap {
+    /** The largest key which can be mapped. */
+    public static final int MAX_KEY = 255;
+
+    /** Returned by {@link #getKey(byte)} when a value is not mapped. */
+    public static final int NO_KEY = -1;
+
+    private static final int VALUE_COUNT = 256;
+
+    // Indexed by key; only meaningful when mHasValue is set for the key.
+    private final byte[] mValues;
+    private final boolean[] mHasValue;
+    // Indexed by unsigned value; NO_KEY when the value is not mapped.
+    private final int[] mKeys;
+    private final int mSize;
+
+    private IntByteBiMap(Builder builder) {
+        mValues = builder.mValues.clone();
+        mHasValue = builder.mHasValue.clone();
+        mKeys = builder.mKeys.clone();
+        mSize = builder.mSize;
+    }
+
+    /**
+     * @return whether {@code key} is mapped to a value.
+     */
+    public boolean containsKey(int key) {
+        return key >= 0 && key < mHasValue.length && mHasValue[key];
+    }
+
+    /**
+     * @return whether {@code value} is mapped to a key.
+     */
+    public boolean containsValue(byte value) {
+        return mKeys[value & 0xFF] != NO_KEY;
+    }
+
+    /**
+     * @return the value mapped to {@code key}.
+     * @throws NoSuchElementException if the key is not mapped; see {@link #containsKey(int)}.
+     */
+    public byte getValue(int key) {
+        if (!containsKey(key)) {
+            throw new NoSuchElementException("No value for key " + key);
+        }
+        return mValues[key];
+    }
+
+    /**
+     * @return the key mapped to {@code value}, or {@link #NO_KEY} if the value is not mapped.
+     */
+    public int getKey(byte value) {
+        return mKeys[value & 0xFF];
+    }
+
+    /**
+     * @return the number of mappings.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Builder for {@link IntByteBiMap}.
+     */
+    public static final class Builder {
+        private byte[] mValues = new byte[0];
+        private boolean[] mHasValue = new boolean[0];
+        private final int[] mKeys = new int[VALUE_COUNT];
+        private int mSize;
+
+        public Builder() {
+            for (int i = 0; i < VALUE_COUNT; i++) {
+                mKeys[i] = NO_KEY;
+            }
+        }
+
+        /**
+         * Map {@code key} to {@code value} and {@code value} to {@code key}.
+         *
+         * @throws IllegalArgumentException if the key is out of range, or if the key or the value
+         *         is already mapped.
+         */
+        public Builder put(int key, byte value) {
+            if (key < 0 || key > MAX_KEY) {
+                throw new IllegalArgumentException("Key out of range: " + key);
+            }
+            if (key >= mValues.length) {
+                int length = key + 1;
+                byte[] values = new byte[length];
+                boolean[] hasValue = new boolean[length];
+                System.arraycopy(mValues, 0, values, 0, mValues.length);
+                System.arraycopy(mHasValue, 0, hasValue, 0, mHasValue.length);
+                mValues = values;
+                mHasValue = hasValue;
+            }
+            if (mHasValue[key] || mKeys[value & 0xFF] != NO_KEY) {
+                throw new IllegalArgumentException("Duplicate mapping " + key + " <-> " + value);
+            }
+            mValues[key] = value;
+            mHasValue[key] = true;
+            mKeys[value & 0xFF] = key;
+            mSize++;
+            return this;
+        }
+
+        public IntByteBiMap build() {
+            return new IntByteBiMap(this);
+        }
+    }
+}
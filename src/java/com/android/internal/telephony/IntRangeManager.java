@@ -20,6 +20,8 @@ import android.compat.annotation.UnsupportedAppUsage;
 import android.os.Build;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.stream.Collectors;
 
@@ -34,7 +36,8 @@ import java.util.stream.Collectors;
  * Calls to {@link #enableRange} and {@link #disableRange} will perform
  * an incremental update operation if the enabled ranges have changed.
  * A full update operation (i.e. after a radio reset) can be performed
- * by a call to {@link #updateRanges}.
+ * by a call to {@link #updateRanges}. Many ranges can be enabled and
+ * disabled with a single update operation by {@link #applyBatch}.
  *
  * Clients are identified by String (the name associated with the User ID
  * of the caller) so that a call to remove a range can be mapped to the
@@ -181,6 +184,62 @@ public abstract class IntRangeManager {
         }
     }
 
+    /**
+     * A set of range changes to be applied together by {@link #applyBatch}.
+     */
+    public static final class Batch {
+        private final ArrayList<Operation> mOperations = new ArrayList<Operation>();
+
+        /**
+         * Enable a range for the specified client.
+         * @param startId the first id included in the range
+         * @param endId the last id included in the range
+         * @param client the client requesting the enabled range
+         * @return this batch
+         */
+        public Batch enableRange(int startId, int endId, String client) {
+            mOperations.add(new Operation(startId, endId, client, true));
+            return this;
+        }
+
+        /**
+         * Disable a range previously enabled by the specified client.
+         * @param startId the first id included in the range
+         * @param endId the last id included in the range
+         * @param client the client requesting to disable the range
+         * @return this batch
+         */
+        public Batch disableRange(int startId, int endId, String client) {
+            mOperations.add(new Operation(startId, endId, client, false));
+            return this;
+        }
+
+        /**
+         * Returns the number of changes in the batch.
+         * @return the number of enable and disable operations
+         */
+        public int size() {
+            return mOperations.size();
+        }
+    }
+
+    /**
+     * A single change of a {@link Batch}.
+     */
+    private static class Operation {
+        final int mStartId;
+        final int mEndId;
+        final String mClient;
+        final boolean mEnable;
+
+        Operation(int startId, int endId, String client, boolean enable) {
+            mStartId = startId;
+            mEndId = endId;
+            mClient = client;
+            mEnable = enable;
+        }
+    }
+
     /**
      * List of integer ranges, one per client, sorted by start id.
      */
@@ -592,6 +651,96 @@ public abstract class IntRangeManager {
         return false;   // not found
     }
 
+    /**
+     * Apply all the changes of the batch in order, and update the radio once if the enabled
+     * ranges have changed. The changes are applied either all or none: if a disabled range
+     * was not enabled by the client, or if {@link #finishUpdate} returns failure, false is
+     * returned and the enabled ranges are left unchanged.
+     *
+     * @param batch the changes to apply
+     * @return true if successful, false otherwise
+     */
+    public synchronized boolean applyBatch(Batch batch) {
+        // The client ranges after the batch. A client enabling the same range twice only
+        // enables it once, as in IntRange#insert.
+        HashSet<ClientRange> clientRanges = new HashSet<ClientRange>();
+        for (IntRange range : mRanges) {
+            clientRanges.addAll(range.mClients);
+        }
+        for (Operation operation : batch.mOperations) {
+            ClientRange clientRange =
+                    new ClientRange(operation.mStartId, operation.mEndId, operation.mClient);
+            if (operation.mEnable) {
+                clientRanges.add(clientRange);
+            } else if (!clientRanges.remove(clientRange)) {
+                return false;   // not found
+            }
+        }
+
+        ArrayList<IntRange> newRanges = mergeClientRanges(clientRanges);
+        if (!hasSameRanges(newRanges)) {
+            startUpdate();
+            for (IntRange range : newRanges) {
+                addRange(range.mStartId, range.mEndId, true);
+            }
+            if (!finishUpdate()) {
+                return false;   // failed to update radio
+            }
+        }
+        mRanges = newRanges;
+        return true;
+    }
+
+    /**
+     * Merge client ranges into IntRanges. Client ranges which overlap or are adjacent are
+     * merged into the same IntRange.
+     * @param clientRanges the client ranges to merge
+     * @return the IntRanges sorted by start id, with their clients sorted by start id then
+     *     by end id
+     */
+    private ArrayList<IntRange> mergeClientRanges(Collection<ClientRange> clientRanges) {
+        ArrayList<ClientRange> sortedClientRanges = new ArrayList<ClientRange>(clientRanges);
+        sortedClientRanges.sort((a, b) -> a.mStartId != b.mStartId
+                ? Integer.compare(a.mStartId, b.mStartId)
+                : Integer.compare(a.mEndId, b.mEndId));
+
+        ArrayList<IntRange> ranges = new ArrayList<IntRange>();
+        IntRange currentRange = null;
+        for (ClientRange clientRange : sortedClientRanges) {
+            // long arithmetic, as the end id may be Integer.MAX_VALUE
+            if (currentRange != null && clientRange.mStartId <= currentRange.mEndId + 1L) {
+                if (clientRange.mEndId > currentRange.mEndId) {
+                    currentRange.mEndId = clientRange.mEndId;
+                }
+                currentRange.mClients.add(clientRange);
+            } else {
+                currentRange = new IntRange(clientRange);
+                ranges.add(currentRange);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Returns whether the IntRanges enable the same ids as the current ranges.
+     * @param ranges the IntRanges to compare with the current ranges
+     * @return true if the ranges have the same start and end ids
+     */
+    private boolean hasSameRanges(ArrayList<IntRange> ranges) {
+        int len = mRanges.size();
+        if (ranges.size() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            IntRange range = mRanges.get(i);
+            IntRange otherRange = ranges.get(i);
+            if (range.mStartId != otherRange.mStartId || range.mEndId != otherRange.mEndId) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Perform a complete update operation (enable all ranges). Useful
      * after a radio reset. Calls {@link #startUpdate}, followed by zero or
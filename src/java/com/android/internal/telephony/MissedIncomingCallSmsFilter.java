@@ -85,6 +85,35 @@ public class MissedIncomingCallSmsFilter {
         }
     }
 
+    /**
+     * Constructor
+     *
+     * @param phone The phone instance
+     * @param carrierConfig The carrier config of the phone's subscription
+     */
+    public MissedIncomingCallSmsFilter(Phone phone, @Nullable PersistableBundle carrierConfig) {
+        mPhone = phone;
+        mCarrierConfig = carrierConfig;
+    }
+
+    /**
+     * Check if the carrier config has the originators and the patterns of the missed incoming
+     * call SMS. If not, {@link #filter} never matches a message.
+     *
+     * @return {@code true} if the missed incoming call SMS is configured.
+     */
+    public boolean isConfigured() {
+        if (mCarrierConfig == null) {
+            return false;
+        }
+        String[] originators = mCarrierConfig.getStringArray(
+                CarrierConfigManager.KEY_MISSED_INCOMING_CALL_SMS_ORIGINATOR_STRING_ARRAY);
+        String[] smsPatterns = mCarrierConfig.getStringArray(
+                CarrierConfigManager.KEY_MISSED_INCOMING_CALL_SMS_PATTERN_STRING_ARRAY);
+        return originators != null && originators.length > 0
+                && smsPatterns != null && smsPatterns.length > 0;
+    }
+
     /**
      * Check if the message is missed incoming call SMS, which is sent from the carrier to notify
      * the user about the missed incoming call earlier.
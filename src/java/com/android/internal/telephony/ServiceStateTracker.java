@@ -292,6 +292,8 @@ public class ServiceStateTracker extends Handler {
     // Telecom has un/registered a PhoneAccount that provides OTT voice calling capability, e.g.
     // wi-fi calling.
     protected static final int EVENT_TELECOM_VOICE_SERVICE_STATE_OVERRIDE_CHANGED = 65;
+    // The SIM records of a known card were restored from the cache while being read from the card.
+    protected static final int EVENT_SIM_RECORDS_RESTORED              = 66;
 
     /**
      * The current service state.
@@ -1419,6 +1421,16 @@ public class ServiceStateTracker extends Handler {
                 }
                 break;
 
+            case EVENT_SIM_RECORDS_RESTORED:
+                // Display the carrier name from the cached records until the records have been
+                // read from the card, which is reported by EVENT_SIM_RECORDS_LOADED.
+                log("EVENT_SIM_RECORDS_RESTORED");
+                if (mPhone.isPhoneTypeGsm() && mIccRecords instanceof SIMRecords) {
+                    mCdnr.updateEfFromUsim((SIMRecords) mIccRecords);
+                    updateSpnDisplay();
+                }
+                break;
+
             case EVENT_LOCATION_UPDATES_ENABLED:
                 ar = (AsyncResult) msg.obj;
 
@@ -2498,8 +2510,11 @@ public class ServiceStateTracker extends Handler {
         return cid;
     }
 
+    /**
+     * @return The LAC or TAC of the cell, or {@link CellInfo#UNAVAILABLE} if it has none.
+     */
     //TODO: Move this and getCidFromCellIdentity to CellIdentityUtils.
-    private static int getAreaCodeFromCellIdentity(CellIdentity id) {
+    public static int getAreaCodeFromCellIdentity(CellIdentity id) {
         if (id == null) return CellInfo.UNAVAILABLE;
         switch(id.getType()) {
             case CellInfo.TYPE_GSM: return ((CellIdentityGsm) id).getLac();
@@ -3175,6 +3190,7 @@ public class ServiceStateTracker extends Handler {
                 mUiccApplication.unregisterForReady(this);
                 if (mIccRecords != null) {
                     mIccRecords.unregisterForRecordsLoaded(this);
+                    mIccRecords.unregisterForRecordsRestored(this);
                 }
                 mIccRecords = null;
                 mUiccApplication = null;
@@ -3187,6 +3203,8 @@ public class ServiceStateTracker extends Handler {
                     mUiccApplication.registerForReady(this, EVENT_SIM_READY, null);
                     if (mIccRecords != null) {
                         mIccRecords.registerForRecordsLoaded(this, EVENT_SIM_RECORDS_LOADED, null);
+                        mIccRecords.registerForRecordsRestored(this, EVENT_SIM_RECORDS_RESTORED,
+                                null);
                     }
                 } else if (mIsSubscriptionFromRuim) {
                     mUiccApplication.registerForReady(this, EVENT_RUIM_READY, null);
@@ -142,6 +142,10 @@ public class SignalStrengthController extends Handler {
     @NonNull
     private final List<SignalRequestRecord> mSignalRequestRecords = new ArrayList<>();
 
+    /** The reporting criteria per RAN and measurement type, as last sent to the modem. */
+    @NonNull
+    private final SignalThresholdEngine mSignalThresholdEngine;
+
     @NonNull
     private PersistableBundle mCarrierConfig;
 
@@ -153,6 +157,8 @@ public class SignalStrengthController extends Handler {
     public SignalStrengthController(@NonNull Phone phone) {
         mPhone = phone;
         mCi = mPhone.mCi;
+        mSignalThresholdEngine = new SignalThresholdEngine(
+                this::createConsolidatedSignalThresholdInfo);
 
         mCi.registerForRilConnected(this, EVENT_RIL_CONNECTED, null);
         mCi.registerForAvailable(this, EVENT_RADIO_AVAILABLE, null);
@@ -207,6 +213,7 @@ public class SignalStrengthController extends Handler {
                 }
 
                 mSignalRequestRecords.add(record);
+                invalidateSignalThresholds(record);
 
                 updateAlwaysReportSignalStrength();
                 updateReportingCriteria();
@@ -232,6 +239,7 @@ public class SignalStrengthController extends Handler {
                             // Either never linked or has already unlinked, ignore anyway
                         }
                         it.remove();
+                        invalidateSignalThresholds(srr);
                     }
                 }
 
@@ -299,6 +307,8 @@ public class SignalStrengthController extends Handler {
      * so that modem can start with default state before updated criteria is ready.
      */
     private void onReset() {
+        // The modem starts over, so all the criteria need to be sent again.
+        mSignalThresholdEngine.reset();
         setDefaultSignalStrengthReportingCriteria();
     }
 
@@ -391,74 +401,70 @@ public class SignalStrengthController extends Handler {
      */
     @VisibleForTesting
     public void updateReportingCriteria() {
-        List<SignalThresholdInfo> signalThresholdInfos = new ArrayList<>();
+        mSignalThresholdEngine.beginUpdate();
+        final boolean isUsingNtn = isUsingNonTerrestrialNetwork();
 
         int[] gsmRssiThresholds = mCarrierConfig.getIntArray(
                 CarrierConfigManager.KEY_GSM_RSSI_THRESHOLDS_INT_ARRAY);
         if (gsmRssiThresholds != null) {
-            signalThresholdInfos.add(
-                    validateAndCreateSignalThresholdInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
-                            gsmRssiThresholds,
-                            AccessNetworkThresholds.GERAN,
-                            AccessNetworkConstants.AccessNetworkType.GERAN,
-                            true));
+            mSignalThresholdEngine.setSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                    gsmRssiThresholds,
+                    AccessNetworkThresholds.GERAN,
+                    AccessNetworkConstants.AccessNetworkType.GERAN,
+                    true);
         }
 
         int[] wcdmaRscpThresholds = mCarrierConfig.getIntArray(
                 CarrierConfigManager.KEY_WCDMA_RSCP_THRESHOLDS_INT_ARRAY);
         if (wcdmaRscpThresholds != null) {
-            signalThresholdInfos.add(
-                    validateAndCreateSignalThresholdInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSCP,
-                            wcdmaRscpThresholds,
-                            AccessNetworkThresholds.UTRAN,
-                            AccessNetworkConstants.AccessNetworkType.UTRAN,
-                            true));
+            mSignalThresholdEngine.setSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSCP,
+                    wcdmaRscpThresholds,
+                    AccessNetworkThresholds.UTRAN,
+                    AccessNetworkConstants.AccessNetworkType.UTRAN,
+                    true);
         }
 
-        int lteMeasurementEnabled = mCarrierConfig.getInt(isUsingNonTerrestrialNetwork()
+        int lteMeasurementEnabled = mCarrierConfig.getInt(isUsingNtn
                         ? CarrierConfigManager.KEY_PARAMETERS_USED_FOR_NTN_LTE_SIGNAL_BAR_INT
                         : CarrierConfigManager.KEY_PARAMETERS_USED_FOR_LTE_SIGNAL_BAR_INT,
                 CellSignalStrengthLte.USE_RSRP);
-        int[] lteRsrpThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork()
+        int[] lteRsrpThresholds = mCarrierConfig.getIntArray(isUsingNtn
                 ? CarrierConfigManager.KEY_NTN_LTE_RSRP_THRESHOLDS_INT_ARRAY
                 : CarrierConfigManager.KEY_LTE_RSRP_THRESHOLDS_INT_ARRAY);
         if (lteRsrpThresholds != null) {
-            signalThresholdInfos.add(
-                    validateAndCreateSignalThresholdInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP,
-                            lteRsrpThresholds,
-                            AccessNetworkThresholds.EUTRAN_RSRP,
-                            AccessNetworkConstants.AccessNetworkType.EUTRAN,
-                            (lteMeasurementEnabled & CellSignalStrengthLte.USE_RSRP) != 0));
+            mSignalThresholdEngine.setSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP,
+                    lteRsrpThresholds,
+                    AccessNetworkThresholds.EUTRAN_RSRP,
+                    AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                    (lteMeasurementEnabled & CellSignalStrengthLte.USE_RSRP) != 0);
         }
 
         if (mPhone.getHalVersion(HAL_SERVICE_NETWORK).greaterOrEqual(RIL.RADIO_HAL_VERSION_1_5)) {
-            int[] lteRsrqThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork()
+            int[] lteRsrqThresholds = mCarrierConfig.getIntArray(isUsingNtn
                     ? CarrierConfigManager.KEY_NTN_LTE_RSRQ_THRESHOLDS_INT_ARRAY :
                     CarrierConfigManager.KEY_LTE_RSRQ_THRESHOLDS_INT_ARRAY);
             if (lteRsrqThresholds != null) {
-                signalThresholdInfos.add(
-                        validateAndCreateSignalThresholdInfo(
-                                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRQ,
-                                lteRsrqThresholds,
-                                AccessNetworkThresholds.EUTRAN_RSRQ,
-                                AccessNetworkConstants.AccessNetworkType.EUTRAN,
-                                (lteMeasurementEnabled & CellSignalStrengthLte.USE_RSRQ) != 0));
+                mSignalThresholdEngine.setSystemThresholds(
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRQ,
+                        lteRsrqThresholds,
+                        AccessNetworkThresholds.EUTRAN_RSRQ,
+                        AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                        (lteMeasurementEnabled & CellSignalStrengthLte.USE_RSRQ) != 0);
             }
 
-            int[] lteRssnrThresholds = mCarrierConfig.getIntArray(isUsingNonTerrestrialNetwork()
+            int[] lteRssnrThresholds = mCarrierConfig.getIntArray(isUsingNtn
                     ? CarrierConfigManager.KEY_NTN_LTE_RSSNR_THRESHOLDS_INT_ARRAY :
                     CarrierConfigManager.KEY_LTE_RSSNR_THRESHOLDS_INT_ARRAY);
             if (lteRssnrThresholds != null) {
-                signalThresholdInfos.add(
-                        validateAndCreateSignalThresholdInfo(
-                                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSNR,
-                                lteRssnrThresholds,
-                                AccessNetworkThresholds.EUTRAN_RSSNR,
-                                AccessNetworkConstants.AccessNetworkType.EUTRAN,
-                                (lteMeasurementEnabled & CellSignalStrengthLte.USE_RSSNR) != 0));
+                mSignalThresholdEngine.setSystemThresholds(
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSNR,
+                        lteRssnrThresholds,
+                        AccessNetworkThresholds.EUTRAN_RSSNR,
+                        AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                        (lteMeasurementEnabled & CellSignalStrengthLte.USE_RSSNR) != 0);
             }
 
             int nrMeasurementEnabled = mCarrierConfig.getInt(CarrierConfigManager
@@ -466,162 +472,131 @@ public class SignalStrengthController extends Handler {
             int[] nrSsrsrpThresholds = mCarrierConfig.getIntArray(
                     CarrierConfigManager.KEY_5G_NR_SSRSRP_THRESHOLDS_INT_ARRAY);
             if (nrSsrsrpThresholds != null) {
-                signalThresholdInfos.add(
-                        validateAndCreateSignalThresholdInfo(
-                                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRP,
-                                nrSsrsrpThresholds,
-                                AccessNetworkThresholds.NGRAN_SSRSRP,
-                                AccessNetworkConstants.AccessNetworkType.NGRAN,
-                                (nrMeasurementEnabled & CellSignalStrengthNr.USE_SSRSRP) != 0));
+                mSignalThresholdEngine.setSystemThresholds(
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRP,
+                        nrSsrsrpThresholds,
+                        AccessNetworkThresholds.NGRAN_SSRSRP,
+                        AccessNetworkConstants.AccessNetworkType.NGRAN,
+                        (nrMeasurementEnabled & CellSignalStrengthNr.USE_SSRSRP) != 0);
             }
 
             int[] nrSsrsrqThresholds = mCarrierConfig.getIntArray(
                     CarrierConfigManager.KEY_5G_NR_SSRSRQ_THRESHOLDS_INT_ARRAY);
             if (nrSsrsrqThresholds != null) {
-                signalThresholdInfos.add(
-                        validateAndCreateSignalThresholdInfo(
-                                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRQ,
-                                nrSsrsrqThresholds,
-                                AccessNetworkThresholds.NGRAN_SSRSRQ,
-                                AccessNetworkConstants.AccessNetworkType.NGRAN,
-                                (nrMeasurementEnabled & CellSignalStrengthNr.USE_SSRSRQ) != 0));
+                mSignalThresholdEngine.setSystemThresholds(
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRQ,
+                        nrSsrsrqThresholds,
+                        AccessNetworkThresholds.NGRAN_SSRSRQ,
+                        AccessNetworkConstants.AccessNetworkType.NGRAN,
+                        (nrMeasurementEnabled & CellSignalStrengthNr.USE_SSRSRQ) != 0);
             }
 
             int[] nrSssinrThresholds = mCarrierConfig.getIntArray(
                     CarrierConfigManager.KEY_5G_NR_SSSINR_THRESHOLDS_INT_ARRAY);
             if (nrSssinrThresholds != null) {
-                signalThresholdInfos.add(
-                        validateAndCreateSignalThresholdInfo(
-                                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSSINR,
-                                nrSssinrThresholds,
-                                AccessNetworkThresholds.NGRAN_SSSINR,
-                                AccessNetworkConstants.AccessNetworkType.NGRAN,
-                                (nrMeasurementEnabled & CellSignalStrengthNr.USE_SSSINR) != 0));
+                mSignalThresholdEngine.setSystemThresholds(
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSSINR,
+                        nrSssinrThresholds,
+                        AccessNetworkThresholds.NGRAN_SSSINR,
+                        AccessNetworkConstants.AccessNetworkType.NGRAN,
+                        (nrMeasurementEnabled & CellSignalStrengthNr.USE_SSSINR) != 0);
             }
 
             int[] wcdmaEcnoThresholds = mCarrierConfig.getIntArray(
                     CarrierConfigManager.KEY_WCDMA_ECNO_THRESHOLDS_INT_ARRAY);
             if (wcdmaEcnoThresholds != null) {
-                signalThresholdInfos.add(
-                        validateAndCreateSignalThresholdInfo(
-                                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_ECNO,
-                                wcdmaEcnoThresholds,
-                                AccessNetworkThresholds.UTRAN_ECNO,
-                                AccessNetworkConstants.AccessNetworkType.UTRAN,
-                                false));
+                mSignalThresholdEngine.setSystemThresholds(
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_ECNO,
+                        wcdmaEcnoThresholds,
+                        AccessNetworkThresholds.UTRAN_ECNO,
+                        AccessNetworkConstants.AccessNetworkType.UTRAN,
+                        false);
             }
 
         }
 
-        consolidatedAndSetReportingCriteria(signalThresholdInfos);
+        consolidatedAndSetReportingCriteria();
     }
 
     private void setDefaultSignalStrengthReportingCriteria() {
-        List<SignalThresholdInfo> signalThresholdInfos = new ArrayList<>();
-
-        signalThresholdInfos.add(
-                createSignalThresholdsInfo(
-                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
-                        AccessNetworkThresholds.GERAN,
-                        AccessNetworkConstants.AccessNetworkType.GERAN,
-                        true));
-        signalThresholdInfos.add(
-                createSignalThresholdsInfo(
-                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSCP,
-                        AccessNetworkThresholds.UTRAN,
-                        AccessNetworkConstants.AccessNetworkType.UTRAN,
-                        true));
-        signalThresholdInfos.add(
-                createSignalThresholdsInfo(
-                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP,
-                        AccessNetworkThresholds.EUTRAN_RSRP,
-                        AccessNetworkConstants.AccessNetworkType.EUTRAN,
-                        true));
-        signalThresholdInfos.add(
-                createSignalThresholdsInfo(
-                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
-                        AccessNetworkThresholds.CDMA2000,
-                        AccessNetworkConstants.AccessNetworkType.CDMA2000,
-                        true));
+        mSignalThresholdEngine.beginUpdate();
+
+        setDefaultSystemThresholds(
+                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                AccessNetworkThresholds.GERAN,
+                AccessNetworkConstants.AccessNetworkType.GERAN,
+                true);
+        setDefaultSystemThresholds(
+                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSCP,
+                AccessNetworkThresholds.UTRAN,
+                AccessNetworkConstants.AccessNetworkType.UTRAN,
+                true);
+        setDefaultSystemThresholds(
+                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP,
+                AccessNetworkThresholds.EUTRAN_RSRP,
+                AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                true);
+        setDefaultSystemThresholds(
+                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                AccessNetworkThresholds.CDMA2000,
+                AccessNetworkConstants.AccessNetworkType.CDMA2000,
+                true);
 
         if (mPhone.getHalVersion(HAL_SERVICE_NETWORK).greaterOrEqual(RIL.RADIO_HAL_VERSION_1_5)) {
-            signalThresholdInfos.add(
-                    createSignalThresholdsInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRQ,
-                            AccessNetworkThresholds.EUTRAN_RSRQ,
-                            AccessNetworkConstants.AccessNetworkType.EUTRAN,
-                            false));
-            signalThresholdInfos.add(
-                    createSignalThresholdsInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSNR,
-                            AccessNetworkThresholds.EUTRAN_RSSNR,
-                            AccessNetworkConstants.AccessNetworkType.EUTRAN,
-                            true));
+            setDefaultSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRQ,
+                    AccessNetworkThresholds.EUTRAN_RSRQ,
+                    AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                    false);
+            setDefaultSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSNR,
+                    AccessNetworkThresholds.EUTRAN_RSSNR,
+                    AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                    true);
 
             // Defaultly we only need SSRSRP for NGRAN signal criteria reporting
-            signalThresholdInfos.add(
-                    createSignalThresholdsInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRP,
-                            AccessNetworkThresholds.NGRAN_SSRSRP,
-                            AccessNetworkConstants.AccessNetworkType.NGRAN,
-                            true));
-            signalThresholdInfos.add(
-                    createSignalThresholdsInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRQ,
-                            AccessNetworkThresholds.NGRAN_SSRSRQ,
-                            AccessNetworkConstants.AccessNetworkType.NGRAN,
-                            false));
-            signalThresholdInfos.add(
-                    createSignalThresholdsInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSSINR,
-                            AccessNetworkThresholds.NGRAN_SSSINR,
-                            AccessNetworkConstants.AccessNetworkType.NGRAN,
-                            false));
-            signalThresholdInfos.add(
-                    createSignalThresholdsInfo(
-                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_ECNO,
-                            AccessNetworkThresholds.UTRAN_ECNO,
-                            AccessNetworkConstants.AccessNetworkType.UTRAN,
-                            false));
+            setDefaultSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRP,
+                    AccessNetworkThresholds.NGRAN_SSRSRP,
+                    AccessNetworkConstants.AccessNetworkType.NGRAN,
+                    true);
+            setDefaultSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSRSRQ,
+                    AccessNetworkThresholds.NGRAN_SSRSRQ,
+                    AccessNetworkConstants.AccessNetworkType.NGRAN,
+                    false);
+            setDefaultSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_SSSINR,
+                    AccessNetworkThresholds.NGRAN_SSSINR,
+                    AccessNetworkConstants.AccessNetworkType.NGRAN,
+                    false);
+            setDefaultSystemThresholds(
+                    SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_ECNO,
+                    AccessNetworkThresholds.UTRAN_ECNO,
+                    AccessNetworkConstants.AccessNetworkType.UTRAN,
+                    false);
         }
 
-        consolidatedAndSetReportingCriteria(signalThresholdInfos);
+        consolidatedAndSetReportingCriteria();
+    }
+
+    private void setDefaultSystemThresholds(int measurementType, @NonNull int[] thresholds,
+            int ran, boolean isEnabled) {
+        mSignalThresholdEngine.setSystemThresholds(measurementType, thresholds, thresholds, ran,
+                isEnabled);
     }
 
-    private void consolidatedAndSetReportingCriteria(
-            @NonNull List<SignalThresholdInfo> signalThresholdInfos) {
-        List<SignalThresholdInfo> consolidatedSignalThresholdInfos = new ArrayList<>(
-                signalThresholdInfos.size());
-        for (SignalThresholdInfo signalThresholdInfo : signalThresholdInfos) {
-            final int ran = signalThresholdInfo.getRadioAccessNetworkType();
-            final int measurementType = signalThresholdInfo.getSignalMeasurementType();
-            final boolean isEnabledForSystem =
-                    signalThresholdInfo.isEnabled() && shouldHonorSystemThresholds();
-            int[] consolidatedThresholds =
-                    getConsolidatedSignalThresholds(
-                            ran,
-                            measurementType,
-                            isEnabledForSystem
-                                    ? signalThresholdInfo.getThresholds()
-                                    : new int[]{},
-                            ALIGNMENT_HYSTERESIS_DB);
-            boolean isEnabledForAppRequest =
-                    shouldEnableSignalThresholdForAppRequest(
-                            ran,
-                            measurementType,
-                            mPhone.getSubId(),
-                            mPhone.isDeviceIdle());
-            int hysteresisDb = getMinimumHysteresisDb(isEnabledForAppRequest, ran, measurementType,
-                    consolidatedThresholds);
-            consolidatedSignalThresholdInfos.add(
-                    new SignalThresholdInfo.Builder()
-                            .setRadioAccessNetworkType(ran)
-                            .setSignalMeasurementType(measurementType)
-                            .setHysteresisMs(REPORTING_HYSTERESIS_MILLIS)
-                            .setHysteresisDb(hysteresisDb)
-                            .setThresholds(consolidatedThresholds, true /*isSystem*/)
-                            .setIsEnabled(isEnabledForSystem || isEnabledForAppRequest)
-                            .build());
+    /**
+     * Send the criteria of the current update which changed since they were last sent. The modem
+     * keeps the criteria of the other RANs and measurement types.
+     */
+    private void consolidatedAndSetReportingCriteria() {
+        mSignalThresholdEngine.setConditions(mPhone.getSubId(), mPhone.isDeviceIdle(),
+                shouldHonorSystemThresholds());
+        List<SignalThresholdInfo> consolidatedSignalThresholdInfos =
+                mSignalThresholdEngine.reconcile();
+        if (consolidatedSignalThresholdInfos == null) {
+            return;
         }
         mCi.setSignalStrengthReportingCriteria(consolidatedSignalThresholdInfos, null);
 
@@ -629,6 +604,44 @@ public class SignalStrengthController extends Handler {
                         + consolidatedSignalThresholdInfos);
     }
 
+    /**
+     * Consolidate the system thresholds of a RAN and measurement type with the thresholds
+     * requested by the apps.
+     */
+    @NonNull
+    private SignalThresholdInfo createConsolidatedSignalThresholdInfo(int measurementType,
+            @NonNull int[] thresholds, @NonNull int[] defaultThresholds, int ran,
+            boolean isEnabled) {
+        SignalThresholdInfo signalThresholdInfo = validateAndCreateSignalThresholdInfo(
+                measurementType, thresholds, defaultThresholds, ran, isEnabled);
+        final boolean isEnabledForSystem =
+                signalThresholdInfo.isEnabled() && shouldHonorSystemThresholds();
+        int[] consolidatedThresholds =
+                getConsolidatedSignalThresholds(
+                        ran,
+                        measurementType,
+                        isEnabledForSystem
+                                ? signalThresholdInfo.getThresholds()
+                                : new int[]{},
+                        ALIGNMENT_HYSTERESIS_DB);
+        boolean isEnabledForAppRequest =
+                shouldEnableSignalThresholdForAppRequest(
+                        ran,
+                        measurementType,
+                        mPhone.getSubId(),
+                        mPhone.isDeviceIdle());
+        int hysteresisDb = getMinimumHysteresisDb(isEnabledForAppRequest, ran, measurementType,
+                consolidatedThresholds);
+        return new SignalThresholdInfo.Builder()
+                .setRadioAccessNetworkType(ran)
+                .setSignalMeasurementType(measurementType)
+                .setHysteresisMs(REPORTING_HYSTERESIS_MILLIS)
+                .setHysteresisDb(hysteresisDb)
+                .setThresholds(consolidatedThresholds, true /*isSystem*/)
+                .setIsEnabled(isEnabledForSystem || isEnabledForAppRequest)
+                .build();
+    }
+
     /**
      * Return the minimum hysteresis dB from all available sources:
      * - system default
@@ -802,6 +815,8 @@ public class SignalStrengthController extends Handler {
         final IndentingPrintWriter ipw = new IndentingPrintWriter(pw, "  ");
         ipw.increaseIndent();
         pw.println("mSignalRequestRecords=" + mSignalRequestRecords);
+        pw.println(" reportedSignalThresholdInfos="
+                + mSignalThresholdEngine.getReportedCriteria());
         pw.println(" mLastSignalStrength=" + mLastSignalStrength);
         pw.println(" mSignalStrength=" + mSignalStrength);
         pw.println(" mLteRsrpBoost=" + mLteRsrpBoost);
@@ -908,10 +923,27 @@ public class SignalStrengthController extends Handler {
             return true;
         }
 
+        // Called on every update of the reporting criteria, so avoid iterator allocations.
         final int curSubId = mPhone.getSubId();
-        return mSignalRequestRecords.stream().anyMatch(
-                srr -> curSubId == srr.mSubId
-                        && srr.mRequest.isSystemThresholdReportingRequestedWhileIdle());
+        for (int i = 0; i < mSignalRequestRecords.size(); i++) {
+            SignalRequestRecord srr = mSignalRequestRecords.get(i);
+            if (curSubId == srr.mSubId
+                    && srr.mRequest.isSystemThresholdReportingRequestedWhileIdle()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consolidate the criteria of the RANs and measurement types in the {@code record} again on
+     * the next update.
+     */
+    private void invalidateSignalThresholds(@NonNull SignalRequestRecord record) {
+        for (SignalThresholdInfo info : record.mRequest.getSignalThresholdInfos()) {
+            mSignalThresholdEngine.invalidate(info.getRadioAccessNetworkType(),
+                    info.getSignalMeasurementType());
+        }
     }
 
     /**
@@ -1162,20 +1194,12 @@ public class SignalStrengthController extends Handler {
         log("Carrier Config changed.");
 
         updateArfcnLists();
+        // The hysteresis of all the criteria may come from the carrier config.
+        mSignalThresholdEngine.invalidateAll();
         updateReportingCriteria();
         updateSignalStrength(new SignalStrength(mSignalStrength));
     }
 
-    private static SignalThresholdInfo createSignalThresholdsInfo(
-            int measurementType, @NonNull int[] thresholds, int ran, boolean isEnabled) {
-        return new SignalThresholdInfo.Builder()
-                .setSignalMeasurementType(measurementType)
-                .setThresholds(thresholds)
-                .setRadioAccessNetworkType(ran)
-                .setIsEnabled(isEnabled)
-                .build();
-    }
-
     /**
      * Validate the provided signal {@code thresholds} info and fall back to use the
      * {@code defaultThresholds} and report anomaly if invalid to prevent crashing Phone.
@@ -1351,10 +1375,11 @@ public class SignalStrengthController extends Handler {
     }
 
     private boolean isUsingNonTerrestrialNetwork() {
-        if (mPhone.getServiceState() == null) {
+        ServiceState serviceState = mPhone.getServiceState();
+        if (serviceState == null) {
             return false;
         }
-        return mPhone.getServiceState().isUsingNonTerrestrialNetwork();
+        return serviceState.isUsingNonTerrestrialNetwork();
     }
 
     private static void log(String msg) {
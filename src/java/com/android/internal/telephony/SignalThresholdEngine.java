@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.SignalThresholdInfo;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the signal strength reporting criteria per RAN and measurement type, and works out which
+ * of them have to be sent to the modem again.
+ *
+ * <p>The modem keeps the criteria of a RAN and measurement type until they are set again, so only
+ * the criteria which changed since they were last reported need to be sent. An update starts with
+ * {@link #beginUpdate()}, provides the system thresholds of all the criteria which apply with
+ * {@link #setSystemThresholds}, and ends with {@link #reconcile}. Only the criteria whose system
+ * thresholds changed or which were invalidated are built again, so an update without any change
+ * does not allocate.
+ */
+final class SignalThresholdEngine {
+    /** Builds the criteria to report from the system thresholds of a RAN and measurement type. */
+    interface CriteriaBuilder {
+        /** @return The criteria with the thresholds requested by the apps merged in. */
+        @NonNull
+        SignalThresholdInfo build(int measurementType, @NonNull int[] thresholds,
+                @NonNull int[] defaultThresholds, int ran, boolean isEnabled);
+    }
+
+    private static final class Entry {
+        final int mRan;
+        final int mMeasurementType;
+        @Nullable
+        int[] mThresholds;
+        @Nullable
+        int[] mDefaultThresholds;
+        boolean mIsEnabled;
+        // The last update which provided the system thresholds.
+        int mGeneration;
+        // Whether the criteria have to be built again when they are reconciled.
+        boolean mIsDirty = true;
+        // The criteria last sent to the modem, or null if they have not been sent since reset.
+        @Nullable
+        SignalThresholdInfo mReported;
+
+        Entry(int ran, int measurementType) {
+            mRan = ran;
+            mMeasurementType = measurementType;
+        }
+    }
+
+    @NonNull
+    private final CriteriaBuilder mCriteriaBuilder;
+    @NonNull
+    private final SparseArray<Entry> mEntries = new SparseArray<>();
+    private int mGeneration;
+
+    // The conditions all the criteria depend on.
+    private int mSubId;
+    private boolean mIsDeviceIdle;
+    private boolean mShouldHonorSystemThresholds;
+
+    SignalThresholdEngine(@NonNull CriteriaBuilder criteriaBuilder) {
+        mCriteriaBuilder = criteriaBuilder;
+    }
+
+    private static int getKey(int ran, int measurementType) {
+        return (ran << 8) | measurementType;
+    }
+
+    /**
+     * Starts an update. Only the criteria whose system thresholds are set before the following
+     * {@link #reconcile()} are reported.
+     */
+    void beginUpdate() {
+        mGeneration++;
+    }
+
+    /**
+     * Sets the system thresholds of a RAN and measurement type for the current update.
+     *
+     * @param defaultThresholds The thresholds used if {@code thresholds} are invalid. They are
+     *     kept without a copy and must not be modified.
+     */
+    void setSystemThresholds(int measurementType, @NonNull int[] thresholds,
+            @NonNull int[] defaultThresholds, int ran, boolean isEnabled) {
+        final int key = getKey(ran, measurementType);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(ran, measurementType);
+            mEntries.put(key, entry);
+        }
+        if (entry.mIsEnabled != isEnabled
+                || !Arrays.equals(entry.mThresholds, thresholds)
+                || !Arrays.equals(entry.mDefaultThresholds, defaultThresholds)) {
+            entry.mThresholds = thresholds.clone();
+            entry.mDefaultThresholds = defaultThresholds;
+            entry.mIsEnabled = isEnabled;
+            entry.mIsDirty = true;
+        }
+        entry.mGeneration = mGeneration;
+    }
+
+    /**
+     * Sets the conditions the criteria are built with. All the criteria are built again if any
+     * of them changed.
+     */
+    void setConditions(int subId, boolean isDeviceIdle, boolean shouldHonorSystemThresholds) {
+        if (mSubId == subId && mIsDeviceIdle == isDeviceIdle
+                && mShouldHonorSystemThresholds == shouldHonorSystemThresholds) {
+            return;
+        }
+        mSubId = subId;
+        mIsDeviceIdle = isDeviceIdle;
+        mShouldHonorSystemThresholds = shouldHonorSystemThresholds;
+        invalidateAll();
+    }
+
+    /** Builds the criteria of a RAN and measurement type again, e.g. when an app request changed. */
+    void invalidate(int ran, int measurementType) {
+        Entry entry = mEntries.get(getKey(ran, measurementType));
+        if (entry != null) {
+            entry.mIsDirty = true;
+        }
+    }
+
+    /** Builds all the criteria again, e.g. when the carrier config changed. */
+    void invalidateAll() {
+        for (int i = 0; i < mEntries.size(); i++) {
+            mEntries.valueAt(i).mIsDirty = true;
+        }
+    }
+
+    /** Forgets the reported criteria, so all of them are sent again, e.g. after a modem reset. */
+    void reset() {
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            entry.mIsDirty = true;
+            entry.mReported = null;
+        }
+    }
+
+    /**
+     * Builds the criteria which may have changed in the current update, and records them as
+     * reported.
+     *
+     * @return The criteria which differ from the ones last reported, or null if none does.
+     */
+    @Nullable
+    List<SignalThresholdInfo> reconcile() {
+        List<SignalThresholdInfo> changedInfos = null;
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            if (!entry.mIsDirty || entry.mGeneration != mGeneration) {
+                continue;
+            }
+            entry.mIsDirty = false;
+            SignalThresholdInfo info = mCriteriaBuilder.build(entry.mMeasurementType,
+                    entry.mThresholds, entry.mDefaultThresholds, entry.mRan, entry.mIsEnabled);
+            if (!info.equals(entry.mReported)) {
+                entry.mReported = info;
+                if (changedInfos == null) {
+                    changedInfos = new ArrayList<>();
+                }
+                changedInfos.add(info);
+            }
+        }
+        return changedInfos;
+    }
+
+    /** @return The criteria last reported for all RANs and measurement types. */
+    @NonNull
+    List<SignalThresholdInfo> getReportedCriteria() {
+        List<SignalThresholdInfo> reportedInfos = new ArrayList<>(mEntries.size());
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            if (entry.mReported != null) {
+                reportedInfos.add(entry.mReported);
+            }
+        }
+        return reportedInfos;
+    }
+}
@@ -31,6 +31,7 @@ import android.os.UserManager;
 import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.analytics.TelephonyAnalytics;
 import com.android.internal.telephony.analytics.TelephonyAnalytics.SmsMmsAnalytics;
 import com.android.internal.telephony.cdma.CdmaInboundSmsHandler;
@@ -39,9 +40,15 @@ import com.android.internal.telephony.metrics.TelephonyMetrics;
 import com.android.internal.telephony.subscription.SubscriptionManagerService;
 import com.android.telephony.Rlog;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Called when the credential-encrypted storage is unlocked, collecting all acknowledged messages
@@ -91,6 +98,20 @@ public class SmsBroadcastUndelivered {
                 entry(InboundSmsHandler.SUBID_COLUMN, 10));
 
 
+    /** Query projection for listing the pending rows of the raw table. */
+    private static final String[] ROW_ID_PROJECTION = {"_id"};
+
+    /** Number of raw table rows read per query when scanning the raw table. */
+    @VisibleForTesting
+    public static final int SCAN_CHUNK_SIZE = 500;
+
+    /**
+     * Maximum number of incomplete messages deleted by a single query. Each message uses 3
+     * selection arguments, which keeps the query well below the SQLite limit of 999 arguments.
+     */
+    @VisibleForTesting
+    public static final int MAX_MESSAGES_PER_DELETE = 100;
+
     private static SmsBroadcastUndelivered instance;
 
     /** Content resolver to use to access raw table from SmsProvider. */
@@ -156,94 +177,251 @@ public class SmsBroadcastUndelivered {
         }
     }
 
+    /**
+     * Progress of a scan of the raw table.
+     */
+    @VisibleForTesting
+    public static final class ScanStats {
+        /** Number of chunks of the raw table read so far. */
+        public int chunks;
+        /** Number of rows read so far. */
+        public int rowsScanned;
+        /** Number of complete messages sent to the inbound SMS handlers. */
+        public int messagesDispatched;
+        /** Number of incomplete multi-part messages deleted because they expired. */
+        public int partialMessagesDeleted;
+        /** Number of raw table rows deleted. */
+        public int rowsDeleted;
+        /** Number of delete queries used to delete the expired messages. */
+        public int deleteQueries;
+        /** Time spent scanning the raw table in milliseconds. */
+        public long durationMs;
+
+        @Override
+        public String toString() {
+            return "chunks=" + chunks + " rowsScanned=" + rowsScanned
+                    + " messagesDispatched=" + messagesDispatched
+                    + " partialMessagesDeleted=" + partialMessagesDeleted
+                    + " rowsDeleted=" + rowsDeleted + " deleteQueries=" + deleteQueries
+                    + " durationMs=" + durationMs;
+        }
+    }
+
     /**
      * Scan the raw table for complete SMS messages to broadcast, and old PDUs to delete.
      */
-    static void scanRawTable(Context context, long oldMessageTimestamp) {
+    static ScanStats scanRawTable(Context context, long oldMessageTimestamp) {
+        return scanRawTable(context, oldMessageTimestamp, SmsBroadcastUndelivered::broadcastSms);
+    }
+
+    /**
+     * Scan the raw table for complete SMS messages to broadcast, and old PDUs to delete.
+     *
+     * <p>The raw table is read in chunks of {@link #SCAN_CHUNK_SIZE} rows, so that a large table
+     * does not have to be held in memory at once, and complete messages are dispatched as soon
+     * as they are found. Only the rows present when the scan starts are considered. Incomplete
+     * messages that expired are deleted with a few bulk deletes once the whole table was read.
+     *
+     * @param context the context used to access the raw table
+     * @param oldMessageTimestamp incomplete messages older than this are deleted
+     * @param dispatcher called with a tracker for each complete message
+     * @return the statistics of the scan
+     */
+    @VisibleForTesting
+    public static ScanStats scanRawTable(Context context, long oldMessageTimestamp,
+            Consumer<InboundSmsTracker> dispatcher) {
         if (DBG) Rlog.d(TAG, "scanning raw table for undelivered messages");
         long startTime = System.nanoTime();
+        ScanStats stats = new ScanStats();
         ContentResolver contentResolver = context.getContentResolver();
         HashMap<SmsReferenceKey, Integer> multiPartReceivedCount =
                 new HashMap<SmsReferenceKey, Integer>(4);
-        HashSet<SmsReferenceKey> oldMultiPartMessages = new HashSet<SmsReferenceKey>(4);
-        Cursor cursor = null;
+        // LinkedHashSet so that messages are deleted in the order they were received
+        LinkedHashSet<SmsReferenceKey> oldMultiPartMessages = new LinkedHashSet<>(4);
         try {
-            // query only non-deleted ones
-            cursor = contentResolver.query(InboundSmsHandler.sRawUri,
-                    PDU_PENDING_MESSAGE_PROJECTION, "deleted = 0", null, null);
-            if (cursor == null) {
+            long[] rowIds = queryPendingRowIds(contentResolver);
+            if (rowIds == null) {
                 Rlog.e(TAG, "error getting pending message cursor");
-                return;
+                return stats;
             }
 
             boolean isCurrentFormat3gpp2 = InboundSmsHandler.isCurrentFormat3gpp2();
-            while (cursor.moveToNext()) {
-                InboundSmsTracker tracker;
+            for (int first = 0; first < rowIds.length; first += SCAN_CHUNK_SIZE) {
+                int last = Math.min(first + SCAN_CHUNK_SIZE, rowIds.length) - 1;
+                Cursor cursor = null;
                 try {
-                    tracker = TelephonyComponentFactory.getInstance()
-                            .inject(InboundSmsTracker.class.getName()).makeInboundSmsTracker(
-                                    context,
-                                    cursor,
-                                    isCurrentFormat3gpp2);
-                } catch (IllegalArgumentException e) {
-                    Rlog.e(TAG, "error loading SmsTracker: " + e);
-                    continue;
+                    // query only non-deleted ones
+                    cursor = contentResolver.query(InboundSmsHandler.sRawUri,
+                            PDU_PENDING_MESSAGE_PROJECTION, "deleted = 0 AND _id >= ? AND _id <= ?",
+                            new String[]{Long.toString(rowIds[first]), Long.toString(rowIds[last])},
+                            "_id");
+                    if (cursor == null) {
+                        Rlog.e(TAG, "error getting pending message cursor");
+                        break;
+                    }
+                    stats.chunks++;
+                    while (cursor.moveToNext()) {
+                        stats.rowsScanned++;
+                        processPendingRow(context, cursor, isCurrentFormat3gpp2,
+                                oldMessageTimestamp, multiPartReceivedCount,
+                                oldMultiPartMessages, dispatcher, stats);
+                    }
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
                 }
+                if (DBG) Rlog.d(TAG, "scanRawTable: progress " + stats.rowsScanned + "/"
+                        + rowIds.length + " rows, " + stats.messagesDispatched + " dispatched");
+            }
+
+            deleteOldMultiPartMessages(contentResolver, oldMultiPartMessages,
+                    multiPartReceivedCount, stats);
+        } catch (SQLException e) {
+            Rlog.e(TAG, "error reading pending SMS messages", e);
+        } finally {
+            stats.durationMs = (System.nanoTime() - startTime) / 1000000;
+            if (DBG) Rlog.d(TAG, "finished scanning raw table in " + stats.durationMs + " ms: "
+                    + stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Query the ids of the pending rows of the raw table, in ascending order.
+     *
+     * @return the row ids, or null if the raw table could not be queried
+     */
+    private static long[] queryPendingRowIds(ContentResolver contentResolver) {
+        Cursor cursor = null;
+        try {
+            cursor = contentResolver.query(InboundSmsHandler.sRawUri, ROW_ID_PROJECTION,
+                    "deleted = 0", null, "_id");
+            if (cursor == null) {
+                return null;
+            }
+            long[] rowIds = new long[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext() && count < rowIds.length) {
+                rowIds[count++] = cursor.getLong(0);
+            }
+            return count == rowIds.length ? rowIds : Arrays.copyOf(rowIds, count);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
 
-                if (tracker.getMessageCount() == 1) {
-                    // deliver single-part message
-                    broadcastSms(tracker);
+    /**
+     * Dispatch the message of the pending row pointed to by the cursor if it is complete, and
+     * keep track of the segments of multi-part messages.
+     */
+    private static void processPendingRow(Context context, Cursor cursor,
+            boolean isCurrentFormat3gpp2, long oldMessageTimestamp,
+            HashMap<SmsReferenceKey, Integer> multiPartReceivedCount,
+            LinkedHashSet<SmsReferenceKey> oldMultiPartMessages,
+            Consumer<InboundSmsTracker> dispatcher, ScanStats stats) {
+        InboundSmsTracker tracker;
+        try {
+            tracker = TelephonyComponentFactory.getInstance()
+                    .inject(InboundSmsTracker.class.getName()).makeInboundSmsTracker(
+                            context,
+                            cursor,
+                            isCurrentFormat3gpp2);
+        } catch (IllegalArgumentException e) {
+            Rlog.e(TAG, "error loading SmsTracker: " + e);
+            return;
+        }
+
+        if (tracker.getMessageCount() == 1) {
+            // deliver single-part message
+            dispatcher.accept(tracker);
+            stats.messagesDispatched++;
+        } else {
+            SmsReferenceKey reference = new SmsReferenceKey(tracker);
+            Integer receivedCount = multiPartReceivedCount.get(reference);
+            if (receivedCount == null) {
+                multiPartReceivedCount.put(reference, 1);    // first segment seen
+                if (tracker.getTimestamp() < oldMessageTimestamp) {
+                    // older than oldMessageTimestamp; delete if we don't find all the
+                    // segments
+                    oldMultiPartMessages.add(reference);
+                }
+            } else {
+                int newCount = receivedCount + 1;
+                if (newCount == tracker.getMessageCount()) {
+                    // looks like we've got all the pieces; send a single tracker
+                    // to state machine which will find the other pieces to broadcast
+                    if (DBG) Rlog.d(TAG, "found complete multi-part message");
+                    dispatcher.accept(tracker);
+                    stats.messagesDispatched++;
+                    // don't delete this old message until after we broadcast it
+                    oldMultiPartMessages.remove(reference);
                 } else {
-                    SmsReferenceKey reference = new SmsReferenceKey(tracker);
-                    Integer receivedCount = multiPartReceivedCount.get(reference);
-                    if (receivedCount == null) {
-                        multiPartReceivedCount.put(reference, 1);    // first segment seen
-                        if (tracker.getTimestamp() < oldMessageTimestamp) {
-                            // older than oldMessageTimestamp; delete if we don't find all the
-                            // segments
-                            oldMultiPartMessages.add(reference);
-                        }
-                    } else {
-                        int newCount = receivedCount + 1;
-                        if (newCount == tracker.getMessageCount()) {
-                            // looks like we've got all the pieces; send a single tracker
-                            // to state machine which will find the other pieces to broadcast
-                            if (DBG) Rlog.d(TAG, "found complete multi-part message");
-                            broadcastSms(tracker);
-                            // don't delete this old message until after we broadcast it
-                            oldMultiPartMessages.remove(reference);
-                        } else {
-                            multiPartReceivedCount.put(reference, newCount);
-                        }
-                    }
+                    multiPartReceivedCount.put(reference, newCount);
                 }
             }
-            // Retrieve the phone and phone id, required for metrics
-            // TODO don't hardcode to the first phone (phoneId = 0) but this is no worse than
-            //  earlier. Also phoneId for old messages may not be known (messages may be from an
-            //  inactive sub)
-            Phone phone = PhoneFactory.getPhone(0);
-            int phoneId = 0;
-
-            // Delete old incomplete message segments
-            for (SmsReferenceKey message : oldMultiPartMessages) {
-                // delete permanently
-                int rows = contentResolver.delete(InboundSmsHandler.sRawUriPermanentDelete,
-                        message.getDeleteWhere(), message.getDeleteWhereArgs());
-                if (rows == 0) {
-                    Rlog.e(TAG, "No rows were deleted from raw table!");
-                } else if (DBG) {
-                    Rlog.d(TAG, "Deleted " + rows + " rows from raw table for incomplete "
-                            + message.mMessageCount + " part message");
+        }
+    }
+
+    /**
+     * Delete the segments of the given incomplete multi-part messages, using one delete per
+     * {@link #MAX_MESSAGES_PER_DELETE} messages.
+     */
+    private static void deleteOldMultiPartMessages(ContentResolver contentResolver,
+            Collection<SmsReferenceKey> oldMultiPartMessages,
+            Map<SmsReferenceKey, Integer> multiPartReceivedCount, ScanStats stats) {
+        if (oldMultiPartMessages.isEmpty()) return;
+
+        // Retrieve the phone and phone id, required for metrics
+        // TODO don't hardcode to the first phone (phoneId = 0) but this is no worse than
+        //  earlier. Also phoneId for old messages may not be known (messages may be from an
+        //  inactive sub)
+        Phone phone = PhoneFactory.getPhone(0);
+        int phoneId = 0;
+
+        List<SmsReferenceKey> batch = new ArrayList<>(MAX_MESSAGES_PER_DELETE);
+        Iterator<SmsReferenceKey> iterator = oldMultiPartMessages.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            if (batch.size() < MAX_MESSAGES_PER_DELETE && iterator.hasNext()) {
+                continue;
+            }
+
+            StringBuilder where = new StringBuilder();
+            String[] whereArgs = new String[batch.size() * 3];
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) where.append(" OR ");
+                where.append('(').append(batch.get(i).getDeleteWhere()).append(')');
+                System.arraycopy(batch.get(i).getDeleteWhereArgs(), 0, whereArgs, i * 3, 3);
+            }
+            // delete permanently
+            int rows = contentResolver.delete(InboundSmsHandler.sRawUriPermanentDelete,
+                    where.toString(), whereArgs);
+            stats.deleteQueries++;
+            if (rows == 0) {
+                Rlog.e(TAG, "No rows were deleted from raw table!");
+            } else {
+                stats.rowsDeleted += rows;
+                stats.partialMessagesDeleted += batch.size();
+                if (DBG) {
+                    Rlog.d(TAG, "Deleted " + rows + " rows from raw table for " + batch.size()
+                            + " incomplete messages");
                 }
+            }
+
+            for (SmsReferenceKey message : batch) {
+                onMultiPartMessageDeleted(message.mTracker);
                 // Update metrics with dropped SMS
-                if (rows > 0) {
+                Integer segments = multiPartReceivedCount.get(message);
+                if (rows > 0 && segments != null) {
                     TelephonyMetrics metrics = TelephonyMetrics.getInstance();
-                    metrics.writeDroppedIncomingMultipartSms(phoneId, message.mFormat, rows,
+                    metrics.writeDroppedIncomingMultipartSms(phoneId, message.mFormat, segments,
                             message.mMessageCount);
                     if (phone != null) {
-                        phone.getSmsStats().onDroppedIncomingMultipartSms(message.mIs3gpp2, rows,
-                                message.mMessageCount);
+                        phone.getSmsStats().onDroppedIncomingMultipartSms(message.mIs3gpp2,
+                                segments, message.mMessageCount);
                         TelephonyAnalytics telephonyAnalytics = phone.getTelephonyAnalytics();
                         if (telephonyAnalytics != null) {
                             SmsMmsAnalytics smsMmsAnalytics =
@@ -255,14 +433,7 @@ public class SmsBroadcastUndelivered {
                     }
                 }
             }
-        } catch (SQLException e) {
-            Rlog.e(TAG, "error reading pending SMS messages", e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-            if (DBG) Rlog.d(TAG, "finished scanning raw table in "
-                    + ((System.nanoTime() - startTime) / 1000000) + " ms");
+            batch.clear();
         }
     }
 
@@ -290,6 +461,21 @@ public class SmsBroadcastUndelivered {
         }
     }
 
+    /**
+     * Tell the inbound SMS handler that the segments of an incomplete message were deleted, so
+     * that it stops waiting for the remaining segments.
+     */
+    private static void onMultiPartMessageDeleted(InboundSmsTracker tracker) {
+        int phoneId = SubscriptionManagerService.getInstance().getPhoneId(tracker.getSubId());
+        Phone phone = SubscriptionManager.isValidPhoneId(phoneId)
+                ? PhoneFactory.getPhone(phoneId) : null;
+        InboundSmsHandler handler = phone != null
+                ? phone.getInboundSmsHandler(tracker.is3gpp2()) : null;
+        if (handler != null) {
+            handler.onMultiPartSegmentsDeleted(tracker);
+        }
+    }
+
     private long getUndeliveredSmsExpirationTime(Context context) {
         int subId = SubscriptionManager.getDefaultSmsSubscriptionId();
         CarrierConfigManager configManager =
@@ -314,8 +500,10 @@ public class SmsBroadcastUndelivered {
         final String mQuery;
         final boolean mIs3gpp2;
         final String mFormat;
+        final InboundSmsTracker mTracker;
 
         SmsReferenceKey(InboundSmsTracker tracker) {
+            mTracker = tracker;
             mAddress = tracker.getAddress();
             mReferenceNumber = tracker.getReferenceNumber();
             mMessageCount = tracker.getMessageCount();
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory index of the segments of multi-part SMS messages that are waiting for reassembly.
+ *
+ * <p>The raw table of the SMS provider remains the source of truth: a message is only tracked
+ * here once its segments have been loaded from the raw table, and every segment written to the
+ * raw table afterwards is also added here. This allows {@link InboundSmsHandler} to decide
+ * whether a message is complete and to assemble its PDUs without querying the raw table again
+ * for each segment. Segments that were stored before the index was created, e.g. before a
+ * reboot, are picked up when the message is first loaded from the raw table.
+ *
+ * <p>Messages are identified by the originating address, the reference number and the message
+ * count, as in {@link InboundSmsTracker#getQueryForSegments()}. At most {@link #MAX_MESSAGES}
+ * incomplete messages are tracked; the least recently updated ones are dropped and loaded from
+ * the raw table again if more segments arrive.
+ */
+public class SmsReassemblyIndex {
+    private static final String TAG = "SmsReassemblyIndex";
+
+    /** Maximum number of incomplete messages kept in memory. */
+    @VisibleForTesting
+    public static final int MAX_MESSAGES = 256;
+
+    /** Segments of a complete multi-part message, in sequence order. */
+    public static final class AssembledMessage {
+        /** The PDUs of the segments. */
+        public final @NonNull byte[][] pdus;
+        /** The timestamps of the segments. */
+        public final @NonNull long[] timestamps;
+        /** The display originating addresses of the segments. */
+        public final @NonNull String[] displayAddresses;
+        /** The destination port of the first segment, or -1 if there is none. */
+        public final int destPort;
+
+        private AssembledMessage(byte[][] pdus, long[] timestamps, String[] displayAddresses,
+                int destPort) {
+            this.pdus = pdus;
+            this.timestamps = timestamps;
+            this.displayAddresses = displayAddresses;
+            this.destPort = destPort;
+        }
+    }
+
+    private static final class Key {
+        private final String mAddress;
+        private final int mReferenceNumber;
+        private final int mMessageCount;
+        private final boolean mIs3gpp2WapPdu;
+
+        Key(InboundSmsTracker tracker) {
+            mAddress = tracker.getAddress();
+            mReferenceNumber = tracker.getReferenceNumber();
+            mMessageCount = tracker.getMessageCount();
+            mIs3gpp2WapPdu = tracker.is3gpp2WapPdu();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mReferenceNumber == other.mReferenceNumber
+                    && mMessageCount == other.mMessageCount
+                    && mIs3gpp2WapPdu == other.mIs3gpp2WapPdu
+                    && Objects.equals(mAddress, other.mAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAddress, mReferenceNumber, mMessageCount, mIs3gpp2WapPdu);
+        }
+    }
+
+    private static final class Segments {
+        final byte[][] mPdus;
+        final long[] mTimestamps;
+        final String[] mDisplayAddresses;
+        int mDestPort = -1;
+        int mReceived;
+
+        Segments(int messageCount) {
+            mPdus = new byte[messageCount][];
+            mTimestamps = new long[messageCount];
+            mDisplayAddresses = new String[messageCount];
+        }
+    }
+
+    private final LinkedHashMap<Key, Segments> mMessages =
+            new LinkedHashMap<Key, Segments>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Segments> eldest) {
+                    if (size() > MAX_MESSAGES) {
+                        Rlog.d(TAG, "Dropping incomplete message with "
+                                + eldest.getValue().mReceived + " segments");
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /**
+     * @return {@code true} if the message of the given segment is tracked.
+     */
+    public synchronized boolean isTracked(@NonNull InboundSmsTracker tracker) {
+        return mMessages.containsKey(new Key(tracker));
+    }
+
+    /**
+     * Start tracking the message of the given segment, with no segment received yet. Any
+     * segments already tracked for the message are discarded.
+     */
+    public synchronized void startTracking(@NonNull InboundSmsTracker tracker) {
+        mMessages.put(new Key(tracker), new Segments(tracker.getMessageCount()));
+    }
+
+    /**
+     * Add a segment to its message, if the message is tracked. A segment with the same sequence
+     * number is replaced.
+     *
+     * @param tracker the message segment that was written to the raw table
+     * @return {@code true} if the message is tracked
+     */
+    public boolean addSegment(@NonNull InboundSmsTracker tracker) {
+        return putSegment(tracker, tracker.getSequenceNumber(), tracker.getPdu(),
+                tracker.getTimestamp(), tracker.getDestPort(), tracker.getDisplayAddress());
+    }
+
+    /**
+     * Add a segment to the message of the given tracker, if the message is tracked. A segment
+     * with the same sequence number is replaced.
+     *
+     * @param tracker any segment of the message
+     * @param sequenceNumber the sequence number of the segment
+     * @param pdu the PDU of the segment
+     * @param timestamp the timestamp of the segment
+     * @param destPort the real destination port of the segment, or -1
+     * @param displayAddress the display originating address of the segment
+     * @return {@code true} if the message is tracked
+     */
+    public synchronized boolean putSegment(@NonNull InboundSmsTracker tracker,
+            int sequenceNumber, @NonNull byte[] pdu, long timestamp, int destPort,
+            @Nullable String displayAddress) {
+        Segments segments = mMessages.get(new Key(tracker));
+        if (segments == null) return false;
+
+        int index = sequenceNumber - tracker.getIndexOffset();
+        if (index < 0 || index >= segments.mPdus.length) {
+            // Invalid segments are kept in the raw table, but can never complete the message.
+            Rlog.e(TAG, "putSegment: invalid seqNumber = " + sequenceNumber
+                    + ", messageCount = " + segments.mPdus.length);
+            return true;
+        }
+        if (segments.mPdus[index] == null) {
+            segments.mReceived++;
+        }
+        segments.mPdus[index] = pdu;
+        segments.mTimestamps[index] = timestamp;
+        segments.mDisplayAddresses[index] = displayAddress;
+        if (index == 0) {
+            segments.mDestPort = destPort;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of distinct segments received for the message of the given segment, or
+     * -1 if the message is not tracked.
+     */
+    public synchronized int getSegmentCount(@NonNull InboundSmsTracker tracker) {
+        Segments segments = mMessages.get(new Key(tracker));
+        return segments == null ? -1 : segments.mReceived;
+    }
+
+    /**
+     * Stop tracking the message of the given segment and return its segments, if all of them
+     * have been received.
+     *
+     * @return the segments of the message, or {@code null} if the message is not tracked or is
+     * not complete yet.
+     */
+    public synchronized @Nullable AssembledMessage takeIfComplete(
+            @NonNull InboundSmsTracker tracker) {
+        Key key = new Key(tracker);
+        Segments segments = mMessages.get(key);
+        if (segments == null || segments.mReceived < segments.mPdus.length) return null;
+        mMessages.remove(key);
+        return new AssembledMessage(segments.mPdus, segments.mTimestamps,
+                segments.mDisplayAddresses, segments.mDestPort);
+    }
+
+    /** Stop tracking the message of the given segment. */
+    public synchronized void remove(@NonNull InboundSmsTracker tracker) {
+        mMessages.remove(new Key(tracker));
+    }
+
+    /** Stop tracking all messages. */
+    public synchronized void clear() {
+        mMessages.clear();
+    }
+
+    /** @return the number of tracked messages. */
+    public synchronized int size() {
+        return mMessages.size();
+    }
+}
@@ -21,6 +21,7 @@ import android.annotation.Nullable;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
 import android.os.UserHandle;
 import android.provider.VoicemailContract;
 import android.telecom.PhoneAccountHandle;
@@ -32,7 +33,9 @@ import android.telephony.VisualVoicemailSms;
 import android.telephony.VisualVoicemailSmsFilterSettings;
 import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.VisualVoicemailSmsParser.WrappedMessageData;
 
@@ -41,8 +44,10 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.regex.Pattern;
 
 /**
@@ -74,6 +79,10 @@ public class VisualVoicemailSmsFilter {
 
     private static Map<String, List<Pattern>> sPatterns;
 
+    /** The compiled filters by subId, for the last filter settings of the subscription. */
+    @GuardedBy("sCompiledFilters")
+    private static final SparseArray<CompiledFilter> sCompiledFilters = new SparseArray<>();
+
     private static final PhoneAccountHandleConverter DEFAULT_PHONE_ACCOUNT_HANDLE_CONVERTER =
             new PhoneAccountHandleConverter() {
 
@@ -136,11 +145,16 @@ public class VisualVoicemailSmsFilter {
         settings = telephonyManager.getActiveVisualVoicemailSmsFilterSettings(subId);
 
         if (settings == null) {
+            List<Pattern> patterns = getVvmPatterns(context, subId);
+            if (patterns.isEmpty()) {
+                // Nothing can match, don't decode the message.
+                return false;
+            }
             FullMessage fullMessage = getFullMessage(pdus, format);
             if (fullMessage != null) {
                 // This is special case that voice mail SMS received before the filter has been
                 // set. To drop the SMS unconditionally.
-                if (messageBodyMatchesVvmPattern(context, subId, fullMessage.fullMessageBody)) {
+                if (matchesVvmPattern(patterns, fullMessage.fullMessageBody)) {
                     Log.e(TAG, "SMS matching VVM format received but the filter not been set yet");
                     return true;
                 }
@@ -156,8 +170,19 @@ public class VisualVoicemailSmsFilter {
             return false;
         }
 
-        String clientPrefix = settings.clientPrefix;
-        FullMessage fullMessage = getFullMessage(pdus, format);
+        CompiledFilter compiledFilter = getCompiledFilter(subId, settings);
+        SmsMessage[] messages = createSmsMessages(pdus, format);
+        FullMessage fullMessage = null;
+        if (messages != null) {
+            byte[] userData = messages.length > 0 ? getUtf8UserData(messages[0]) : null;
+            if (userData != null && !compiledFilter.mayStartWithPrefix(userData)
+                    && getVvmPatterns(context, subId).isEmpty()) {
+                // Neither the visual voicemail format nor a carrier pattern can match, don't
+                // decode the message.
+                return false;
+            }
+            fullMessage = getFullMessage(messages);
+        }
 
         if (fullMessage == null) {
             // Carrier WAP push SMS is not recognized by android, which has a ascii PDU.
@@ -168,7 +193,7 @@ public class VisualVoicemailSmsFilter {
                     .parseAlternativeFormat(asciiMessage);
             if (messageData == null) {
                 Log.i(TAG, "Attempt to parse ascii PDU");
-                messageData = VisualVoicemailSmsParser.parse(clientPrefix, asciiMessage);
+                messageData = compiledFilter.parse(asciiMessage);
             }
             if (messageData != null) {
                 sendVvmSmsBroadcast(context, settings, phoneAccountHandle, messageData, null);
@@ -179,36 +204,34 @@ public class VisualVoicemailSmsFilter {
         }
 
         String messageBody = fullMessage.fullMessageBody;
-        WrappedMessageData messageData = VisualVoicemailSmsParser
-                .parse(clientPrefix, messageBody);
-        if (messageData != null) {
-            if (settings.destinationPort
-                    == VisualVoicemailSmsFilterSettings.DESTINATION_PORT_DATA_SMS) {
-                if (destPort == -1) {
+        if (!compiledFilter.acceptsDestinationPort(destPort)) {
+            // Only check the format, the fields are not needed.
+            if (compiledFilter.matchesFormat(messageBody)) {
+                if (settings.destinationPort
+                        == VisualVoicemailSmsFilterSettings.DESTINATION_PORT_DATA_SMS) {
                     // Non-data SMS is directed to the port "-1".
                     Log.i(TAG, "SMS matching VVM format received but is not a DATA SMS");
-                    return false;
-                }
-            } else if (settings.destinationPort
-                    != VisualVoicemailSmsFilterSettings.DESTINATION_PORT_ANY) {
-                if (settings.destinationPort != destPort) {
+                } else {
                     Log.i(TAG, "SMS matching VVM format received but is not directed to port "
                             + settings.destinationPort);
-                    return false;
                 }
-            }
-
-            if (!settings.originatingNumbers.isEmpty()
-                    && !isSmsFromNumbers(fullMessage.firstMessage, settings.originatingNumbers)) {
-                Log.i(TAG, "SMS matching VVM format received but is not from originating numbers");
                 return false;
             }
+        } else {
+            WrappedMessageData messageData = compiledFilter.parse(messageBody);
+            if (messageData != null) {
+                if (!compiledFilter.isFromOriginatingNumbers(fullMessage.firstMessage)) {
+                    Log.i(TAG, "SMS matching VVM format received but is not from originating "
+                            + "numbers");
+                    return false;
+                }
 
-            sendVvmSmsBroadcast(context, settings, phoneAccountHandle, messageData, null);
-            return true;
+                sendVvmSmsBroadcast(context, settings, phoneAccountHandle, messageData, null);
+                return true;
+            }
         }
 
-        if (messageBodyMatchesVvmPattern(context, subId, messageBody)) {
+        if (matchesVvmPattern(getVvmPatterns(context, subId), messageBody)) {
             Log.w(TAG,
                     "SMS matches pattern but has illegal format, still dropping as VVM SMS");
             sendVvmSmsBroadcast(context, settings, phoneAccountHandle, null, messageBody);
@@ -217,16 +240,35 @@ public class VisualVoicemailSmsFilter {
         return false;
     }
 
-    private static boolean messageBodyMatchesVvmPattern(Context context, int subId,
-            String messageBody) {
+    /**
+     * @return the compiled filter for the settings of the subscription. It is rebuilt only if the
+     * settings have changed since the last call.
+     */
+    @VisibleForTesting
+    static CompiledFilter getCompiledFilter(int subId, VisualVoicemailSmsFilterSettings settings) {
+        synchronized (sCompiledFilters) {
+            CompiledFilter compiledFilter = sCompiledFilters.get(subId);
+            if (compiledFilter == null || !compiledFilter.hasSettings(settings)) {
+                compiledFilter = new CompiledFilter(settings);
+                sCompiledFilters.put(subId, compiledFilter);
+            }
+            return compiledFilter;
+        }
+    }
+
+    /**
+     * @return the carrier patterns for the SIM of the subscription, see
+     * {@link com.android.internal.R.array#config_vvmSmsFilterRegexes}.
+     */
+    private static List<Pattern> getVvmPatterns(Context context, int subId) {
         buildPatternsMap(context);
         String mccMnc = context.getSystemService(TelephonyManager.class).getSimOperator(subId);
 
         List<Pattern> patterns = sPatterns.get(mccMnc);
-        if (patterns == null || patterns.isEmpty()) {
-            return false;
-        }
+        return patterns != null ? patterns : Collections.emptyList();
+    }
 
+    private static boolean matchesVvmPattern(List<Pattern> patterns, String messageBody) {
         for (Pattern pattern : patterns) {
             if (pattern.matcher(messageBody).matches()) {
                 Log.w(TAG, "Incoming SMS matches pattern " + pattern);
@@ -294,15 +336,49 @@ public class VisualVoicemailSmsFilter {
      */
     @Nullable
     private static FullMessage getFullMessage(byte[][] pdus, String format) {
-        FullMessage result = new FullMessage();
-        StringBuilder builder = new StringBuilder();
-        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
-        for (byte pdu[] : pdus) {
-            SmsMessage message = SmsMessage.createFromPdu(pdu, format);
-            if (message == null) {
+        SmsMessage[] messages = createSmsMessages(pdus, format);
+        return messages != null ? getFullMessage(messages) : null;
+    }
+
+    /**
+     * @return the messages of the PDUs, or {@code null} if a PDU is not recognized.
+     */
+    @Nullable
+    private static SmsMessage[] createSmsMessages(byte[][] pdus, String format) {
+        SmsMessage[] messages = new SmsMessage[pdus.length];
+        for (int i = 0; i < pdus.length; i++) {
+            messages[i] = SmsMessage.createFromPdu(pdus[i], format);
+            if (messages[i] == null) {
                 // The PDU is not recognized by android
                 return null;
             }
+        }
+        return messages;
+    }
+
+    /**
+     * @return the user data which the message body is decoded from as UTF-8 by
+     * {@link #getFullMessage(SmsMessage[])}, or {@code null} if the body is decoded by
+     * {@link SmsMessage}.
+     */
+    @Nullable
+    private static byte[] getUtf8UserData(SmsMessage message) {
+        if (message.getMessageBody() == null || (message.is3gpp()
+                && message.getReceivedEncodingType() == ENCODING_8BIT)) {
+            return message.getUserData();
+        }
+        return null;
+    }
+
+    /**
+     * @return the message body of the SMS, or {@code null} if it can not be parsed.
+     */
+    @Nullable
+    private static FullMessage getFullMessage(SmsMessage[] messages) {
+        FullMessage result = new FullMessage();
+        StringBuilder builder = new StringBuilder();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        for (SmsMessage message : messages) {
             if (result.firstMessage == null) {
                 result.firstMessage = message;
             }
@@ -316,15 +392,14 @@ public class VisualVoicemailSmsFilter {
              * received message. However, the message is most likely encoded with UTF-8. Therefore,
              * we need to retry decoding the received message with UTF-8.
              */
-            if ((body == null || (message.is3gpp()
-                    && message.getReceivedEncodingType() == ENCODING_8BIT))
-                    && message.getUserData() != null) {
+            byte[] userData = getUtf8UserData(message);
+            if (userData != null) {
                 Log.d(TAG, "getFullMessage decode using UTF-8");
                 // Attempt to interpret the user data as UTF-8. UTF-8 string over data SMS using
                 // 8BIT data coding scheme is our recommended way to send VVM SMS and is used in CTS
                 // Tests. The OMTP visual voicemail specification does not specify the SMS type and
                 // encoding.
-                ByteBuffer byteBuffer = ByteBuffer.wrap(message.getUserData());
+                ByteBuffer byteBuffer = ByteBuffer.wrap(userData);
                 try {
                     body = decoder.decode(byteBuffer).toString();
                 } catch (CharacterCodingException e) {
@@ -362,4 +437,145 @@ public class VisualVoicemailSmsFilter {
         }
         return false;
     }
+
+    /**
+     * The {@link VisualVoicemailSmsFilterSettings} of a subscription, prepared for the incoming
+     * SMS. The client prefix is matched on the user data before it is decoded, and the fields are
+     * parsed in a single pass. {@link #parse} returns the same result as
+     * {@link VisualVoicemailSmsParser#parse} with the client prefix.
+     */
+    @VisibleForTesting
+    static final class CompiledFilter {
+        private final VisualVoicemailSmsFilterSettings mSettings;
+        private final String mClientPrefix;
+        // The client prefix and the following ':' in UTF-8.
+        private final byte[] mClientPrefixBytes;
+
+        CompiledFilter(VisualVoicemailSmsFilterSettings settings) {
+            mSettings = settings;
+            mClientPrefix = settings.clientPrefix;
+            mClientPrefixBytes = (settings.clientPrefix + ":").getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return whether the filter was compiled from settings equal to the given ones.
+         */
+        boolean hasSettings(VisualVoicemailSmsFilterSettings settings) {
+            return mSettings.destinationPort == settings.destinationPort
+                    && Objects.equals(mSettings.clientPrefix, settings.clientPrefix)
+                    && Objects.equals(mSettings.originatingNumbers, settings.originatingNumbers)
+                    && Objects.equals(mSettings.packageName, settings.packageName);
+        }
+
+        /**
+         * @param userData the user data of the first PDU, which is decoded as UTF-8.
+         * @return {@code false} if the decoded message body cannot start with the client prefix.
+         */
+        boolean mayStartWithPrefix(byte[] userData) {
+            // The message body might continue in the next PDU.
+            int length = Math.min(userData.length, mClientPrefixBytes.length);
+            for (int i = 0; i < length; i++) {
+                if (userData[i] != mClientPrefixBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return whether the SMS to the destination port is accepted by the settings.
+         */
+        boolean acceptsDestinationPort(int destPort) {
+            if (mSettings.destinationPort
+                    == VisualVoicemailSmsFilterSettings.DESTINATION_PORT_DATA_SMS) {
+                // Non-data SMS is directed to the port "-1".
+                return destPort != -1;
+            }
+            return mSettings.destinationPort
+                    == VisualVoicemailSmsFilterSettings.DESTINATION_PORT_ANY
+                    || mSettings.destinationPort == destPort;
+        }
+
+        /**
+         * @return whether the SMS is from the originating numbers of the settings, if any.
+         */
+        boolean isFromOriginatingNumbers(SmsMessage message) {
+            return mSettings.originatingNumbers.isEmpty()
+                    || isSmsFromNumbers(message, mSettings.originatingNumbers);
+        }
+
+        /**
+         * Parses the SMS body in the format [clientPrefix]:[prefix]:([key]=[value];)*
+         *
+         * @return the parsed message, or {@code null} if the SMS body does not match the format.
+         */
+        @Nullable
+        WrappedMessageData parse(String smsBody) {
+            int eventTypeEnd = findEventTypeEnd(smsBody);
+            if (eventTypeEnd == -1) {
+                return null;
+            }
+            Bundle fields = new Bundle();
+            if (!scanFields(smsBody, eventTypeEnd + 1, fields)) {
+                return null;
+            }
+            return new WrappedMessageData(
+                    smsBody.substring(mClientPrefix.length() + 1, eventTypeEnd), fields);
+        }
+
+        /**
+         * @return whether {@link #parse} would succeed, without building the fields.
+         */
+        boolean matchesFormat(String smsBody) {
+            int eventTypeEnd = findEventTypeEnd(smsBody);
+            return eventTypeEnd != -1 && scanFields(smsBody, eventTypeEnd + 1, null);
+        }
+
+        private int findEventTypeEnd(String smsBody) {
+            int prefixEnd = mClientPrefix.length();
+            if (smsBody.length() <= prefixEnd || !smsBody.startsWith(mClientPrefix)
+                    || smsBody.charAt(prefixEnd) != ':') {
+                return -1;
+            }
+            return smsBody.indexOf(':', prefixEnd + 1);
+        }
+
+        /**
+         * Scans the ';' separated [key]=[value] fields from the start of the message. Empty fields
+         * are ignored and the value may be empty, but the key is required.
+         *
+         * @param fields the bundle to put the fields into, or {@code null} to only check them.
+         * @return whether all fields are valid.
+         */
+        private static boolean scanFields(String message, int start,
+                @Nullable Bundle fields) {
+            int length = message.length();
+            int fieldStart = start;
+            while (fieldStart < length) {
+                int separatorIndex = -1;
+                int fieldEnd = fieldStart;
+                for (; fieldEnd < length; fieldEnd++) {
+                    char c = message.charAt(fieldEnd);
+                    if (c == ';') {
+                        break;
+                    }
+                    if (c == '=' && separatorIndex == -1) {
+                        separatorIndex = fieldEnd;
+                    }
+                }
+                if (fieldEnd > fieldStart) {
+                    if (separatorIndex == -1 || separatorIndex == fieldStart) {
+                        // No separator or no key.
+                        return false;
+                    }
+                    if (fields != null) {
+                        fields.putString(message.substring(fieldStart, separatorIndex),
+                                message.substring(separatorIndex + 1, fieldEnd));
+                    }
+                }
+                fieldStart = fieldEnd + 1;
+            }
+            return true;
+        }
+    }
 }
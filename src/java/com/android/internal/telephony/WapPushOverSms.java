@@ -196,24 +196,13 @@ public class WapPushOverSms implements ServiceConnection {
                             .makeWspTypeDecoder(pdu);
 
             /**
-             * Parse HeaderLen(unsigned integer).
-             * From wap-230-wsp-20010705-a section 8.1.2
+             * Parse HeaderLen(unsigned integer), Content-Type and the header fields in one pass.
+             *
+             * HeaderLen, from wap-230-wsp-20010705-a section 8.1.2
              * The maximum size of a uintvar is 32 bits.
              * So it will be encoded in no more than 5 octets.
-             */
-            if (pduDecoder.decodeUintvarInteger(index) == false) {
-                if (DBG) Rlog.w(TAG, "Received PDU. Header Length error.");
-                result.statusCode = Intents.RESULT_SMS_GENERIC_ERROR;
-                return result;
-            }
-            int headerLength = (int) pduDecoder.getValue32();
-            index += pduDecoder.getDecodedDataLength();
-
-            int headerStartIndex = index;
-
-            /**
-             * Parse Content-Type.
-             * From wap-230-wsp-20010705-a section 8.4.2.24
+             *
+             * Content-Type, from wap-230-wsp-20010705-a section 8.4.2.24
              *
              * Content-type-value = Constrained-media | Content-general-form
              * Content-general-form = Value-length Media-type
@@ -223,15 +212,21 @@ public class WapPushOverSms implements ServiceConnection {
              * Length-quote = <Octet 31>         (WAP_PDU_LENGTH_QUOTE)
              * Length = Uintvar-integer
              */
-            if (pduDecoder.decodeContentType(index) == false) {
-                if (DBG) Rlog.w(TAG, "Received PDU. Header Content-Type error.");
+            boolean decoded = pduDecoder.decodePushHeaders(index);
+            WspHeaderTokenizer headers = pduDecoder.getPushHeaders();
+            if (!decoded) {
+                if (DBG) {
+                    Rlog.w(TAG, "Received PDU. Header "
+                            + ((headers == null || headers.getHeaderStartIndex() < 0)
+                                    ? "Length" : "Content-Type") + " error.");
+                }
                 result.statusCode = Intents.RESULT_SMS_GENERIC_ERROR;
                 return result;
             }
-
-            String mimeType = pduDecoder.getValueString();
-            long binaryContentType = pduDecoder.getValue32();
-            index += pduDecoder.getDecodedDataLength();
+            int headerLength = headers.getHeaderLength();
+            int headerStartIndex = headers.getHeaderStartIndex();
+            String mimeType = headers.getMimeType();
+            long binaryContentType = headers.getBinaryContentType();
 
             byte[] header = new byte[headerLength];
             System.arraycopy(pdu, headerStartIndex, header, 0, header.length);
@@ -270,23 +265,27 @@ public class WapPushOverSms implements ServiceConnection {
             }
 
             /**
-             * Seek for application ID field in WSP header.
+             * Application ID field in WSP header.
              * If application ID is found, WapPushManager substitute the message
              * processing. Since WapPushManager is optional module, if WapPushManager
              * is not found, legacy message processing will be continued.
              */
-            if (pduDecoder.seekXWapApplicationId(index, index + headerLength - 1)) {
-                index = (int) pduDecoder.getValue32();
-                pduDecoder.decodeXWapApplicationId(index);
-                String wapAppId = pduDecoder.getValueString();
-                if (wapAppId == null) {
-                    wapAppId = Integer.toString((int) pduDecoder.getValue32());
+            switch (headers.getApplicationIdStatus()) {
+                case WspHeaderTokenizer.APPLICATION_ID_FOUND: {
+                    String wapAppId = headers.getApplicationId();
+                    result.wapAppId = wapAppId;
+                    String contentType = ((mimeType == null) ?
+                            Long.toString(binaryContentType) : mimeType);
+                    result.contentType = contentType;
+                    if (DBG) Rlog.v(TAG, "appid found: " + wapAppId + ":" + contentType);
+                    break;
                 }
-                result.wapAppId = wapAppId;
-                String contentType = ((mimeType == null) ?
-                        Long.toString(binaryContentType) : mimeType);
-                result.contentType = contentType;
-                if (DBG) Rlog.v(TAG, "appid found: " + wapAppId + ":" + contentType);
+                case WspHeaderTokenizer.APPLICATION_ID_MALFORMED:
+                    Rlog.e(TAG, "ignoring dispatchWapPdu() malformed X-Wap-Application-Id");
+                    result.statusCode = Intents.RESULT_SMS_GENERIC_ERROR;
+                    return result;
+                default:
+                    break;
             }
 
             result.subId = subId;
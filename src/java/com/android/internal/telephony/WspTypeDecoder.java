@@ -24,176 +24,17 @@ import java.util.HashMap;
 /**
  * Implement the WSP data type decoder.
  *
+ * <p>The decoding is done by {@link WspHeaderTokenizer}. The results of each operation are also
+ * kept in the fields of this class.
+ *
  * @hide
  */
 public class WspTypeDecoder {
 
-    private static final int WAP_PDU_SHORT_LENGTH_MAX = 30;
-    private static final int WAP_PDU_LENGTH_QUOTE = 31;
-
     public static final int PDU_TYPE_PUSH = 0x06;
     public static final int PDU_TYPE_CONFIRMED_PUSH = 0x07;
 
-    private final static HashMap<Integer, String> WELL_KNOWN_MIME_TYPES =
-            new HashMap<Integer, String>();
-
-    private final static HashMap<Integer, String> WELL_KNOWN_PARAMETERS =
-            new HashMap<Integer, String>();
-
     public static final int PARAMETER_ID_X_WAP_APPLICATION_ID = 0x2f;
-    private static final int Q_VALUE = 0x00;
-
-    static {
-        WELL_KNOWN_MIME_TYPES.put(0x00, "*/*");
-        WELL_KNOWN_MIME_TYPES.put(0x01, "text/*");
-        WELL_KNOWN_MIME_TYPES.put(0x02, "text/html");
-        WELL_KNOWN_MIME_TYPES.put(0x03, "text/plain");
-        WELL_KNOWN_MIME_TYPES.put(0x04, "text/x-hdml");
-        WELL_KNOWN_MIME_TYPES.put(0x05, "text/x-ttml");
-        WELL_KNOWN_MIME_TYPES.put(0x06, "text/x-vCalendar");
-        WELL_KNOWN_MIME_TYPES.put(0x07, "text/x-vCard");
-        WELL_KNOWN_MIME_TYPES.put(0x08, "text/vnd.wap.wml");
-        WELL_KNOWN_MIME_TYPES.put(0x09, "text/vnd.wap.wmlscript");
-        WELL_KNOWN_MIME_TYPES.put(0x0A, "text/vnd.wap.wta-event");
-        WELL_KNOWN_MIME_TYPES.put(0x0B, "multipart/*");
-        WELL_KNOWN_MIME_TYPES.put(0x0C, "multipart/mixed");
-        WELL_KNOWN_MIME_TYPES.put(0x0D, "multipart/form-data");
-        WELL_KNOWN_MIME_TYPES.put(0x0E, "multipart/byterantes");
-        WELL_KNOWN_MIME_TYPES.put(0x0F, "multipart/alternative");
-        WELL_KNOWN_MIME_TYPES.put(0x10, "application/*");
-        WELL_KNOWN_MIME_TYPES.put(0x11, "application/java-vm");
-        WELL_KNOWN_MIME_TYPES.put(0x12, "application/x-www-form-urlencoded");
-        WELL_KNOWN_MIME_TYPES.put(0x13, "application/x-hdmlc");
-        WELL_KNOWN_MIME_TYPES.put(0x14, "application/vnd.wap.wmlc");
-        WELL_KNOWN_MIME_TYPES.put(0x15, "application/vnd.wap.wmlscriptc");
-        WELL_KNOWN_MIME_TYPES.put(0x16, "application/vnd.wap.wta-eventc");
-        WELL_KNOWN_MIME_TYPES.put(0x17, "application/vnd.wap.uaprof");
-        WELL_KNOWN_MIME_TYPES.put(0x18, "application/vnd.wap.wtls-ca-certificate");
-        WELL_KNOWN_MIME_TYPES.put(0x19, "application/vnd.wap.wtls-user-certificate");
-        WELL_KNOWN_MIME_TYPES.put(0x1A, "application/x-x509-ca-cert");
-        WELL_KNOWN_MIME_TYPES.put(0x1B, "application/x-x509-user-cert");
-        WELL_KNOWN_MIME_TYPES.put(0x1C, "image/*");
-        WELL_KNOWN_MIME_TYPES.put(0x1D, "image/gif");
-        WELL_KNOWN_MIME_TYPES.put(0x1E, "image/jpeg");
-        WELL_KNOWN_MIME_TYPES.put(0x1F, "image/tiff");
-        WELL_KNOWN_MIME_TYPES.put(0x20, "image/png");
-        WELL_KNOWN_MIME_TYPES.put(0x21, "image/vnd.wap.wbmp");
-        WELL_KNOWN_MIME_TYPES.put(0x22, "application/vnd.wap.multipart.*");
-        WELL_KNOWN_MIME_TYPES.put(0x23, "application/vnd.wap.multipart.mixed");
-        WELL_KNOWN_MIME_TYPES.put(0x24, "application/vnd.wap.multipart.form-data");
-        WELL_KNOWN_MIME_TYPES.put(0x25, "application/vnd.wap.multipart.byteranges");
-        WELL_KNOWN_MIME_TYPES.put(0x26, "application/vnd.wap.multipart.alternative");
-        WELL_KNOWN_MIME_TYPES.put(0x27, "application/xml");
-        WELL_KNOWN_MIME_TYPES.put(0x28, "text/xml");
-        WELL_KNOWN_MIME_TYPES.put(0x29, "application/vnd.wap.wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x2A, "application/x-x968-cross-cert");
-        WELL_KNOWN_MIME_TYPES.put(0x2B, "application/x-x968-ca-cert");
-        WELL_KNOWN_MIME_TYPES.put(0x2C, "application/x-x968-user-cert");
-        WELL_KNOWN_MIME_TYPES.put(0x2D, "text/vnd.wap.si");
-        WELL_KNOWN_MIME_TYPES.put(0x2E, "application/vnd.wap.sic");
-        WELL_KNOWN_MIME_TYPES.put(0x2F, "text/vnd.wap.sl");
-        WELL_KNOWN_MIME_TYPES.put(0x30, "application/vnd.wap.slc");
-        WELL_KNOWN_MIME_TYPES.put(0x31, "text/vnd.wap.co");
-        WELL_KNOWN_MIME_TYPES.put(0x32, "application/vnd.wap.coc");
-        WELL_KNOWN_MIME_TYPES.put(0x33, "application/vnd.wap.multipart.related");
-        WELL_KNOWN_MIME_TYPES.put(0x34, "application/vnd.wap.sia");
-        WELL_KNOWN_MIME_TYPES.put(0x35, "text/vnd.wap.connectivity-xml");
-        WELL_KNOWN_MIME_TYPES.put(0x36, "application/vnd.wap.connectivity-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x37, "application/pkcs7-mime");
-        WELL_KNOWN_MIME_TYPES.put(0x38, "application/vnd.wap.hashed-certificate");
-        WELL_KNOWN_MIME_TYPES.put(0x39, "application/vnd.wap.signed-certificate");
-        WELL_KNOWN_MIME_TYPES.put(0x3A, "application/vnd.wap.cert-response");
-        WELL_KNOWN_MIME_TYPES.put(0x3B, "application/xhtml+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x3C, "application/wml+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x3D, "text/css");
-        WELL_KNOWN_MIME_TYPES.put(0x3E, "application/vnd.wap.mms-message");
-        WELL_KNOWN_MIME_TYPES.put(0x3F, "application/vnd.wap.rollover-certificate");
-        WELL_KNOWN_MIME_TYPES.put(0x40, "application/vnd.wap.locc+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x41, "application/vnd.wap.loc+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x42, "application/vnd.syncml.dm+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x43, "application/vnd.syncml.dm+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x44, "application/vnd.syncml.notification");
-        WELL_KNOWN_MIME_TYPES.put(0x45, "application/vnd.wap.xhtml+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x46, "application/vnd.wv.csp.cir");
-        WELL_KNOWN_MIME_TYPES.put(0x47, "application/vnd.oma.dd+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x48, "application/vnd.oma.drm.message");
-        WELL_KNOWN_MIME_TYPES.put(0x49, "application/vnd.oma.drm.content");
-        WELL_KNOWN_MIME_TYPES.put(0x4A, "application/vnd.oma.drm.rights+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x4B, "application/vnd.oma.drm.rights+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x4C, "application/vnd.wv.csp+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x4D, "application/vnd.wv.csp+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x4E, "application/vnd.syncml.ds.notification");
-        WELL_KNOWN_MIME_TYPES.put(0x4F, "audio/*");
-        WELL_KNOWN_MIME_TYPES.put(0x50, "video/*");
-        WELL_KNOWN_MIME_TYPES.put(0x51, "application/vnd.oma.dd2+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x52, "application/mikey");
-        WELL_KNOWN_MIME_TYPES.put(0x53, "application/vnd.oma.dcd");
-        WELL_KNOWN_MIME_TYPES.put(0x54, "application/vnd.oma.dcdc");
-
-        WELL_KNOWN_MIME_TYPES.put(0x0201, "application/vnd.uplanet.cacheop-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0202, "application/vnd.uplanet.signal");
-        WELL_KNOWN_MIME_TYPES.put(0x0203, "application/vnd.uplanet.alert-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0204, "application/vnd.uplanet.list-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0205, "application/vnd.uplanet.listcmd-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0206, "application/vnd.uplanet.channel-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0207, "application/vnd.uplanet.provisioning-status-uri");
-        WELL_KNOWN_MIME_TYPES.put(0x0208, "x-wap.multipart/vnd.uplanet.header-set");
-        WELL_KNOWN_MIME_TYPES.put(0x0209, "application/vnd.uplanet.bearer-choice-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x020A, "application/vnd.phonecom.mmc-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x020B, "application/vnd.nokia.syncset+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x020C, "image/x-up-wpng");
-        WELL_KNOWN_MIME_TYPES.put(0x0300, "application/iota.mmc-wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0301, "application/iota.mmc-xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0302, "application/vnd.syncml+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0303, "application/vnd.syncml+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0304, "text/vnd.wap.emn+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0305, "text/calendar");
-        WELL_KNOWN_MIME_TYPES.put(0x0306, "application/vnd.omads-email+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0307, "application/vnd.omads-file+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0308, "application/vnd.omads-folder+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0309, "text/directory;profile=vCard");
-        WELL_KNOWN_MIME_TYPES.put(0x030A, "application/vnd.wap.emn+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x030B, "application/vnd.nokia.ipdc-purchase-response");
-        WELL_KNOWN_MIME_TYPES.put(0x030C, "application/vnd.motorola.screen3+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x030D, "application/vnd.motorola.screen3+gzip");
-        WELL_KNOWN_MIME_TYPES.put(0x030E, "application/vnd.cmcc.setting+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x030F, "application/vnd.cmcc.bombing+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0310, "application/vnd.docomo.pf");
-        WELL_KNOWN_MIME_TYPES.put(0x0311, "application/vnd.docomo.ub");
-        WELL_KNOWN_MIME_TYPES.put(0x0312, "application/vnd.omaloc-supl-init");
-        WELL_KNOWN_MIME_TYPES.put(0x0313, "application/vnd.oma.group-usage-list+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0314, "application/oma-directory+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x0315, "application/vnd.docomo.pf2");
-        WELL_KNOWN_MIME_TYPES.put(0x0316, "application/vnd.oma.drm.roap-trigger+wbxml");
-        WELL_KNOWN_MIME_TYPES.put(0x0317, "application/vnd.sbm.mid2");
-        WELL_KNOWN_MIME_TYPES.put(0x0318, "application/vnd.wmf.bootstrap");
-        WELL_KNOWN_MIME_TYPES.put(0x0319, "application/vnc.cmcc.dcd+xml");
-        WELL_KNOWN_MIME_TYPES.put(0x031A, "application/vnd.sbm.cid");
-        WELL_KNOWN_MIME_TYPES.put(0x031B, "application/vnd.oma.bcast.provisioningtrigger");
-
-        WELL_KNOWN_PARAMETERS.put(0x00, "Q");
-        WELL_KNOWN_PARAMETERS.put(0x01, "Charset");
-        WELL_KNOWN_PARAMETERS.put(0x02, "Level");
-        WELL_KNOWN_PARAMETERS.put(0x03, "Type");
-        WELL_KNOWN_PARAMETERS.put(0x07, "Differences");
-        WELL_KNOWN_PARAMETERS.put(0x08, "Padding");
-        WELL_KNOWN_PARAMETERS.put(0x09, "Type");
-        WELL_KNOWN_PARAMETERS.put(0x0E, "Max-Age");
-        WELL_KNOWN_PARAMETERS.put(0x10, "Secure");
-        WELL_KNOWN_PARAMETERS.put(0x11, "SEC");
-        WELL_KNOWN_PARAMETERS.put(0x12, "MAC");
-        WELL_KNOWN_PARAMETERS.put(0x13, "Creation-date");
-        WELL_KNOWN_PARAMETERS.put(0x14, "Modification-date");
-        WELL_KNOWN_PARAMETERS.put(0x15, "Read-date");
-        WELL_KNOWN_PARAMETERS.put(0x16, "Size");
-        WELL_KNOWN_PARAMETERS.put(0x17, "Name");
-        WELL_KNOWN_PARAMETERS.put(0x18, "Filename");
-        WELL_KNOWN_PARAMETERS.put(0x19, "Start");
-        WELL_KNOWN_PARAMETERS.put(0x1A, "Start-info");
-        WELL_KNOWN_PARAMETERS.put(0x1B, "Comment");
-        WELL_KNOWN_PARAMETERS.put(0x1C, "Domain");
-        WELL_KNOWN_PARAMETERS.put(0x1D, "Path");
-    }
 
     public static final String CONTENT_TYPE_B_PUSH_CO = "application/vnd.wap.coc";
     public static final String CONTENT_TYPE_B_MMS = "application/vnd.wap.mms-message";
@@ -207,9 +48,22 @@ public class WspTypeDecoder {
 
     HashMap<String, String> mContentParameters;
 
+    private final WspHeaderTokenizer mTokenizer;
+
     @UnsupportedAppUsage
     public WspTypeDecoder(byte[] pdu) {
         mWspData = pdu;
+        mTokenizer = new WspHeaderTokenizer(pdu);
+    }
+
+    /**
+     * Copy the results of the latest operation of the tokenizer.
+     */
+    private void updateValues() {
+        mDataLength = mTokenizer.getDecodedDataLength();
+        mUnsigned32bit = mTokenizer.getValue32();
+        mStringValue = mTokenizer.getValueString();
+        mContentParameters = mTokenizer.getContentParameters();
     }
 
     /**
@@ -223,17 +77,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeTextString(int startIndex) {
-        int index = startIndex;
-        while (mWspData[index] != 0) {
-            index++;
-        }
-        mDataLength = index - startIndex + 1;
-        if (mWspData[startIndex] == 127) {
-            mStringValue = new String(mWspData, startIndex + 1, mDataLength - 2);
-        } else {
-            mStringValue = new String(mWspData, startIndex, mDataLength - 1);
+        try {
+            return mTokenizer.decodeTextString(startIndex);
+        } finally {
+            updateValues();
         }
-        return true;
     }
 
     /**
@@ -246,14 +94,11 @@ public class WspTypeDecoder {
      *         length of data in pdu can be retrieved by getDecodedDataLength() method
      */
     public boolean decodeTokenText(int startIndex) {
-        int index = startIndex;
-        while (mWspData[index] != 0) {
-            index++;
+        try {
+            return mTokenizer.decodeTokenText(startIndex);
+        } finally {
+            updateValues();
         }
-        mDataLength = index - startIndex + 1;
-        mStringValue = new String(mWspData, startIndex, mDataLength - 1);
-
-        return true;
     }
 
     /**
@@ -267,12 +112,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeShortInteger(int startIndex) {
-        if ((mWspData[startIndex] & 0x80) == 0) {
-            return false;
+        try {
+            return mTokenizer.decodeShortInteger(startIndex);
+        } finally {
+            updateValues();
         }
-        mUnsigned32bit = mWspData[startIndex] & 0x7f;
-        mDataLength = 1;
-        return true;
     }
 
     /**
@@ -285,17 +129,11 @@ public class WspTypeDecoder {
      *         length of data in pdu can be retrieved by getDecodedDataLength() method
      */
     public boolean decodeLongInteger(int startIndex) {
-        int lengthMultiOctet = mWspData[startIndex] & 0xff;
-
-        if (lengthMultiOctet > WAP_PDU_SHORT_LENGTH_MAX) {
-            return false;
-        }
-        mUnsigned32bit = 0;
-        for (int i = 1; i <= lengthMultiOctet; i++) {
-            mUnsigned32bit = (mUnsigned32bit << 8) | (mWspData[startIndex + i] & 0xff);
+        try {
+            return mTokenizer.decodeLongInteger(startIndex);
+        } finally {
+            updateValues();
         }
-        mDataLength = 1 + lengthMultiOctet;
-        return true;
     }
 
     /**
@@ -309,10 +147,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeIntegerValue(int startIndex) {
-        if (decodeShortInteger(startIndex) == true) {
-            return true;
+        try {
+            return mTokenizer.decodeIntegerValue(startIndex);
+        } finally {
+            updateValues();
         }
-        return decodeLongInteger(startIndex);
     }
 
     /**
@@ -326,19 +165,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeUintvarInteger(int startIndex) {
-        int index = startIndex;
-
-        mUnsigned32bit = 0;
-        while ((mWspData[index] & 0x80) != 0) {
-            if ((index - startIndex) >= 4) {
-                return false;
-            }
-            mUnsigned32bit = (mUnsigned32bit << 7) | (mWspData[index] & 0x7f);
-            index++;
+        try {
+            return mTokenizer.decodeUintvarInteger(startIndex);
+        } finally {
+            updateValues();
         }
-        mUnsigned32bit = (mUnsigned32bit << 7) | (mWspData[index] & 0x7f);
-        mDataLength = index - startIndex + 1;
-        return true;
     }
 
     /**
@@ -352,17 +183,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeValueLength(int startIndex) {
-        if ((mWspData[startIndex] & 0xff) > WAP_PDU_LENGTH_QUOTE) {
-            return false;
-        }
-        if (mWspData[startIndex] < WAP_PDU_LENGTH_QUOTE) {
-            mUnsigned32bit = mWspData[startIndex];
-            mDataLength = 1;
-        } else {
-            decodeUintvarInteger(startIndex + 1);
-            mDataLength++;
+        try {
+            return mTokenizer.decodeValueLength(startIndex);
+        } finally {
+            updateValues();
         }
-        return true;
     }
 
     /**
@@ -376,20 +201,11 @@ public class WspTypeDecoder {
      *         data in the PDU is available with getValue32(), 0 on error.
      */
     public boolean decodeExtensionMedia(int startIndex) {
-        int index = startIndex;
-        mDataLength = 0;
-        mStringValue = null;
-        int length = mWspData.length;
-        boolean rtrn = index < length;
-
-        while (index < length && mWspData[index] != 0) {
-            index++;
+        try {
+            return mTokenizer.decodeExtensionMedia(startIndex);
+        } finally {
+            updateValues();
         }
-
-        mDataLength = index - startIndex + 1;
-        mStringValue = new String(mWspData, startIndex, mDataLength - 1);
-
-        return rtrn;
     }
 
     /**
@@ -402,11 +218,11 @@ public class WspTypeDecoder {
      *         length of data in pdu can be retrieved by getDecodedDataLength() method
      */
     public boolean decodeConstrainedEncoding(int startIndex) {
-        if (decodeShortInteger(startIndex) == true) {
-            mStringValue = null;
-            return true;
+        try {
+            return mTokenizer.decodeConstrainedEncoding(startIndex);
+        } finally {
+            updateValues();
         }
-        return decodeExtensionMedia(startIndex);
     }
 
     /**
@@ -424,147 +240,35 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage
     public boolean decodeContentType(int startIndex) {
-        int mediaPrefixLength;
-        mContentParameters = new HashMap<String, String>();
-
         try {
-            if (decodeValueLength(startIndex) == false) {
-                boolean found = decodeConstrainedEncoding(startIndex);
-                if (found) {
-                    expandWellKnownMimeType();
-                }
-                return found;
-            }
-            int headersLength = (int) mUnsigned32bit;
-            mediaPrefixLength = getDecodedDataLength();
-            if (decodeIntegerValue(startIndex + mediaPrefixLength) == true) {
-                mDataLength += mediaPrefixLength;
-                int readLength = mDataLength;
-                mStringValue = null;
-                expandWellKnownMimeType();
-                long wellKnownValue = mUnsigned32bit;
-                String mimeType = mStringValue;
-                if (readContentParameters(startIndex + mDataLength,
-                        (headersLength - (mDataLength - mediaPrefixLength)), 0)) {
-                    mDataLength += readLength;
-                    mUnsigned32bit = wellKnownValue;
-                    mStringValue = mimeType;
-                    return true;
-                }
-                return false;
-            }
-            if (decodeExtensionMedia(startIndex + mediaPrefixLength) == true) {
-                mDataLength += mediaPrefixLength;
-                int readLength = mDataLength;
-                expandWellKnownMimeType();
-                long wellKnownValue = mUnsigned32bit;
-                String mimeType = mStringValue;
-                if (readContentParameters(startIndex + mDataLength,
-                        (headersLength - (mDataLength - mediaPrefixLength)), 0)) {
-                    mDataLength += readLength;
-                    mUnsigned32bit = wellKnownValue;
-                    mStringValue = mimeType;
-                    return true;
-                }
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            //something doesn't add up
-            return false;
-        }
-        return false;
-    }
-
-    private boolean readContentParameters(int startIndex, int leftToRead, int accumulator) {
-
-        int totalRead = 0;
-
-        if (leftToRead > 0) {
-            byte nextByte = mWspData[startIndex];
-            String value = null;
-            String param = null;
-            if ((nextByte & 0x80) == 0x00 && nextByte > 31) { // untyped
-                decodeTokenText(startIndex);
-                param = mStringValue;
-                totalRead += mDataLength;
-            } else { // typed
-                if (decodeIntegerValue(startIndex)) {
-                    totalRead += mDataLength;
-                    int wellKnownParameterValue = (int) mUnsigned32bit;
-                    param = WELL_KNOWN_PARAMETERS.get(wellKnownParameterValue);
-                    if (param == null) {
-                        param = "unassigned/0x" + Long.toHexString(wellKnownParameterValue);
-                    }
-                    // special case for the "Q" parameter, value is a uintvar
-                    if (wellKnownParameterValue == Q_VALUE) {
-                        if (decodeUintvarInteger(startIndex + totalRead)) {
-                            totalRead += mDataLength;
-                            value = String.valueOf(mUnsigned32bit);
-                            mContentParameters.put(param, value);
-                            return readContentParameters(startIndex + totalRead, leftToRead
-                                                            - totalRead, accumulator + totalRead);
-                        } else {
-                            return false;
-                        }
-                    }
-                } else {
-                    return false;
-                }
-            }
-
-            if (decodeNoValue(startIndex + totalRead)) {
-                totalRead += mDataLength;
-                value = null;
-            } else if (decodeIntegerValue(startIndex + totalRead)) {
-                totalRead += mDataLength;
-                int intValue = (int) mUnsigned32bit;
-                value = String.valueOf(intValue);
-            } else {
-                decodeTokenText(startIndex + totalRead);
-                totalRead += mDataLength;
-                value = mStringValue;
-                if (value.startsWith("\"")) {
-                    // quoted string, so remove the quote
-                    value = value.substring(1);
-                }
-            }
-            mContentParameters.put(param, value);
-            return readContentParameters(startIndex + totalRead, leftToRead - totalRead,
-                                            accumulator + totalRead);
-
-        } else {
-            mDataLength = accumulator;
-            return true;
+            return mTokenizer.decodeContentType(startIndex);
+        } finally {
+            updateValues();
         }
     }
 
     /**
-     * Check if the next byte is No-Value
+     * Decode the header length, the content type and the header fields of a push PDU in one pass.
+     * See {@link WspHeaderTokenizer#decodePushHeaders(int)}.
      *
-     * @param startIndex The starting position of the "Content length" in this pdu
+     * @param startIndex The position of the header length in this pdu
      *
-     * @return true if and only if the next byte is 0x00
+     * @return false when the header length or the content type cannot be decoded
+     *         the results can be retrieved by getPushHeaders()
      */
-    private boolean decodeNoValue(int startIndex) {
-        if (mWspData[startIndex] == 0) {
-            mDataLength = 1;
-            return true;
-        } else {
-            return false;
+    public boolean decodePushHeaders(int startIndex) {
+        try {
+            return mTokenizer.decodePushHeaders(startIndex);
+        } finally {
+            updateValues();
         }
     }
 
     /**
-     * Populate stringValue with the mime type corresponding to the value in unsigned32bit
-     *
-     * Sets unsigned32bit to -1 if stringValue is already populated
+     * The tokenizer holding the results of the latest decodePushHeaders() invocation.
      */
-    private void expandWellKnownMimeType() {
-        if (mStringValue == null) {
-            int binaryContentType = (int) mUnsigned32bit;
-            mStringValue = WELL_KNOWN_MIME_TYPES.get(binaryContentType);
-        } else {
-            mUnsigned32bit = -1;
-        }
+    public WspHeaderTokenizer getPushHeaders() {
+        return mTokenizer;
     }
 
     /**
@@ -605,11 +309,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean decodeXWapApplicationId(int startIndex) {
-        if (decodeIntegerValue(startIndex) == true) {
-            mStringValue = null;
-            return true;
+        try {
+            return mTokenizer.decodeXWapApplicationId(startIndex);
+        } finally {
+            updateValues();
         }
-        return decodeTextString(startIndex);
     }
 
     /**
@@ -623,58 +327,11 @@ public class WspTypeDecoder {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean seekXWapApplicationId(int startIndex, int endIndex) {
-        int index = startIndex;
-
         try {
-            for (index = startIndex; index <= endIndex; ) {
-                /**
-                 * 8.4.1.1  Field name
-                 * Field name is integer or text.
-                 */
-                if (decodeIntegerValue(index)) {
-                    int fieldValue = (int) getValue32();
-
-                    if (fieldValue == PARAMETER_ID_X_WAP_APPLICATION_ID) {
-                        mUnsigned32bit = index + 1;
-                        return true;
-                    }
-                } else {
-                    if (!decodeTextString(index)) return false;
-                }
-                index += getDecodedDataLength();
-                if (index > endIndex) return false;
-
-                /**
-                 * 8.4.1.2 Field values
-                 * Value Interpretation of First Octet
-                 * 0 - 30 This octet is followed by the indicated number (0 - 30)
-                        of data octets
-                 * 31 This octet is followed by a uintvar, which indicates the number
-                 *      of data octets after it
-                 * 32 - 127 The value is a text string, terminated by a zero octet
-                        (NUL character)
-                 * 128 - 255 It is an encoded 7-bit value; this header has no more data
-                 */
-                byte val = mWspData[index];
-                if (0 <= val && val <= WAP_PDU_SHORT_LENGTH_MAX) {
-                    index += mWspData[index] + 1;
-                } else if (val == WAP_PDU_LENGTH_QUOTE) {
-                    if (index + 1 >= endIndex) return false;
-                    index++;
-                    if (!decodeUintvarInteger(index)) return false;
-                    index += getDecodedDataLength();
-                } else if (WAP_PDU_LENGTH_QUOTE < val && val <= 127) {
-                    if (!decodeTextString(index)) return false;
-                    index += getDecodedDataLength();
-                } else {
-                    index++;
-                }
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            //seek application ID failed. WSP header might be corrupted
-            return false;
+            return mTokenizer.seekXWapApplicationId(startIndex, endIndex);
+        } finally {
+            updateValues();
         }
-        return false;
     }
 
     /**
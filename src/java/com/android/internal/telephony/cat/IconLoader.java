@@ -25,56 +25,134 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.util.LruCache;
+import android.util.SparseArray;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.uicc.IccFileHandler;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Objects;
 
 /**
- * Class for loading icons from the SIM card. Has two states: single, for loading
- * one icon. Multi, for loading icons list.
+ * Class for loading icons from the SIM card. Icons are loaded in batches, either a single icon
+ * or an icons list. The image descriptors of all the icons of a batch are read at once, and the
+ * image instance of each icon is read as soon as its descriptor is available.
  *
+ * Decoded icons are kept in a memory-bounded cache shared by all the loaders, keyed by the ICCID
+ * of the card and the record number in EF_IMG.
  */
 class IconLoader extends Handler {
     // members
-    private int mState = STATE_SINGLE_ICON;
-    private ImageDescriptor mId = null;
-    private Bitmap mCurrentIcon = null;
-    private int mRecordNumber;
     private IccFileHandler mSimFH = null;
-    private Message mEndMsg = null;
-    private byte[] mIconData = null;
-    // multi icons state members
-    private int[] mRecordNumbers = null;
-    private int mCurrentRecordIndex = 0;
-    private Bitmap[] mIcons = null;
-    private HashMap<Integer, Bitmap> mIconsCache = null;
 
     private static IconLoader sLoader = null;
     private static HandlerThread sThread = null;
 
-    // Loader state values.
-    private static final int STATE_SINGLE_ICON = 1;
-    private static final int STATE_MULTI_ICONS = 2;
-
     // Finished loading single record from a linear-fixed EF-IMG.
     private static final int EVENT_READ_EF_IMG_RECOED_DONE  = 1;
     // Finished loading single icon from a Transparent DF-Graphics.
     private static final int EVENT_READ_ICON_DONE           = 2;
     // Finished loading single colour icon lookup table.
     private static final int EVENT_READ_CLUT_DONE           = 3;
+    // EF-IMG or the image instances may have been changed by a card REFRESH.
+    private static final int EVENT_IMG_CHANGED              = 4;
 
     // Color lookup table offset inside the EF.
     private static final int CLUT_LOCATION_OFFSET = 4;
     // CLUT entry size, {Red, Green, Black}
     private static final int CLUT_ENTRY_SIZE = 3;
+    // Offset of the image body in a colour image instance.
+    private static final int COLOUR_IMAGE_BODY_OFFSET = 6;
+
+    /** Maximum size in bytes of the decoded icons kept in the cache. */
+    @VisibleForTesting
+    static final int ICON_CACHE_MAX_BYTES = 1024 * 1024;
+
+    /** Decoded icons of all the cards, shared by all the loaders. */
+    private static final LruCache<IconCacheKey, Bitmap> sIconCache =
+            new LruCache<IconCacheKey, Bitmap>(ICON_CACHE_MAX_BYTES) {
+                @Override
+                protected int sizeOf(IconCacheKey key, Bitmap icon) {
+                    return icon.getAllocationByteCount();
+                }
+            };
+
+    /**
+     * Colours of the 8 pixels of each byte value of a basic image body, most significant bit
+     * first. A set bit is white, a clear bit is black.
+     */
+    private static final int[] BNW_BYTE_PIXELS = new int[256 * 8];
+
+    static {
+        for (int value = 0; value < 256; value++) {
+            for (int bit = 0; bit < 8; bit++) {
+                BNW_BYTE_PIXELS[value * 8 + bit] =
+                        bitToBnW((value >> (7 - bit)) & 0x01);
+            }
+        }
+    }
+
+    /** Key of a decoded icon in the cache. */
+    private static final class IconCacheKey {
+        final String mIccId;
+        final int mRecordNumber;
 
+        IconCacheKey(String iccId, int recordNumber) {
+            mIccId = iccId;
+            mRecordNumber = recordNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof IconCacheKey)) return false;
+            IconCacheKey that = (IconCacheKey) o;
+            return mRecordNumber == that.mRecordNumber && mIccId.equals(that.mIccId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mIccId, mRecordNumber);
+        }
+    }
+
+    /** A request to load a single icon or an icons list. */
+    private static class IconBatch {
+        final Message mEndMsg;
+        final boolean mIsSingleIcon;
+        final Bitmap[] mIcons;
+        // Number of distinct icons not loaded yet.
+        int mPendingCount;
+
+        IconBatch(Message endMsg, boolean isSingleIcon, int count) {
+            mEndMsg = endMsg;
+            mIsSingleIcon = isSingleIcon;
+            mIcons = new Bitmap[count];
+        }
+    }
+
+    /** The loading state of one distinct record of a batch. */
+    private static class IconRequest {
+        final IconBatch mBatch;
+        final String mIccId;
+        final int mRecordNumber;
+        // Indices of the record in the icons of the batch.
+        final ArrayList<Integer> mIndices = new ArrayList<>();
+        ImageDescriptor mId;
+        byte[] mIconData;
+
+        IconRequest(IconBatch batch, String iccId, int recordNumber) {
+            mBatch = batch;
+            mIccId = iccId;
+            mRecordNumber = recordNumber;
+        }
+    }
 
     private IconLoader(Looper looper , IccFileHandler fh) {
         super(looper);
         mSimFH = fh;
-
-        mIconsCache = new HashMap<Integer, Bitmap>(50);
+        mSimFH.registerForImgChanged(this, EVENT_IMG_CHANGED, null);
     }
 
     static IconLoader getInstance(Handler caller, IccFileHandler fh) {
@@ -93,13 +171,8 @@ class IconLoader extends Handler {
         if (recordNumbers == null || recordNumbers.length == 0 || msg == null) {
             return;
         }
-        mEndMsg = msg;
-        // initialize multi icons load variables.
-        mIcons = new Bitmap[recordNumbers.length];
-        mRecordNumbers = recordNumbers;
-        mCurrentRecordIndex = 0;
-        mState = STATE_MULTI_ICONS;
-        startLoadingIcon(recordNumbers[0]);
+        IconBatch batch = new IconBatch(msg, false, recordNumbers.length);
+        post(() -> startLoadingIcons(batch, recordNumbers));
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -107,72 +180,94 @@ class IconLoader extends Handler {
         if (msg == null) {
             return;
         }
-        mEndMsg = msg;
-        mState = STATE_SINGLE_ICON;
-        startLoadingIcon(recordNumber);
+        IconBatch batch = new IconBatch(msg, true, 1);
+        post(() -> startLoadingIcons(batch, new int[] {recordNumber}));
     }
 
-    private void startLoadingIcon(int recordNumber) {
-        // Reset the load variables.
-        mId = null;
-        mIconData = null;
-        mCurrentIcon = null;
-        mRecordNumber = recordNumber;
-
-        // make sure the icon was not already loaded and saved in the local cache.
-        if (mIconsCache.containsKey(recordNumber)) {
-            mCurrentIcon = mIconsCache.get(recordNumber);
-            postIcon();
+    // Runs on the loader thread, as the responses of the reads.
+    private void startLoadingIcons(IconBatch batch, int[] recordNumbers) {
+        if (mSimFH == null) {
+            postIcons(batch);
+            return;
+        }
+        String iccId = mSimFH.getIccId();
+
+        // Each distinct record is loaded once, unless it was already loaded and saved in the
+        // cache.
+        SparseArray<IconRequest> requests = new SparseArray<>();
+        for (int i = 0; i < recordNumbers.length; i++) {
+            int recordNumber = recordNumbers[i];
+            if (recordNumber < 0) {
+                continue;
+            }
+            Bitmap icon = getCachedIcon(iccId, recordNumber);
+            if (icon != null) {
+                batch.mIcons[i] = icon;
+                continue;
+            }
+            IconRequest request = requests.get(recordNumber);
+            if (request == null) {
+                request = new IconRequest(batch, iccId, recordNumber);
+                requests.put(recordNumber, request);
+            }
+            request.mIndices.add(i);
+        }
+
+        batch.mPendingCount = requests.size();
+        if (batch.mPendingCount == 0) {
+            postIcons(batch);
             return;
         }
 
-        // start the first phase ==> loading Image Descriptor.
-        readId();
+        // start the first phase ==> loading Image Descriptors.
+        for (int i = 0; i < requests.size(); i++) {
+            readId(requests.valueAt(i));
+        }
     }
 
     @Override
     public void handleMessage(Message msg) {
-        AsyncResult ar;
+        if (msg.what == EVENT_IMG_CHANGED) {
+            CatLog.d(this, "Icons changed on the card");
+            invalidateCachedIcons(mSimFH != null ? mSimFH.getIccId() : null);
+            return;
+        }
+
+        AsyncResult ar = (AsyncResult) msg.obj;
+        IconRequest request = (IconRequest) ar.userObj;
 
         try {
             switch (msg.what) {
             case EVENT_READ_EF_IMG_RECOED_DONE:
-                ar = (AsyncResult) msg.obj;
-                if (handleImageDescriptor((byte[]) ar.result)) {
-                    readIconData();
+                if (handleImageDescriptor(request, (byte[]) ar.result)) {
+                    readIconData(request);
                 } else {
                     throw new Exception("Unable to parse image descriptor");
                 }
                 break;
             case EVENT_READ_ICON_DONE:
                 CatLog.d(this, "load icon done");
-                ar = (AsyncResult) msg.obj;
                 byte[] rawData = ((byte[]) ar.result);
-                if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
-                    mCurrentIcon = parseToBnW(rawData, rawData.length);
-                    mIconsCache.put(mRecordNumber, mCurrentIcon);
-                    postIcon();
-                } else if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
-                    mIconData = rawData;
-                    readClut();
+                if (request.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
+                    onIconLoaded(request, parseToBnW(rawData, rawData.length));
+                } else if (request.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
+                    request.mIconData = rawData;
+                    readClut(request);
                 } else {
                     CatLog.d(this, "else  /postIcon ");
-                    postIcon();
+                    onIconLoaded(request, null);
                 }
                 break;
             case EVENT_READ_CLUT_DONE:
-                ar = (AsyncResult) msg.obj;
                 byte [] clut = ((byte[]) ar.result);
-                mCurrentIcon = parseToRGB(mIconData, mIconData.length,
-                        false, clut);
-                mIconsCache.put(mRecordNumber, mCurrentIcon);
-                postIcon();
+                onIconLoaded(request, parseToRGB(request.mIconData, request.mIconData.length,
+                        false, clut));
                 break;
             }
         } catch (Exception e) {
             CatLog.d(this, "Icon load failed");
             // post null icon back to the caller.
-            postIcon();
+            onIconLoaded(request, null);
         }
     }
 
@@ -183,53 +278,94 @@ class IconLoader extends Handler {
      * @param rawData byte [] containing Image Instance descriptor as defined in
      * TS 51.011.
      */
-    private boolean handleImageDescriptor(byte[] rawData) {
-        mId = ImageDescriptor.parse(rawData, 1);
-        if (mId == null) {
+    private boolean handleImageDescriptor(IconRequest request, byte[] rawData) {
+        request.mId = ImageDescriptor.parse(rawData, 1);
+        if (request.mId == null) {
             return false;
         }
         return true;
     }
 
     // Start reading color lookup table from SIM card.
-    private void readClut() {
-        int length = mIconData[3] * CLUT_ENTRY_SIZE;
-        Message msg = obtainMessage(EVENT_READ_CLUT_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId,
-                mIconData[CLUT_LOCATION_OFFSET],
-                mIconData[CLUT_LOCATION_OFFSET + 1], length, msg);
+    private void readClut(IconRequest request) {
+        int length = (request.mIconData[3] & 0xFF) * CLUT_ENTRY_SIZE;
+        Message msg = obtainMessage(EVENT_READ_CLUT_DONE, request);
+        mSimFH.loadEFImgTransparent(request.mId.mImageId,
+                request.mIconData[CLUT_LOCATION_OFFSET] & 0xFF,
+                request.mIconData[CLUT_LOCATION_OFFSET + 1] & 0xFF, length, msg);
     }
 
     // Start reading Image Descriptor from SIM card.
-    private void readId() {
-        if (mRecordNumber < 0) {
-            mCurrentIcon = null;
-            postIcon();
-            return;
-        }
-        Message msg = obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE);
-        mSimFH.loadEFImgLinearFixed(mRecordNumber, msg);
+    private void readId(IconRequest request) {
+        Message msg = obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE, request);
+        mSimFH.loadEFImgLinearFixed(request.mRecordNumber, msg);
     }
 
     // Start reading icon bytes array from SIM card.
-    private void readIconData() {
-        Message msg = obtainMessage(EVENT_READ_ICON_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId, 0, 0, mId.mLength ,msg);
+    private void readIconData(IconRequest request) {
+        Message msg = obtainMessage(EVENT_READ_ICON_DONE, request);
+        mSimFH.loadEFImgTransparent(request.mId.mImageId, 0, 0, request.mId.mLength, msg);
+    }
+
+    // Save the loaded icon, and pass all the icons back to the caller once all are loaded.
+    private void onIconLoaded(IconRequest request, Bitmap icon) {
+        if (icon != null) {
+            putCachedIcon(request.mIccId, request.mRecordNumber, icon);
+        }
+        IconBatch batch = request.mBatch;
+        for (int index : request.mIndices) {
+            batch.mIcons[index] = icon;
+        }
+        if (--batch.mPendingCount == 0) {
+            postIcons(batch);
+        }
+    }
+
+    // When all is done pass icons back to caller.
+    private void postIcons(IconBatch batch) {
+        if (batch.mIsSingleIcon) {
+            batch.mEndMsg.obj = batch.mIcons[0];
+        } else {
+            batch.mEndMsg.obj = batch.mIcons;
+        }
+        batch.mEndMsg.sendToTarget();
+    }
+
+    /**
+     * @return the cached icon of the record of the card, or {@code null} if not cached
+     */
+    @VisibleForTesting
+    static Bitmap getCachedIcon(String iccId, int recordNumber) {
+        if (iccId == null) {
+            return null;
+        }
+        return sIconCache.get(new IconCacheKey(iccId, recordNumber));
+    }
+
+    /**
+     * Save the icon of the record of the card in the cache. The icon is not cached if the ICCID
+     * is not known, as it could not be told apart from the icons of other cards.
+     */
+    @VisibleForTesting
+    static void putCachedIcon(String iccId, int recordNumber, Bitmap icon) {
+        if (iccId == null) {
+            return;
+        }
+        sIconCache.put(new IconCacheKey(iccId, recordNumber), icon);
     }
 
-    // When all is done pass icon back to caller.
-    private void postIcon() {
-        if (mState == STATE_SINGLE_ICON) {
-            mEndMsg.obj = mCurrentIcon;
-            mEndMsg.sendToTarget();
-        } else if (mState == STATE_MULTI_ICONS) {
-            mIcons[mCurrentRecordIndex++] = mCurrentIcon;
-            // If not all icons were loaded, start loading the next one.
-            if (mCurrentRecordIndex < mRecordNumbers.length) {
-                startLoadingIcon(mRecordNumbers[mCurrentRecordIndex]);
-            } else {
-                mEndMsg.obj = mIcons;
-                mEndMsg.sendToTarget();
+    /**
+     * Remove all the cached icons of the card, or of all the cards if the ICCID is not known.
+     */
+    @VisibleForTesting
+    static void invalidateCachedIcons(String iccId) {
+        if (iccId == null) {
+            sIconCache.evictAll();
+            return;
+        }
+        for (IconCacheKey key : sIconCache.snapshot().keySet()) {
+            if (key.mIccId.equals(iccId)) {
+                sIconCache.remove(key);
             }
         }
     }
@@ -248,21 +384,15 @@ class IconLoader extends Handler {
 
         int[] pixels = new int[numOfPixels];
 
+        // The image body is a continuous bit stream, so 8 pixels are expanded from each byte.
         int pixelIndex = 0;
-        int bitIndex = 7;
-        byte currentByte = 0x00;
         while (pixelIndex < numOfPixels) {
-            // reassign data and index for every byte (8 bits).
-            if (pixelIndex % 8 == 0) {
-                currentByte = data[valueIndex++];
-                bitIndex = 7;
-            }
-            pixels[pixelIndex++] = bitToBnW((currentByte >> bitIndex-- ) & 0x01);
+            int count = Math.min(8, numOfPixels - pixelIndex);
+            System.arraycopy(BNW_BYTE_PIXELS, (data[valueIndex++] & 0xFF) * 8,
+                    pixels, pixelIndex, count);
+            pixelIndex += count;
         }
 
-        if (pixelIndex != numOfPixels) {
-            CatLog.d("IconLoader", "parseToBnW; size error");
-        }
         return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
     }
 
@@ -298,37 +428,62 @@ class IconLoader extends Handler {
         int bitsPerImg = data[valueIndex++] & 0xFF;
         int numOfClutEntries = data[valueIndex++] & 0xFF;
 
+        int[] palette = getPalette(clut);
         if (true == transparency) {
-            clut[numOfClutEntries - 1] = Color.TRANSPARENT;
+            palette[numOfClutEntries - 1] = Color.TRANSPARENT;
         }
 
         int numOfPixels = width * height;
         int[] pixels = new int[numOfPixels];
 
-        valueIndex = 6;
+        valueIndex = COLOUR_IMAGE_BODY_OFFSET;
         int pixelIndex = 0;
-        int bitsStartOffset = 8 - bitsPerImg;
-        int bitIndex = bitsStartOffset;
-        byte currentByte = data[valueIndex++];
         int mask = getMask(bitsPerImg);
-        boolean bitsOverlaps = (8 % bitsPerImg == 0);
-        while (pixelIndex < numOfPixels) {
-            // reassign data and index for every byte (8 bits).
-            if (bitIndex < 0) {
-                currentByte = data[valueIndex++];
-                bitIndex = bitsOverlaps ? (bitsStartOffset) : (bitIndex * -1);
+        if (8 % bitsPerImg == 0) {
+            // The pixels never span two bytes, so all the pixels of a byte are decoded at once.
+            int pixelsPerByte = 8 / bitsPerImg;
+            while (pixelIndex < numOfPixels) {
+                int currentByte = data[valueIndex++] & 0xFF;
+                int count = Math.min(pixelsPerByte, numOfPixels - pixelIndex);
+                for (int bitIndex = 8 - bitsPerImg; count > 0; count--, bitIndex -= bitsPerImg) {
+                    pixels[pixelIndex++] = palette[(currentByte >> bitIndex) & mask];
+                }
+            }
+        } else {
+            int bitsStartOffset = 8 - bitsPerImg;
+            int bitIndex = bitsStartOffset;
+            byte currentByte = data[valueIndex++];
+            while (pixelIndex < numOfPixels) {
+                // reassign data and index for every byte (8 bits).
+                if (bitIndex < 0) {
+                    currentByte = data[valueIndex++];
+                    bitIndex = bitIndex * -1;
+                }
+                pixels[pixelIndex++] = palette[(currentByte >> bitIndex) & mask];
+                bitIndex -= bitsPerImg;
             }
-            int clutEntry = ((currentByte >> bitIndex) & mask);
-            int clutIndex = clutEntry * CLUT_ENTRY_SIZE;
-            pixels[pixelIndex++] = Color.rgb(clut[clutIndex],
-                    clut[clutIndex + 1], clut[clutIndex + 2]);
-            bitIndex -= bitsPerImg;
         }
 
         return Bitmap.createBitmap(pixels, width, height,
                 Bitmap.Config.ARGB_8888);
     }
 
+    /**
+     * Convert a colour lookup table into colours, so that each pixel is decoded with a single
+     * lookup.
+     *
+     * @param clut colour lookup table, with 3 bytes {Red, Green, Blue} per entry.
+     * @return the colour of each entry
+     */
+    private static int[] getPalette(byte[] clut) {
+        int[] palette = new int[clut.length / CLUT_ENTRY_SIZE];
+        for (int i = 0, clutIndex = 0; i < palette.length; i++, clutIndex += CLUT_ENTRY_SIZE) {
+            palette[i] = Color.rgb(clut[clutIndex] & 0xFF, clut[clutIndex + 1] & 0xFF,
+                    clut[clutIndex + 2] & 0xFF);
+        }
+        return palette;
+    }
+
     /**
      * Calculate bit mask for a given number of bits. The mask should enable to
      * make a bitwise and to the given number of bits.
@@ -367,12 +522,14 @@ class IconLoader extends Handler {
         return mask;
     }
     public void dispose() {
+        if (mSimFH != null) {
+            mSimFH.unregisterForImgChanged(this);
+        }
         mSimFH = null;
         if (sThread != null) {
             sThread.quit();
             sThread = null;
         }
-        mIconsCache = null;
         sLoader = null;
     }
 }
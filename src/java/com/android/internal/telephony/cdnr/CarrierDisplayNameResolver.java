@@ -43,6 +43,7 @@ import android.util.SparseArray;
 import com.android.internal.R;
 import com.android.internal.telephony.GsmCdmaPhone;
 import com.android.internal.telephony.Phone;
+import com.android.internal.telephony.ServiceStateTracker;
 import com.android.internal.telephony.cdnr.EfData.EFSource;
 import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppState;
 import com.android.internal.telephony.uicc.IccRecords;
@@ -83,6 +84,9 @@ public class CarrierDisplayNameResolver {
 
     private CarrierDisplayNameData mCarrierDisplayNameData;
 
+    // Index of the EF_OPL and EF_PNN in use, rebuilt only when they change.
+    private OperatorPlmnNameIndex mOplIndex;
+
     /**
      * The priority of ef source. Lower index means higher priority.
      */
@@ -120,6 +124,7 @@ public class CarrierDisplayNameResolver {
         } else {
             mEf.put(key, new RuimEfData(ruim));
         }
+        updateOplIndex();
     }
 
     /**
@@ -135,6 +140,7 @@ public class CarrierDisplayNameResolver {
         } else {
             mEf.put(key, new UsimEfData(usim));
         }
+        updateOplIndex();
     }
 
     /**
@@ -150,6 +156,7 @@ public class CarrierDisplayNameResolver {
         } else {
             mEf.put(key, new CarrierConfigEfData(config));
         }
+        updateOplIndex();
     }
 
     /**
@@ -171,6 +178,7 @@ public class CarrierDisplayNameResolver {
         } else {
             mEf.remove(key);
         }
+        updateOplIndex();
     }
 
     /**
@@ -187,6 +195,7 @@ public class CarrierDisplayNameResolver {
             mEf.put(key,
                     new BrandOverrideEfData(operatorName, getServiceState().getOperatorNumeric()));
         }
+        updateOplIndex();
     }
 
     /** Get the resolved carrier display name. */
@@ -291,6 +300,21 @@ public class CarrierDisplayNameResolver {
         return Collections.EMPTY_LIST;
     }
 
+    /**
+     * Rebuild the EF_OPL index if the EF_OPL or EF_PNN in use changed, so the network name is
+     * resolved on service state changes without checking every EF_OPL record.
+     */
+    private void updateOplIndex() {
+        List<OperatorPlmnInfo> efOpl = getEfOpl();
+        List<PlmnNetworkName> efPnn = getEfPnn();
+        if (efOpl.isEmpty()) {
+            mOplIndex = null;
+        } else if (mOplIndex == null || !efOpl.equals(mOplIndex.getOperatorPlmnList())
+                || !efPnn.equals(mOplIndex.getPlmnNetworkNameList())) {
+            mOplIndex = new OperatorPlmnNameIndex(efOpl, efPnn);
+        }
+    }
+
     private boolean isRoaming() {
         // Currently use the roaming state from ServiceState.
         // EF_SPDI is only used when determine the service provider name and PLMN network name
@@ -321,9 +345,12 @@ public class CarrierDisplayNameResolver {
                 // default network name when registered in the HPLMN or an EHPLMN(if the EHPLMN
                 // list is present).
                 plmn = efPnn.isEmpty() ? "" : getPlmnNetworkName(efPnn.get(0));
-            } else {
-                // TODO: Check the TAC/LAC & registered PLMN numeric in OPL list to determine which
-                // PLMN name should be used to override the current one.
+            } else if (mOplIndex != null) {
+                // Otherwise, the network name is the EF_PNN record of the first EF_OPL record
+                // matching the registered PLMN and LAC/TAC.
+                plmn = getPlmnNetworkName(mOplIndex.getPlmnNetworkName(registeredPlmnNumeric,
+                        ServiceStateTracker.getAreaCodeFromCellIdentity(
+                                mPhone.getServiceStateTracker().getCellIdentity())));
             }
         }
 
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cdnr;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.android.internal.telephony.uicc.IccRecords;
+import com.android.internal.telephony.uicc.IccRecords.OperatorPlmnInfo;
+import com.android.internal.telephony.uicc.IccRecords.PlmnNetworkName;
+import com.android.telephony.Rlog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the EF_OPL records, to find the EF_PNN network name of a registered PLMN and
+ * LAC/TAC without checking every record.
+ * <p>
+ * Records are grouped by PLMN pattern. Groups without a wildcard digit are looked up by PLMN, and
+ * the few groups with a wildcard are checked one by one. Within a group, the LAC/TAC ranges are
+ * split into non-overlapping segments, each holding the first record which covers it, so a lookup
+ * is a binary search. As in {@link IccRecords#getNetworkNameForPlmnFromPnnOpl}, the first matching
+ * record in EF_OPL is used.
+ * <p>
+ * Reference: 3GPP TS 31.102 Section 4.2.59 EF_OPL.
+ */
+public final class OperatorPlmnNameIndex {
+    private static final String TAG = "OperatorPlmnNameIndex";
+
+    // A BCD value of 'D' in any of the MCC and/or MNC digits is a wildcard.
+    private static final char WILDCARD = 'D';
+    // As defined in 3GPP TS 31.102 section 4.2.59, lacTacStart = 0 and lacTacEnd = 0xFFFE are
+    // used to indicate the entire range of LACs/TACs for the given PLMN.
+    private static final int ALL_LAC_TAC_START = 0;
+    private static final int ALL_LAC_TAC_END = 0xFFFE;
+    private static final int NO_RECORD = Integer.MAX_VALUE;
+
+    /** The records of one PLMN pattern. */
+    private static final class PlmnGroup {
+        @NonNull final String mPlmnPattern;
+        // The first record matching every LAC/TAC.
+        int mAllLacTacRecord = NO_RECORD;
+        // Segment i covers the LAC/TACs from mSegmentStarts[i] to mSegmentStarts[i + 1] - 1, and
+        // mSegmentRecords[i] is the first record covering it.
+        int[] mSegmentStarts;
+        int[] mSegmentRecords;
+
+        PlmnGroup(@NonNull String plmnPattern) {
+            mPlmnPattern = plmnPattern;
+        }
+
+        void build(@NonNull List<OperatorPlmnInfo> opl, @NonNull List<Integer> records) {
+            List<Integer> rangeRecords = new ArrayList<>(records.size());
+            for (int record : records) {
+                OperatorPlmnInfo info = opl.get(record);
+                if (info.lacTacStart == ALL_LAC_TAC_START && info.lacTacEnd == ALL_LAC_TAC_END) {
+                    mAllLacTacRecord = Math.min(mAllLacTacRecord, record);
+                } else if (info.lacTacStart <= info.lacTacEnd && record < mAllLacTacRecord) {
+                    rangeRecords.add(record);
+                }
+            }
+
+            int[] starts = new int[rangeRecords.size() * 2];
+            int count = 0;
+            for (int record : rangeRecords) {
+                starts[count++] = opl.get(record).lacTacStart;
+                starts[count++] = opl.get(record).lacTacEnd + 1;
+            }
+            Arrays.sort(starts, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || starts[unique - 1] != starts[i]) {
+                    starts[unique++] = starts[i];
+                }
+            }
+            mSegmentStarts = Arrays.copyOf(starts, unique);
+            mSegmentRecords = new int[unique];
+            Arrays.fill(mSegmentRecords, NO_RECORD);
+            // Records are in EF_OPL order, so a segment keeps the first record covering it.
+            for (int record : rangeRecords) {
+                OperatorPlmnInfo info = opl.get(record);
+                int end = Arrays.binarySearch(mSegmentStarts, info.lacTacEnd + 1);
+                for (int i = Arrays.binarySearch(mSegmentStarts, info.lacTacStart); i < end; i++) {
+                    if (mSegmentRecords[i] == NO_RECORD) {
+                        mSegmentRecords[i] = record;
+                    }
+                }
+            }
+        }
+
+        int getFirstRecord(int lacTac) {
+            int segment = Arrays.binarySearch(mSegmentStarts, lacTac);
+            if (segment < 0) {
+                // The segment before the insertion point.
+                segment = -segment - 2;
+            }
+            int record = segment >= 0 ? mSegmentRecords[segment] : NO_RECORD;
+            return Math.min(record, mAllLacTacRecord);
+        }
+
+        boolean matches(@NonNull String plmn) {
+            if (plmn.length() != mPlmnPattern.length()) return false;
+            for (int i = 0; i < plmn.length(); i++) {
+                if (plmn.charAt(i) != mPlmnPattern.charAt(i)
+                        && mPlmnPattern.charAt(i) != WILDCARD) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @NonNull private final List<OperatorPlmnInfo> mOpl;
+    @NonNull private final List<PlmnNetworkName> mPnn;
+    @NonNull private final Map<String, PlmnGroup> mPlmnGroups = new HashMap<>();
+    @NonNull private final List<PlmnGroup> mWildcardPlmnGroups = new ArrayList<>();
+
+    // The last lookup, as the name is resolved again on every service state change while the
+    // registered PLMN and LAC/TAC rarely change.
+    @Nullable private String mLastPlmn;
+    private int mLastLacTac;
+    @Nullable private PlmnNetworkName mLastName;
+
+    /**
+     * @param opl The EF_OPL records.
+     * @param pnn The EF_PNN records, which are referred to by the EF_OPL records.
+     */
+    public OperatorPlmnNameIndex(@NonNull List<OperatorPlmnInfo> opl,
+            @NonNull List<PlmnNetworkName> pnn) {
+        mOpl = new ArrayList<>(opl);
+        mPnn = new ArrayList<>(pnn);
+
+        Map<String, List<Integer>> recordsByPlmn = new LinkedHashMap<>();
+        for (int i = 0; i < mOpl.size(); i++) {
+            OperatorPlmnInfo info = mOpl.get(i);
+            // A record without a PNN record identifier does not name the PLMN.
+            if (info.plmnNumericPattern == null || info.pnnRecordId <= 0) continue;
+            recordsByPlmn.computeIfAbsent(info.plmnNumericPattern, k -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<String, List<Integer>> entry : recordsByPlmn.entrySet()) {
+            PlmnGroup group = new PlmnGroup(entry.getKey());
+            group.build(mOpl, entry.getValue());
+            if (entry.getKey().indexOf(WILDCARD) >= 0) {
+                mWildcardPlmnGroups.add(group);
+            } else {
+                mPlmnGroups.put(entry.getKey(), group);
+            }
+        }
+    }
+
+    /**
+     * @return The EF_OPL records of the index.
+     */
+    @NonNull
+    public List<OperatorPlmnInfo> getOperatorPlmnList() {
+        return mOpl;
+    }
+
+    /**
+     * @return The EF_PNN records of the index.
+     */
+    @NonNull
+    public List<PlmnNetworkName> getPlmnNetworkNameList() {
+        return mPnn;
+    }
+
+    /**
+     * Get the EF_PNN network name of the first EF_OPL record matching the PLMN and LAC/TAC.
+     *
+     * @param plmn The registered PLMN numeric.
+     * @param lacTac The LAC or TAC of the registered cell.
+     * @return The network name, or {@code null} if no record matches or the matching record
+     *         refers to a missing EF_PNN record.
+     */
+    @Nullable
+    public PlmnNetworkName getPlmnNetworkName(@Nullable String plmn, int lacTac) {
+        if (plmn == null || plmn.length() < IccRecords.PLMN_MIN_LENGTH
+                || plmn.length() > IccRecords.PLMN_MAX_LENGTH) {
+            return null;
+        }
+        if (lacTac == mLastLacTac && TextUtils.equals(plmn, mLastPlmn)) {
+            return mLastName;
+        }
+
+        int record = NO_RECORD;
+        PlmnGroup group = mPlmnGroups.get(plmn);
+        if (group != null) {
+            record = group.getFirstRecord(lacTac);
+        }
+        for (PlmnGroup wildcardGroup : mWildcardPlmnGroups) {
+            if (wildcardGroup.matches(plmn)) {
+                record = Math.min(record, wildcardGroup.getFirstRecord(lacTac));
+            }
+        }
+
+        PlmnNetworkName name = null;
+        if (record != NO_RECORD) {
+            int pnnIdx = mOpl.get(record).pnnRecordId - 1;
+            if (pnnIdx < mPnn.size()) {
+                name = mPnn.get(pnnIdx);
+            } else {
+                Rlog.e(TAG, "Invalid PNN record for Record" + pnnIdx);
+            }
+        }
+        mLastPlmn = plmn;
+        mLastLacTac = lacTac;
+        mLastName = name;
+        return name;
+    }
+}
@@ -69,9 +69,13 @@ public final class UsimEfData implements EfData {
     @Override
     public List<PlmnNetworkName> getPlmnNetworkNameList() {
         String pnnHomeName = mUsim.getPnnHomeName();
+        PlmnNetworkName[] pnns = mUsim.getPnns();
+        // The pnn home name is the first pnn record, unless it is overridden for testing.
+        if (pnns != null && pnns.length > 0
+                && TextUtils.equals(pnnHomeName, pnns[0].getName())) {
+            return Arrays.asList(pnns);
+        }
         if (!TextUtils.isEmpty(pnnHomeName)) {
-            // TODO: Update the whole list rather than the pnn home name when IccRecords can
-            // read all pnn records.
             return Arrays.asList(new PlmnNetworkName(pnnHomeName, "" /* shortName */));
         }
         return null;
@@ -79,7 +83,7 @@ public final class UsimEfData implements EfData {
 
     @Override
     public List<OperatorPlmnInfo> getOperatorPlmnList() {
-        // TODO: update the OPL when SIMRecords supports it.
-        return null;
+        OperatorPlmnInfo[] opl = mUsim.getOpl();
+        return opl != null && opl.length > 0 ? Arrays.asList(opl) : null;
     }
 }
@@ -25,10 +25,9 @@ import android.telephony.ims.RtpHeaderExtension;
 import android.telephony.ims.RtpHeaderExtensionType;
 import android.util.ArraySet;
 
-import com.android.internal.telephony.BiMap;
+import com.android.internal.telephony.IntByteBiMap;
 
-import java.util.Objects;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -128,22 +127,20 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      * to an RTP payload and to interpret incoming RTP payloads and translate them back into message
      * types.
      */
-    private static final BiMap<Integer, Byte> CALL_STATE_MSG_TYPE_TO_RTP_BITS = new BiMap<>();
-    private static final BiMap<Integer, Byte> DEVICE_STATE_MSG_TYPE_TO_RTP_BITS = new BiMap<>();
-    static {
-        CALL_STATE_MSG_TYPE_TO_RTP_BITS.put(
-                Communicator.MESSAGE_CALL_RADIO_ACCESS_TYPE,
-                RTP_CALL_STATE_MSG_RADIO_ACCESS_TYPE_BITS);
-        CALL_STATE_MSG_TYPE_TO_RTP_BITS.put(
-                Communicator.MESSAGE_CALL_AUDIO_CODEC,
-                RTP_CALL_STATE_MSG_CODEC_BITS);
-        DEVICE_STATE_MSG_TYPE_TO_RTP_BITS.put(
-                Communicator.MESSAGE_DEVICE_BATTERY_STATE,
-                RTP_DEVICE_STATE_MSG_BATTERY_BITS);
-        DEVICE_STATE_MSG_TYPE_TO_RTP_BITS.put(
-                Communicator.MESSAGE_DEVICE_NETWORK_COVERAGE,
-                RTP_DEVICE_STATE_MSG_NETWORK_COVERAGE_BITS);
-    }
+    private static final IntByteBiMap CALL_STATE_MSG_TYPE_TO_RTP_BITS =
+            new IntByteBiMap.Builder()
+                    .put(Communicator.MESSAGE_CALL_RADIO_ACCESS_TYPE,
+                            RTP_CALL_STATE_MSG_RADIO_ACCESS_TYPE_BITS)
+                    .put(Communicator.MESSAGE_CALL_AUDIO_CODEC,
+                            RTP_CALL_STATE_MSG_CODEC_BITS)
+                    .build();
+    private static final IntByteBiMap DEVICE_STATE_MSG_TYPE_TO_RTP_BITS =
+            new IntByteBiMap.Builder()
+                    .put(Communicator.MESSAGE_DEVICE_BATTERY_STATE,
+                            RTP_DEVICE_STATE_MSG_BATTERY_BITS)
+                    .put(Communicator.MESSAGE_DEVICE_NETWORK_COVERAGE,
+                            RTP_DEVICE_STATE_MSG_NETWORK_COVERAGE_BITS)
+                    .build();
 
     /**
      * RTP header extension bits set for {@link Communicator#MESSAGE_CALL_RADIO_ACCESS_TYPE} data
@@ -167,15 +164,11 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      * Provides a mapping between the various {@code Communicator#RADIO_ACCESS_TYPE_*} values and
      * their bit representation in an RTP header extension payload.
      */
-    private static final BiMap<Integer, Byte> RAT_VALUE_TO_RTP_BITS = new BiMap<>();
-    static {
-        RAT_VALUE_TO_RTP_BITS.put(
-                Communicator.RADIO_ACCESS_TYPE_IWLAN, RTP_RAT_VALUE_WLAN_BITS);
-        RAT_VALUE_TO_RTP_BITS.put(
-                Communicator.RADIO_ACCESS_TYPE_LTE, RTP_RAT_VALUE_LTE_BITS);
-        RAT_VALUE_TO_RTP_BITS.put(
-                Communicator.RADIO_ACCESS_TYPE_NR, RTP_RAT_VALUE_NR_BITS);
-    }
+    private static final IntByteBiMap RAT_VALUE_TO_RTP_BITS = new IntByteBiMap.Builder()
+            .put(Communicator.RADIO_ACCESS_TYPE_IWLAN, RTP_RAT_VALUE_WLAN_BITS)
+            .put(Communicator.RADIO_ACCESS_TYPE_LTE, RTP_RAT_VALUE_LTE_BITS)
+            .put(Communicator.RADIO_ACCESS_TYPE_NR, RTP_RAT_VALUE_NR_BITS)
+            .build();
 
     /**
      * RTP header extension bits set for {@link Communicator#MESSAGE_CALL_AUDIO_CODEC} data
@@ -189,15 +182,11 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      * Provides a mapping between the various {@code Communicator#AUDIO_CODEC_*} values and
      * their bit representation in an RTP header extension payload.
      */
-    private static final BiMap<Integer, Byte> CODEC_VALUE_TO_RTP_BITS = new BiMap<>();
-    static {
-        CODEC_VALUE_TO_RTP_BITS.put(
-                Communicator.AUDIO_CODEC_EVS, RTP_CODEC_VALUE_EVS_BITS);
-        CODEC_VALUE_TO_RTP_BITS.put(
-                Communicator.AUDIO_CODEC_AMR_WB, RTP_CODEC_VALUE_AMR_WB_BITS);
-        CODEC_VALUE_TO_RTP_BITS.put(
-                Communicator.AUDIO_CODEC_AMR_NB, RTP_CODEC_VALUE_AMR_NB_BITS);
-    }
+    private static final IntByteBiMap CODEC_VALUE_TO_RTP_BITS = new IntByteBiMap.Builder()
+            .put(Communicator.AUDIO_CODEC_EVS, RTP_CODEC_VALUE_EVS_BITS)
+            .put(Communicator.AUDIO_CODEC_AMR_WB, RTP_CODEC_VALUE_AMR_WB_BITS)
+            .put(Communicator.AUDIO_CODEC_AMR_NB, RTP_CODEC_VALUE_AMR_NB_BITS)
+            .build();
 
     public static final byte RTP_BATTERY_STATE_LOW_BITS      = 0b0000 << RTP_PARAMETER_BIT_OFFSET;
     public static final byte RTP_BATTERY_STATE_GOOD_BITS     = 0b0001 << RTP_PARAMETER_BIT_OFFSET;
@@ -207,15 +196,12 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      * Provides a mapping between the various {@code Communicator#BATTERY_STATE_*} values and
      * their bit representation in an RTP header extension payload.
      */
-    private static final BiMap<Integer, Byte> BATTERY_STATE_VALUE_TO_RTP_BITS = new BiMap<>();
-    static {
-        BATTERY_STATE_VALUE_TO_RTP_BITS.put(
-                Communicator.BATTERY_STATE_LOW, RTP_BATTERY_STATE_LOW_BITS);
-        BATTERY_STATE_VALUE_TO_RTP_BITS.put(
-                Communicator.BATTERY_STATE_GOOD, RTP_BATTERY_STATE_GOOD_BITS);
-        BATTERY_STATE_VALUE_TO_RTP_BITS.put(
-                Communicator.BATTERY_STATE_CHARGING, RTP_BATTERY_STATE_CHARGING_BITS);
-    }
+    private static final IntByteBiMap BATTERY_STATE_VALUE_TO_RTP_BITS =
+            new IntByteBiMap.Builder()
+                    .put(Communicator.BATTERY_STATE_LOW, RTP_BATTERY_STATE_LOW_BITS)
+                    .put(Communicator.BATTERY_STATE_GOOD, RTP_BATTERY_STATE_GOOD_BITS)
+                    .put(Communicator.BATTERY_STATE_CHARGING, RTP_BATTERY_STATE_CHARGING_BITS)
+                    .build();
 
     public static final byte RTP_NETWORK_COVERAGE_POOR_BITS = 0b0000 << RTP_PARAMETER_BIT_OFFSET;
     public static final byte RTP_NETWORK_COVERAGE_GOOD_BITS = 0b0001 << RTP_PARAMETER_BIT_OFFSET;
@@ -224,13 +210,11 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      * Provides a mapping between the various {@code Communicator#COVERAGE_*} values and
      * their bit representation in an RTP header extension payload.
      */
-    private static final BiMap<Integer, Byte> NETWORK_COVERAGE_VALUE_TO_RTP_BITS = new BiMap<>();
-    static {
-        NETWORK_COVERAGE_VALUE_TO_RTP_BITS.put(
-                Communicator.COVERAGE_POOR, RTP_NETWORK_COVERAGE_POOR_BITS);
-        NETWORK_COVERAGE_VALUE_TO_RTP_BITS.put(
-                Communicator.COVERAGE_GOOD, RTP_NETWORK_COVERAGE_GOOD_BITS);
-    }
+    private static final IntByteBiMap NETWORK_COVERAGE_VALUE_TO_RTP_BITS =
+            new IntByteBiMap.Builder()
+                    .put(Communicator.COVERAGE_POOR, RTP_NETWORK_COVERAGE_POOR_BITS)
+                    .put(Communicator.COVERAGE_GOOD, RTP_NETWORK_COVERAGE_GOOD_BITS)
+                    .build();
 
     /**
      * Indicates that the transport is not yet ready for use and negotiation has not yet completed.
@@ -382,8 +366,13 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      */
     @Override
     public void sendMessages(Set<Communicator.Message> messages) {
-        Set<RtpHeaderExtension> toSend = messages.stream().map(m -> generateRtpHeaderExtension(m))
-                .collect(Collectors.toSet());
+        Set<RtpHeaderExtension> toSend = new ArraySet<>(messages.size());
+        for (Communicator.Message message : messages) {
+            RtpHeaderExtension extension = generateRtpHeaderExtension(message);
+            if (extension != null) {
+                toSend.add(extension);
+            }
+        }
         Log.i(this, "sendMessages: sending=%s", messages);
         mRtpAdapter.sendRtpHeaderExtensions(toSend);
     }
@@ -420,9 +409,13 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      */
     @Override
     public void onRtpHeaderExtensionsReceived(@NonNull Set<RtpHeaderExtension> extensions) {
-        Set<Communicator.Message> messages = extensions.stream().map(e -> extractMessage(e))
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+        Set<Communicator.Message> messages = new ArraySet<>(extensions.size());
+        for (RtpHeaderExtension extension : extensions) {
+            Communicator.Message message = extractMessage(extension);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
         if (messages.size() == 0) {
             return;
         }
@@ -436,11 +429,15 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      */
     private Communicator.Message extractMessage(@NonNull RtpHeaderExtension extension) {
         // First determine the URI to figure out the general classification of the message.
-        Optional<Uri> foundUri = mSupportedRtpHeaderExtensionTypes.stream()
-                .filter(et -> et.getLocalIdentifier() == extension.getLocalIdentifier())
-                .map(et -> et.getUri())
-                .findFirst();
-        if (!foundUri.isPresent()) {
+        Uri uri = null;
+        for (int i = 0; i < mSupportedRtpHeaderExtensionTypes.size(); i++) {
+            RtpHeaderExtensionType type = mSupportedRtpHeaderExtensionTypes.valueAt(i);
+            if (type.getLocalIdentifier() == extension.getLocalIdentifier()) {
+                uri = type.getUri();
+                break;
+            }
+        }
+        if (uri == null) {
             Log.w(this, "extractMessage: localIdentifier=%d not supported.",
                     extension.getLocalIdentifier());
             return null;
@@ -452,8 +449,6 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
             return null;
         }
 
-        Uri uri = foundUri.get();
-
         // Extract the bits which are the message type.
         byte messageTypeBits = (byte) (extension.getExtensionData()[0] & 0b1111);
         byte messageValueBits = (byte) (extension.getExtensionData()[0]
@@ -462,8 +457,8 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
         int messageType;
         int messageValue;
         if (DEVICE_STATE_RTP_HEADER_EXTENSION.equals(uri)) {
-            Integer type = DEVICE_STATE_MSG_TYPE_TO_RTP_BITS.getKey(messageTypeBits);
-            if (type == null) {
+            int type = DEVICE_STATE_MSG_TYPE_TO_RTP_BITS.getKey(messageTypeBits);
+            if (type == IntByteBiMap.NO_KEY) {
                 Log.w(this, "extractMessage: localIdentifier=%d message with invalid type %s.",
                         extension.getLocalIdentifier(), Integer.toBinaryString(messageTypeBits));
                 return null;
@@ -471,8 +466,8 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
             messageType = type;
             switch (messageType) {
                 case Communicator.MESSAGE_DEVICE_BATTERY_STATE:
-                    Integer val = BATTERY_STATE_VALUE_TO_RTP_BITS.getKey(messageValueBits);
-                    if (val == null) {
+                    int val = BATTERY_STATE_VALUE_TO_RTP_BITS.getKey(messageValueBits);
+                    if (val == IntByteBiMap.NO_KEY) {
                         Log.w(this, "extractMessage: localIdentifier=%d, battery state msg with "
                                         + "invalid value=%s",
                                 extension.getLocalIdentifier(),
@@ -482,8 +477,8 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
                     messageValue = val;
                     break;
                 case Communicator.MESSAGE_DEVICE_NETWORK_COVERAGE:
-                    Integer val2 = NETWORK_COVERAGE_VALUE_TO_RTP_BITS.getKey(messageValueBits);
-                    if (val2 == null) {
+                    int val2 = NETWORK_COVERAGE_VALUE_TO_RTP_BITS.getKey(messageValueBits);
+                    if (val2 == IntByteBiMap.NO_KEY) {
                         Log.w(this, "extractMessage: localIdentifier=%d, network coverage msg with "
                                         + "invalid value=%s",
                                 extension.getLocalIdentifier(),
@@ -499,8 +494,8 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
                     return null;
             }
         } else if (CALL_STATE_RTP_HEADER_EXTENSION.equals(uri)) {
-            Integer typeValue = CALL_STATE_MSG_TYPE_TO_RTP_BITS.getKey(messageTypeBits);
-            if (typeValue == null) {
+            int typeValue = CALL_STATE_MSG_TYPE_TO_RTP_BITS.getKey(messageTypeBits);
+            if (typeValue == IntByteBiMap.NO_KEY) {
                 Log.w(this, "extractMessage: localIdentifier=%d, network coverage msg with "
                                 + "invalid type=%s",
                         extension.getLocalIdentifier(),
@@ -510,8 +505,8 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
             messageType = typeValue;
             switch (messageType) {
                 case Communicator.MESSAGE_CALL_AUDIO_CODEC:
-                    Integer val = CODEC_VALUE_TO_RTP_BITS.getKey(messageValueBits);
-                    if (val == null) {
+                    int val = CODEC_VALUE_TO_RTP_BITS.getKey(messageValueBits);
+                    if (val == IntByteBiMap.NO_KEY) {
                         Log.w(this, "extractMessage: localIdentifier=%d, audio codec msg with "
                                         + "invalid value=%s",
                                 extension.getLocalIdentifier(),
@@ -521,8 +516,8 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
                     messageValue = val;
                     break;
                 case Communicator.MESSAGE_CALL_RADIO_ACCESS_TYPE:
-                    Integer val2 = RAT_VALUE_TO_RTP_BITS.getKey(messageValueBits);
-                    if (val2 == null) {
+                    int val2 = RAT_VALUE_TO_RTP_BITS.getKey(messageValueBits);
+                    if (val2 == IntByteBiMap.NO_KEY) {
                         Log.w(this, "extractMessage: localIdentifier=%d, rat type msg with "
                                         + "invalid value=%s",
                                 extension.getLocalIdentifier(),
@@ -582,34 +577,41 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      * @return An {@link RtpHeaderExtension} representing the message.
      */
     public RtpHeaderExtension generateRtpHeaderExtension(Communicator.Message message) {
-        byte[] payload = new byte[1];
+        IntByteBiMap typeToRtpBits;
+        IntByteBiMap valueToRtpBits;
+        Uri uri;
         switch (message.getType()) {
             case Communicator.MESSAGE_CALL_AUDIO_CODEC:
-                payload[0] |= CALL_STATE_MSG_TYPE_TO_RTP_BITS.getValue(message.getType());
-                payload[0] |= CODEC_VALUE_TO_RTP_BITS.getValue(message.getValue());
-                return new RtpHeaderExtension(
-                        getRtpHeaderExtensionIdentifier(CALL_STATE_RTP_HEADER_EXTENSION),
-                        payload);
+                typeToRtpBits = CALL_STATE_MSG_TYPE_TO_RTP_BITS;
+                valueToRtpBits = CODEC_VALUE_TO_RTP_BITS;
+                uri = CALL_STATE_RTP_HEADER_EXTENSION;
+                break;
             case Communicator.MESSAGE_CALL_RADIO_ACCESS_TYPE:
-                payload[0] |= CALL_STATE_MSG_TYPE_TO_RTP_BITS.getValue(message.getType());
-                payload[0] |= RAT_VALUE_TO_RTP_BITS.getValue(message.getValue());
-                return new RtpHeaderExtension(
-                        getRtpHeaderExtensionIdentifier(CALL_STATE_RTP_HEADER_EXTENSION),
-                        payload);
+                typeToRtpBits = CALL_STATE_MSG_TYPE_TO_RTP_BITS;
+                valueToRtpBits = RAT_VALUE_TO_RTP_BITS;
+                uri = CALL_STATE_RTP_HEADER_EXTENSION;
+                break;
             case Communicator.MESSAGE_DEVICE_BATTERY_STATE:
-                payload[0] |= DEVICE_STATE_MSG_TYPE_TO_RTP_BITS.getValue(message.getType());
-                payload[0] |= BATTERY_STATE_VALUE_TO_RTP_BITS.getValue(message.getValue());
-                return new RtpHeaderExtension(
-                        getRtpHeaderExtensionIdentifier(DEVICE_STATE_RTP_HEADER_EXTENSION),
-                        payload);
+                typeToRtpBits = DEVICE_STATE_MSG_TYPE_TO_RTP_BITS;
+                valueToRtpBits = BATTERY_STATE_VALUE_TO_RTP_BITS;
+                uri = DEVICE_STATE_RTP_HEADER_EXTENSION;
+                break;
             case Communicator.MESSAGE_DEVICE_NETWORK_COVERAGE:
-                payload[0] |= DEVICE_STATE_MSG_TYPE_TO_RTP_BITS.getValue(message.getType());
-                payload[0] |= NETWORK_COVERAGE_VALUE_TO_RTP_BITS.getValue(message.getValue());
-                return new RtpHeaderExtension(
-                        getRtpHeaderExtensionIdentifier(DEVICE_STATE_RTP_HEADER_EXTENSION),
-                        payload);
+                typeToRtpBits = DEVICE_STATE_MSG_TYPE_TO_RTP_BITS;
+                valueToRtpBits = NETWORK_COVERAGE_VALUE_TO_RTP_BITS;
+                uri = DEVICE_STATE_RTP_HEADER_EXTENSION;
+                break;
+            default:
+                return null;
         }
-        return null;
+        if (!valueToRtpBits.containsKey(message.getValue())) {
+            Log.w(this, "generateRtpHeaderExtension: message=%d with invalid value=%d",
+                    message.getType(), message.getValue());
+            return null;
+        }
+        byte[] payload = new byte[] {(byte) (typeToRtpBits.getValue(message.getType())
+                | valueToRtpBits.getValue(message.getValue()))};
+        return new RtpHeaderExtension(getRtpHeaderExtensionIdentifier(uri), payload);
     }
 
     /**
@@ -619,9 +621,13 @@ public class RtpTransport implements TransportProtocol, RtpAdapter.Callback {
      * @return the local identifier.
      */
     private int getRtpHeaderExtensionIdentifier(Uri requestedUri) {
-        return mSupportedRtpHeaderExtensionTypes.stream()
-                .filter(t -> t.getUri().equals(requestedUri))
-                .findFirst().get().getLocalIdentifier();
+        for (int i = 0; i < mSupportedRtpHeaderExtensionTypes.size(); i++) {
+            RtpHeaderExtensionType type = mSupportedRtpHeaderExtensionTypes.valueAt(i);
+            if (type.getUri().equals(requestedUri)) {
+                return type.getLocalIdentifier();
+            }
+        }
+        throw new NoSuchElementException("No local identifier for " + requestedUri);
     }
 
     /**
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.data;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.Annotation.NetCapability;
+import android.telephony.TelephonyDisplayInfo;
+import android.telephony.TelephonyManager;
+
+import com.android.internal.telephony.data.DataNetworkController.HandoverRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * DataConfig is an immutable snapshot of the data configurations that are evaluated frequently,
+ * generated by {@link DataConfigManager} every time carrier config is loaded. Network type based
+ * configurations are stored in arrays indexed by {@link #getNetworkTypeIndex}, and metered
+ * capabilities are stored in arrays indexed by network capability, so that the readers do not
+ * need to compute the data config network type string or perform any map lookup. The snapshot
+ * can be read from any thread without locking.
+ */
+public final class DataConfig {
+    /** Index of network type NR_NSA. */
+    static final int INDEX_NR_NSA = TelephonyManager.NETWORK_TYPE_NR + 1;
+
+    /** Index of network type NR_NSA_MMWAVE. */
+    static final int INDEX_NR_NSA_MMWAVE = TelephonyManager.NETWORK_TYPE_NR + 2;
+
+    /** Index of network type NR_SA_MMWAVE. */
+    static final int INDEX_NR_SA_MMWAVE = TelephonyManager.NETWORK_TYPE_NR + 3;
+
+    /**
+     * The number of network type indices. Index 1 to {@link TelephonyManager#NETWORK_TYPE_NR} are
+     * the network types themselves, followed by the NR override types.
+     */
+    static final int NUM_NETWORK_TYPE_INDICES = TelephonyManager.NETWORK_TYPE_NR + 4;
+
+    /** Invalid network type index. */
+    static final int INVALID_INDEX = -1;
+
+    /** The version of the snapshot. Increased every time a new snapshot is generated. */
+    private final long mVersion;
+
+    /** Whether the network type is unmetered, indexed by network type index. */
+    private final @NonNull boolean[] mUnmeteredNetworkTypes;
+
+    /** Whether the network type is unmetered when roaming, indexed by network type index. */
+    private final @NonNull boolean[] mRoamingUnmeteredNetworkTypes;
+
+    /** The bandwidths indexed by network type index. {@code null} if not configured. */
+    private final @NonNull DataNetwork.NetworkBandwidth[] mBandwidths;
+
+    /** The TCP buffer sizes indexed by network type index. {@code null} if not configured. */
+    private final @NonNull String[] mTcpBufferSizes;
+
+    /** The auto data switch scores indexed by network type index and signal strength level. */
+    private final @NonNull int[][] mAutoDataSwitchScores;
+
+    /** Whether the capability is metered, indexed by network capability. */
+    private final @NonNull boolean[] mMeteredCapabilities;
+
+    /** Whether the capability is metered when roaming, indexed by network capability. */
+    private final @NonNull boolean[] mRoamingMeteredCapabilities;
+
+    /** The metered network capabilities. */
+    private final @NonNull @NetCapability Set<Integer> mMeteredCapabilitySet;
+
+    /** The metered network capabilities when roaming. */
+    private final @NonNull @NetCapability Set<Integer> mRoamingMeteredCapabilitySet;
+
+    /** The handover rules. */
+    private final @NonNull List<HandoverRule> mHandoverRules;
+
+    /**
+     * Private constructor. Use {@link Builder} to create the snapshot.
+     *
+     * @param builder The builder.
+     */
+    private DataConfig(@NonNull Builder builder) {
+        mVersion = builder.mVersion;
+        mUnmeteredNetworkTypes = builder.mUnmeteredNetworkTypes;
+        mRoamingUnmeteredNetworkTypes = builder.mRoamingUnmeteredNetworkTypes;
+        mBandwidths = builder.mBandwidths;
+        mTcpBufferSizes = builder.mTcpBufferSizes;
+        mAutoDataSwitchScores = builder.mAutoDataSwitchScores;
+        mMeteredCapabilitySet = Collections.unmodifiableSet(builder.mMeteredCapabilitySet);
+        mRoamingMeteredCapabilitySet = Collections.unmodifiableSet(
+                builder.mRoamingMeteredCapabilitySet);
+        mMeteredCapabilities = toCapabilityArray(mMeteredCapabilitySet);
+        mRoamingMeteredCapabilities = toCapabilityArray(mRoamingMeteredCapabilitySet);
+        mHandoverRules = Collections.unmodifiableList(new ArrayList<>(builder.mHandoverRules));
+    }
+
+    /**
+     * Convert the capability set to an array indexed by network capability.
+     *
+     * @param capabilities The network capabilities.
+     * @return The array indexed by network capability.
+     */
+    private static @NonNull boolean[] toCapabilityArray(
+            @NonNull @NetCapability Set<Integer> capabilities) {
+        int max = -1;
+        for (int capability : capabilities) {
+            max = Math.max(max, capability);
+        }
+        boolean[] array = new boolean[max + 1];
+        for (int capability : capabilities) {
+            array[capability] = true;
+        }
+        return array;
+    }
+
+    /**
+     * Get the network type index of the given {@link TelephonyDisplayInfo}. The index is computed
+     * in the same way as the data config network type string used in carrier config.
+     *
+     * @param displayInfo The {@link TelephonyDisplayInfo} used to determine the type.
+     * @return The network type index, or {@link #INVALID_INDEX} if unknown.
+     */
+    static int getNetworkTypeIndex(@NonNull TelephonyDisplayInfo displayInfo) {
+        int networkType = displayInfo.getNetworkType();
+        switch (displayInfo.getOverrideNetworkType()) {
+            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED:
+                if (networkType == TelephonyManager.NETWORK_TYPE_NR) {
+                    return INDEX_NR_SA_MMWAVE;
+                } else {
+                    return INDEX_NR_NSA_MMWAVE;
+                }
+            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA:
+                return INDEX_NR_NSA;
+            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_LTE_ADVANCED_PRO:
+            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_LTE_CA:
+                return TelephonyManager.NETWORK_TYPE_LTE_CA;
+            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE:
+            default:
+                if (networkType > TelephonyManager.NETWORK_TYPE_UNKNOWN
+                        && networkType <= TelephonyManager.NETWORK_TYPE_NR) {
+                    return networkType;
+                }
+                return INVALID_INDEX;
+        }
+    }
+
+    /**
+     * @return The version of the snapshot. A newer snapshot always has a larger version, so
+     * components can use it to cache results derived from the configurations.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @param index The network type index.
+     * @param isRoaming {@code true} for roaming scenario.
+     * @return {@code true} if the network type is unmetered.
+     */
+    public boolean isNetworkTypeUnmetered(int index, boolean isRoaming) {
+        if (index < 0 || index >= NUM_NETWORK_TYPE_INDICES) return false;
+        return isRoaming ? mRoamingUnmeteredNetworkTypes[index] : mUnmeteredNetworkTypes[index];
+    }
+
+    /**
+     * @param index The network type index.
+     * @return The configured bandwidth, or {@code null} if not configured.
+     */
+    public @Nullable DataNetwork.NetworkBandwidth getBandwidth(int index) {
+        if (index < 0 || index >= NUM_NETWORK_TYPE_INDICES) return null;
+        return mBandwidths[index];
+    }
+
+    /**
+     * @param index The network type index.
+     * @return The configured TCP buffer sizes, or {@code null} if not configured.
+     */
+    public @Nullable String getTcpBufferSizes(int index) {
+        if (index < 0 || index >= NUM_NETWORK_TYPE_INDICES) return null;
+        return mTcpBufferSizes[index];
+    }
+
+    /**
+     * @param index The network type index.
+     * @return The auto data switch scores indexed by signal strength level, or {@code null} if not
+     * configured.
+     */
+    public @Nullable int[] getAutoDataSwitchScores(int index) {
+        if (index < 0 || index >= NUM_NETWORK_TYPE_INDICES) return null;
+        return mAutoDataSwitchScores[index];
+    }
+
+    /**
+     * @param isRoaming {@code true} for roaming scenario.
+     * @return The metered network capabilities.
+     */
+    public @NonNull @NetCapability Set<Integer> getMeteredNetworkCapabilities(boolean isRoaming) {
+        return isRoaming ? mRoamingMeteredCapabilitySet : mMeteredCapabilitySet;
+    }
+
+    /**
+     * @param networkCapability The network capability.
+     * @param isRoaming {@code true} for roaming scenario.
+     * @return {@code true} if the network capability is metered.
+     */
+    public boolean isMeteredCapability(@NetCapability int networkCapability, boolean isRoaming) {
+        boolean[] metered = isRoaming ? mRoamingMeteredCapabilities : mMeteredCapabilities;
+        return networkCapability >= 0 && networkCapability < metered.length
+                && metered[networkCapability];
+    }
+
+    /**
+     * @return The handover rules between IWLAN and cellular networks.
+     */
+    public @NonNull List<HandoverRule> getHandoverRules() {
+        return mHandoverRules;
+    }
+
+    @Override
+    public String toString() {
+        return "[DataConfig: version=" + mVersion + ", metered=" + mMeteredCapabilitySet
+                + ", roamingMetered=" + mRoamingMeteredCapabilitySet + "]";
+    }
+
+    /**
+     * The builder of {@link DataConfig}. Only used by {@link DataConfigManager}.
+     */
+    static final class Builder {
+        private final long mVersion;
+        private final @NonNull boolean[] mUnmeteredNetworkTypes =
+                new boolean[NUM_NETWORK_TYPE_INDICES];
+        private final @NonNull boolean[] mRoamingUnmeteredNetworkTypes =
+                new boolean[NUM_NETWORK_TYPE_INDICES];
+        private final @NonNull DataNetwork.NetworkBandwidth[] mBandwidths =
+                new DataNetwork.NetworkBandwidth[NUM_NETWORK_TYPE_INDICES];
+        private final @NonNull String[] mTcpBufferSizes = new String[NUM_NETWORK_TYPE_INDICES];
+        private final @NonNull int[][] mAutoDataSwitchScores =
+                new int[NUM_NETWORK_TYPE_INDICES][];
+        private @NonNull Set<Integer> mMeteredCapabilitySet = Collections.emptySet();
+        private @NonNull Set<Integer> mRoamingMeteredCapabilitySet = Collections.emptySet();
+        private @NonNull List<HandoverRule> mHandoverRules = Collections.emptyList();
+
+        /**
+         * Constructor
+         *
+         * @param version The version of the snapshot.
+         */
+        Builder(long version) {
+            mVersion = version;
+        }
+
+        /**
+         * Set the network type unmetered.
+         *
+         * @param index The network type index.
+         * @param isRoaming {@code true} for roaming scenario.
+         * @return The builder.
+         */
+        @NonNull Builder setNetworkTypeUnmetered(int index, boolean isRoaming) {
+            if (index >= 0 && index < NUM_NETWORK_TYPE_INDICES) {
+                if (isRoaming) {
+                    mRoamingUnmeteredNetworkTypes[index] = true;
+                } else {
+                    mUnmeteredNetworkTypes[index] = true;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Set the bandwidth of the network type.
+         *
+         * @param index The network type index.
+         * @param bandwidth The bandwidth.
+         * @return The builder.
+         */
+        @NonNull Builder setBandwidth(int index, @NonNull DataNetwork.NetworkBandwidth bandwidth) {
+            if (index >= 0 && index < NUM_NETWORK_TYPE_INDICES) {
+                mBandwidths[index] = bandwidth;
+            }
+            return this;
+        }
+
+        /**
+         * Set the TCP buffer sizes of the network type.
+         *
+         * @param index The network type index.
+         * @param tcpBufferSizes The TCP buffer sizes.
+         * @return The builder.
+         */
+        @NonNull Builder setTcpBufferSizes(int index, @NonNull String tcpBufferSizes) {
+            if (index >= 0 && index < NUM_NETWORK_TYPE_INDICES) {
+                mTcpBufferSizes[index] = tcpBufferSizes;
+            }
+            return this;
+        }
+
+        /**
+         * Set the auto data switch scores of the network type.
+         *
+         * @param index The network type index.
+         * @param scores The scores indexed by signal strength level.
+         * @return The builder.
+         */
+        @NonNull Builder setAutoDataSwitchScores(int index, @NonNull int[] scores) {
+            if (index >= 0 && index < NUM_NETWORK_TYPE_INDICES) {
+                mAutoDataSwitchScores[index] = scores.clone();
+            }
+            return this;
+        }
+
+        /**
+         * Set the metered network capabilities.
+         *
+         * @param capabilities The metered network capabilities.
+         * @param isRoaming {@code true} for roaming scenario.
+         * @return The builder.
+         */
+        @NonNull Builder setMeteredNetworkCapabilities(
+                @NonNull @NetCapability Set<Integer> capabilities, boolean isRoaming) {
+            if (isRoaming) {
+                mRoamingMeteredCapabilitySet = capabilities;
+            } else {
+                mMeteredCapabilitySet = capabilities;
+            }
+            return this;
+        }
+
+        /**
+         * Set the handover rules.
+         *
+         * @param handoverRules The handover rules.
+         * @return The builder.
+         */
+        @NonNull Builder setHandoverRules(@NonNull List<HandoverRule> handoverRules) {
+            mHandoverRules = handoverRules;
+            return this;
+        }
+
+        /**
+         * @return The immutable snapshot.
+         */
+        @NonNull DataConfig build() {
+            return new DataConfig(this);
+        }
+    }
+}
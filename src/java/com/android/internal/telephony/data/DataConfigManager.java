@@ -308,6 +308,15 @@ public class DataConfigManager extends Handler {
     private @NonNull final @DataConfigNetworkType Map<String, int[]>
             mAutoDataSwitchNetworkTypeSignalMap = new ConcurrentHashMap<>();
 
+    /** The version of the latest {@link DataConfig} snapshot. */
+    private long mDataConfigVersion = 0;
+
+    /**
+     * The immutable snapshot of the frequently evaluated configurations. Replaced as a whole every
+     * time carrier config is updated, so it can be read from any thread without locking.
+     */
+    private volatile @NonNull DataConfig mDataConfig;
+
     /**
      * Constructor
      *
@@ -461,11 +470,46 @@ public class DataConfigManager extends Handler {
         updateTcpBuffers();
         updateHandoverRules();
         updateAutoDataSwitchConfig();
+        updateDataConfig();
 
         log("Carrier config updated. Config is " + (isConfigCarrierSpecific() ? "" : "not ")
                 + "carrier specific.");
     }
 
+    /**
+     * Generate a new {@link DataConfig} snapshot from the parsed configurations.
+     */
+    private void updateDataConfig() {
+        DataConfig.Builder builder = new DataConfig.Builder(++mDataConfigVersion);
+        synchronized (this) {
+            builder.setMeteredNetworkCapabilities(
+                    computeMeteredNetworkCapabilities(mMeteredApnTypes), false)
+                    .setMeteredNetworkCapabilities(
+                            computeMeteredNetworkCapabilities(mRoamingMeteredApnTypes), true)
+                    .setHandoverRules(mHandoverRuleList);
+            mUnmeteredNetworkTypes.forEach(networkType -> builder.setNetworkTypeUnmetered(
+                    dataConfigNetworkTypeToIndex(networkType), false));
+            mRoamingUnmeteredNetworkTypes.forEach(networkType -> builder.setNetworkTypeUnmetered(
+                    dataConfigNetworkTypeToIndex(networkType), true));
+            mBandwidthMap.forEach((networkType, bandwidth) -> builder.setBandwidth(
+                    dataConfigNetworkTypeToIndex(networkType), bandwidth));
+            mTcpBufferSizeMap.forEach((networkType, tcpBufferSizes) -> builder.setTcpBufferSizes(
+                    dataConfigNetworkTypeToIndex(networkType), tcpBufferSizes));
+            mAutoDataSwitchNetworkTypeSignalMap.forEach((networkType, scores) ->
+                    builder.setAutoDataSwitchScores(dataConfigNetworkTypeToIndex(networkType),
+                            scores));
+        }
+        mDataConfig = builder.build();
+    }
+
+    /**
+     * @return The immutable snapshot of the frequently evaluated data configurations. The snapshot
+     * is replaced with a newer version every time carrier config is updated.
+     */
+    public @NonNull DataConfig getDataConfig() {
+        return mDataConfig;
+    }
+
     /**
      * Update the network capability priority from carrier config.
      */
@@ -597,7 +641,18 @@ public class DataConfigManager extends Handler {
      * @return The metered network capabilities when connected to a home network.
      */
     public @NonNull @NetCapability Set<Integer> getMeteredNetworkCapabilities(boolean isRoaming) {
-        Set<Integer> meteredApnTypes = isRoaming ? mRoamingMeteredApnTypes : mMeteredApnTypes;
+        return mDataConfig.getMeteredNetworkCapabilities(isRoaming);
+    }
+
+    /**
+     * Compute the metered network capabilities from the metered APN types.
+     *
+     * @param meteredApnTypes The metered APN types.
+     *
+     * @return The metered network capabilities.
+     */
+    private @NonNull @NetCapability Set<Integer> computeMeteredNetworkCapabilities(
+            @NonNull @ApnType Set<Integer> meteredApnTypes) {
         Set<Integer> meteredCapabilities = meteredApnTypes.stream()
                 .map(DataUtils::apnTypeToNetworkCapability)
                 .filter(cap -> cap >= 0)
@@ -611,7 +666,7 @@ public class DataConfigManager extends Handler {
             meteredCapabilities.add(NetworkCapabilities.NET_CAPABILITY_PRIORITIZE_LATENCY);
         }
 
-        return Collections.unmodifiableSet(meteredCapabilities);
+        return meteredCapabilities;
     }
 
     /**
@@ -630,7 +685,7 @@ public class DataConfigManager extends Handler {
      * @return {@code true} if the network capability is metered.
      */
     public boolean isMeteredCapability(@NetCapability int networkCapability, boolean isRoaming) {
-        return getMeteredNetworkCapabilities(isRoaming).contains(networkCapability);
+        return mDataConfig.isMeteredCapability(networkCapability, isRoaming);
     }
 
     /**
@@ -643,8 +698,13 @@ public class DataConfigManager extends Handler {
      */
     public boolean isAnyMeteredCapability(@NonNull @NetCapability int[] networkCapabilities,
             boolean isRoaming) {
-        return Arrays.stream(networkCapabilities).boxed()
-                .anyMatch(cap -> isMeteredCapability(cap, isRoaming));
+        DataConfig dataConfig = mDataConfig;
+        for (int networkCapability : networkCapabilities) {
+            if (dataConfig.isMeteredCapability(networkCapability, isRoaming)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -776,10 +836,8 @@ public class DataConfigManager extends Handler {
      */
     public boolean isNetworkTypeUnmetered(@NonNull TelephonyDisplayInfo displayInfo,
             @NonNull ServiceState serviceState) {
-        String dataConfigNetworkType = getDataConfigNetworkType(displayInfo);
-        return serviceState.getDataRoaming()
-                ? mRoamingUnmeteredNetworkTypes.contains(dataConfigNetworkType)
-                : mUnmeteredNetworkTypes.contains(dataConfigNetworkType);
+        return mDataConfig.isNetworkTypeUnmetered(DataConfig.getNetworkTypeIndex(displayInfo),
+                serviceState.getDataRoaming());
     }
 
     /**
@@ -838,8 +896,8 @@ public class DataConfigManager extends Handler {
      */
     public @NonNull DataNetwork.NetworkBandwidth getBandwidthForNetworkType(
             @NonNull TelephonyDisplayInfo displayInfo) {
-        DataNetwork.NetworkBandwidth bandwidth = mBandwidthMap.get(
-                getDataConfigNetworkType(displayInfo));
+        DataNetwork.NetworkBandwidth bandwidth = mDataConfig.getBandwidth(
+                DataConfig.getNetworkTypeIndex(displayInfo));
         if (bandwidth != null) {
             return bandwidth;
         }
@@ -1026,8 +1084,8 @@ public class DataConfigManager extends Handler {
      */
     public int getAutoDataSwitchScore(@NonNull TelephonyDisplayInfo displayInfo,
             @NonNull SignalStrength signalStrength) {
-        int[] scores = mAutoDataSwitchNetworkTypeSignalMap.get(
-                getDataConfigNetworkType(displayInfo));
+        int[] scores = mDataConfig.getAutoDataSwitchScores(
+                DataConfig.getNetworkTypeIndex(displayInfo));
         return scores != null ? scores[signalStrength.getLevel()]
                 : OUT_OF_SERVICE_AUTO_DATA_SWITCH_SCORE;
     }
@@ -1070,7 +1128,7 @@ public class DataConfigManager extends Handler {
      *         {@code config_tcp_buffers} if unavailable.
      */
     public @NonNull String getTcpConfigString(@NonNull TelephonyDisplayInfo displayInfo) {
-        String config = mTcpBufferSizeMap.get(getDataConfigNetworkType(displayInfo));
+        String config = mDataConfig.getTcpBufferSizes(DataConfig.getNetworkTypeIndex(displayInfo));
         if (TextUtils.isEmpty(config)) {
             config = getDefaultTcpConfigString();
         }
@@ -1140,29 +1198,30 @@ public class DataConfigManager extends Handler {
     }
 
     /**
-     * Get the {@link DataConfigNetworkType} based on the given {@link TelephonyDisplayInfo}.
+     * Get the {@link DataConfig} network type index of the given {@link DataConfigNetworkType}.
+     * Only used when generating the snapshot.
      *
-     * @param displayInfo The {@link TelephonyDisplayInfo} used to determine the type.
-     * @return The equivalent {@link DataConfigNetworkType}.
-     */
-    private static @NonNull @DataConfigNetworkType String getDataConfigNetworkType(
-            @NonNull TelephonyDisplayInfo displayInfo) {
-        int networkType = displayInfo.getNetworkType();
-        switch (displayInfo.getOverrideNetworkType()) {
-            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED:
-                if (networkType == TelephonyManager.NETWORK_TYPE_NR) {
-                    return DATA_CONFIG_NETWORK_TYPE_NR_SA_MMWAVE;
-                } else {
-                    return DATA_CONFIG_NETWORK_TYPE_NR_NSA_MMWAVE;
-                }
-            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA:
-                return DATA_CONFIG_NETWORK_TYPE_NR_NSA;
-            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_LTE_ADVANCED_PRO:
-            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_LTE_CA:
-                return DATA_CONFIG_NETWORK_TYPE_LTE_CA;
-            case TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE:
+     * @param dataConfigNetworkType The data config network type.
+     * @return The network type index, or {@link DataConfig#INVALID_INDEX} if unknown.
+     */
+    private static int dataConfigNetworkTypeToIndex(
+            @NonNull @DataConfigNetworkType String dataConfigNetworkType) {
+        switch (dataConfigNetworkType) {
+            case DATA_CONFIG_NETWORK_TYPE_NR_NSA:
+                return DataConfig.INDEX_NR_NSA;
+            case DATA_CONFIG_NETWORK_TYPE_NR_NSA_MMWAVE:
+                return DataConfig.INDEX_NR_NSA_MMWAVE;
+            case DATA_CONFIG_NETWORK_TYPE_NR_SA_MMWAVE:
+                return DataConfig.INDEX_NR_SA_MMWAVE;
             default:
-                return networkTypeToDataConfigNetworkType(networkType);
+                for (int networkType = TelephonyManager.NETWORK_TYPE_UNKNOWN + 1;
+                        networkType <= TelephonyManager.NETWORK_TYPE_NR; networkType++) {
+                    if (networkTypeToDataConfigNetworkType(networkType)
+                            .equals(dataConfigNetworkType)) {
+                        return networkType;
+                    }
+                }
+                return DataConfig.INVALID_INDEX;
         }
     }
 
@@ -1256,7 +1315,7 @@ public class DataConfigManager extends Handler {
      * @see CarrierConfigManager#KEY_IWLAN_HANDOVER_POLICY_STRING_ARRAY
      */
     public @NonNull List<HandoverRule> getHandoverRules() {
-        return Collections.unmodifiableList(mHandoverRuleList);
+        return mDataConfig.getHandoverRules();
     }
 
     /**
@@ -1425,6 +1484,7 @@ public class DataConfigManager extends Handler {
         pw.println(DataConfigManager.class.getSimpleName() + "-" + mPhone.getPhoneId() + ":");
         pw.increaseIndent();
         pw.println("isConfigCarrierSpecific=" + isConfigCarrierSpecific());
+        pw.println("mDataConfig=" + mDataConfig);
         pw.println("Network capability priority:");
         pw.increaseIndent();
         mNetworkCapabilityPriorityMap.forEach((key, value) -> pw.print(
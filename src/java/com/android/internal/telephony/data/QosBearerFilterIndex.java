@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.data;
+
+import android.annotation.NonNull;
+import android.net.LinkAddress;
+import android.telephony.data.QosBearerFilter;
+import android.telephony.data.QosBearerSession;
+
+import com.android.internal.telephony.data.QosCallbackTracker.IFilter;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An index over the {@link QosBearerFilter}s of a set of {@link QosBearerSession}s, which finds
+ * the sessions matching an {@link IFilter} without checking every bearer filter.
+ * <p>
+ * Bearer filters are grouped by protocol, then indexed by their local port range if they have a
+ * local address or port, or else by their remote port range. The ports of an {@link IFilter} are
+ * found once with {@link FilterKey#of(IFilter)}, by matching port ranges with the any address, as
+ * is done for bearer filters without an address. A lookup then only checks the bearer filters
+ * whose port range contains the ports of the {@link IFilter}.
+ */
+final class QosBearerFilterIndex {
+    private static final InetAddress ANY_ADDRESS;
+
+    static {
+        InetAddress anyAddress = null;
+        try {
+            anyAddress = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
+        } catch (UnknownHostException e) {
+            // Not thrown for an address of a valid length.
+        }
+        ANY_ADDRESS = anyAddress;
+    }
+
+    private static final int BUCKET_TCP = 0;
+    private static final int BUCKET_UDP = 1;
+    // Other protocols, which are not matched by the IFilter, and no protocol.
+    private static final int BUCKET_OTHER = 2;
+    private static final int BUCKET_COUNT = 3;
+
+    /**
+     * The protocols and ports that an {@link IFilter} matches, used to look up the bearer filters
+     * that may match it.
+     */
+    static final class FilterKey {
+        /** The IFilter does not match any port. */
+        static final int NO_PORT = -1;
+        /** The port could not be found, as the IFilter does not match a single port. */
+        static final int UNKNOWN_PORT = -2;
+
+        final boolean mMatchesTcp;
+        final boolean mMatchesUdp;
+        final int mLocalPort;
+        final int mRemotePort;
+
+        private FilterKey(boolean matchesTcp, boolean matchesUdp, int localPort, int remotePort) {
+            mMatchesTcp = matchesTcp;
+            mMatchesUdp = matchesUdp;
+            mLocalPort = localPort;
+            mRemotePort = remotePort;
+        }
+
+        /**
+         * Find the protocols and ports that {@code filter} matches.
+         */
+        @NonNull
+        static FilterKey of(@NonNull IFilter filter) {
+            return new FilterKey(filter.matchesProtocol(QosBearerFilter.QOS_PROTOCOL_TCP),
+                    filter.matchesProtocol(QosBearerFilter.QOS_PROTOCOL_UDP),
+                    findPort(filter, true), findPort(filter, false));
+        }
+
+        /**
+         * @return {@code false} if the ports of the IFilter are unknown, so it has to be checked
+         *         against every bearer filter.
+         */
+        boolean isIndexable() {
+            return mLocalPort != UNKNOWN_PORT && mRemotePort != UNKNOWN_PORT;
+        }
+
+        // Bisect the port range, as an IFilter matches a range if it contains its port.
+        private static int findPort(@NonNull IFilter filter, boolean local) {
+            int start = QosBearerFilter.QOS_MIN_PORT;
+            int end = QosBearerFilter.QOS_MAX_PORT;
+            if (!matchesPortRange(filter, local, start, end)) {
+                return NO_PORT;
+            }
+            while (start < end) {
+                int middle = (start + end) >>> 1;
+                if (matchesPortRange(filter, local, start, middle)) {
+                    end = middle;
+                } else if (matchesPortRange(filter, local, middle + 1, end)) {
+                    start = middle + 1;
+                } else {
+                    return UNKNOWN_PORT;
+                }
+            }
+            return start;
+        }
+
+        private static boolean matchesPortRange(@NonNull IFilter filter, boolean local,
+                int startPort, int endPort) {
+            return local ? filter.matchesLocalAddress(ANY_ADDRESS, startPort, endPort)
+                    : filter.matchesRemoteAddress(ANY_ADDRESS, startPort, endPort);
+        }
+    }
+
+    private static final class Entry {
+        final int mSessionIndex;
+        @NonNull final QosBearerFilter mFilter;
+        final int mStartPort;
+        final int mEndPort;
+
+        Entry(int sessionIndex, @NonNull QosBearerFilter filter, int startPort, int endPort) {
+            mSessionIndex = sessionIndex;
+            mFilter = filter;
+            mStartPort = startPort;
+            mEndPort = endPort;
+        }
+    }
+
+    /**
+     * Finds the entries whose port range contains a port. The port ranges are split into
+     * non-overlapping segments, each listing the entries that cover it, so a lookup is a binary
+     * search.
+     */
+    private static final class PortRangeIndex {
+        // Entries matching every port are kept apart so they are not listed in every segment.
+        private final List<Entry> mAllPortsEntries = new ArrayList<>();
+        private final List<Entry> mRangeEntries = new ArrayList<>();
+        // Segment i covers the ports from mSegmentStarts[i] to mSegmentStarts[i + 1] - 1.
+        private int[] mSegmentStarts;
+        private final List<List<Entry>> mSegments = new ArrayList<>();
+
+        void add(@NonNull Entry entry) {
+            if (entry.mStartPort <= QosBearerFilter.QOS_MIN_PORT
+                    && entry.mEndPort >= QosBearerFilter.QOS_MAX_PORT) {
+                mAllPortsEntries.add(entry);
+            } else {
+                mRangeEntries.add(entry);
+            }
+        }
+
+        void build() {
+            int[] starts = new int[mRangeEntries.size() * 2];
+            int count = 0;
+            for (Entry entry : mRangeEntries) {
+                starts[count++] = entry.mStartPort;
+                starts[count++] = entry.mEndPort + 1;
+            }
+            Arrays.sort(starts, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || starts[unique - 1] != starts[i]) {
+                    starts[unique++] = starts[i];
+                }
+            }
+            mSegmentStarts = Arrays.copyOf(starts, unique);
+            for (int i = 0; i < unique; i++) {
+                mSegments.add(new ArrayList<>());
+            }
+            for (Entry entry : mRangeEntries) {
+                int end = Arrays.binarySearch(mSegmentStarts, entry.mEndPort + 1);
+                for (int i = Arrays.binarySearch(mSegmentStarts, entry.mStartPort); i < end; i++) {
+                    mSegments.get(i).add(entry);
+                }
+            }
+        }
+
+        void collect(int port, @NonNull List<Entry> out) {
+            out.addAll(mAllPortsEntries);
+            int segment = Arrays.binarySearch(mSegmentStarts, port);
+            if (segment < 0) {
+                // The segment before the insertion point.
+                segment = -segment - 2;
+            }
+            if (segment >= 0) {
+                out.addAll(mSegments.get(segment));
+            }
+        }
+    }
+
+    private static final class Bucket {
+        final PortRangeIndex mByLocalPort = new PortRangeIndex();
+        // Bearer filters without a local address or port.
+        final PortRangeIndex mByRemotePort = new PortRangeIndex();
+        // Bearer filters without any address or port, which only match by protocol.
+        final List<Entry> mProtocolOnly = new ArrayList<>();
+    }
+
+    @NonNull private final List<QosBearerSession> mSessions;
+    @NonNull private final Bucket[] mBuckets = new Bucket[BUCKET_COUNT];
+    // Reused by every lookup, which are all made on the same thread.
+    @NonNull private final List<Entry> mCandidates = new ArrayList<>();
+    // The lookup which last matched each session, so a session is only reported once per lookup.
+    @NonNull private final int[] mSessionMatchedLookups;
+    private int mLookupCount = 0;
+
+    /**
+     * @param sessions The sessions to index.
+     */
+    QosBearerFilterIndex(@NonNull Collection<QosBearerSession> sessions) {
+        mSessions = new ArrayList<>(sessions);
+        mSessionMatchedLookups = new int[mSessions.size()];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets[i] = new Bucket();
+        }
+        for (int i = 0; i < mSessions.size(); i++) {
+            for (QosBearerFilter filter : mSessions.get(i).getQosBearerFilterList()) {
+                add(i, filter);
+            }
+        }
+        for (Bucket bucket : mBuckets) {
+            bucket.mByLocalPort.build();
+            bucket.mByRemotePort.build();
+        }
+    }
+
+    private void add(int sessionIndex, @NonNull QosBearerFilter filter) {
+        Bucket bucket = mBuckets[getBucket(filter.getProtocol())];
+        if (!filter.getLocalAddresses().isEmpty() || filter.getLocalPortRange() != null) {
+            Entry entry = createEntry(sessionIndex, filter, filter.getLocalPortRange());
+            if (entry != null) {
+                bucket.mByLocalPort.add(entry);
+            }
+        } else if (!filter.getRemoteAddresses().isEmpty() || filter.getRemotePortRange() != null) {
+            Entry entry = createEntry(sessionIndex, filter, filter.getRemotePortRange());
+            if (entry != null) {
+                bucket.mByRemotePort.add(entry);
+            }
+        } else if (filter.getProtocol() == QosBearerFilter.QOS_PROTOCOL_TCP
+                || filter.getProtocol() == QosBearerFilter.QOS_PROTOCOL_UDP) {
+            // A bearer filter without addresses, ports or a supported protocol never matches.
+            bucket.mProtocolOnly.add(new Entry(sessionIndex, filter,
+                    QosBearerFilter.QOS_MIN_PORT, QosBearerFilter.QOS_MAX_PORT));
+        }
+    }
+
+    // Returns null for an invalid port range, which never matches.
+    private static Entry createEntry(int sessionIndex, @NonNull QosBearerFilter filter,
+            QosBearerFilter.PortRange portRange) {
+        if (portRange == null) {
+            return new Entry(sessionIndex, filter, QosBearerFilter.QOS_MIN_PORT,
+                    QosBearerFilter.QOS_MAX_PORT);
+        } else if (portRange.isValid()) {
+            return new Entry(sessionIndex, filter, portRange.getStart(), portRange.getEnd());
+        }
+        return null;
+    }
+
+    private static int getBucket(int protocol) {
+        switch (protocol) {
+            case QosBearerFilter.QOS_PROTOCOL_TCP:
+                return BUCKET_TCP;
+            case QosBearerFilter.QOS_PROTOCOL_UDP:
+                return BUCKET_UDP;
+            default:
+                return BUCKET_OTHER;
+        }
+    }
+
+    /**
+     * Call {@code consumer} once with each session that has a bearer filter matching
+     * {@code filter}. The index must not be used from {@code consumer}.
+     *
+     * @param filter The filter to match.
+     * @param key The key of {@code filter}, from {@link FilterKey#of(IFilter)}.
+     * @param consumer Called with the matching sessions.
+     */
+    void forEachMatchingSession(@NonNull IFilter filter, @NonNull FilterKey key,
+            @NonNull Consumer<QosBearerSession> consumer) {
+        mLookupCount++;
+        if (!key.isIndexable()) {
+            for (QosBearerSession session : mSessions) {
+                for (QosBearerFilter sessionFilter : session.getQosBearerFilterList()) {
+                    if (matches(sessionFilter, filter)) {
+                        consumer.accept(session);
+                        break;
+                    }
+                }
+            }
+            return;
+        }
+
+        mCandidates.clear();
+        if (key.mMatchesTcp) {
+            collectCandidates(mBuckets[BUCKET_TCP], key);
+        }
+        if (key.mMatchesUdp) {
+            collectCandidates(mBuckets[BUCKET_UDP], key);
+        }
+        collectCandidates(mBuckets[BUCKET_OTHER], key);
+        for (Entry entry : mCandidates) {
+            if (mSessionMatchedLookups[entry.mSessionIndex] != mLookupCount
+                    && matches(entry.mFilter, filter)) {
+                mSessionMatchedLookups[entry.mSessionIndex] = mLookupCount;
+                consumer.accept(mSessions.get(entry.mSessionIndex));
+            }
+        }
+        mCandidates.clear();
+    }
+
+    private void collectCandidates(@NonNull Bucket bucket, @NonNull FilterKey key) {
+        if (key.mLocalPort >= 0) {
+            bucket.mByLocalPort.collect(key.mLocalPort, mCandidates);
+        }
+        if (key.mRemotePort >= 0) {
+            bucket.mByRemotePort.collect(key.mRemotePort, mCandidates);
+        }
+        mCandidates.addAll(bucket.mProtocolOnly);
+    }
+
+    /**
+     * @return Whether {@code filter} matches the bearer filter {@code sessionFilter}.
+     */
+    static boolean matches(@NonNull QosBearerFilter sessionFilter,
+            @NonNull IFilter filter) {
+        boolean unMatched = false;
+        boolean hasMatchedFilter = false;
+        if (!sessionFilter.getLocalAddresses().isEmpty()
+                || sessionFilter.getLocalPortRange() != null) {
+            if (!matchesByLocalAddress(sessionFilter, filter)) {
+                unMatched = true;
+            } else {
+                hasMatchedFilter = true;
+            }
+        }
+        if (!sessionFilter.getRemoteAddresses().isEmpty()
+                || sessionFilter.getRemotePortRange() != null) {
+            if (!matchesByRemoteAddress(sessionFilter, filter)) {
+                unMatched = true;
+            } else {
+                hasMatchedFilter = true;
+            }
+        }
+
+        if (sessionFilter.getProtocol() != QosBearerFilter.QOS_PROTOCOL_UNSPECIFIED) {
+            if (!matchesByProtocol(sessionFilter, filter, hasMatchedFilter)) {
+                unMatched = true;
+            } else {
+                hasMatchedFilter = true;
+            }
+        }
+        return !unMatched && hasMatchedFilter;
+    }
+
+    private static boolean matchesByLocalAddress(final @NonNull QosBearerFilter sessionFilter,
+            final @NonNull IFilter filter) {
+        int portStart;
+        int portEnd;
+        if (sessionFilter.getLocalPortRange() == null) {
+            portStart = QosBearerFilter.QOS_MIN_PORT;
+            portEnd = QosBearerFilter.QOS_MAX_PORT;
+        } else if (sessionFilter.getLocalPortRange().isValid()) {
+            portStart = sessionFilter.getLocalPortRange().getStart();
+            portEnd = sessionFilter.getLocalPortRange().getEnd();
+        } else {
+            return false;
+        }
+        if (sessionFilter.getLocalAddresses().isEmpty()) {
+            return filter.matchesLocalAddress(ANY_ADDRESS, portStart, portEnd);
+        } else {
+            for (final LinkAddress qosAddress : sessionFilter.getLocalAddresses()) {
+                return filter.matchesLocalAddress(qosAddress.getAddress(), portStart, portEnd);
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesByRemoteAddress(@NonNull QosBearerFilter sessionFilter,
+            final @NonNull IFilter filter) {
+        int portStart;
+        int portEnd;
+        boolean result = false;
+        if (sessionFilter.getRemotePortRange() == null) {
+            portStart = QosBearerFilter.QOS_MIN_PORT;
+            portEnd = QosBearerFilter.QOS_MAX_PORT;
+        } else if (sessionFilter.getRemotePortRange().isValid()) {
+            portStart = sessionFilter.getRemotePortRange().getStart();
+            portEnd = sessionFilter.getRemotePortRange().getEnd();
+        } else {
+            return false;
+        }
+        if (sessionFilter.getRemoteAddresses().isEmpty()) {
+            result = filter.matchesRemoteAddress(ANY_ADDRESS, portStart, portEnd);
+        } else {
+            for (final LinkAddress qosAddress : sessionFilter.getRemoteAddresses()) {
+                result = filter.matchesRemoteAddress(qosAddress.getAddress(), portStart, portEnd);
+            }
+        }
+        return result;
+    }
+
+    private static boolean matchesByProtocol(@NonNull QosBearerFilter sessionFilter,
+            final @NonNull IFilter filter, boolean hasMatchedFilter) {
+        boolean result = false;
+        int protocol = sessionFilter.getProtocol();
+        if (protocol == QosBearerFilter.QOS_PROTOCOL_TCP
+                || protocol == QosBearerFilter.QOS_PROTOCOL_UDP) {
+            result = filter.matchesProtocol(protocol);
+        } else {
+            // FWK currently doesn't support filtering based on protocol ID ESP & AH. We will follow
+            // match results of other filters.
+            result = hasMatchedFilter;
+        }
+        return result;
+    }
+}
@@ -18,7 +18,6 @@ package com.android.internal.telephony.data;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
-import android.net.LinkAddress;
 import android.net.NetworkAgent;
 import android.net.QosFilter;
 import android.net.QosSession;
@@ -37,12 +36,12 @@ import com.android.telephony.Rlog;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Matches filters with qos sessions and send corresponding available and lost events.
@@ -60,11 +59,17 @@ public class QosCallbackTracker extends Handler {
 
     // We perform an exact match on the address
     private final @NonNull Map<Integer, IFilter> mCallbacksToFilter;
+    private final @NonNull Map<Integer, QosBearerFilterIndex.FilterKey> mCallbacksToFilterKey;
+    // The callbacks whose filter matches each session, by session id.
+    private final @NonNull Map<Integer, Set<Integer>> mSessionsToCallbacks;
+    // Index of mQosBearerSessions, created when a filter is added after the sessions changed.
+    private @Nullable QosBearerFilterIndex mQosBearerSessionIndex;
 
     private final int mPhoneId;
 
     /**
-     * QOS sessions filter interface
+     * QOS sessions filter interface. An address and port range match if the address is the
+     * address of the filter or the any address, and the range contains the port of the filter.
      */
     public interface IFilter {
         /**
@@ -105,6 +110,8 @@ public class QosCallbackTracker extends Handler {
     public QosCallbackTracker(@NonNull TelephonyNetworkAgent networkAgent, @NonNull Phone phone) {
         mQosBearerSessions = new HashMap<>();
         mCallbacksToFilter = new HashMap<>();
+        mCallbacksToFilterKey = new HashMap<>();
+        mSessionsToCallbacks = new HashMap<>();
         mNetworkAgent = networkAgent;
         mPhoneId = phone.getPhoneId();
         mRcsStats = RcsStats.getInstance();
@@ -157,16 +164,22 @@ public class QosCallbackTracker extends Handler {
         post(() -> {
             log("addFilter: callbackId=" + callbackId);
             // Called from mDcNetworkAgent
+            removeCallbackFromSessions(callbackId);
+            final QosBearerFilterIndex.FilterKey key = QosBearerFilterIndex.FilterKey.of(filter);
             mCallbacksToFilter.put(callbackId, filter);
+            mCallbacksToFilterKey.put(callbackId, key);
 
             //On first change. Check all sessions and send.
-            for (final QosBearerSession session : mQosBearerSessions.values()) {
-                if (doFiltersMatch(session, filter)) {
-                    sendSessionAvailable(callbackId, session, filter);
-
-                    notifyMetricDedicatedBearerListenerAdded(callbackId, session);
-                }
+            if (mQosBearerSessionIndex == null) {
+                mQosBearerSessionIndex = new QosBearerFilterIndex(mQosBearerSessions.values());
             }
+            mQosBearerSessionIndex.forEachMatchingSession(filter, key, session -> {
+                mSessionsToCallbacks.computeIfAbsent(session.getQosBearerSessionId(),
+                        k -> new HashSet<>()).add(callbackId);
+                sendSessionAvailable(callbackId, session, filter);
+
+                notifyMetricDedicatedBearerListenerAdded(callbackId, session);
+            });
         });
     }
 
@@ -179,10 +192,17 @@ public class QosCallbackTracker extends Handler {
         post(() -> {
             log("removeFilter: callbackId=" + callbackId);
             mCallbacksToFilter.remove(callbackId);
+            mCallbacksToFilterKey.remove(callbackId);
+            removeCallbackFromSessions(callbackId);
             notifyMetricDedicatedBearerListenerRemoved(callbackId);
         });
     }
 
+    private void removeCallbackFromSessions(final int callbackId) {
+        mSessionsToCallbacks.values().removeIf(
+                callbackIds -> callbackIds.remove(callbackId) && callbackIds.isEmpty());
+    }
+
     /**
      * Update the list of qos sessions and send out corresponding events
      *
@@ -192,174 +212,93 @@ public class QosCallbackTracker extends Handler {
         post(() -> {
             log("updateSessions: sessions size=" + sessions.size());
 
-            int bearerState = DEDICATED_BEARER_EVENT_STATE_NONE;
-
-            final List<QosBearerSession> sessionsToAdd = new ArrayList<>();
-            final Map<Integer, QosBearerSession> incomingSessions = new HashMap<>();
-            final HashSet<Integer> sessionsReportedToMetric = new HashSet<>();
+            // Only the sessions which were added, changed or lost since the last update can
+            // change which filters match them.
+            final List<QosBearerSession> changedSessions = new ArrayList<>();
+            final Set<Integer> incomingSessionIds = new HashSet<>();
             for (final QosBearerSession incomingSession : sessions) {
-                int sessionId = incomingSession.getQosBearerSessionId();
-                incomingSessions.put(sessionId, incomingSession);
+                final int sessionId = incomingSession.getQosBearerSessionId();
+                incomingSessionIds.add(sessionId);
+                if (!incomingSession.equals(mQosBearerSessions.get(sessionId))) {
+                    changedSessions.add(incomingSession);
+                }
+            }
+            final List<QosBearerSession> lostSessions = new ArrayList<>();
+            for (final QosBearerSession existingSession : mQosBearerSessions.values()) {
+                if (!incomingSessionIds.contains(existingSession.getQosBearerSessionId())) {
+                    lostSessions.add(existingSession);
+                }
+            }
+            if (changedSessions.isEmpty() && lostSessions.isEmpty()) {
+                return;
+            }
+            mQosBearerSessionIndex = null;
+
+            final Map<Integer, Set<Integer>> incomingSessionsToCallbacks = new HashMap<>();
+            if (!changedSessions.isEmpty() && !mCallbacksToFilter.isEmpty()) {
+                final QosBearerFilterIndex index = new QosBearerFilterIndex(changedSessions);
+                for (final Map.Entry<Integer, IFilter> entry : mCallbacksToFilter.entrySet()) {
+                    final int callbackId = entry.getKey();
+                    index.forEachMatchingSession(entry.getValue(),
+                            mCallbacksToFilterKey.get(callbackId),
+                            session -> incomingSessionsToCallbacks.computeIfAbsent(
+                                    session.getQosBearerSessionId(), k -> new HashSet<>())
+                                    .add(callbackId));
+                }
+            }
 
+            for (final QosBearerSession incomingSession : changedSessions) {
+                final int sessionId = incomingSession.getQosBearerSessionId();
                 final QosBearerSession existingSession = mQosBearerSessions.get(sessionId);
-                for (final int callbackId : mCallbacksToFilter.keySet()) {
-                    final IFilter filter = mCallbacksToFilter.get(callbackId);
-
-                    final boolean incomingSessionMatch = doFiltersMatch(incomingSession, filter);
-                    final boolean existingSessionMatch =
-                            existingSession != null && doFiltersMatch(existingSession, filter);
-
-                    if (!existingSessionMatch && incomingSessionMatch) {
-                        // The filter matches now and didn't match earlier
-                        sendSessionAvailable(callbackId, incomingSession, filter);
-
-                        bearerState = DEDICATED_BEARER_EVENT_STATE_ADDED;
-                    }
-
-                    if (existingSessionMatch && incomingSessionMatch) {
-                        // The same sessions matches the same filter, but if the qos changed,
-                        // the callback still needs to be notified
-                        if (!incomingSession.getQos().equals(existingSession.getQos())) {
+                final Set<Integer> existingCallbacks = mSessionsToCallbacks.remove(sessionId);
+                final Set<Integer> incomingCallbacks = incomingSessionsToCallbacks.get(sessionId);
+                final boolean qosModified = existingSession != null
+                        && !incomingSession.getQos().equals(existingSession.getQos());
+
+                boolean callbackAdded = false;
+                if (incomingCallbacks != null) {
+                    for (final int callbackId : incomingCallbacks) {
+                        final IFilter filter = mCallbacksToFilter.get(callbackId);
+                        if (existingCallbacks == null || !existingCallbacks.contains(callbackId)) {
+                            // The filter matches now and didn't match earlier
+                            sendSessionAvailable(callbackId, incomingSession, filter);
+                            callbackAdded = true;
+                        } else if (qosModified) {
+                            // The same sessions matches the same filter, but the qos changed,
+                            // so the callback still needs to be notified
                             sendSessionAvailable(callbackId, incomingSession, filter);
-                            bearerState = DEDICATED_BEARER_EVENT_STATE_MODIFIED;
                         }
                     }
-
-                    // this QosBearerSession has registered QosCallbackId
-                    if (!sessionsReportedToMetric.contains(sessionId) && incomingSessionMatch) {
-                        // this session has listener
-                        notifyMetricDedicatedBearerEvent(incomingSession, bearerState, true);
-                        sessionsReportedToMetric.add(sessionId);
-                    }
+                    mSessionsToCallbacks.put(sessionId, incomingCallbacks);
                 }
 
-                // this QosBearerSession does not have registered QosCallbackId
-                if (!sessionsReportedToMetric.contains(sessionId)) {
-                    // no listener is registered to this session
-                    bearerState = DEDICATED_BEARER_EVENT_STATE_ADDED;
-                    notifyMetricDedicatedBearerEvent(incomingSession, bearerState, false);
-                    sessionsReportedToMetric.add(sessionId);
+                if (existingSession == null || callbackAdded) {
+                    notifyMetricDedicatedBearerEvent(incomingSession,
+                            DEDICATED_BEARER_EVENT_STATE_ADDED, incomingCallbacks != null);
+                } else if (qosModified) {
+                    notifyMetricDedicatedBearerEvent(incomingSession,
+                            DEDICATED_BEARER_EVENT_STATE_MODIFIED, incomingCallbacks != null);
                 }
-                sessionsToAdd.add(incomingSession);
+                mQosBearerSessions.put(sessionId, incomingSession);
             }
 
-            final List<Integer> sessionsToRemove = new ArrayList<>();
-            sessionsReportedToMetric.clear();
-            bearerState = DEDICATED_BEARER_EVENT_STATE_DELETED;
-            // Find sessions that no longer exist
-            for (final QosBearerSession existingSession : mQosBearerSessions.values()) {
-                final int sessionId = existingSession.getQosBearerSessionId();
-                if (!incomingSessions.containsKey(sessionId)) {
-                    for (final int callbackId : mCallbacksToFilter.keySet()) {
-                        final IFilter filter = mCallbacksToFilter.get(callbackId);
-                        // The filter matches which means it was previously available, and now is
-                        // lost
-                        if (doFiltersMatch(existingSession, filter)) {
-                            bearerState = DEDICATED_BEARER_EVENT_STATE_DELETED;
-                            sendSessionLost(callbackId, existingSession);
-                            notifyMetricDedicatedBearerEvent(existingSession, bearerState, true);
-                            sessionsReportedToMetric.add(sessionId);
-                        }
-                    }
-                    sessionsToRemove.add(sessionId);
-                    if (!sessionsReportedToMetric.contains(sessionId)) {
-                        notifyMetricDedicatedBearerEvent(existingSession, bearerState, false);
-                        sessionsReportedToMetric.add(sessionId);
+            for (final QosBearerSession lostSession : lostSessions) {
+                final int sessionId = lostSession.getQosBearerSessionId();
+                // The filters which matched the session were notified that it is available, and
+                // now it is lost
+                final Set<Integer> existingCallbacks = mSessionsToCallbacks.remove(sessionId);
+                if (existingCallbacks != null) {
+                    for (final int callbackId : existingCallbacks) {
+                        sendSessionLost(callbackId, lostSession);
                     }
                 }
-            }
-
-            // Add in the new or existing sessions with updated information
-            for (final QosBearerSession sessionToAdd : sessionsToAdd) {
-                mQosBearerSessions.put(sessionToAdd.getQosBearerSessionId(), sessionToAdd);
-            }
-
-            // Remove any old sessions
-            for (final int sessionToRemove : sessionsToRemove) {
-                mQosBearerSessions.remove(sessionToRemove);
+                notifyMetricDedicatedBearerEvent(lostSession, DEDICATED_BEARER_EVENT_STATE_DELETED,
+                        existingCallbacks != null);
+                mQosBearerSessions.remove(sessionId);
             }
         });
     }
 
-    private boolean doFiltersMatch(final @NonNull QosBearerSession qosBearerSession,
-            final @NonNull IFilter filter) {
-        return getMatchingQosBearerFilter(qosBearerSession, filter) != null;
-    }
-
-    private boolean matchesByLocalAddress(final @NonNull QosBearerFilter sessionFilter,
-            final @NonNull IFilter filter) {
-        int portStart;
-        int portEnd;
-        if (sessionFilter.getLocalPortRange() == null) {
-            portStart = QosBearerFilter.QOS_MIN_PORT;
-            portEnd = QosBearerFilter.QOS_MAX_PORT;
-        } else if (sessionFilter.getLocalPortRange().isValid()) {
-            portStart = sessionFilter.getLocalPortRange().getStart();
-            portEnd = sessionFilter.getLocalPortRange().getEnd();
-        } else {
-            return false;
-        }
-        if (sessionFilter.getLocalAddresses().isEmpty()) {
-            InetAddress anyAddress;
-            try {
-                anyAddress = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
-            } catch (UnknownHostException e) {
-                return false;
-            }
-            return filter.matchesLocalAddress(anyAddress, portStart, portEnd);
-        } else {
-            for (final LinkAddress qosAddress : sessionFilter.getLocalAddresses()) {
-                return filter.matchesLocalAddress(qosAddress.getAddress(), portStart, portEnd);
-            }
-        }
-        return false;
-    }
-
-    private boolean matchesByRemoteAddress(@NonNull QosBearerFilter sessionFilter,
-            final @NonNull IFilter filter) {
-        int portStart;
-        int portEnd;
-        boolean result = false;
-        if (sessionFilter.getRemotePortRange() == null) {
-            portStart = QosBearerFilter.QOS_MIN_PORT;
-            portEnd = QosBearerFilter.QOS_MAX_PORT;
-        } else if (sessionFilter.getRemotePortRange().isValid()) {
-            portStart = sessionFilter.getRemotePortRange().getStart();
-            portEnd = sessionFilter.getRemotePortRange().getEnd();
-        } else {
-            return false;
-        }
-        if (sessionFilter.getRemoteAddresses().isEmpty()) {
-            InetAddress anyAddress;
-            try {
-                anyAddress = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
-            } catch (UnknownHostException e) {
-                return false;
-            }
-            result = filter.matchesRemoteAddress(anyAddress, portStart, portEnd);
-        } else {
-            for (final LinkAddress qosAddress : sessionFilter.getRemoteAddresses()) {
-                result = filter.matchesRemoteAddress(qosAddress.getAddress(), portStart, portEnd);
-            }
-        }
-        return result;
-    }
-
-    private boolean matchesByProtocol(@NonNull QosBearerFilter sessionFilter,
-            final @NonNull IFilter filter, boolean hasMatchedFilter) {
-        boolean result = false;
-        int protocol = sessionFilter.getProtocol();
-        if (protocol == QosBearerFilter.QOS_PROTOCOL_TCP
-                || protocol == QosBearerFilter.QOS_PROTOCOL_UDP) {
-            result = filter.matchesProtocol(protocol);
-        } else {
-            // FWK currently doesn't support filtering based on protocol ID ESP & AH. We will follow
-            // match results of other filters.
-            result = hasMatchedFilter;
-        }
-        return result;
-    }
-
     private QosBearerFilter getFilterByPrecedence(
             @Nullable QosBearerFilter qosFilter, QosBearerFilter sessionFilter) {
         // Find for the highest precedence filter, lower the value is the higher the precedence
@@ -372,34 +311,7 @@ public class QosCallbackTracker extends Handler {
         QosBearerFilter qosFilter = null;
 
         for (final QosBearerFilter sessionFilter : qosBearerSession.getQosBearerFilterList()) {
-            boolean unMatched = false;
-            boolean hasMatchedFilter = false;
-            if (!sessionFilter.getLocalAddresses().isEmpty()
-                    || sessionFilter.getLocalPortRange() != null) {
-                if (!matchesByLocalAddress(sessionFilter, filter)) {
-                    unMatched = true;
-                } else {
-                    hasMatchedFilter = true;
-                }
-            }
-            if (!sessionFilter.getRemoteAddresses().isEmpty()
-                    || sessionFilter.getRemotePortRange() != null) {
-                if (!matchesByRemoteAddress(sessionFilter, filter)) {
-                    unMatched = true;
-                } else {
-                    hasMatchedFilter = true;
-                }
-            }
-
-            if (sessionFilter.getProtocol() != QosBearerFilter.QOS_PROTOCOL_UNSPECIFIED) {
-                if (!matchesByProtocol(sessionFilter, filter, hasMatchedFilter)) {
-                    unMatched = true;
-                } else {
-                    hasMatchedFilter = true;
-                }
-            }
-
-            if (!unMatched && hasMatchedFilter) {
+            if (QosBearerFilterIndex.matches(sessionFilter, filter)) {
                 qosFilter = getFilterByPrecedence(qosFilter, sessionFilter);
             }
         }
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import static com.android.internal.telephony.emergency.EmergencyConstants.MODE_EMERGENCY_NONE;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.SubscriptionManager;
+import android.telephony.emergency.EmergencyNumber;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * EmergencyContext is an immutable snapshot of the emergency state consulted when dialing,
+ * published by {@link EmergencyNumberTracker} and {@link EmergencyStateTracker} every time their
+ * state changes. It holds the emergency numbers and last known country of every phone, and the
+ * emergency mode and emergency callback mode. The current snapshot is swapped atomically, so it
+ * can be read from any thread without locking or posting to the trackers' handlers.
+ */
+public final class EmergencyContext {
+    /** The current snapshot. */
+    private static final AtomicReference<EmergencyContext> sCurrent =
+            new AtomicReference<>(new Builder(0).build());
+
+    /** The emergency numbers and country of one phone. */
+    private static final class PhoneState {
+        /**
+         * The merged emergency numbers, indexed by number. {@code null} if the phone does not
+         * have the emergency number list from the radio, in which case whether a number is an
+         * emergency number is decided by {@link EmergencyNumberTracker} with legacy rules.
+         */
+        private final @Nullable Map<String, List<EmergencyNumber>> mEmergencyNumbers;
+
+        /** The last known country ISO of the phone. */
+        private final @NonNull String mLastKnownCountryIso;
+
+        PhoneState(@Nullable Map<String, List<EmergencyNumber>> emergencyNumbers,
+                @NonNull String lastKnownCountryIso) {
+            mEmergencyNumbers = emergencyNumbers;
+            mLastKnownCountryIso = lastKnownCountryIso;
+        }
+    }
+
+    private static final PhoneState EMPTY_PHONE_STATE = new PhoneState(null, "");
+
+    /** The version of the snapshot. Increased every time a new snapshot is published. */
+    private final long mVersion;
+
+    /** The state of each phone, by phone id. */
+    private final @NonNull Map<Integer, PhoneState> mPhoneStates;
+
+    /** The emergency mode, set on the phone {@link #mEmergencyModePhoneId}. */
+    private final @EmergencyConstants.EmergencyMode int mEmergencyMode;
+
+    private final int mEmergencyModePhoneId;
+
+    private final boolean mIsInEmergencyCall;
+
+    private final boolean mIsInEcm;
+
+    private final boolean mIsInImsEcm;
+
+    private final boolean mIsInCdmaEcm;
+
+    /**
+     * Private constructor. Use {@link Builder} to create the snapshot.
+     *
+     * @param builder The builder.
+     */
+    private EmergencyContext(@NonNull Builder builder) {
+        mVersion = builder.mVersion;
+        mPhoneStates = Collections.unmodifiableMap(new HashMap<>(builder.mPhoneStates));
+        mEmergencyMode = builder.mEmergencyMode;
+        mEmergencyModePhoneId = builder.mEmergencyModePhoneId;
+        mIsInEmergencyCall = builder.mIsInEmergencyCall;
+        mIsInEcm = builder.mIsInEcm;
+        mIsInImsEcm = builder.mIsInImsEcm;
+        mIsInCdmaEcm = builder.mIsInCdmaEcm;
+    }
+
+    /**
+     * @return The current snapshot.
+     */
+    public static @NonNull EmergencyContext getCurrent() {
+        return sCurrent.get();
+    }
+
+    /**
+     * Publish a new snapshot, which is the current one with the changes made by the updater. The
+     * updater can be called more than once if snapshots are published concurrently, so it must
+     * only change the builder.
+     *
+     * @param updater Makes the changes on the builder of the current snapshot.
+     */
+    static void update(@NonNull UnaryOperator<Builder> updater) {
+        sCurrent.updateAndGet(current -> updater.apply(new Builder(current)).build());
+    }
+
+    /**
+     * Reset to an empty snapshot.
+     */
+    @VisibleForTesting
+    public static void reset() {
+        update(builder -> new Builder(builder.mVersion));
+    }
+
+    private @NonNull PhoneState getPhoneState(int phoneId) {
+        PhoneState phoneState = mPhoneStates.get(phoneId);
+        return phoneState != null ? phoneState : EMPTY_PHONE_STATE;
+    }
+
+    /**
+     * @return The version of the snapshot. A newer snapshot always has a larger version.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @param phoneId The phone id.
+     * @return {@code true} if the emergency numbers of the phone are in the snapshot. If not,
+     * {@link EmergencyNumberTracker#isEmergencyNumber(String)} must be used instead.
+     */
+    public boolean hasEmergencyNumbers(int phoneId) {
+        return getPhoneState(phoneId).mEmergencyNumbers != null;
+    }
+
+    /**
+     * Check if the number is an emergency number of the phone, in the same way as
+     * {@link EmergencyNumberTracker#isEmergencyNumber(String)}. Only valid if
+     * {@link #hasEmergencyNumbers(int)} is {@code true}.
+     *
+     * @param phoneId The phone id.
+     * @param number The dialed number.
+     * @return {@code true} if it is an emergency number.
+     */
+    public boolean isEmergencyNumber(int phoneId, @Nullable String number) {
+        return !getEmergencyNumbers(phoneId, number).isEmpty();
+    }
+
+    /**
+     * Get the emergency numbers of the phone matching the number. The emergency call routing is
+     * as merged from the sources, before it is adjusted for the current network by
+     * {@link EmergencyNumberTracker#getEmergencyNumberList()}.
+     *
+     * @param phoneId The phone id.
+     * @param number The dialed number.
+     * @return The matching emergency numbers. Empty if there is none or if
+     * {@link #hasEmergencyNumbers(int)} is {@code false}.
+     */
+    public @NonNull List<EmergencyNumber> getEmergencyNumbers(int phoneId,
+            @Nullable String number) {
+        Map<String, List<EmergencyNumber>> emergencyNumbers =
+                getPhoneState(phoneId).mEmergencyNumbers;
+        // Do not treat SIP address as emergency number
+        if (emergencyNumbers == null || number == null || PhoneNumberUtils.isUriNumber(number)) {
+            return Collections.emptyList();
+        }
+        List<EmergencyNumber> matches =
+                emergencyNumbers.get(PhoneNumberUtils.extractNetworkPortionAlt(number));
+        return matches != null ? matches : Collections.emptyList();
+    }
+
+    /**
+     * @param phoneId The phone id.
+     * @return The last known country ISO of the phone, or an empty string if unknown.
+     */
+    public @NonNull String getLastKnownCountryIso(int phoneId) {
+        return getPhoneState(phoneId).mLastKnownCountryIso;
+    }
+
+    /**
+     * @param phoneId The phone id.
+     * @return The emergency mode set on the phone.
+     */
+    public @EmergencyConstants.EmergencyMode int getEmergencyMode(int phoneId) {
+        return phoneId == mEmergencyModePhoneId ? mEmergencyMode : MODE_EMERGENCY_NONE;
+    }
+
+    /**
+     * @return {@code true} if there is an ongoing emergency call.
+     */
+    public boolean isInEmergencyCall() {
+        return mIsInEmergencyCall;
+    }
+
+    /**
+     * @return {@code true} if in emergency callback mode.
+     */
+    public boolean isInEcm() {
+        return mIsInEcm;
+    }
+
+    /**
+     * @return {@code true} if in emergency callback mode over PS.
+     */
+    public boolean isInImsEcm() {
+        return mIsInImsEcm;
+    }
+
+    /**
+     * @return {@code true} if in emergency callback mode over CS.
+     */
+    public boolean isInCdmaEcm() {
+        return mIsInCdmaEcm;
+    }
+
+    @Override
+    public String toString() {
+        return "[EmergencyContext: version=" + mVersion + ", phones=" + mPhoneStates.keySet()
+                + ", emergencyMode=" + EmergencyConstants.emergencyModeToString(mEmergencyMode)
+                + " on " + mEmergencyModePhoneId + ", isInEmergencyCall=" + mIsInEmergencyCall
+                + ", isInEcm=" + mIsInEcm + "]";
+    }
+
+    /**
+     * The builder of {@link EmergencyContext}. Only used by the emergency trackers.
+     */
+    static final class Builder {
+        private final long mVersion;
+        private final @NonNull Map<Integer, PhoneState> mPhoneStates = new HashMap<>();
+        private @EmergencyConstants.EmergencyMode int mEmergencyMode = MODE_EMERGENCY_NONE;
+        private int mEmergencyModePhoneId = SubscriptionManager.INVALID_PHONE_INDEX;
+        private boolean mIsInEmergencyCall;
+        private boolean mIsInEcm;
+        private boolean mIsInImsEcm;
+        private boolean mIsInCdmaEcm;
+
+        /**
+         * Constructor
+         *
+         * @param version The version of the snapshot.
+         */
+        private Builder(long version) {
+            mVersion = version;
+        }
+
+        /**
+         * Constructor of the builder of the next snapshot.
+         *
+         * @param current The current snapshot.
+         */
+        private Builder(@NonNull EmergencyContext current) {
+            mVersion = current.mVersion + 1;
+            mPhoneStates.putAll(current.mPhoneStates);
+            mEmergencyMode = current.mEmergencyMode;
+            mEmergencyModePhoneId = current.mEmergencyModePhoneId;
+            mIsInEmergencyCall = current.mIsInEmergencyCall;
+            mIsInEcm = current.mIsInEcm;
+            mIsInImsEcm = current.mIsInImsEcm;
+            mIsInCdmaEcm = current.mIsInCdmaEcm;
+        }
+
+        /**
+         * Set the emergency numbers and last known country of the phone.
+         *
+         * @param phoneId The phone id.
+         * @param emergencyNumbers The merged emergency numbers, or {@code null} if the phone does
+         * not have the emergency number list from the radio.
+         * @param lastKnownCountryIso The last known country ISO.
+         * @return The builder.
+         */
+        @NonNull Builder setPhoneState(int phoneId,
+                @Nullable List<EmergencyNumber> emergencyNumbers,
+                @Nullable String lastKnownCountryIso) {
+            Map<String, List<EmergencyNumber>> index = null;
+            if (emergencyNumbers != null) {
+                index = new HashMap<>();
+                for (EmergencyNumber num : emergencyNumbers) {
+                    index.computeIfAbsent(num.getNumber(), k -> new ArrayList<>(1)).add(num);
+                }
+                for (Map.Entry<String, List<EmergencyNumber>> entry : index.entrySet()) {
+                    entry.setValue(Collections.unmodifiableList(entry.getValue()));
+                }
+            }
+            mPhoneStates.put(phoneId, new PhoneState(index,
+                    lastKnownCountryIso != null ? lastKnownCountryIso : ""));
+            return this;
+        }
+
+        /**
+         * Set the emergency mode.
+         *
+         * @param phoneId The phone id the emergency mode is set on.
+         * @param emergencyMode The emergency mode.
+         * @return The builder.
+         */
+        @NonNull Builder setEmergencyMode(int phoneId,
+                @EmergencyConstants.EmergencyMode int emergencyMode) {
+            mEmergencyModePhoneId = phoneId;
+            mEmergencyMode = emergencyMode;
+            return this;
+        }
+
+        /**
+         * Set the emergency call and emergency callback mode states.
+         *
+         * @param isInEmergencyCall {@code true} if there is an ongoing emergency call.
+         * @param isInEcm {@code true} if in emergency callback mode.
+         * @param isInImsEcm {@code true} if in emergency callback mode over PS.
+         * @param isInCdmaEcm {@code true} if in emergency callback mode over CS.
+         * @return The builder.
+         */
+        @NonNull Builder setCallbackModeState(boolean isInEmergencyCall, boolean isInEcm,
+                boolean isInImsEcm, boolean isInCdmaEcm) {
+            mIsInEmergencyCall = isInEmergencyCall;
+            mIsInEcm = isInEcm;
+            mIsInImsEcm = isInImsEcm;
+            mIsInCdmaEcm = isInCdmaEcm;
+            return this;
+        }
+
+        /**
+         * @return The immutable snapshot.
+         */
+        @NonNull EmergencyContext build() {
+            return new EmergencyContext(this);
+        }
+    }
+}
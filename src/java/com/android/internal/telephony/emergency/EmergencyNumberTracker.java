@@ -785,6 +785,22 @@ public class EmergencyNumberTracker extends Handler {
             EmergencyNumber.mergeSameNumbersInEmergencyNumberList(mergedEmergencyNumberList, true);
         }
         mEmergencyNumberList = mergedEmergencyNumberList;
+        updateEmergencyContext();
+    }
+
+    /**
+     * Publish the emergency numbers and the last known country of this phone in
+     * {@link EmergencyContext}, so that they can be read when dialing without calling into the
+     * tracker. The emergency numbers are only published if the radio reports them, which is when
+     * {@link #isEmergencyNumber(String)} only checks {@link #mEmergencyNumberList}.
+     */
+    private void updateEmergencyContext() {
+        int phoneId = mPhoneId;
+        List<EmergencyNumber> emergencyNumbers =
+                mEmergencyNumberListFromRadio.isEmpty() ? null : mEmergencyNumberList;
+        String lastKnownCountryIso = mLastKnownEmergencyCountryIso;
+        EmergencyContext.update(builder ->
+                builder.setPhoneState(phoneId, emergencyNumbers, lastKnownCountryIso));
     }
 
     /**
@@ -1025,6 +1041,7 @@ public class EmergencyNumberTracker extends Handler {
             mLastKnownEmergencyCountryIso = mCountryIso;
         }
         mCurrentDatabaseVersion = INVALID_DATABASE_VERSION;
+        updateEmergencyContext();
     }
 
     /**
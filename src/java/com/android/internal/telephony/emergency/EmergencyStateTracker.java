@@ -116,6 +116,7 @@ public class EmergencyStateTracker {
     private RadioOnHelper mRadioOnHelper;
     @EmergencyConstants.EmergencyMode
     private int mEmergencyMode = MODE_EMERGENCY_NONE;
+    private int mEmergencyModePhoneId = SubscriptionManager.INVALID_PHONE_INDEX;
     private boolean mWasEmergencyModeSetOnModem;
     private EmergencyRegResult mLastEmergencyRegResult;
     private boolean mIsEmergencyModeInProgress;
@@ -596,6 +597,7 @@ public class EmergencyStateTracker {
         mOngoingCallId = null;
         mOngoingCallProperties = 0;
         mPhone = null;
+        updateEmergencyContext();
     }
 
     private void switchDdsAndSetEmergencyMode(Phone phone, @EmergencyType int emergencyType) {
@@ -632,6 +634,8 @@ public class EmergencyStateTracker {
             return;
         }
         mEmergencyMode = mode;
+        mEmergencyModePhoneId = phone.getPhoneId();
+        updateEmergencyContext();
         setEmergencyModeInProgress(true);
 
         Message m = mHandler.obtainMessage(msg, Integer.valueOf(emergencyType));
@@ -724,6 +728,7 @@ public class EmergencyStateTracker {
      */
     private void setIsInEmergencyCall(boolean isInEmergencyCall) {
         mIsInEmergencyCall = isInEmergencyCall;
+        updateEmergencyContext();
     }
 
     /**
@@ -765,6 +770,7 @@ public class EmergencyStateTracker {
             return;
         }
         mEmergencyMode = MODE_EMERGENCY_NONE;
+        updateEmergencyContext();
         setEmergencyModeInProgress(true);
 
         Message m = mHandler.obtainMessage(
@@ -857,6 +863,7 @@ public class EmergencyStateTracker {
         if (mEmergencyCallDomain == domain) return;
         Rlog.i(TAG, "domain updated: from " + mEmergencyCallDomain + " to " + domain);
         mEmergencyCallDomain = domain;
+        updateEmergencyContext();
     }
 
     /**
@@ -1014,6 +1021,7 @@ public class EmergencyStateTracker {
         mEmergencyCallDomain = NetworkRegistrationInfo.DOMAIN_UNKNOWN;
         mIsTestEmergencyNumber = false;
         mPhone = null;
+        updateEmergencyContext();
     }
 
     /**
@@ -1054,6 +1062,23 @@ public class EmergencyStateTracker {
      */
     private void setIsInEcm(boolean isInEcm) {
         mIsInEcm = isInEcm;
+        updateEmergencyContext();
+    }
+
+    /**
+     * Publishes the emergency mode and the emergency callback mode state in
+     * {@link EmergencyContext}, so that they can be read when dialing from any thread.
+     */
+    private void updateEmergencyContext() {
+        int emergencyModePhoneId = mEmergencyModePhoneId;
+        int emergencyMode = mEmergencyMode;
+        boolean isInEmergencyCall = isInEmergencyCall();
+        boolean isInEcm = isInEcm();
+        boolean isInImsEcm = isInImsEcm();
+        boolean isInCdmaEcm = isInCdmaEcm();
+        EmergencyContext.update(builder -> builder
+                .setEmergencyMode(emergencyModePhoneId, emergencyMode)
+                .setCallbackModeState(isInEmergencyCall, isInEcm, isInImsEcm, isInCdmaEcm));
     }
 
     /**
@@ -35,6 +35,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.PersistableBundle;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.telephony.CarrierConfigManager;
@@ -75,6 +76,7 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
 /**
@@ -177,6 +179,9 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         // Determines if features were created from metadata in the manifest or through dynamic
         // query.
         public boolean featureFromMetadata = true;
+        // Set once a dynamic query has returned the features of this ImsService. The features do
+        // not change until the package changes, so a full rescan does not query them again.
+        public boolean featuresQueried = false;
         public ImsServiceControllerFactory controllerFactory;
 
         // Map slotId->Feature
@@ -232,6 +237,8 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     + name
                     + ", featureFromMetadata="
                     + featureFromMetadata
+                    + ", featuresQueried="
+                    + featuresQueried
                     + ","
                     + printFeatures(mSupportedFeatures);
         }
@@ -253,6 +260,11 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     mHandler.obtainMessage(HANDLER_ADD_PACKAGE, packageName).sendToTarget();
                     break;
                 case Intent.ACTION_PACKAGE_REMOVED:
+                    // When a package is updated, ACTION_PACKAGE_ADDED follows and re-resolves the
+                    // ImsServices of the package, so do not unbind in between.
+                    if (intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                        break;
+                    }
                     mHandler.obtainMessage(HANDLER_REMOVE_PACKAGE, packageName).sendToTarget();
                     break;
                 default:
@@ -551,7 +563,10 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                 public void onError(ComponentName name) {
                     Log.w(TAG, "onError: " + name + "returned with an error result");
                     mEventLog.log("onError - dynamic query error for " + name);
-                    scheduleQueryForFeatures(name, DELAY_DYNAMIC_QUERY_MS);
+                    mHandler.post(() -> {
+                        mDynamicQueryErrorCount++;
+                        scheduleQueryForFeatures(name, DELAY_DYNAMIC_QUERY_MS);
+                    });
                 }
 
                 @Override
@@ -577,6 +592,16 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
     // Active ImsServiceControllers, which are bound to ImsServices.
     private final Map<ComponentName, ImsServiceController> mActiveControllers = new HashMap<>();
     private ImsServiceFeatureQueryManager mFeatureQueryManager;
+    // Discovery metrics, reported in dump. Only accessed on the handler thread.
+    private LongSupplier mElapsedRealtimeMs = SystemClock::elapsedRealtime;
+    private long mInitializeTimeMs = -1;
+    private long mFirstMmTelBindTimeMs = -1;
+    // The time that the first query of each ImsService started, including retries.
+    private final Map<ComponentName, Long> mDynamicQueryStartTimesMs = new ArrayMap<>();
+    private int mDynamicQueryCount = 0;
+    private int mDynamicQueryErrorCount = 0;
+    private long mDynamicQueryTotalLatencyMs = 0;
+    private long mDynamicQueryMaxLatencyMs = 0;
     private final SparseIntArray mSlotIdToSubIdMap;
 
     public ImsResolver(Context context, String defaultMmTelPackageName,
@@ -615,6 +640,11 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         mSubscriptionManagerProxy = proxy;
     }
 
+    @VisibleForTesting
+    public void setElapsedRealtimeSupplier(LongSupplier elapsedRealtimeMs) {
+        mElapsedRealtimeMs = elapsedRealtimeMs;
+    }
+
     @VisibleForTesting
     public void setImsServiceControllerFactory(ImsServiceControllerFactory factory) {
         mImsServiceControllerFactory = factory;
@@ -641,6 +671,7 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
     private void initializeInternal() {
         mEventLog.log("Initializing");
         Log.i(TAG, "Initializing cache.");
+        mInitializeTimeMs = mElapsedRealtimeMs.getAsLong();
         PhoneConfigurationManager.registerForMultiSimConfigChange(mHandler,
                 HANDLER_MSIM_CONFIGURATION_CHANGE, null);
         mFeatureQueryManager = mDynamicQueryManagerFactory.create(mContext, mDynamicQueryListener);
@@ -1114,7 +1145,8 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
     }
 
     // Update the current cache with the new ImsService(s) if it has been added or update the
-    // supported IMS features if they have changed.
+    // supported IMS features if they have changed. If packageName is not null, only the
+    // ImsServices of that package are resolved again.
     // Called from the handler ONLY
     private void maybeAddedImsService(String packageName) {
         Log.d(TAG, "maybeAddedImsService, packageName: " + packageName);
@@ -1122,6 +1154,9 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         // Wait until all ImsServiceInfo is cached before calling
         // calculateFeatureConfigurationChange to reduce churn.
         boolean requiresCalculation = false;
+        if (packageName != null) {
+            requiresCalculation = removeStaleImsServices(packageName, infos);
+        }
         for (ImsServiceInfo info : infos) {
             // Checking to see if the ComponentName is the same, so we can update the supported
             // features. Will only be one (if it exists), since it is a set.
@@ -1140,6 +1175,10 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     // update features in the cache
                     match.replaceFeatures(info.getSupportedFeatures());
                     requiresCalculation = true;
+                } else if (packageName == null && match.featuresQueried) {
+                    // The package has not changed since the features were queried.
+                    Log.d(TAG, "maybeAddedImsService - skipping query for " + info.name);
+                    requiresCalculation = true;
                 } else {
                     mEventLog.log("maybeAddedImsService - scheduling query for " + info);
                     // start a query to get ImsService features
@@ -1161,18 +1200,43 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         if (requiresCalculation) calculateFeatureConfigurationChange();
     }
 
-    // Remove the ImsService from the cache. This may have been due to the ImsService being removed
-    // from the device or was returning permanent errors when bound.
+    // Remove the ImsServices of the package from the cache. This may have been due to the
+    // ImsService being removed from the device or was returning permanent errors when bound.
     // Called from the handler ONLY
     private boolean maybeRemovedImsService(String packageName) {
-        ImsServiceInfo match = getInfoByPackageName(mInstalledServicesCache, packageName);
-        if (match != null) {
+        if (removeStaleImsServices(packageName, Collections.emptyList())) {
+            calculateFeatureConfigurationChange();
+            return true;
+        }
+        return false;
+    }
+
+    // Remove the cached ImsServices of the package that are no longer in the resolved infos,
+    // for example because the component was disabled or the package was removed.
+    // Called from the handler ONLY
+    private boolean removeStaleImsServices(String packageName, List<ImsServiceInfo> infos) {
+        List<ImsServiceInfo> staleInfos = new ArrayList<>();
+        for (ImsServiceInfo cachedInfo : mInstalledServicesCache.values()) {
+            if (Objects.equals(cachedInfo.name.getPackageName(), packageName)
+                    && !containsComponent(infos, cachedInfo.name)) {
+                staleInfos.add(cachedInfo);
+            }
+        }
+        for (ImsServiceInfo match : staleInfos) {
             mInstalledServicesCache.remove(match.name);
+            mDynamicQueryStartTimesMs.remove(match.name);
             mEventLog.log("maybeRemovedImsService - removing ImsService: " + match);
             Log.i(TAG, "Removing ImsService: " + match.name);
             unbindImsService(match);
-            calculateFeatureConfigurationChange();
-            return true;
+        }
+        return !staleInfos.isEmpty();
+    }
+
+    private static boolean containsComponent(List<ImsServiceInfo> infos, ComponentName name) {
+        for (ImsServiceInfo info : infos) {
+            if (Objects.equals(info.name, name)) {
+                return true;
+            }
         }
         return false;
     }
@@ -1205,9 +1269,12 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
 
     private ImsServiceInfo getInfoByPackageName(Map<ComponentName, ImsServiceInfo> searchMap,
             String matchValue) {
-        return searchMap.values().stream()
-                .filter((i) -> Objects.equals(i.name.getPackageName(), matchValue))
-                .findFirst().orElse(null);
+        for (ImsServiceInfo info : searchMap.values()) {
+            if (Objects.equals(info.name.getPackageName(), matchValue)) {
+                return info;
+            }
+        }
+        return null;
     }
 
     private ImsServiceInfo getInfoByComponentName(
@@ -1241,9 +1308,23 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                         + controller);
             }
             mActiveControllers.put(info.name, controller);
+            if (mFirstMmTelBindTimeMs < 0 && containsFeature(features, ImsFeature.FEATURE_MMTEL)) {
+                mFirstMmTelBindTimeMs = mElapsedRealtimeMs.getAsLong();
+                mEventLog.log("bindImsServiceWithFeatures - first MMTEL bind: " + info.name);
+            }
         }
     }
 
+    private static boolean containsFeature(Set<ImsFeatureConfiguration.FeatureSlotPair> features,
+            int featureType) {
+        for (ImsFeatureConfiguration.FeatureSlotPair feature : features) {
+            if (feature.featureType == featureType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // Clean up and unbind from an ImsService
     private void unbindImsService(ImsServiceInfo info) {
         if (info == null) {
@@ -1522,7 +1603,7 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
     }
 
     private void scheduleQueryForFeatures(ComponentName name, int delayMs) {
-        ImsServiceInfo service = getImsServiceInfoFromCache(name.getPackageName());
+        ImsServiceInfo service = getInfoByComponentName(mInstalledServicesCache, name);
         if (service == null) {
             Log.w(TAG, "scheduleQueryForFeatures: Couldn't find cached info for name: " + name);
             return;
@@ -1614,6 +1695,7 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
             return;
         }
         mEventLog.log("startDynamicQuery - starting query for " + service);
+        mDynamicQueryStartTimesMs.putIfAbsent(service.name, mElapsedRealtimeMs.getAsLong());
         boolean queryStarted = mFeatureQueryManager.startQuery(service.name,
                 service.controllerFactory.getServiceInterface());
         if (!queryStarted) {
@@ -1629,17 +1711,25 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
     // process complete dynamic query. Called from handler ONLY.
     private void dynamicQueryComplete(ComponentName name,
             Set<ImsFeatureConfiguration.FeatureSlotPair> features) {
-        ImsServiceInfo service = getImsServiceInfoFromCache(name.getPackageName());
+        ImsServiceInfo service = getInfoByComponentName(mInstalledServicesCache, name);
         if (service == null) {
             Log.w(TAG, "dynamicQueryComplete: Couldn't find cached info for name: "
                     + name);
             return;
         }
+        Long startTimeMs = mDynamicQueryStartTimesMs.remove(name);
+        if (startTimeMs != null) {
+            long latencyMs = mElapsedRealtimeMs.getAsLong() - startTimeMs;
+            mDynamicQueryCount++;
+            mDynamicQueryTotalLatencyMs += latencyMs;
+            mDynamicQueryMaxLatencyMs = Math.max(mDynamicQueryMaxLatencyMs, latencyMs);
+        }
         sanitizeFeatureConfig(features);
         mEventLog.log("dynamicQueryComplete: for package " + name + ", features: "
                 + printFeatures(service.getSupportedFeatures()) + " -> " + printFeatures(features));
         // Add features to service
         service.replaceFeatures(features);
+        service.featuresQueried = true;
         // Wait until all queries have completed before changing the configuration to reduce churn.
         if (!mFeatureQueryManager.isQueryInProgress()) {
             if (mHandler.hasMessages(HANDLER_DYNAMIC_FEATURE_CHANGE)) {
@@ -1864,6 +1954,10 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
             pw.decreaseIndent();
         }
         pw.decreaseIndent();
+        pw.println("Discovery metrics:");
+        pw.increaseIndent();
+        dumpDiscoveryMetrics(pw);
+        pw.decreaseIndent();
         pw.println("Connection Repository Log:");
         pw.increaseIndent();
         mRepo.dump(pw);
@@ -1873,4 +1967,21 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         mEventLog.dump(pw);
         pw.decreaseIndent();
     }
+
+    private void dumpDiscoveryMetrics(IndentingPrintWriter pw) {
+        pw.print("First MMTEL bind: ");
+        if (mFirstMmTelBindTimeMs < 0) {
+            pw.println("none");
+        } else {
+            pw.println(mFirstMmTelBindTimeMs + "ms after boot, "
+                    + (mFirstMmTelBindTimeMs - mInitializeTimeMs) + "ms after initialize");
+        }
+        pw.print("Dynamic queries: completed=" + mDynamicQueryCount + ", errors="
+                + mDynamicQueryErrorCount + ", in progress=" + mDynamicQueryStartTimesMs.size());
+        if (mDynamicQueryCount > 0) {
+            pw.print(", average latency=" + (mDynamicQueryTotalLatencyMs / mDynamicQueryCount)
+                    + "ms, max latency=" + mDynamicQueryMaxLatencyMs + "ms");
+        }
+        pw.println();
+    }
 }
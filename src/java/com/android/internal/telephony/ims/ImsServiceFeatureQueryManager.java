@@ -20,19 +20,33 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
 import android.telephony.ims.aidl.IImsServiceController;
 import android.telephony.ims.stub.ImsFeatureConfiguration;
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages the querying of multiple ImsServices asynchronously in order to retrieve the ImsFeatures
  * they support.
+ * <p>
+ * Queries run concurrently: the connection callbacks and the binder call to query the features
+ * of each ImsService run on a shared executor with a bounded number of threads, so a slow
+ * ImsService does not hold up the others.
+ * Each query times out separately and is reported as an error, to be retried, if the ImsService
+ * does not return its features in time.
  */
 
 public class ImsServiceFeatureQueryManager {
@@ -45,7 +59,7 @@ public class ImsServiceFeatureQueryManager {
         private final String mIntentFilter;
         // Track the status of whether or not the Service has died in case we need to permanently
         // unbind (see onNullBinding below).
-        private boolean mIsServiceConnectionDead = false;
+        private volatile boolean mIsServiceConnectionDead = false;
 
 
         ImsServiceFeatureQuery(ComponentName name, String intentFilter) {
@@ -62,7 +76,9 @@ public class ImsServiceFeatureQueryManager {
             Intent imsServiceIntent = new Intent(mIntentFilter).setComponent(mName);
             int serviceFlags = Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE
                     | Context.BIND_IMPORTANT;
-            boolean bindStarted = mContext.bindService(imsServiceIntent, this, serviceFlags);
+            mTimeoutHandler.postDelayed(this::onTimeout, this, QUERY_TIMEOUT_MS);
+            boolean bindStarted = mContext.bindService(imsServiceIntent, serviceFlags,
+                    mQueryExecutor, this);
             if (!bindStarted) {
                 // Docs say to unbind if this fails.
                 cleanup();
@@ -70,6 +86,15 @@ public class ImsServiceFeatureQueryManager {
             return bindStarted;
         }
 
+        private void onTimeout() {
+            if (cleanup()) {
+                Log.w(LOG_TAG, "onTimeout: " + mName + " did not return its features in "
+                        + QUERY_TIMEOUT_MS + "ms");
+                // retry again!
+                mListener.onError(mName);
+            }
+        }
+
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             Log.i(LOG_TAG, "onServiceConnected for component: " + name);
@@ -77,8 +102,9 @@ public class ImsServiceFeatureQueryManager {
                 queryImsFeatures(IImsServiceController.Stub.asInterface(service));
             } else {
                 Log.w(LOG_TAG, "onServiceConnected: " + name + " binder null.");
-                cleanup();
-                mListener.onPermanentError(name);
+                if (cleanup()) {
+                    mListener.onPermanentError(name);
+                }
             }
         }
 
@@ -91,9 +117,10 @@ public class ImsServiceFeatureQueryManager {
         public void onBindingDied(ComponentName name) {
             mIsServiceConnectionDead = true;
             Log.w(LOG_TAG, "onBindingDied: " + name);
-            cleanup();
-            // retry again!
-            mListener.onError(name);
+            if (cleanup()) {
+                // retry again!
+                mListener.onError(name);
+            }
         }
 
         @Override
@@ -102,8 +129,9 @@ public class ImsServiceFeatureQueryManager {
             // onNullBinding will happen after onBindingDied. In this case, we should not
             // permanently unbind and instead let the automatic rebind occur.
             if (mIsServiceConnectionDead) return;
-            cleanup();
-            mListener.onPermanentError(name);
+            if (cleanup()) {
+                mListener.onPermanentError(name);
+            }
         }
 
         private void queryImsFeatures(IImsServiceController controller) {
@@ -112,9 +140,10 @@ public class ImsServiceFeatureQueryManager {
                 config = controller.querySupportedImsFeatures();
             } catch (Exception e) {
                 Log.w(LOG_TAG, "queryImsFeatures - error: " + e);
-                cleanup();
-                // Retry again!
-                mListener.onError(mName);
+                if (cleanup()) {
+                    // Retry again!
+                    mListener.onError(mName);
+                }
                 return;
             }
             Set<ImsFeatureConfiguration.FeatureSlotPair> servicePairs;
@@ -125,16 +154,27 @@ public class ImsServiceFeatureQueryManager {
             } else {
                 servicePairs = config.getServiceFeatures();
             }
-            // Complete, remove from active queries and notify.
-            cleanup();
-            mListener.onComplete(mName, servicePairs);
+            // Complete, remove from active queries and notify, unless the query timed out.
+            if (cleanup()) {
+                mListener.onComplete(mName, servicePairs);
+            }
         }
 
-        private void cleanup() {
-            mContext.unbindService(this);
+        /**
+         * Unbind and remove this query from the active queries.
+         * @return true if the query was active, false if it already completed or timed out and
+         *         the result should be ignored.
+         */
+        private boolean cleanup() {
+            mTimeoutHandler.removeCallbacksAndMessages(this);
             synchronized (mLock) {
+                if (mActiveQueries.get(mName) != this) {
+                    return false;
+                }
                 mActiveQueries.remove(mName);
             }
+            mContext.unbindService(this);
+            return true;
         }
     }
 
@@ -157,15 +197,55 @@ public class ImsServiceFeatureQueryManager {
         void onPermanentError(ComponentName name);
     }
 
+    // The maximum time between starting a query and the ImsService returning its features.
+    @VisibleForTesting
+    public static final long QUERY_TIMEOUT_MS = 10000;
+
+    // The maximum number of threads running connection callbacks and feature queries. Queries
+    // beyond this wait for a free thread and still time out after QUERY_TIMEOUT_MS, so that
+    // ImsServices which never return can not grow the number of threads of the process.
+    private static final int MAX_QUERY_THREADS = 4;
+    // The time an idle query thread is kept before it is stopped.
+    private static final long QUERY_THREAD_KEEP_ALIVE_MS = 30000;
+
+    // Runs the connection callbacks and feature queries of all managers, so that they do not
+    // block the main thread or each other. Threads are only kept while queries are running.
+    private static final Executor sQueryExecutor = createQueryExecutor();
+
+    private static Executor createQueryExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_QUERY_THREADS,
+                MAX_QUERY_THREADS, QUERY_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r,
+                            "ImsServiceFeatureQuery-" + threadCount.incrementAndGet());
+                    // Do not keep the process alive for a query that never returns.
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     // Maps an active ImsService query (by Package Name String) its query.
     private final Map<ComponentName, ImsServiceFeatureQuery> mActiveQueries = new HashMap<>();
     private final Context mContext;
     private final Listener mListener;
+    private final Executor mQueryExecutor;
+    private final Handler mTimeoutHandler;
     private final Object mLock = new Object();
 
     public ImsServiceFeatureQueryManager(Context context, Listener listener) {
+        this(context, listener, sQueryExecutor, new Handler(context.getMainLooper()));
+    }
+
+    @VisibleForTesting
+    public ImsServiceFeatureQueryManager(Context context, Listener listener, Executor executor,
+            Handler timeoutHandler) {
         mContext = context;
         mListener = listener;
+        mQueryExecutor = executor;
+        mTimeoutHandler = timeoutHandler;
     }
 
     /**
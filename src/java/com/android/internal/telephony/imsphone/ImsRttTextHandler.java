@@ -19,6 +19,7 @@ package com.android.internal.telephony.imsphone;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telecom.Connection;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -27,6 +28,10 @@ import com.android.telephony.Rlog;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 
 public class ImsRttTextHandler extends Handler {
     public interface NetworkWriter {
@@ -46,20 +51,23 @@ public class ImsRttTextHandler extends Handler {
     // the buffer to grow to before sending as many as we can.
     public static final int MAX_BUFFERED_CHARACTER_COUNT = 5;
     private static final int MILLIS_PER_SECOND = 1000;
+    // Maximum number of codepoints read from in-call and not yet sent to the network. The reader
+    // thread waits for the handler to send some of them when the buffer is full.
+    @VisibleForTesting
+    public static final int NETWORK_BUFFER_CAPACITY = 1024;
+    // How long the reader thread waits at most for room in a full buffer before checking again.
+    private static final long READER_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
 
     // Messages for the handler.
     // Initializes the text handler. Should have an RttTextStream set in msg.obj
     private static final int INITIALIZE = 1;
-    // Appends a string to the buffer to send to the network. Should have the string in msg.obj
-    private static final int APPEND_TO_NETWORK_BUFFER = 2;
+    // Text was appended to the buffer to send to the network. No extra data.
+    private static final int NETWORK_BUFFER_UPDATED = 2;
     // Send a string received from the network to the in-call app. Should have the string in
     // msg.obj.
     private static final int SEND_TO_INCALL = 3;
     // Send as many characters as possible, as constrained by the rate limit. No extra data.
     private static final int ATTEMPT_SEND_TO_NETWORK = 4;
-    // Indicates that N characters were sent a second ago and should be ignored by the rate
-    // limiter. msg.arg1 should be set to N.
-    private static final int EXPIRE_SENT_CODEPOINT_COUNT = 5;
     // Indicates that the call is over and we should teardown everything we have set up.
     private static final int TEARDOWN = 9999;
 
@@ -98,8 +106,10 @@ public class ImsRttTextHandler extends Handler {
                 if (charsReceived.length() == 0) {
                     continue;
                 }
-                obtainMessage(APPEND_TO_NETWORK_BUFFER, charsReceived)
-                        .sendToTarget();
+                if (!appendToNetworkBuffer(charsReceived)) {
+                    Rlog.i(LOG_TAG, "RttReaderThread - Thread interrupted. Finishing.");
+                    break;
+                }
                 if (mReadNotifier != null) {
                     mReadNotifier.countDown();
                 }
@@ -107,13 +117,32 @@ public class ImsRttTextHandler extends Handler {
         }
     }
 
-    private int mCodepointsAvailableForTransmission = MAX_CODEPOINTS_PER_SECOND;
-    private StringBuffer mBufferedTextToNetwork = new StringBuffer();
+    // Text read from in-call and not yet sent to the network. The reader thread is the only
+    // producer and the handler the only consumer.
+    private final RttTextRingBuffer mBufferedTextToNetwork =
+            new RttTextRingBuffer(NETWORK_BUFFER_CAPACITY);
+    // Whether a NETWORK_BUFFER_UPDATED message is pending, so that the reader thread posts at most
+    // one of them at a time.
+    private final AtomicBoolean mNetworkBufferUpdatePending = new AtomicBoolean();
+    // The reader thread, while it waits for room in mBufferedTextToNetwork.
+    private volatile Thread mWaitingReaderThread;
     private InCallReaderThread mReaderThread;
     // This is only ever used when the pipes fail and we have to re-setup. Messages received
     // from the network are buffered here until Telecom gets back to us with the new pipes.
     private StringBuffer mBufferedTextToIncall = new StringBuffer();
     private final NetworkWriter mNetworkWriter;
+    private final LongSupplier mClock;
+
+    // Token bucket limiting the rate of codepoints sent to the network. The bucket holds up to
+    // MAX_CODEPOINTS_PER_SECOND codepoints and is counted in codepoint-milliseconds, so that it
+    // refills by exactly MAX_CODEPOINTS_PER_SECOND codepoints per second without rounding.
+    private long mSendCredit = (long) MAX_CODEPOINTS_PER_SECOND * MILLIS_PER_SECOND;
+    private long mLastRefillMillis;
+
+    // Latency from reading text from in-call to writing it to the network, per codepoint.
+    private long mCodepointsSent;
+    private long mTotalSendLatencyMillis;
+    private long mMaxSendLatencyMillis;
 
     @Override
     public void handleMessage(Message msg) {
@@ -146,46 +175,24 @@ public class ImsRttTextHandler extends Handler {
                     mBufferedTextToIncall.append(messageToIncall);
                 }
                 break;
-            case APPEND_TO_NETWORK_BUFFER:
-                // First, append the text-to-send to the string buffer
-                mBufferedTextToNetwork.append((String) msg.obj);
-                // Check to see how many codepoints we have buffered. If we have more than 5,
-                // send immediately, otherwise, wait until a timeout happens.
-                int numCodepointsBuffered = mBufferedTextToNetwork
-                        .codePointCount(0, mBufferedTextToNetwork.length());
+            case NETWORK_BUFFER_UPDATED:
+                mNetworkBufferUpdatePending.set(false);
+                int numCodepointsBuffered = mBufferedTextToNetwork.size();
+                if (numCodepointsBuffered == 0) {
+                    break;
+                }
+                // If we have more than 5 codepoints buffered, send immediately, otherwise, wait
+                // until the oldest one has been buffered for long enough.
                 if (numCodepointsBuffered >= MAX_BUFFERED_CHARACTER_COUNT) {
-                    sendMessage(obtainMessage(ATTEMPT_SEND_TO_NETWORK));
-                } else {
-                    sendEmptyMessageDelayed(
-                            ATTEMPT_SEND_TO_NETWORK, MAX_BUFFERING_DELAY_MILLIS);
+                    attemptSendToNetwork();
+                } else if (!hasMessages(ATTEMPT_SEND_TO_NETWORK)) {
+                    long delay = mBufferedTextToNetwork.getTimestamp(0)
+                            + MAX_BUFFERING_DELAY_MILLIS - mClock.getAsLong();
+                    sendEmptyMessageDelayed(ATTEMPT_SEND_TO_NETWORK, Math.max(0, delay));
                 }
                 break;
             case ATTEMPT_SEND_TO_NETWORK:
-                // Check to see how many codepoints we can send, and send that many.
-                int numCodePointsAvailableInBuffer = mBufferedTextToNetwork.codePointCount(0,
-                        mBufferedTextToNetwork.length());
-                int numCodePointsSent = Math.min(numCodePointsAvailableInBuffer,
-                        mCodepointsAvailableForTransmission);
-                if (numCodePointsSent == 0) {
-                    break;
-                }
-                int endSendIndex = mBufferedTextToNetwork.offsetByCodePoints(0,
-                        numCodePointsSent);
-
-                String stringToSend = mBufferedTextToNetwork.substring(0, endSendIndex);
-
-                mBufferedTextToNetwork.delete(0, endSendIndex);
-                mNetworkWriter.write(stringToSend);
-                mCodepointsAvailableForTransmission -= numCodePointsSent;
-                sendMessageDelayed(
-                        obtainMessage(EXPIRE_SENT_CODEPOINT_COUNT, numCodePointsSent, 0),
-                        MILLIS_PER_SECOND);
-                break;
-            case EXPIRE_SENT_CODEPOINT_COUNT:
-                mCodepointsAvailableForTransmission += msg.arg1;
-                if (mCodepointsAvailableForTransmission > 0) {
-                    sendMessage(obtainMessage(ATTEMPT_SEND_TO_NETWORK));
-                }
+                attemptSendToNetwork();
                 break;
             case TEARDOWN:
                 try {
@@ -198,13 +205,95 @@ public class ImsRttTextHandler extends Handler {
                 }
                 mReaderThread = null;
                 mRttTextStream = null;
+                if (mCodepointsSent > 0) {
+                    Rlog.i(LOG_TAG, "Sent " + mCodepointsSent + " codepoints to the network, "
+                            + "average latency=" + getAverageSendLatencyMillis()
+                            + "ms, max latency=" + mMaxSendLatencyMillis + "ms");
+                }
                 break;
         }
     }
 
+    /**
+     * Send as many buffered codepoints as the rate limit allows, and schedule another attempt
+     * for when the rate limit allows more if some are left.
+     */
+    private void attemptSendToNetwork() {
+        long now = mClock.getAsLong();
+        refillSendCredit(now);
+        int numCodepointsBuffered = mBufferedTextToNetwork.size();
+        int numCodepointsSent = (int) Math.min(numCodepointsBuffered,
+                mSendCredit / MILLIS_PER_SECOND);
+        if (numCodepointsSent > 0) {
+            for (int i = 0; i < numCodepointsSent; i++) {
+                long latency = now - mBufferedTextToNetwork.getTimestamp(i);
+                mTotalSendLatencyMillis += latency;
+                mMaxSendLatencyMillis = Math.max(mMaxSendLatencyMillis, latency);
+            }
+            mCodepointsSent += numCodepointsSent;
+            String stringToSend = mBufferedTextToNetwork.poll(numCodepointsSent);
+            Thread waitingReaderThread = mWaitingReaderThread;
+            if (waitingReaderThread != null) {
+                LockSupport.unpark(waitingReaderThread);
+            }
+            mSendCredit -= (long) numCodepointsSent * MILLIS_PER_SECOND;
+            mNetworkWriter.write(stringToSend);
+        }
+        removeMessages(ATTEMPT_SEND_TO_NETWORK);
+        if (numCodepointsBuffered > numCodepointsSent) {
+            // Try again as soon as the bucket holds one more codepoint.
+            long missingCredit = MILLIS_PER_SECOND - mSendCredit;
+            sendEmptyMessageDelayed(ATTEMPT_SEND_TO_NETWORK,
+                    (missingCredit + MAX_CODEPOINTS_PER_SECOND - 1) / MAX_CODEPOINTS_PER_SECOND);
+        }
+    }
+
+    private void refillSendCredit(long now) {
+        long elapsed = Math.max(0, now - mLastRefillMillis);
+        mLastRefillMillis = now;
+        mSendCredit = Math.min((long) MAX_CODEPOINTS_PER_SECOND * MILLIS_PER_SECOND,
+                mSendCredit + elapsed * MAX_CODEPOINTS_PER_SECOND);
+    }
+
+    /**
+     * Buffer text read from in-call to be sent to the network, waiting for room in the buffer if
+     * needed. Called on the reader thread.
+     *
+     * @return false if the thread was interrupted before all of the text was buffered.
+     */
+    @VisibleForTesting
+    public boolean appendToNetworkBuffer(String text) {
+        long now = mClock.getAsLong();
+        int offset = 0;
+        while (true) {
+            offset = mBufferedTextToNetwork.offer(text, offset, now);
+            if (mNetworkBufferUpdatePending.compareAndSet(false, true)) {
+                sendEmptyMessage(NETWORK_BUFFER_UPDATED);
+            }
+            if (offset == text.length()) {
+                return true;
+            }
+            mWaitingReaderThread = Thread.currentThread();
+            if (mBufferedTextToNetwork.size() == mBufferedTextToNetwork.capacity()) {
+                LockSupport.parkNanos(READER_WAIT_NANOS);
+            }
+            mWaitingReaderThread = null;
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+    }
+
     public ImsRttTextHandler(Looper looper, NetworkWriter networkWriter) {
+        this(looper, networkWriter, SystemClock::uptimeMillis);
+    }
+
+    @VisibleForTesting
+    public ImsRttTextHandler(Looper looper, NetworkWriter networkWriter, LongSupplier clock) {
         super(looper);
         mNetworkWriter = networkWriter;
+        mClock = clock;
+        mLastRefillMillis = clock.getAsLong();
     }
 
     public void sendToInCall(String msg) {
@@ -243,4 +332,20 @@ public class ImsRttTextHandler extends Handler {
     public String getNetworkBufferText() {
         return mBufferedTextToNetwork.toString();
     }
+
+    /**
+     * @return the average time between reading a codepoint from in-call and writing it to the
+     *         network, in milliseconds.
+     */
+    public long getAverageSendLatencyMillis() {
+        return mCodepointsSent == 0 ? 0 : mTotalSendLatencyMillis / mCodepointsSent;
+    }
+
+    /**
+     * @return the longest time between reading a codepoint from in-call and writing it to the
+     *         network, in milliseconds.
+     */
+    public long getMaxSendLatencyMillis() {
+        return mMaxSendLatencyMillis;
+    }
 }
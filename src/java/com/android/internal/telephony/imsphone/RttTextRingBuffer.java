@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.internal.telephony.imsphone;
+
+/**
+ * A bounded ring buffer of Unicode code points for RTT text, with the time at which each code
+ * point was buffered.
+ *
+ * <p>The buffer is lock-free for exactly one producer thread, which calls
+ * {@link #offer(String, int, long)}, and one consumer thread, which calls
+ * {@link #getTimestamp(int)} and {@link #poll(int)}. {@link #size()} may be called from either.
+ * The number of buffered code points is kept by the indices, so it never requires a scan of the
+ * buffered text.
+ */
+class RttTextRingBuffer {
+    private final int[] mCodePoints;
+    private final long[] mTimestamps;
+    private final int mMask;
+
+    // Total number of code points ever written. Only written by the producer.
+    private volatile long mTail;
+    // Total number of code points ever read. Only written by the consumer.
+    private volatile long mHead;
+
+    /**
+     * @param capacity The maximum number of buffered code points. Must be a power of two.
+     */
+    RttTextRingBuffer(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mCodePoints = new int[capacity];
+        mTimestamps = new long[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * @return the maximum number of buffered code points.
+     */
+    int capacity() {
+        return mCodePoints.length;
+    }
+
+    /**
+     * @return the number of buffered code points.
+     */
+    int size() {
+        return (int) (mTail - mHead);
+    }
+
+    /**
+     * Buffer as many code points of {@code text} as fit, starting at char index
+     * {@code offset}. Producer thread only.
+     *
+     * @param timestamp The time at which the text was received, in milliseconds.
+     * @return the char index of the first code point that did not fit, or {@code text.length()}
+     *         if all of the text was buffered.
+     */
+    int offer(String text, int offset, long timestamp) {
+        long tail = mTail;
+        long limit = mHead + mCodePoints.length;
+        int index = offset;
+        while (index < text.length() && tail < limit) {
+            int codePoint = text.codePointAt(index);
+            int slot = (int) tail & mMask;
+            mCodePoints[slot] = codePoint;
+            mTimestamps[slot] = timestamp;
+            tail++;
+            index += Character.charCount(codePoint);
+        }
+        // Publish the code points to the consumer.
+        mTail = tail;
+        return index;
+    }
+
+    /**
+     * @return the time at which the code point at position {@code position} from the head was
+     *         buffered. Consumer thread only.
+     */
+    long getTimestamp(int position) {
+        return mTimestamps[(int) (mHead + position) & mMask];
+    }
+
+    /**
+     * Remove the oldest {@code count} code points. Consumer thread only.
+     *
+     * @return the removed code points as a string.
+     */
+    String poll(int count) {
+        long head = mHead;
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.appendCodePoint(mCodePoints[(int) (head + i) & mMask]);
+        }
+        // Hand the slots back to the producer.
+        mHead = head + count;
+        return sb.toString();
+    }
+
+    /**
+     * @return the buffered text, for debugging. The result may be inconsistent when the buffer
+     *         is in use by other threads.
+     */
+    @Override
+    public String toString() {
+        long head = mHead;
+        long tail = mTail;
+        StringBuilder sb = new StringBuilder();
+        for (long i = head; i < tail; i++) {
+            sb.appendCodePoint(mCodePoints[(int) i & mMask]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import android.telephony.CallQuality;
+
+import java.util.Arrays;
+
+/**
+ * CallQualityAggregator folds the CallQuality reports of a call into fixed-size summaries as they
+ * arrive: the time spent in each call quality level and the distribution of packet loss and
+ * jitter. The memory used does not grow with the duration of the call or the number of reports.
+ * <p>
+ * Call durations are sometimes reported out of order, so the most recent reports are kept in a
+ * small window sorted by call duration before they are folded into the totals. Reports that are
+ * older than the window are only counted in {@link #getLateReportCount()}.
+ */
+class CallQualityAggregator {
+
+    /** Number of call quality levels, from EXCELLENT to BAD. */
+    static final int LEVEL_COUNT = CallQuality.CALL_QUALITY_BAD + 1;
+
+    /** Exclusive upper bounds of the packet loss histogram buckets, in percent. */
+    static final int[] PACKET_LOSS_BUCKET_UPPER_BOUNDS = {1, 2, 5, 10, 20};
+
+    /** Exclusive upper bounds of the jitter histogram buckets, in milliseconds. */
+    static final int[] JITTER_BUCKET_UPPER_BOUNDS = {20, 40, 60, 100, 200};
+
+    /** Number of reports kept in call duration order before they are folded into the totals. */
+    static final int REORDER_WINDOW = 8;
+
+    /**
+     * Count, min, max, mean and histogram of a value. The last bucket of the histogram has no
+     * upper bound.
+     */
+    static class Distribution {
+        private final int[] mBucketUpperBounds;
+        private final int[] mHistogram;
+        private int mCount;
+        private long mSum;
+        private int mMin;
+        private int mMax;
+
+        Distribution(int[] bucketUpperBounds) {
+            mBucketUpperBounds = bucketUpperBounds;
+            mHistogram = new int[bucketUpperBounds.length + 1];
+        }
+
+        void add(int value) {
+            if (mCount == 0 || value < mMin) mMin = value;
+            if (mCount == 0 || value > mMax) mMax = value;
+            mCount++;
+            mSum += value;
+            int bucket = 0;
+            while (bucket < mBucketUpperBounds.length && value >= mBucketUpperBounds[bucket]) {
+                bucket++;
+            }
+            mHistogram[bucket]++;
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        int getMin() {
+            return mMin;
+        }
+
+        int getMax() {
+            return mMax;
+        }
+
+        int getMean() {
+            return mCount == 0 ? 0 : (int) (mSum / mCount);
+        }
+
+        int[] getHistogram() {
+            return mHistogram.clone();
+        }
+
+        int[] getBucketUpperBounds() {
+            return mBucketUpperBounds.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + mCount + " min=" + mMin + " max=" + mMax + " mean=" + getMean()
+                    + " histogram=" + Arrays.toString(mHistogram) + "}";
+        }
+    }
+
+    // Time spent in each call quality level for reports that have left the reorder window.
+    private final long[] mUlLevelDurationsMs = new long[LEVEL_COUNT];
+    private final long[] mDlLevelDurationsMs = new long[LEVEL_COUNT];
+    // Call duration of the last report folded into the level durations.
+    private int mFoldedCallDurationMs = 0;
+
+    // Most recent reports, sorted by call duration.
+    private final int[] mWindowCallDurationsMs = new int[REORDER_WINDOW + 1];
+    private final int[] mWindowUlLevels = new int[REORDER_WINDOW + 1];
+    private final int[] mWindowDlLevels = new int[REORDER_WINDOW + 1];
+    private int mWindowSize = 0;
+    private int mLateReportCount = 0;
+
+    private final Distribution mUlPacketLoss = new Distribution(PACKET_LOSS_BUCKET_UPPER_BOUNDS);
+    private final Distribution mDlPacketLoss = new Distribution(PACKET_LOSS_BUCKET_UPPER_BOUNDS);
+    private final Distribution mDlJitter = new Distribution(JITTER_BUCKET_UPPER_BOUNDS);
+
+    // Packet counters of the latest report, which are cumulative for the call.
+    private int mLastCounterCallDurationMs = -1;
+    private int mLastPacketsTransmitted;
+    private int mLastPacketsTransmittedLost;
+    private int mLastPacketsReceived;
+    private int mLastPacketsNotReceived;
+
+    /**
+     * Fold a report into the summaries. The uplink and downlink levels must be available.
+     */
+    void add(CallQuality cq) {
+        addLevels(cq.getCallDuration(), cq.getUplinkCallQualityLevel(),
+                cq.getDownlinkCallQualityLevel());
+        addPacketLoss(cq);
+        mDlJitter.add(cq.getAverageRelativeJitter());
+    }
+
+    private void addLevels(int callDurationMs, int ulLevel, int dlLevel) {
+        if (ulLevel < 0 || ulLevel >= LEVEL_COUNT || dlLevel < 0 || dlLevel >= LEVEL_COUNT) {
+            return;
+        }
+        if (callDurationMs < mFoldedCallDurationMs) {
+            mLateReportCount++;
+            return;
+        }
+        // Insert after reports with the same call duration, to keep the order of arrival.
+        int index = mWindowSize;
+        while (index > 0 && mWindowCallDurationsMs[index - 1] > callDurationMs) {
+            mWindowCallDurationsMs[index] = mWindowCallDurationsMs[index - 1];
+            mWindowUlLevels[index] = mWindowUlLevels[index - 1];
+            mWindowDlLevels[index] = mWindowDlLevels[index - 1];
+            index--;
+        }
+        mWindowCallDurationsMs[index] = callDurationMs;
+        mWindowUlLevels[index] = ulLevel;
+        mWindowDlLevels[index] = dlLevel;
+        mWindowSize++;
+
+        if (mWindowSize > REORDER_WINDOW) {
+            // The time since the previous report is spent in the level of the report.
+            int elapsedMs = mWindowCallDurationsMs[0] - mFoldedCallDurationMs;
+            mUlLevelDurationsMs[mWindowUlLevels[0]] += elapsedMs;
+            mDlLevelDurationsMs[mWindowDlLevels[0]] += elapsedMs;
+            mFoldedCallDurationMs = mWindowCallDurationsMs[0];
+            mWindowSize--;
+            System.arraycopy(mWindowCallDurationsMs, 1, mWindowCallDurationsMs, 0, mWindowSize);
+            System.arraycopy(mWindowUlLevels, 1, mWindowUlLevels, 0, mWindowSize);
+            System.arraycopy(mWindowDlLevels, 1, mWindowDlLevels, 0, mWindowSize);
+        }
+    }
+
+    private void addPacketLoss(CallQuality cq) {
+        // The packet counters are cumulative, so the loss since the previous report can only be
+        // calculated for reports that arrive in order.
+        if (cq.getCallDuration() <= mLastCounterCallDurationMs) {
+            return;
+        }
+        int transmitted = cq.getNumRtpPacketsTransmitted();
+        int transmittedLost = cq.getNumRtpPacketsTransmittedLost();
+        int received = cq.getNumRtpPacketsReceived();
+        int notReceived = cq.getNumRtpPacketsNotReceived();
+        if (mLastCounterCallDurationMs >= 0 && transmitted >= mLastPacketsTransmitted
+                && transmittedLost >= mLastPacketsTransmittedLost
+                && received >= mLastPacketsReceived && notReceived >= mLastPacketsNotReceived) {
+            addLossPercent(mUlPacketLoss, transmittedLost - mLastPacketsTransmittedLost,
+                    transmitted - mLastPacketsTransmitted);
+            addLossPercent(mDlPacketLoss, notReceived - mLastPacketsNotReceived,
+                    received - mLastPacketsReceived + notReceived - mLastPacketsNotReceived);
+        } else {
+            // First report, or the counters were reset.
+            addLossPercent(mUlPacketLoss, transmittedLost, transmitted);
+            addLossPercent(mDlPacketLoss, notReceived, received + notReceived);
+        }
+        mLastCounterCallDurationMs = cq.getCallDuration();
+        mLastPacketsTransmitted = transmitted;
+        mLastPacketsTransmittedLost = transmittedLost;
+        mLastPacketsReceived = received;
+        mLastPacketsNotReceived = notReceived;
+    }
+
+    private static void addLossPercent(Distribution distribution, int lost, int total) {
+        if (total > 0) {
+            distribution.add((int) (100L * lost / total));
+        }
+    }
+
+    /**
+     * @return the time spent in each call quality level, from EXCELLENT to BAD, in milliseconds.
+     */
+    long[] getLevelDurationsMs(boolean uplink) {
+        long[] durations = (uplink ? mUlLevelDurationsMs : mDlLevelDurationsMs).clone();
+        int[] levels = uplink ? mWindowUlLevels : mWindowDlLevels;
+        int lastCallDurationMs = mFoldedCallDurationMs;
+        for (int i = 0; i < mWindowSize; i++) {
+            durations[levels[i]] += mWindowCallDurationsMs[i] - lastCallDurationMs;
+            lastCallDurationMs = mWindowCallDurationsMs[i];
+        }
+        return durations;
+    }
+
+    /**
+     * @return the packet loss between consecutive reports, in percent.
+     */
+    Distribution getPacketLossPercent(boolean uplink) {
+        return uplink ? mUlPacketLoss : mDlPacketLoss;
+    }
+
+    /**
+     * @return the average relative jitter of received packets, in milliseconds.
+     */
+    Distribution getDownlinkJitterMillis() {
+        return mDlJitter;
+    }
+
+    /**
+     * @return the number of reports that arrived too late to be included in the level durations.
+     */
+    int getLateReportCount() {
+        return mLateReportCount;
+    }
+
+    @Override
+    public String toString() {
+        return "UlLevelDurationsMs: " + Arrays.toString(getLevelDurationsMs(true))
+                + " DlLevelDurationsMs: " + Arrays.toString(getLevelDurationsMs(false))
+                + " UlPacketLossPercent: " + mUlPacketLoss
+                + " DlPacketLossPercent: " + mDlPacketLoss
+                + " DlJitterMillis: " + mDlJitter
+                + " LateReports: " + mLateReportCount;
+    }
+}
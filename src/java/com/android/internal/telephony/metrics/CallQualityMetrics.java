@@ -31,7 +31,6 @@ import com.android.internal.telephony.util.TelephonyUtils;
 import com.android.telephony.Rlog;
 
 import java.util.ArrayList;
-import java.util.Collections;
 
 /**
  * CallQualityMetrics is a utility for tracking the CallQuality during an ongoing call session. It
@@ -64,11 +63,10 @@ public class CallQualityMetrics {
     // the first MAX_SNAPSHOTS transitions between good and bad quality
     private ArrayList<Pair<CallQuality, Integer>> mDlSnapshots = new ArrayList<>();
 
-    // holds lightweight history of call quality and durations, used for calculating total time
-    // spent with bad and good quality for metrics and bugreports. This is separate from the
-    // snapshots because those are capped at MAX_SNAPSHOTS to avoid excessive memory use.
-    private ArrayList<TimestampedQualitySnapshot> mFullUplinkQuality = new ArrayList<>();
-    private ArrayList<TimestampedQualitySnapshot> mFullDownlinkQuality = new ArrayList<>();
+    // folds every call quality update into the total time spent in each quality level and the
+    // packet loss and jitter distributions, used for metrics and bugreports. Its size does not
+    // depend on the number of updates, unlike a history of the updates.
+    private final CallQualityAggregator mAggregator = new CallQualityAggregator();
 
     // Current downlink call quality
     private int mDlCallQualityState = GOOD_QUALITY;
@@ -126,7 +124,7 @@ public class CallQualityMetrics {
             }
         }
 
-        updateTotalDurations(cq);
+        mAggregator.add(cq);
 
         updateMinAndMaxSignalStrengthSnapshots(newDlCallQualityState, newUlCallQualityState, cq);
 
@@ -138,13 +136,6 @@ public class CallQualityMetrics {
         }
     }
 
-    private void updateTotalDurations(CallQuality cq) {
-        mFullDownlinkQuality.add(new TimestampedQualitySnapshot(cq.getCallDuration(),
-                cq.getDownlinkCallQualityLevel()));
-        mFullUplinkQuality.add(new TimestampedQualitySnapshot(cq.getCallDuration(),
-                cq.getUplinkCallQualityLevel()));
-    }
-
     private static boolean isGoodQuality(int callQualityLevel) {
         return callQualityLevel < CallQuality.CALL_QUALITY_BAD;
     }
@@ -245,6 +236,27 @@ public class CallQualityMetrics {
         return ret;
     }
 
+    private static TelephonyCallSession.Event.CallQualitySummary.Distribution toProto(
+            CallQualityAggregator.Distribution distribution) {
+        TelephonyCallSession.Event.CallQualitySummary.Distribution ret =
+                new TelephonyCallSession.Event.CallQualitySummary.Distribution();
+        ret.count = distribution.getCount();
+        ret.min = distribution.getMin();
+        ret.max = distribution.getMax();
+        ret.mean = distribution.getMean();
+        ret.histogram = distribution.getHistogram();
+        ret.bucketUpperBounds = distribution.getBucketUpperBounds();
+        return ret;
+    }
+
+    private static int[] toSeconds(long[] durationsMs) {
+        int[] durations = new int[durationsMs.length];
+        for (int i = 0; i < durationsMs.length; i++) {
+            durations[i] = (int) (durationsMs[i] / 1000);
+        }
+        return durations;
+    }
+
     /**
      * Return the full downlink CallQualitySummary using the saved CallQuality records.
      */
@@ -252,7 +264,7 @@ public class CallQualityMetrics {
         TelephonyCallSession.Event.CallQualitySummary summary =
                 new TelephonyCallSession.Event.CallQualitySummary();
         Pair<Integer, Integer> totalGoodAndBadDurations = getTotalGoodAndBadQualityTimeMs(
-                mFullDownlinkQuality);
+                false);
         summary.totalGoodQualityDurationInSeconds = totalGoodAndBadDurations.first / 1000;
         summary.totalBadQualityDurationInSeconds = totalGoodAndBadDurations.second / 1000;
         // This value could be different from mLastCallQuality.getCallDuration if we support
@@ -282,6 +294,9 @@ public class CallQualityMetrics {
             summary.bestSsWithBadQuality = toProto(mBestSsWithBadDlQuality.second);
         }
         summary.snapshotOfEnd = toCallQualityProto(mLastCallQuality);
+        summary.durationPerLevelInSeconds = toSeconds(mAggregator.getLevelDurationsMs(false));
+        summary.packetLossPercent = toProto(mAggregator.getPacketLossPercent(false));
+        summary.relativeJitterMillis = toProto(mAggregator.getDownlinkJitterMillis());
         return summary;
     }
 
@@ -292,7 +307,7 @@ public class CallQualityMetrics {
         TelephonyCallSession.Event.CallQualitySummary summary =
                 new TelephonyCallSession.Event.CallQualitySummary();
         Pair<Integer, Integer> totalGoodAndBadDurations = getTotalGoodAndBadQualityTimeMs(
-                mFullUplinkQuality);
+                true);
         summary.totalGoodQualityDurationInSeconds = totalGoodAndBadDurations.first / 1000;
         summary.totalBadQualityDurationInSeconds = totalGoodAndBadDurations.second / 1000;
         // This value could be different from mLastCallQuality.getCallDuration if we support
@@ -322,61 +337,30 @@ public class CallQualityMetrics {
             summary.bestSsWithBadQuality = toProto(mBestSsWithBadUlQuality.second);
         }
         summary.snapshotOfEnd = toCallQualityProto(mLastCallQuality);
+        summary.durationPerLevelInSeconds = toSeconds(mAggregator.getLevelDurationsMs(true));
+        summary.packetLossPercent = toProto(mAggregator.getPacketLossPercent(true));
         return summary;
     }
 
-
     /**
-     * Container class for call quality level and signal strength at the time of snapshot. This
-     * class implements compareTo so that it can be sorted by timestamp
-     */
-    private class TimestampedQualitySnapshot implements Comparable<TimestampedQualitySnapshot> {
-        int mTimestampMs;
-        int mCallQualityLevel;
-
-        TimestampedQualitySnapshot(int timestamp, int cq) {
-            mTimestampMs = timestamp;
-            mCallQualityLevel = cq;
-        }
-
-        @Override
-        public int compareTo(TimestampedQualitySnapshot o) {
-            return this.mTimestampMs - o.mTimestampMs;
-        }
-
-        @Override
-        public String toString() {
-            return "mTimestampMs=" + mTimestampMs + " mCallQualityLevel=" + mCallQualityLevel;
-        }
-    }
-
-    /**
-     * Use a list of snapshots to calculate and return the total time spent in a call with good
-     * quality and bad quality.
-     * This is slightly expensive since it involves sorting the snapshots by timestamp.
+     * Calculate and return the total time spent in a call with good quality and bad quality.
      *
-     * @param snapshots a list of uplink or downlink snapshots
+     * @param uplink whether to return the uplink or downlink quality times
      * @return a pair where the first element is the total good quality time and the second element
      * is the total bad quality time
      */
-    private Pair<Integer, Integer> getTotalGoodAndBadQualityTimeMs(
-            ArrayList<TimestampedQualitySnapshot> snapshots) {
-        int totalGoodQualityTime = 0;
-        int totalBadQualityTime = 0;
-        int lastTimestamp = 0;
-        // sort by timestamp using TimestampedQualitySnapshot.compareTo
-        Collections.sort(snapshots);
-        for (TimestampedQualitySnapshot snapshot : snapshots) {
-            int timeSinceLastSnapshot = snapshot.mTimestampMs - lastTimestamp;
-            if (isGoodQuality(snapshot.mCallQualityLevel)) {
-                totalGoodQualityTime += timeSinceLastSnapshot;
+    private Pair<Integer, Integer> getTotalGoodAndBadQualityTimeMs(boolean uplink) {
+        long[] levelDurations = mAggregator.getLevelDurationsMs(uplink);
+        long totalGoodQualityTime = 0;
+        long totalBadQualityTime = 0;
+        for (int level = 0; level < levelDurations.length; level++) {
+            if (isGoodQuality(level)) {
+                totalGoodQualityTime += levelDurations[level];
             } else {
-                totalBadQualityTime += timeSinceLastSnapshot;
+                totalBadQualityTime += levelDurations[level];
             }
-            lastTimestamp = snapshot.mTimestampMs;
         }
-
-        return Pair.create(totalGoodQualityTime, totalBadQualityTime);
+        return Pair.create((int) totalGoodQualityTime, (int) totalBadQualityTime);
     }
 
     @Override
@@ -403,8 +387,8 @@ public class CallQualityMetrics {
         }
         sb.append("}");
         sb.append(" ");
-        Pair<Integer, Integer> dlTotals = getTotalGoodAndBadQualityTimeMs(mFullDownlinkQuality);
-        Pair<Integer, Integer> ulTotals = getTotalGoodAndBadQualityTimeMs(mFullUplinkQuality);
+        Pair<Integer, Integer> dlTotals = getTotalGoodAndBadQualityTimeMs(false);
+        Pair<Integer, Integer> ulTotals = getTotalGoodAndBadQualityTimeMs(true);
         sb.append(" TotalDlGoodQualityTimeMs: ");
         sb.append(dlTotals.first);
         sb.append(" TotalDlBadQualityTimeMs: ");
@@ -413,6 +397,8 @@ public class CallQualityMetrics {
         sb.append(ulTotals.first);
         sb.append(" TotalUlBadQualityTimeMs: ");
         sb.append(ulTotals.second);
+        sb.append(" ");
+        sb.append(mAggregator);
         sb.append("]");
         return sb.toString();
     }
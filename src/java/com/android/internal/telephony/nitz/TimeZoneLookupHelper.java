@@ -29,13 +29,18 @@ import android.timezone.CountryTimeZones.OffsetResult;
 import android.timezone.CountryTimeZones.TimeZoneMapping;
 import android.timezone.TimeZoneFinder;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.NitzData;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * An interface to various time zone lookup behaviors.
@@ -109,12 +114,124 @@ public final class TimeZoneLookupHelper {
         }
     }
 
+    /** The default maximum number of cached results of each kind of lookup. */
+    private static final int DEFAULT_MAX_CACHED_RESULTS = 64;
+
+    /**
+     * The length of the time buckets lookup results are cached for. NITZ signals are usually
+     * repeated within minutes, and time zone transitions happen on the hour or half hour.
+     */
+    private static final long TIME_BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** The inputs of a cached lookup, with the time reduced to its time bucket. */
+    private static final class LookupKey {
+        /** The country, or {@code null} for {@link #lookupByNitz(NitzData)}. */
+        @Nullable
+        private final String mIsoCountryCode;
+        private final int mUtcOffsetMillis;
+        @Nullable
+        private final Boolean mIsDst;
+        private final long mTimeBucket;
+        /** The ID of the default time zone, which biases {@link #lookupByNitzCountry}. */
+        @Nullable
+        private final String mBiasZoneId;
+
+        LookupKey(@Nullable String isoCountryCode, int utcOffsetMillis, @Nullable Boolean isDst,
+                long timeBucket, @Nullable String biasZoneId) {
+            mIsoCountryCode = isoCountryCode;
+            mUtcOffsetMillis = utcOffsetMillis;
+            mIsDst = isDst;
+            mTimeBucket = timeBucket;
+            mBiasZoneId = biasZoneId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            LookupKey that = (LookupKey) o;
+            return mUtcOffsetMillis == that.mUtcOffsetMillis
+                    && mTimeBucket == that.mTimeBucket
+                    && Objects.equals(mIsoCountryCode, that.mIsoCountryCode)
+                    && Objects.equals(mIsDst, that.mIsDst)
+                    && Objects.equals(mBiasZoneId, that.mBiasZoneId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mIsoCountryCode, mUtcOffsetMillis, mIsDst, mTimeBucket,
+                    mBiasZoneId);
+        }
+    }
+
+    /**
+     * Supplies the version of the time zone data. It reads the time zone data, so it is only
+     * called on construction and by {@link #onTzDataUpdated()}.
+     */
+    @NonNull
+    private final Supplier<String> mTzDataVersionSupplier;
+
     /** The last CountryTimeZones object retrieved. */
+    @GuardedBy("this")
     @Nullable
     private CountryTimeZones mLastCountryTimeZones;
 
+    /** The results of {@link #lookupByNitzCountry} and {@link #lookupByNitz}. */
+    @GuardedBy("this")
+    @NonNull
+    private final LinkedHashMap<LookupKey, OffsetResult> mOffsetResults;
+
+    /** The results of {@link #lookupByCountry}. */
+    @GuardedBy("this")
+    @NonNull
+    private final LinkedHashMap<LookupKey, CountryResult> mCountryResults;
+
+    /** The version of the time zone data the cached results were looked up with. */
+    @GuardedBy("this")
+    @Nullable
+    private String mTzDataVersion;
+
+    /** The last time bucket checked by {@link #isTimeBucketStable(long)}, and its result. */
+    @GuardedBy("this")
+    private long mLastCheckedTimeBucket = Long.MIN_VALUE;
+
+    @GuardedBy("this")
+    private boolean mLastCheckedTimeBucketStable;
+
     @VisibleForTesting
-    public TimeZoneLookupHelper() {}
+    public TimeZoneLookupHelper() {
+        this(DEFAULT_MAX_CACHED_RESULTS, () -> TimeZoneFinder.getInstance().getIanaVersion());
+    }
+
+    /**
+     * @param maxCachedResults The maximum number of cached results of each kind of lookup. 0
+     *     disables caching.
+     * @param tzDataVersionSupplier Supplies the version of the time zone data.
+     */
+    @VisibleForTesting
+    public TimeZoneLookupHelper(int maxCachedResults,
+            @NonNull Supplier<String> tzDataVersionSupplier) {
+        mTzDataVersionSupplier = Objects.requireNonNull(tzDataVersionSupplier);
+        // The time zone data does not change while the process runs, except when signalled
+        // through onTzDataUpdated(), so its version is not read again for each lookup.
+        mTzDataVersion = mTzDataVersionSupplier.get();
+        mOffsetResults = createLruMap(maxCachedResults);
+        mCountryResults = createLruMap(maxCachedResults);
+    }
+
+    @NonNull
+    private static <V> LinkedHashMap<LookupKey, V> createLruMap(int maxEntries) {
+        return new LinkedHashMap<LookupKey, V>(16, 0.75f, true /* accessOrder */) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LookupKey, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
 
     /**
      * Looks for a time zone for the supplied NITZ and country information.
@@ -133,24 +250,39 @@ public final class TimeZoneLookupHelper {
             return null;
         }
         TimeZone bias = TimeZone.getDefault();
+        long timeMillis = nitzData.getCurrentTimeInMillis();
+        int utcOffsetMillis = nitzData.getLocalOffsetMillis();
 
         // Android NITZ time zone matching doesn't try to do a precise match using the DST offset
         // supplied by the carrier. It only considers whether or not the carrier suggests local time
         // is DST (if known). NITZ is limited in only being able to express DST offsets in whole
         // hours and the DST info is optional.
         Integer dstAdjustmentMillis = nitzData.getDstAdjustmentMillis();
-        if (dstAdjustmentMillis == null) {
-            return countryTimeZones.lookupByOffsetWithBias(
-                    nitzData.getCurrentTimeInMillis(), bias, nitzData.getLocalOffsetMillis());
+        // We don't try to match the exact DST offset given, we just use it to work out if
+        // the country is in DST.
+        Boolean isDst = dstAdjustmentMillis == null ? null : dstAdjustmentMillis != 0;
+
+        LookupKey key = new LookupKey(isoCountryCode, utcOffsetMillis, isDst,
+                getTimeBucket(timeMillis), bias.getID());
+        synchronized (this) {
+            if (mOffsetResults.containsKey(key)) {
+                return mOffsetResults.get(key);
+            }
+        }
 
+        OffsetResult result;
+        if (isDst == null) {
+            result = countryTimeZones.lookupByOffsetWithBias(timeMillis, bias, utcOffsetMillis);
         } else {
-            // We don't try to match the exact DST offset given, we just use it to work out if
-            // the country is in DST.
-            boolean isDst = dstAdjustmentMillis != 0;
-            return countryTimeZones.lookupByOffsetWithBias(
-                    nitzData.getCurrentTimeInMillis(), bias,
-                    nitzData.getLocalOffsetMillis(), isDst);
+            result = countryTimeZones.lookupByOffsetWithBias(
+                    timeMillis, bias, utcOffsetMillis, isDst);
+        }
+        if (isCountryTimeBucketStable(countryTimeZones, key.mTimeBucket)) {
+            synchronized (this) {
+                mOffsetResults.put(key, result);
+            }
         }
+        return result;
     }
 
     /**
@@ -175,6 +307,14 @@ public final class TimeZoneLookupHelper {
         Integer dstAdjustmentMillis = nitzData.getDstAdjustmentMillis();
         Boolean isDst = dstAdjustmentMillis == null ? null : dstAdjustmentMillis != 0;
 
+        LookupKey key = new LookupKey(null /* isoCountryCode */, utcOffsetMillis, isDst,
+                getTimeBucket(timeMillis), null /* biasZoneId */);
+        synchronized (this) {
+            if (mOffsetResults.containsKey(key)) {
+                return mOffsetResults.get(key);
+            }
+        }
+
         OffsetResult match = lookupByInstantOffsetDst(timeMillis, utcOffsetMillis, isDst);
         if (match == null && isDst != null) {
             // This branch is extremely unlikely and could probably be removed. The match above will
@@ -184,6 +324,11 @@ public final class TimeZoneLookupHelper {
             // current offset suggested by the carrier must be highly unusual.
             match = lookupByInstantOffsetDst(timeMillis, utcOffsetMillis, null /* isDst */);
         }
+        if (isTimeBucketStable(key.mTimeBucket)) {
+            synchronized (this) {
+                mOffsetResults.put(key, match);
+            }
+        }
         return match;
     }
 
@@ -207,6 +352,15 @@ public final class TimeZoneLookupHelper {
             return null;
         }
 
+        LookupKey key = new LookupKey(isoCountryCode, 0 /* utcOffsetMillis */, null /* isDst */,
+                getTimeBucket(whenMillis), null /* biasZoneId */);
+        synchronized (this) {
+            CountryResult cachedResult = mCountryResults.get(key);
+            if (cachedResult != null) {
+                return cachedResult;
+            }
+        }
+
         String debugInfo;
         int matchQuality;
         if (countryTimeZones.isDefaultTimeZoneBoosted()) {
@@ -234,7 +388,83 @@ public final class TimeZoneLookupHelper {
                         + " whenMillis=" + whenMillis;
             }
         }
-        return new CountryResult(countryDefaultZone.getID(), matchQuality, debugInfo);
+        CountryResult result = new CountryResult(countryDefaultZone.getID(), matchQuality,
+                debugInfo);
+        if (isCountryTimeBucketStable(countryTimeZones, key.mTimeBucket)) {
+            synchronized (this) {
+                mCountryResults.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private static long getTimeBucket(long timeMillis) {
+        return Math.floorDiv(timeMillis, TIME_BUCKET_MILLIS);
+    }
+
+    /**
+     * Returns {@code true} if a lookup for the country gives the same result at any time in the
+     * time bucket, i.e. no time zone changes its offsets and no zone of the country stops being
+     * used in it.
+     */
+    private boolean isCountryTimeBucketStable(@NonNull CountryTimeZones countryTimeZones,
+            long timeBucket) {
+        long startMillis = timeBucket * TIME_BUCKET_MILLIS;
+        long endMillis = startMillis + TIME_BUCKET_MILLIS - 1;
+        return isTimeBucketStable(timeBucket)
+                && countryTimeZones.getEffectiveTimeZoneMappingsAt(startMillis).size()
+                == countryTimeZones.getEffectiveTimeZoneMappingsAt(endMillis).size();
+    }
+
+    /**
+     * Returns {@code true} if no time zone changes its offsets in the time bucket, so lookups give
+     * the same result at any time in it. The result for the last bucket is kept, since lookups
+     * are usually for the current time.
+     */
+    private boolean isTimeBucketStable(long timeBucket) {
+        synchronized (this) {
+            if (timeBucket == mLastCheckedTimeBucket) {
+                return mLastCheckedTimeBucketStable;
+            }
+        }
+
+        long startMillis = timeBucket * TIME_BUCKET_MILLIS;
+        long endMillis = startMillis + TIME_BUCKET_MILLIS - 1;
+        boolean stable = true;
+        int[] startOffsets = new int[2];
+        int[] endOffsets = new int[2];
+        for (String zone : java.util.TimeZone.getAvailableIDs()) {
+            TimeZone tz = TimeZone.getFrozenTimeZone(zone);
+            tz.getOffset(startMillis, false /* local */, startOffsets);
+            tz.getOffset(endMillis, false /* local */, endOffsets);
+            if (startOffsets[0] != endOffsets[0] || startOffsets[1] != endOffsets[1]) {
+                stable = false;
+                break;
+            }
+        }
+
+        synchronized (this) {
+            mLastCheckedTimeBucket = timeBucket;
+            mLastCheckedTimeBucketStable = stable;
+        }
+        return stable;
+    }
+
+    /**
+     * Clears the cached lookups if the version of the time zone data changed since they were
+     * made. To be called when the time zone data may have been updated.
+     */
+    public void onTzDataUpdated() {
+        String tzDataVersion = mTzDataVersionSupplier.get();
+        synchronized (this) {
+            if (!Objects.equals(tzDataVersion, mTzDataVersion)) {
+                mTzDataVersion = tzDataVersion;
+                mLastCountryTimeZones = null;
+                mOffsetResults.clear();
+                mCountryResults.clear();
+                mLastCheckedTimeBucket = Long.MIN_VALUE;
+            }
+        }
     }
 
     private static boolean countryUsesDifferentOffsets(
@@ -32,6 +32,7 @@ import android.telephony.satellite.SatelliteManager;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -416,6 +417,13 @@ public class DatagramController {
         mDatagramDispatcher.setShouldSendDatagramToModemInDemoMode(shouldSendToModemInDemoMode);
     }
 
+    /**
+     * Dump the state of the datagram receiver.
+     */
+    public void dump(@NonNull PrintWriter pw) {
+        mDatagramReceiver.dump(pw);
+    }
+
     private static void logd(@NonNull String log) {
         Rlog.d(TAG, log);
     }
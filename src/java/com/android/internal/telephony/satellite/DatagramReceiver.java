@@ -31,7 +31,6 @@ import android.database.SQLException;
 import android.net.Uri;
 import android.os.AsyncResult;
 import android.os.Handler;
-import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
@@ -53,6 +52,8 @@ import com.android.internal.telephony.metrics.SatelliteStats;
 import com.android.internal.telephony.satellite.metrics.ControllerMetricsStats;
 import com.android.internal.util.FunctionalUtils;
 
+import java.io.PrintWriter;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -173,7 +174,7 @@ public class DatagramReceiver extends Handler {
         public static final int EVENT_RETRY_DELIVERING_RECEIVED_DATAGRAM = 2;
         public static final int EVENT_RECEIVED_ACK = 3;
 
-        @NonNull private final ConcurrentHashMap<IBinder, ISatelliteDatagramCallback> mListeners;
+        @NonNull private final SatelliteCallbackRegistry<ISatelliteDatagramCallback> mListeners;
         private final int mSubId;
 
         private static final class DatagramRetryArgument {
@@ -206,15 +207,15 @@ public class DatagramReceiver extends Handler {
         public SatelliteDatagramListenerHandler(@NonNull Looper looper, int subId) {
             super(looper);
             mSubId = subId;
-            mListeners = new ConcurrentHashMap<>();
+            mListeners = new SatelliteCallbackRegistry<>("SatelliteDatagramListenerHandler");
         }
 
         public void addListener(@NonNull ISatelliteDatagramCallback listener) {
-            mListeners.put(listener.asBinder(), listener);
+            mListeners.register(listener);
         }
 
         public void removeListener(@NonNull ISatelliteDatagramCallback listener) {
-            mListeners.remove(listener.asBinder());
+            mListeners.unregister(listener);
         }
 
         public boolean hasListeners() {
@@ -225,6 +226,10 @@ public class DatagramReceiver extends Handler {
             return mListeners.size();
         }
 
+        public void dump(@NonNull PrintWriter pw) {
+            mListeners.dump(pw);
+        }
+
         private int getTimeoutToReceiveAck() {
             return sInstance.mContext.getResources().getInteger(
                     R.integer.config_timeout_to_receive_delivered_ack_millis);
@@ -298,28 +303,33 @@ public class DatagramReceiver extends Handler {
 
         private void onSatelliteDatagramReceived(@NonNull DatagramRetryArgument argument) {
             try {
-                IVoidConsumer internalAck = new IVoidConsumer.Stub() {
-                    /**
-                     * This callback will be used by datagram receiver app
-                     * to send ack back to Telephony. If the callback is not
-                     * received within five minutes, then Telephony will
-                     * resend the datagram again.
-                     */
-                    @Override
-                    public void accept() {
-                        logd("acknowledgeSatelliteDatagramReceived: "
-                                + "datagramId=" + argument.datagramId);
-                        sendMessage(obtainMessage(EVENT_RECEIVED_ACK, argument));
-                    }
-                };
-
-                argument.listener.onSatelliteDatagramReceived(argument.datagramId,
-                        argument.datagram, argument.pendingCount, internalAck);
+                deliverDatagram(argument);
             } catch (RemoteException e) {
                 logd("EVENT_SATELLITE_DATAGRAM_RECEIVED RemoteException: " + e);
             }
         }
 
+        private void deliverDatagram(@NonNull DatagramRetryArgument argument)
+                throws RemoteException {
+            IVoidConsumer internalAck = new IVoidConsumer.Stub() {
+                /**
+                 * This callback will be used by datagram receiver app
+                 * to send ack back to Telephony. If the callback is not
+                 * received within five minutes, then Telephony will
+                 * resend the datagram again.
+                 */
+                @Override
+                public void accept() {
+                    logd("acknowledgeSatelliteDatagramReceived: "
+                            + "datagramId=" + argument.datagramId);
+                    sendMessage(obtainMessage(EVENT_RECEIVED_ACK, argument));
+                }
+            };
+
+            argument.listener.onSatelliteDatagramReceived(argument.datagramId,
+                    argument.datagram, argument.pendingCount, internalAck);
+        }
+
         @Override
         public void handleMessage(@NonNull Message msg) {
             switch (msg.what) {
@@ -345,15 +355,17 @@ public class DatagramReceiver extends Handler {
                         sInstance.mPendingAckCountHashMap.put(datagramId, getNumOfListeners());
                         insertDatagram(datagramId, satelliteDatagram);
 
-                        mListeners.values().forEach(listener -> {
-                            DatagramRetryArgument argument = new DatagramRetryArgument(datagramId,
-                                    satelliteDatagram, pendingCount, listener);
-                            onSatelliteDatagramReceived(argument);
-                            // wait for ack and retry after the timeout specified.
-                            sendMessageDelayed(
-                                    obtainMessage(EVENT_RETRY_DELIVERING_RECEIVED_DATAGRAM,
-                                            argument), getTimeoutToReceiveAck());
-                        });
+                        int timeoutToReceiveAck = getTimeoutToReceiveAck();
+                        mListeners.notifyCallbacks("EVENT_SATELLITE_DATAGRAM_RECEIVED",
+                                listener -> {
+                                    DatagramRetryArgument argument = new DatagramRetryArgument(
+                                            datagramId, satelliteDatagram, pendingCount, listener);
+                                    // wait for ack and retry after the timeout specified.
+                                    sendMessageDelayed(
+                                            obtainMessage(EVENT_RETRY_DELIVERING_RECEIVED_DATAGRAM,
+                                                    argument), timeoutToReceiveAck);
+                                    deliverDatagram(argument);
+                                });
 
                         sInstance.mControllerMetricsStats.reportIncomingDatagramCount(
                                 SatelliteManager.SATELLITE_RESULT_SUCCESS);
@@ -386,6 +398,12 @@ public class DatagramReceiver extends Handler {
                     DatagramRetryArgument argument = (DatagramRetryArgument) msg.obj;
                     logd("Received EVENT_RETRY_DELIVERING_RECEIVED_DATAGRAM datagramId:"
                             + argument.datagramId);
+                    if (!mListeners.contains(argument.listener)) {
+                        // The listener was removed or died, so it will never ack the datagram.
+                        logd("Listener of datagramId:" + argument.datagramId + " was removed");
+                        sendMessage(obtainMessage(EVENT_RECEIVED_ACK, argument));
+                        break;
+                    }
                     onSatelliteDatagramReceived(argument);
                     break;
                 }
@@ -851,6 +869,18 @@ public class DatagramReceiver extends Handler {
         }
     }
 
+    /**
+     * Dump the listeners and the delivery stats of the received datagrams of each subscription.
+     */
+    public void dump(@NonNull PrintWriter pw) {
+        pw.println("DatagramReceiver:");
+        for (Map.Entry<Integer, SatelliteDatagramListenerHandler> entry
+                : mSatelliteDatagramListenerHandlers.entrySet()) {
+            pw.print(" subId=" + entry.getKey() + " ");
+            entry.getValue().dump(pw);
+        }
+    }
+
     /**
      * Destroys this DatagramDispatcher. Used for tearing down static resources during testing.
      */
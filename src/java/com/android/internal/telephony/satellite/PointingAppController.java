@@ -29,10 +29,8 @@ import android.content.pm.PackageManager;
 import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Handler;
-import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
-import android.os.RemoteException;
 import android.os.SystemProperties;
 import android.telephony.Rlog;
 import android.telephony.satellite.ISatelliteTransmissionUpdateCallback;
@@ -43,9 +41,9 @@ import android.text.TextUtils;
 import com.android.internal.R;
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.ArrayList;
+import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
@@ -179,43 +177,37 @@ public class PointingAppController {
         public static final int EVENT_RECEIVE_DATAGRAM_STATE_CHANGED = 3;
         public static final int EVENT_DATAGRAM_TRANSFER_STATE_CHANGED = 4;
 
-        private final ConcurrentHashMap<IBinder, ISatelliteTransmissionUpdateCallback> mListeners;
+        private final SatelliteCallbackRegistry<ISatelliteTransmissionUpdateCallback> mListeners;
 
         SatelliteTransmissionUpdateHandler(Looper looper) {
             super(looper);
-            mListeners = new ConcurrentHashMap<>();
+            mListeners = new SatelliteCallbackRegistry<>("SatelliteTransmissionUpdateHandler");
         }
 
         public void addListener(ISatelliteTransmissionUpdateCallback listener) {
-            mListeners.put(listener.asBinder(), listener);
+            mListeners.register(listener);
         }
 
         public void removeListener(ISatelliteTransmissionUpdateCallback listener) {
-            mListeners.remove(listener.asBinder());
+            mListeners.unregister(listener);
         }
 
         public boolean hasListeners() {
             return !mListeners.isEmpty();
         }
 
+        public void dump(@NonNull PrintWriter pw) {
+            mListeners.dump(pw);
+        }
+
         @Override
         public void handleMessage(@NonNull Message msg) {
             switch (msg.what) {
                 case EVENT_POSITION_INFO_CHANGED: {
                     AsyncResult ar = (AsyncResult) msg.obj;
                     PointingInfo pointingInfo = (PointingInfo) ar.result;
-                    List<IBinder> toBeRemoved = new ArrayList<>();
-                    mListeners.values().forEach(listener -> {
-                        try {
-                            listener.onSatellitePositionChanged(pointingInfo);
-                        } catch (RemoteException e) {
-                            logd("EVENT_POSITION_INFO_CHANGED RemoteException: " + e);
-                            toBeRemoved.add(listener.asBinder());
-                        }
-                    });
-                    toBeRemoved.forEach(listener -> {
-                        mListeners.remove(listener);
-                    });
+                    mListeners.notifyCallbacks("EVENT_POSITION_INFO_CHANGED",
+                            listener -> listener.onSatellitePositionChanged(pointingInfo));
                     break;
                 }
 
@@ -229,19 +221,10 @@ public class PointingAppController {
                     logd("Received EVENT_SEND_DATAGRAM_STATE_CHANGED");
                     DatagramTransferStateHandlerRequest request =
                             (DatagramTransferStateHandlerRequest) msg.obj;
-                    List<IBinder> toBeRemoved = new ArrayList<>();
-                    mListeners.values().forEach(listener -> {
-                        try {
-                            listener.onSendDatagramStateChanged(request.datagramTransferState,
-                                    request.pendingCount, request.errorCode);
-                        } catch (RemoteException e) {
-                            logd("EVENT_SEND_DATAGRAM_STATE_CHANGED RemoteException: " + e);
-                            toBeRemoved.add(listener.asBinder());
-                        }
-                    });
-                    toBeRemoved.forEach(listener -> {
-                        mListeners.remove(listener);
-                    });
+                    mListeners.notifyCallbacks("EVENT_SEND_DATAGRAM_STATE_CHANGED",
+                            listener -> listener.onSendDatagramStateChanged(
+                                    request.datagramTransferState, request.pendingCount,
+                                    request.errorCode));
                     break;
                 }
 
@@ -249,19 +232,10 @@ public class PointingAppController {
                     logd("Received EVENT_RECEIVE_DATAGRAM_STATE_CHANGED");
                     DatagramTransferStateHandlerRequest request =
                             (DatagramTransferStateHandlerRequest) msg.obj;
-                    List<IBinder> toBeRemoved = new ArrayList<>();
-                    mListeners.values().forEach(listener -> {
-                        try {
-                            listener.onReceiveDatagramStateChanged(request.datagramTransferState,
-                                    request.pendingCount, request.errorCode);
-                        } catch (RemoteException e) {
-                            logd("EVENT_RECEIVE_DATAGRAM_STATE_CHANGED RemoteException: " + e);
-                            toBeRemoved.add(listener.asBinder());
-                        }
-                    });
-                    toBeRemoved.forEach(listener -> {
-                        mListeners.remove(listener);
-                    });
+                    mListeners.notifyCallbacks("EVENT_RECEIVE_DATAGRAM_STATE_CHANGED",
+                            listener -> listener.onReceiveDatagramStateChanged(
+                                    request.datagramTransferState, request.pendingCount,
+                                    request.errorCode));
                     break;
                 }
 
@@ -492,6 +466,20 @@ public class PointingAppController {
         return (DEBUG || SystemProperties.getBoolean(ALLOW_MOCK_MODEM_PROPERTY, false));
     }
 
+    /**
+     * Dump the listeners and the delivery stats of the satellite transmission updates of each
+     * subscription.
+     */
+    public void dump(@NonNull PrintWriter pw) {
+        pw.println("PointingAppController:");
+        pw.println(" mStartedSatelliteTransmissionUpdates=" + mStartedSatelliteTransmissionUpdates);
+        for (Map.Entry<Integer, SatelliteTransmissionUpdateHandler> entry
+                : mSatelliteTransmissionUpdateHandlers.entrySet()) {
+            pw.print(" subId=" + entry.getKey() + " ");
+            entry.getValue().dump(pw);
+        }
+    }
+
     private static void logd(@NonNull String log) {
         Rlog.d(TAG, log);
     }
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.satellite;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.DeadObjectException;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A registry of binder callbacks which are notified of satellite events.
+ * <p>
+ * The callbacks are kept in a copy-on-write snapshot, so an event is delivered without locking or
+ * copying the callbacks. Callbacks whose process has died, as reported by their death recipient
+ * or by a failed delivery, are removed together before the next event is delivered.
+ * <p>
+ * When there are at least {@link #PARALLEL_DELIVERY_THRESHOLD} callbacks, an event is delivered
+ * to them on up to {@link #MAX_DELIVERY_THREADS} threads. The caller waits until every callback
+ * has returned, so each callback still receives the events in order. The time taken to deliver
+ * each type of event is recorded in {@link DeliveryStats}.
+ *
+ * @param <T> The binder interface of the callbacks.
+ */
+public class SatelliteCallbackRegistry<T extends IInterface> {
+    private static final String TAG = "SatelliteCallbackRegistry";
+
+    /** Minimum number of callbacks for an event to be delivered in parallel. */
+    @VisibleForTesting
+    public static final int PARALLEL_DELIVERY_THRESHOLD = 8;
+
+    /** Maximum number of threads, including the caller, delivering one event. */
+    @VisibleForTesting
+    public static final int MAX_DELIVERY_THREADS = 4;
+
+    // Shared by all registries. Idle threads are stopped, as events with enough callbacks to be
+    // delivered in parallel are rare.
+    private static final ThreadPoolExecutor sDeliveryExecutor = new ThreadPoolExecutor(
+            MAX_DELIVERY_THREADS - 1, MAX_DELIVERY_THREADS - 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>());
+
+    static {
+        sDeliveryExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Delivers an event to one callback.
+     */
+    public interface Delivery<T> {
+        /**
+         * Deliver the event to the callback. May be called on any thread.
+         */
+        void deliver(@NonNull T callback) throws RemoteException;
+    }
+
+    /**
+     * The number of events of a type that were delivered and the time taken to deliver them to
+     * all callbacks.
+     */
+    public static final class DeliveryStats {
+        private int mCount;
+        private long mTotalLatencyNanos;
+        private long mMaxLatencyNanos;
+
+        private DeliveryStats() {}
+
+        private DeliveryStats(@NonNull DeliveryStats other) {
+            mCount = other.mCount;
+            mTotalLatencyNanos = other.mTotalLatencyNanos;
+            mMaxLatencyNanos = other.mMaxLatencyNanos;
+        }
+
+        private void add(long latencyNanos) {
+            mCount++;
+            mTotalLatencyNanos += latencyNanos;
+            mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latencyNanos);
+        }
+
+        /** @return The number of events delivered. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** @return The average time to deliver an event to all callbacks, in microseconds. */
+        public long getAverageLatencyMicros() {
+            return mCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(mTotalLatencyNanos / mCount);
+        }
+
+        /** @return The longest time to deliver an event to all callbacks, in microseconds. */
+        public long getMaxLatencyMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(mMaxLatencyNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + ", averageLatencyUs=" + getAverageLatencyMicros()
+                    + ", maxLatencyUs=" + getMaxLatencyMicros();
+        }
+    }
+
+    private final class Entry implements IBinder.DeathRecipient {
+        @NonNull final T mCallback;
+        @NonNull final IBinder mBinder;
+
+        Entry(@NonNull T callback) {
+            mCallback = callback;
+            mBinder = callback.asBinder();
+        }
+
+        @Override
+        public void binderDied() {
+            markDead(this);
+        }
+    }
+
+    @NonNull private final String mName;
+    @NonNull private final Object mLock = new Object();
+    // Replaced, never modified, on every change, so it can be iterated without locking.
+    @NonNull private volatile List<Entry> mEntries = Collections.emptyList();
+    @GuardedBy("mLock")
+    @NonNull private final ArraySet<IBinder> mDeadBinders = new ArraySet<>();
+    // Whether mDeadBinders is not empty, to check without locking.
+    private volatile boolean mHasDeadBinders = false;
+    @GuardedBy("mLock")
+    @NonNull private final ArrayMap<String, DeliveryStats> mDeliveryStats = new ArrayMap<>();
+
+    /**
+     * @param name The name of the registry, for logging.
+     */
+    public SatelliteCallbackRegistry(@NonNull String name) {
+        mName = name;
+    }
+
+    /**
+     * Register a callback, replacing any callback with the same binder.
+     *
+     * @return {@code true} if the callback was registered, {@code false} if its process has
+     *         already died.
+     */
+    public boolean register(@NonNull T callback) {
+        Entry entry = new Entry(callback);
+        try {
+            entry.mBinder.linkToDeath(entry, 0);
+        } catch (RemoteException e) {
+            logd("register: callback already died");
+            return false;
+        }
+        synchronized (mLock) {
+            pruneDeadCallbacksLocked();
+            List<Entry> entries = new ArrayList<>(mEntries.size() + 1);
+            for (Entry e : mEntries) {
+                if (e.mBinder == entry.mBinder) {
+                    unlinkToDeath(e);
+                } else {
+                    entries.add(e);
+                }
+            }
+            entries.add(entry);
+            mEntries = Collections.unmodifiableList(entries);
+        }
+        return true;
+    }
+
+    /**
+     * Unregister the callback with the same binder as {@code callback}.
+     */
+    public void unregister(@NonNull T callback) {
+        IBinder binder = callback.asBinder();
+        synchronized (mLock) {
+            pruneDeadCallbacksLocked();
+            List<Entry> entries = new ArrayList<>(mEntries.size());
+            for (Entry e : mEntries) {
+                if (e.mBinder == binder) {
+                    unlinkToDeath(e);
+                } else {
+                    entries.add(e);
+                }
+            }
+            if (entries.size() != mEntries.size()) {
+                mEntries = Collections.unmodifiableList(entries);
+            }
+        }
+    }
+
+    /**
+     * @return Whether a callback with the same binder as {@code callback} is registered.
+     */
+    public boolean contains(@NonNull T callback) {
+        IBinder binder = callback.asBinder();
+        for (Entry e : getEntries()) {
+            if (e.mBinder == binder) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of registered callbacks.
+     */
+    public int size() {
+        return getEntries().size();
+    }
+
+    /**
+     * @return Whether no callbacks are registered.
+     */
+    public boolean isEmpty() {
+        return getEntries().isEmpty();
+    }
+
+    /**
+     * Deliver an event to all registered callbacks and wait until they have all returned.
+     * Callbacks whose process has died are removed.
+     *
+     * @param event The name of the event, used for logging and {@link DeliveryStats}.
+     * @param delivery Delivers the event to one callback.
+     */
+    public void notifyCallbacks(@NonNull String event, @NonNull Delivery<T> delivery) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        List<Entry> entries = getEntries();
+        int size = entries.size();
+        if (size < PARALLEL_DELIVERY_THRESHOLD) {
+            deliver(event, delivery, entries, 0, size);
+        } else {
+            int chunkSize = (size + MAX_DELIVERY_THREADS - 1) / MAX_DELIVERY_THREADS;
+            CountDownLatch latch = new CountDownLatch(MAX_DELIVERY_THREADS - 1);
+            for (int i = 1; i < MAX_DELIVERY_THREADS; i++) {
+                int from = Math.min(size, i * chunkSize);
+                int to = Math.min(size, from + chunkSize);
+                sDeliveryExecutor.execute(() -> {
+                    try {
+                        deliver(event, delivery, entries, from, to);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            deliver(event, delivery, entries, 0, chunkSize);
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                loge(event + ": interrupted while waiting for delivery");
+                Thread.currentThread().interrupt();
+            }
+        }
+        long latencyNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        synchronized (mLock) {
+            DeliveryStats stats = mDeliveryStats.get(event);
+            if (stats == null) {
+                stats = new DeliveryStats();
+                mDeliveryStats.put(event, stats);
+            }
+            stats.add(latencyNanos);
+        }
+    }
+
+    /**
+     * @return A copy of the delivery stats of the event, or {@code null} if it was never
+     *         delivered.
+     */
+    @Nullable
+    public DeliveryStats getDeliveryStats(@NonNull String event) {
+        synchronized (mLock) {
+            DeliveryStats stats = mDeliveryStats.get(event);
+            return stats == null ? null : new DeliveryStats(stats);
+        }
+    }
+
+    /**
+     * Dump the number of callbacks and the delivery stats of each event.
+     */
+    public void dump(@NonNull PrintWriter pw) {
+        pw.println(mName + ": callbacks=" + size());
+        synchronized (mLock) {
+            for (int i = 0; i < mDeliveryStats.size(); i++) {
+                pw.println("  " + mDeliveryStats.keyAt(i) + ": " + mDeliveryStats.valueAt(i));
+            }
+        }
+    }
+
+    private void deliver(@NonNull String event, @NonNull Delivery<T> delivery,
+            @NonNull List<Entry> entries, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Entry entry = entries.get(i);
+            try {
+                delivery.deliver(entry.mCallback);
+            } catch (DeadObjectException e) {
+                logd(event + ": callback died");
+                markDead(entry);
+            } catch (RemoteException e) {
+                logd(event + " RemoteException: " + e);
+            }
+        }
+    }
+
+    @NonNull
+    private List<Entry> getEntries() {
+        if (mHasDeadBinders) {
+            synchronized (mLock) {
+                pruneDeadCallbacksLocked();
+            }
+        }
+        return mEntries;
+    }
+
+    private void markDead(@NonNull Entry entry) {
+        synchronized (mLock) {
+            mDeadBinders.add(entry.mBinder);
+            mHasDeadBinders = true;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void pruneDeadCallbacksLocked() {
+        if (mDeadBinders.isEmpty()) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(mEntries.size());
+        for (Entry e : mEntries) {
+            if (mDeadBinders.contains(e.mBinder)) {
+                unlinkToDeath(e);
+            } else {
+                entries.add(e);
+            }
+        }
+        logd("removed " + (mEntries.size() - entries.size()) + " dead callbacks");
+        mDeadBinders.clear();
+        mHasDeadBinders = false;
+        mEntries = Collections.unmodifiableList(entries);
+    }
+
+    private void unlinkToDeath(@NonNull Entry entry) {
+        try {
+            entry.mBinder.unlinkToDeath(entry, 0);
+        } catch (NoSuchElementException e) {
+            // The binder has already died.
+        }
+    }
+
+    private void logd(@NonNull String log) {
+        Rlog.d(TAG, mName + ": " + log);
+    }
+
+    private void loge(@NonNull String log) {
+        Rlog.e(TAG, mName + ": " + log);
+    }
+}
@@ -94,7 +94,10 @@ import com.android.internal.telephony.satellite.metrics.ProvisionMetricsStats;
 import com.android.internal.telephony.satellite.metrics.SessionMetricsStats;
 import com.android.internal.telephony.subscription.SubscriptionManagerService;
 import com.android.internal.util.FunctionalUtils;
+import com.android.internal.util.IndentingPrintWriter;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -3405,6 +3408,21 @@ public class SatelliteController extends Handler {
         return true;
     }
 
+    /**
+     * Print the SatelliteController states, including the delivery stats of the satellite
+     * callbacks, into the given stream.
+     *
+     * @param fd The raw file descriptor that the dump is being sent to.
+     * @param pw A PrintWriter to which the dump is to be set.
+     * @param args Additional arguments to the dump request.
+     */
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        IndentingPrintWriter ipw = new IndentingPrintWriter(pw, "  ");
+        mPointingAppController.dump(ipw);
+        mDatagramController.dump(ipw);
+        ipw.flush();
+    }
+
     private static void logd(@NonNull String log) {
         Rlog.d(TAG, log);
     }
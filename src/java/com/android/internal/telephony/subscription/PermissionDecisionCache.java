@@ -0,0 +1,462 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.subscription;
+
+import android.annotation.IntDef;
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.IndentingPrintWriter;
+import android.util.LocalLog;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.CarrierPrivilegesTracker;
+import com.android.telephony.Rlog;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of the permission decisions made by {@link SubscriptionManagerService} for its
+ * callers.
+ *
+ * <p>The read APIs of {@link SubscriptionManagerService} check the permissions, carrier privileges
+ * and app-ops of the caller for every subscription they return, and the same caller usually asks
+ * for the same lists over and over. This cache remembers the grants, keyed by the calling uid, the
+ * calling package, the subscription id, the kind of check and whether failures are reported, for
+ * at most {@link #TTL_MILLIS}.
+ *
+ * <p>Only grants which do not depend on app-ops are cached. App-ops must be noted on every access,
+ * and foreground only modes change with the process state of the caller without any change
+ * notification. Denials are not cached either, as they may depend on such modes, and they may
+ * have to be reported.
+ *
+ * <p>Decisions are invalidated as soon as one of their inputs is known to change:
+ * <ul>
+ *     <li>a package of the uid is installed, removed or changed,</li>
+ *     <li>a runtime permission of the uid is granted or revoked,</li>
+ *     <li>the mode of one of the phone related app-ops of the package changes,</li>
+ *     <li>the carrier privileges of any phone change (see
+ *     {@link CarrierPrivilegesTracker#registerForCarrierPrivilegesChanged}), or</li>
+ *     <li>the subscriptions change (see {@link #onSubscriptionsChanged(long)}).</li>
+ * </ul>
+ * Inputs without a change notification, e.g. device policies, are covered by the TTL.
+ */
+public class PermissionDecisionCache extends Handler {
+    private static final String LOG_TAG = "PermissionDecisionCache";
+
+    /** Maximum number of decisions kept in the cache. */
+    @VisibleForTesting
+    public static final int MAX_ENTRIES = 512;
+
+    /** Maximum time a decision is served from the cache. */
+    @VisibleForTesting
+    public static final long TTL_MILLIS = 5000;
+
+    /** Event for carrier privileges changed. */
+    private static final int EVENT_CARRIER_PRIVILEGES_CHANGED = 1;
+
+    /** READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE or carrier privileges on a subscription. */
+    public static final int PERMISSION_READ_PHONE_STATE = 1;
+
+    /** READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE or carrier privileges on any subscription. */
+    public static final int PERMISSION_READ_PHONE_STATE_ON_ANY_SUB = 2;
+
+    /** Access to the subscriber identifiers of a subscription. */
+    public static final int PERMISSION_SUBSCRIBER_IDENTIFIERS = 3;
+
+    /** Access to the phone number of a subscription. */
+    public static final int PERMISSION_PHONE_NUMBER = 4;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(prefix = {"PERMISSION_"},
+            value = {
+                    PERMISSION_READ_PHONE_STATE,
+                    PERMISSION_READ_PHONE_STATE_ON_ANY_SUB,
+                    PERMISSION_SUBSCRIBER_IDENTIFIERS,
+                    PERMISSION_PHONE_NUMBER
+            })
+    public @interface PermissionClass {}
+
+    /** The app-ops whose mode changes invalidate the decisions of the package. */
+    private static final String[] WATCHED_APP_OPS = {
+            AppOpsManager.OPSTR_READ_PHONE_STATE,
+            AppOpsManager.OPSTR_READ_PHONE_NUMBERS,
+            AppOpsManager.OPSTR_USE_ICC_AUTH_WITH_DEVICE_IDENTIFIER,
+    };
+
+    /**
+     * Whether the cache is bypassed in this process. Tests change the permissions of the caller
+     * through mocks that do not send change notifications.
+     */
+    private static volatile boolean sDisabledForTest;
+
+    private static final class Key {
+        private final int mUid;
+        @NonNull
+        private final String mPackageName;
+        private final int mSubId;
+        @PermissionClass
+        private final int mPermissionClass;
+        private final boolean mReportFailure;
+
+        Key(int uid, @NonNull String packageName, int subId,
+                @PermissionClass int permissionClass, boolean reportFailure) {
+            mUid = uid;
+            mPackageName = packageName;
+            mSubId = subId;
+            mPermissionClass = permissionClass;
+            mReportFailure = reportFailure;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mUid == other.mUid && mSubId == other.mSubId
+                    && mPermissionClass == other.mPermissionClass
+                    && mReportFailure == other.mReportFailure
+                    && mPackageName.equals(other.mPackageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUid, mPackageName, mSubId, mPermissionClass, mReportFailure);
+        }
+    }
+
+    @NonNull
+    private final Object mLock = new Object();
+
+    /** The expiry time of the cached grants. */
+    @GuardedBy("mLock")
+    @NonNull
+    private final LinkedHashMap<Key, Long> mDecisions =
+            new LinkedHashMap<Key, Long>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    /**
+     * Incremented on every invalidation, so that a decision made while its inputs were changing
+     * is not stored.
+     */
+    @GuardedBy("mLock")
+    private long mGeneration;
+
+    /** The version of the subscription database the cached decisions were made with. */
+    @GuardedBy("mLock")
+    private long mSubscriptionVersion = -1;
+
+    @GuardedBy("mLock")
+    private long mHitCount;
+
+    @GuardedBy("mLock")
+    private long mMissCount;
+
+    @GuardedBy("mLock")
+    private long mInvalidationCount;
+
+    @NonNull
+    private final LongSupplier mClock;
+
+    /** Local log for debugging purposes. */
+    @NonNull
+    private final LocalLog mLocalLog = new LocalLog(32);
+
+    /**
+     * The constructor.
+     *
+     * @param context The context.
+     * @param looper The looper for the handler.
+     */
+    public PermissionDecisionCache(@NonNull Context context, @NonNull Looper looper) {
+        this(context, looper, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param context The context.
+     * @param looper The looper for the handler.
+     * @param clock The clock used to expire decisions.
+     */
+    @VisibleForTesting
+    public PermissionDecisionCache(@NonNull Context context, @NonNull Looper looper,
+            @NonNull LongSupplier clock) {
+        super(looper);
+        mClock = clock;
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.createContextAsUser(UserHandle.ALL, 0 /* flags */).registerReceiver(
+                new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        onPackageChanged(intent);
+                    }
+                }, packageFilter, null /* broadcastPermission */, this);
+
+        try {
+            context.getPackageManager().addOnPermissionsChangeListener(this::invalidateUid);
+        } catch (SecurityException e) {
+            logl("Failed to listen to permission changes. " + e);
+        }
+
+        AppOpsManager appOpsManager = context.getSystemService(AppOpsManager.class);
+        if (appOpsManager != null) {
+            AppOpsManager.OnOpChangedListener listener =
+                    (op, packageName) -> invalidatePackage(packageName);
+            for (String op : WATCHED_APP_OPS) {
+                try {
+                    appOpsManager.startWatchingMode(op, null /* packageName */, listener);
+                } catch (SecurityException e) {
+                    logl("Failed to watch app-op " + op + ". " + e);
+                }
+            }
+        }
+
+        CarrierPrivilegesTracker.registerForCarrierPrivilegesChanged(this,
+                EVENT_CARRIER_PRIVILEGES_CHANGED, null);
+    }
+
+    /**
+     * Bypass the cache in this process, for tests that change the permissions of the caller
+     * directly.
+     *
+     * @param disabled {@code true} to always make a new decision.
+     */
+    @VisibleForTesting
+    public static void setDisabledForTest(boolean disabled) {
+        sDisabledForTest = disabled;
+    }
+
+    @Override
+    public void handleMessage(@NonNull Message msg) {
+        switch (msg.what) {
+            case EVENT_CARRIER_PRIVILEGES_CHANGED:
+                invalidateAll("carrier privileges changed");
+                break;
+            default:
+                loge("Unexpected event " + msg.what);
+        }
+    }
+
+    /**
+     * Get the permission decision for the caller, making it with {@code check} if it is not in
+     * the cache.
+     *
+     * @param uid The calling uid.
+     * @param callingPackage The calling package. Must belong to {@code uid}, which is verified by
+     * {@code check}.
+     * @param subId The subscription id, or {@link android.telephony.SubscriptionManager
+     * #INVALID_SUBSCRIPTION_ID} for checks that do not depend on a subscription.
+     * @param permissionClass The kind of check.
+     * @param reportFailure Whether {@code check} reports a denial.
+     * @param check The permission check. Exceptions thrown by the check are propagated and the
+     * decision is not cached.
+     * @param isAppOpIndependent Called after {@code check} granted the permission. Returns whether
+     * the caller is granted the permission without any app-op, in which case the grant is cached.
+     *
+     * @return The permission decision.
+     */
+    public boolean check(int uid, @NonNull String callingPackage, int subId,
+            @PermissionClass int permissionClass, boolean reportFailure,
+            @NonNull BooleanSupplier check, @NonNull BooleanSupplier isAppOpIndependent) {
+        if (sDisabledForTest || callingPackage == null) return check.getAsBoolean();
+
+        Key key = new Key(uid, callingPackage, subId, permissionClass, reportFailure);
+        long generation;
+        synchronized (mLock) {
+            Long expiryMillis = mDecisions.get(key);
+            if (expiryMillis != null && expiryMillis > mClock.getAsLong()) {
+                mHitCount++;
+                return true;
+            }
+            mMissCount++;
+            generation = mGeneration;
+        }
+
+        // Do not hold the lock while checking, as this calls into other services.
+        if (!check.getAsBoolean()) return false;
+        if (!isAppOpIndependent.getAsBoolean()) return true;
+        synchronized (mLock) {
+            if (generation == mGeneration) {
+                mDecisions.put(key, mClock.getAsLong() + TTL_MILLIS);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called when the subscription database may have changed. Invalidates all decisions if the
+     * version of the database differs from the one they were made with.
+     *
+     * @param version The current version of the subscription database.
+     */
+    public void onSubscriptionsChanged(long version) {
+        synchronized (mLock) {
+            if (mSubscriptionVersion == version) return;
+            mSubscriptionVersion = version;
+            invalidateLocked();
+        }
+    }
+
+    /**
+     * Invalidate the decisions of a uid.
+     *
+     * @param uid The uid.
+     */
+    public void invalidateUid(int uid) {
+        synchronized (mLock) {
+            mDecisions.keySet().removeIf(key -> key.mUid == uid);
+            invalidateLocked();
+        }
+    }
+
+    /**
+     * Invalidate the decisions of a package, for all users.
+     *
+     * @param packageName The package name.
+     */
+    public void invalidatePackage(@Nullable String packageName) {
+        if (packageName == null) {
+            invalidateAll("app-op changed");
+            return;
+        }
+        synchronized (mLock) {
+            mDecisions.keySet().removeIf(key -> key.mPackageName.equals(packageName));
+            invalidateLocked();
+        }
+    }
+
+    /**
+     * Invalidate all decisions.
+     *
+     * @param reason The reason for debugging purposes.
+     */
+    public void invalidateAll(@NonNull String reason) {
+        synchronized (mLock) {
+            mDecisions.clear();
+            invalidateLocked();
+        }
+        logl("Invalidated all decisions: " + reason);
+    }
+
+    @GuardedBy("mLock")
+    private void invalidateLocked() {
+        mGeneration++;
+        mInvalidationCount++;
+    }
+
+    private void onPackageChanged(@NonNull Intent intent) {
+        int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+        if (uid != -1) {
+            invalidateUid(uid);
+        }
+        Uri data = intent.getData();
+        if (data != null) {
+            invalidatePackage(data.getSchemeSpecificPart());
+        }
+    }
+
+    /** @return The number of decisions served from the cache. */
+    public long getHitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    /** @return The number of decisions that had to be made. */
+    public long getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    /** @return The number of cached grants, including expired ones. */
+    @VisibleForTesting
+    public int size() {
+        synchronized (mLock) {
+            return mDecisions.size();
+        }
+    }
+
+    /**
+     * Log debug messages.
+     *
+     * @param s debug messages
+     */
+    private void logl(@NonNull String s) {
+        Rlog.d(LOG_TAG, s);
+        mLocalLog.log(s);
+    }
+
+    /**
+     * Log error messages.
+     *
+     * @param s error messages
+     */
+    private void loge(@NonNull String s) {
+        Rlog.e(LOG_TAG, s);
+    }
+
+    /**
+     * Dump the state of {@link PermissionDecisionCache}.
+     *
+     * @param pw Print writer.
+     */
+    public void dump(@NonNull IndentingPrintWriter pw) {
+        pw.println(PermissionDecisionCache.class.getSimpleName() + ":");
+        pw.increaseIndent();
+        synchronized (mLock) {
+            long lookups = mHitCount + mMissCount;
+            pw.println("size=" + mDecisions.size() + ", hits=" + mHitCount + ", misses="
+                    + mMissCount + ", hitRate="
+                    + (lookups == 0 ? 0 : mHitCount * 100 / lookups) + "%, invalidations="
+                    + mInvalidationCount);
+        }
+        pw.println("Local log:");
+        pw.increaseIndent();
+        mLocalLog.dump(pw);
+        pw.decreaseIndent();
+        pw.decreaseIndent();
+    }
+}
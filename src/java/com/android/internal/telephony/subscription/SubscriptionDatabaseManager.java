@@ -583,6 +583,13 @@ public class SubscriptionDatabaseManager extends Handler {
     private final Map<Integer, SubscriptionInfoInternal> mAllSubscriptionInfoInternalCache =
             new HashMap<>(16);
 
+    /**
+     * The version of {@link #mAllSubscriptionInfoInternalCache}, increased whenever the cache is
+     * modified.
+     */
+    @GuardedBy("mReadWriteLock")
+    private long mVersion;
+
     /** Whether database has been initialized after boot up. */
     @GuardedBy("this")
     private boolean mDatabaseInitialized = false;
@@ -852,6 +859,7 @@ public class SubscriptionDatabaseManager extends Handler {
                 mAllSubscriptionInfoInternalCache.put(subId, new SubscriptionInfoInternal
                         .Builder(subInfo)
                         .setId(subId).build());
+                mVersion++;
             } else {
                 logel("insertSubscriptionInfo: Failed to insert a new subscription. subInfo="
                         + subInfo);
@@ -882,6 +890,7 @@ public class SubscriptionDatabaseManager extends Handler {
                     SimInfo.COLUMN_UNIQUE_KEY_SUBSCRIPTION_ID + "=?",
                     new String[]{Integer.toString(subId)}) > 0) {
                 mAllSubscriptionInfoInternalCache.remove(subId);
+                mVersion++;
             } else {
                 logel("Failed to remove subscription with subId=" + subId);
             }
@@ -989,6 +998,7 @@ public class SubscriptionDatabaseManager extends Handler {
                         if (updateDatabase(id, contentValues) > 0) {
                             // Update the subscription database cache.
                             mAllSubscriptionInfoInternalCache.put(id, builder.build());
+                            mVersion++;
                             mCallback.invokeFromExecutor(()
                                     -> mCallback.onSubscriptionChanged(subId));
                         }
@@ -1024,6 +1034,7 @@ public class SubscriptionDatabaseManager extends Handler {
 
             if (updateDatabase(subId, createDeltaContentValues(oldSubInfo, newSubInfo)) > 0) {
                 mAllSubscriptionInfoInternalCache.put(subId, newSubInfo);
+                mVersion++;
                 mCallback.invokeFromExecutor(() -> mCallback.onSubscriptionChanged(subId));
             }
         } finally {
@@ -1299,6 +1310,7 @@ public class SubscriptionDatabaseManager extends Handler {
             mAllSubscriptionInfoInternalCache.put(subId,
                     new SubscriptionInfoInternal.Builder(subInfoCache)
                             .setCardId(cardId).build());
+            mVersion++;
         } finally {
             mReadWriteLock.writeLock().unlock();
         }
@@ -2068,6 +2080,7 @@ public class SubscriptionDatabaseManager extends Handler {
             mAllSubscriptionInfoInternalCache.put(subId,
                     new SubscriptionInfoInternal.Builder(subInfoCache)
                             .setGroupDisabled(isGroupDisabled).build());
+            mVersion++;
         } finally {
             mReadWriteLock.writeLock().unlock();
         }
@@ -2110,6 +2123,7 @@ public class SubscriptionDatabaseManager extends Handler {
                 if (changed) {
                     mAllSubscriptionInfoInternalCache.clear();
                     mAllSubscriptionInfoInternalCache.putAll(newAllSubscriptionInfoInternalCache);
+                    mVersion++;
 
                     logl("Loaded " + mAllSubscriptionInfoInternalCache.size()
                             + " records from the subscription database.");
@@ -2361,6 +2375,22 @@ public class SubscriptionDatabaseManager extends Handler {
         }
     }
 
+    /**
+     * Get the version of the subscription database cache. The version changes whenever any
+     * subscription is inserted, removed or updated, so it can be used to invalidate data derived
+     * from {@link #getAllSubscriptions()}.
+     *
+     * @return The version of the subscription database cache.
+     */
+    public long getVersion() {
+        mReadWriteLock.readLock().lock();
+        try {
+            return mVersion;
+        } finally {
+            mReadWriteLock.readLock().unlock();
+        }
+    }
+
     /**
      * Get subscription info by ICCID.
      *
@@ -2454,6 +2484,7 @@ public class SubscriptionDatabaseManager extends Handler {
             pw.println("mDatabaseInitialized=" + mDatabaseInitialized);
         }
         pw.println("mReadWriteLock=" + mReadWriteLock);
+        pw.println("mVersion=" + getVersion());
         pw.println();
         pw.println("Local log:");
         pw.increaseIndent();
@@ -125,6 +125,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -308,6 +309,78 @@ public class SubscriptionManagerService extends ISub.Stub {
      */
     private Map<Integer, List<Integer>> mUserIdToAvailableSubs = new ConcurrentHashMap<>();
 
+    /**
+     * The sorted views of the subscriptions, rebuilt when the subscription database changes.
+     *
+     * @see #getSubscriptionViews()
+     */
+    @Nullable
+    private volatile SubscriptionViews mSubscriptionViews;
+
+    /** The permission decisions made for the callers of the read APIs. */
+    @NonNull
+    private final PermissionDecisionCache mPermissionDecisionCache;
+
+    /**
+     * Immutable views of the subscriptions in the database, sorted by
+     * {@link SubscriptionInfo#getSimSlotIndex()} then {@link SubscriptionInfo#getSubscriptionId()}.
+     * The {@link SubscriptionInfo} of each subscription is built once per database version and
+     * shared by all the callers. Only the per-caller filtering and identifier removal are done on
+     * each binder call.
+     */
+    private static final class SubscriptionViews {
+        /** A subscription and its {@link SubscriptionInfo}. */
+        private static final class Entry {
+            @NonNull
+            final SubscriptionInfoInternal internal;
+            @NonNull
+            final SubscriptionInfo info;
+
+            Entry(@NonNull SubscriptionInfoInternal internal) {
+                this.internal = internal;
+                this.info = internal.toSubscriptionInfo();
+            }
+        }
+
+        /** The version of the subscription database the views were built from. */
+        final long version;
+
+        /** All the subscriptions. */
+        @NonNull
+        final List<Entry> all;
+
+        /** The active subscriptions. */
+        @NonNull
+        final List<Entry> active;
+
+        /** The opportunistic subscriptions. */
+        @NonNull
+        final List<Entry> opportunistic;
+
+        /** The subscriptions of each subscription group. */
+        @NonNull
+        final Map<ParcelUuid, List<Entry>> groups;
+
+        SubscriptionViews(long version, @NonNull List<SubscriptionInfoInternal> subInfos) {
+            this.version = version;
+            all = subInfos.stream()
+                    .sorted(Comparator.comparing(SubscriptionInfoInternal::getSimSlotIndex)
+                            .thenComparing(SubscriptionInfoInternal::getSubscriptionId))
+                    .map(Entry::new)
+                    .collect(Collectors.toUnmodifiableList());
+            active = all.stream()
+                    .filter(entry -> entry.internal.isActive())
+                    .collect(Collectors.toUnmodifiableList());
+            opportunistic = all.stream()
+                    .filter(entry -> entry.internal.isOpportunistic())
+                    .collect(Collectors.toUnmodifiableList());
+            groups = Collections.unmodifiableMap(all.stream()
+                    .filter(entry -> entry.info.getGroupUuid() != null)
+                    .collect(Collectors.groupingBy(entry -> entry.info.getGroupUuid(),
+                            Collectors.toUnmodifiableList())));
+        }
+    }
+
     /**
      * Slot index/subscription map that automatically invalidate cache in
      * {@link SubscriptionManager}.
@@ -464,6 +537,8 @@ public class SubscriptionManagerService extends ISub.Stub {
 
         mBackgroundHandler = new Handler(backgroundThread.getLooper());
 
+        mPermissionDecisionCache = new PermissionDecisionCache(context, looper);
+
         mDefaultVoiceSubId = new WatchedInt(Settings.Global.getInt(mContext.getContentResolver(),
                 Settings.Global.MULTI_SIM_VOICE_CALL_SUBSCRIPTION,
                 SubscriptionManager.INVALID_SUBSCRIPTION_ID)) {
@@ -724,12 +799,15 @@ public class SubscriptionManagerService extends ISub.Stub {
      */
     private boolean hasPhoneNumberAccess(int subId, @NonNull String callingPackage,
             @Nullable String callingFeatureId, @Nullable String message) {
-        try {
-            return TelephonyPermissions.checkCallingOrSelfReadPhoneNumber(mContext, subId,
-                    callingPackage, callingFeatureId, message);
-        } catch (SecurityException e) {
-            return false;
-        }
+        return checkPermissionCached(subId, callingPackage,
+                PermissionDecisionCache.PERMISSION_PHONE_NUMBER, true /* reportFailure */, () -> {
+                    try {
+                        return TelephonyPermissions.checkCallingOrSelfReadPhoneNumber(mContext,
+                                subId, callingPackage, callingFeatureId, message);
+                    } catch (SecurityException e) {
+                        return false;
+                    }
+                });
     }
 
     /**
@@ -746,15 +824,86 @@ public class SubscriptionManagerService extends ISub.Stub {
      */
     private boolean hasSubscriberIdentifierAccess(int subId, @NonNull String callingPackage,
             @Nullable String callingFeatureId, @Nullable String message, boolean reportFailure) {
-        try {
-            return TelephonyPermissions.checkCallingOrSelfReadSubscriberIdentifiers(mContext, subId,
-                    callingPackage, callingFeatureId, message, reportFailure);
-        } catch (SecurityException e) {
-            // A SecurityException indicates that the calling package is targeting at least the
-            // minimum level that enforces identifier access restrictions and the new access
-            // requirements are not met.
-            return false;
-        }
+        return checkPermissionCached(subId, callingPackage,
+                PermissionDecisionCache.PERMISSION_SUBSCRIBER_IDENTIFIERS, reportFailure, () -> {
+                    try {
+                        return TelephonyPermissions.checkCallingOrSelfReadSubscriberIdentifiers(
+                                mContext, subId, callingPackage, callingFeatureId, message,
+                                reportFailure);
+                    } catch (SecurityException e) {
+                        // A SecurityException indicates that the calling package is targeting at
+                        // least the minimum level that enforces identifier access restrictions
+                        // and the new access requirements are not met.
+                        return false;
+                    }
+                });
+    }
+
+    /**
+     * Check whether the {@code callingPackage} has READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE,
+     * or carrier privileges on the specified {@code subId}, without throwing.
+     *
+     * @param subId The subscription id.
+     * @param callingPackage The package making the call.
+     * @param callingFeatureId The feature in the package.
+     * @param message Message to include in the NoteOp.
+     *
+     * @return {@code true} if the caller can read the phone state of the subscription.
+     */
+    private boolean hasReadPhoneState(int subId, @NonNull String callingPackage,
+            @Nullable String callingFeatureId, @Nullable String message) {
+        return checkPermissionCached(subId, callingPackage,
+                PermissionDecisionCache.PERMISSION_READ_PHONE_STATE, true /* reportFailure */,
+                () -> TelephonyPermissions.checkCallingOrSelfReadPhoneStateNoThrow(mContext, subId,
+                        callingPackage, callingFeatureId, message));
+    }
+
+    /**
+     * Check whether the {@code callingPackage} has READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE,
+     * or carrier privileges on any active subscription.
+     *
+     * @param callingPackage The package making the call.
+     * @param callingFeatureId The feature in the package.
+     * @param message Message to include in the NoteOp.
+     *
+     * @return {@code true} if the caller can read the phone state of any active subscription.
+     */
+    private boolean hasReadPhoneStateOnAnyActiveSub(@NonNull String callingPackage,
+            @Nullable String callingFeatureId, @Nullable String message) {
+        int pid = Binder.getCallingPid();
+        int uid = Binder.getCallingUid();
+        return checkPermissionCached(SubscriptionManager.INVALID_SUBSCRIPTION_ID, callingPackage,
+                PermissionDecisionCache.PERMISSION_READ_PHONE_STATE_ON_ANY_SUB,
+                true /* reportFailure */,
+                () -> TelephonyPermissions.checkReadPhoneStateOnAnyActiveSub(mContext, pid, uid,
+                        callingPackage, callingFeatureId, message));
+    }
+
+    /**
+     * Get a permission decision for the calling uid from {@link #mPermissionDecisionCache}, or
+     * make it with {@code check}.
+     *
+     * @param subId The subscription id the decision is made for.
+     * @param callingPackage The package making the call.
+     * @param permissionClass The kind of permission check.
+     * @param reportFailure Whether the check reports a denial.
+     * @param check The permission check.
+     *
+     * @return The permission decision.
+     */
+    private boolean checkPermissionCached(int subId, @NonNull String callingPackage,
+            @PermissionDecisionCache.PermissionClass int permissionClass, boolean reportFailure,
+            @NonNull BooleanSupplier check) {
+        int pid = Binder.getCallingPid();
+        int uid = Binder.getCallingUid();
+        // Decisions may depend on which subscriptions are active and in which slot.
+        mPermissionDecisionCache.onSubscriptionsChanged(mSubscriptionDatabaseManager.getVersion());
+        // Only the grants through READ_PRIVILEGED_PHONE_STATE are cached, as all the other ones
+        // are subject to app-ops, which must be noted on every access.
+        return mPermissionDecisionCache.check(uid, callingPackage, subId, permissionClass,
+                reportFailure, check, () -> mContext.checkPermission(
+                        Manifest.permission.READ_PRIVILEGED_PHONE_STATE, pid, uid)
+                        == PackageManager.PERMISSION_GRANTED);
     }
 
     /**
@@ -1738,25 +1887,23 @@ public class SubscriptionManagerService extends ISub.Stub {
         // Check if the caller has READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE, or carrier
         // privilege on any active subscription. The carrier app will get full subscription infos
         // on the subs it has carrier privilege.
-        if (!TelephonyPermissions.checkReadPhoneStateOnAnyActiveSub(mContext,
-                Binder.getCallingPid(), Binder.getCallingUid(), callingPackage, callingFeatureId,
+        if (!hasReadPhoneStateOnAnyActiveSub(callingPackage, callingFeatureId,
                 "getAllSubInfoList")) {
             throw new SecurityException("Need READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE, or "
                     + "carrier privilege");
         }
-        return getSubscriptionInfoStreamAsUser(BINDER_WRAPPER.getCallingUserHandle())
+        int userId = BINDER_WRAPPER.getCallingUserHandle().getIdentifier();
+        return getSubscriptionViews().all.stream()
+                .filter(entry -> isSubscriptionAssociatedWithUserInternal(entry.internal, userId))
                 // callers have READ_PHONE_STATE or READ_PRIVILEGED_PHONE_STATE can get a full
                 // list. Carrier apps can only get the subscriptions they have privileged.
-                .filter(subInfo -> TelephonyPermissions.checkCallingOrSelfReadPhoneStateNoThrow(
-                        mContext, subInfo.getSubscriptionId(), callingPackage, callingFeatureId,
-                        "getAllSubInfoList"))
+                .filter(entry -> hasReadPhoneState(entry.info.getSubscriptionId(),
+                        callingPackage, callingFeatureId, "getAllSubInfoList"))
                 // Remove the identifier if the caller does not have sufficient permission.
                 // carrier apps will get full subscription info on the subscriptions associated
                 // to them.
-                .map(subInfo -> conditionallyRemoveIdentifiers(subInfo.toSubscriptionInfo(),
+                .map(entry -> conditionallyRemoveIdentifiers(entry.info,
                         callingPackage, callingFeatureId, "getAllSubInfoList"))
-                .sorted(Comparator.comparing(SubscriptionInfo::getSimSlotIndex)
-                        .thenComparing(SubscriptionInfo::getSubscriptionId))
                 .collect(Collectors.toList());
     }
 
@@ -1897,8 +2044,7 @@ public class SubscriptionManagerService extends ISub.Stub {
         // Check if the caller has READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE, or carrier
         // privilege on any active subscription. The carrier app will get full subscription infos
         // on the subs it has carrier privilege.
-        if (!TelephonyPermissions.checkReadPhoneStateOnAnyActiveSub(mContext,
-                Binder.getCallingPid(), Binder.getCallingUid(), callingPackage, callingFeatureId,
+        if (!hasReadPhoneStateOnAnyActiveSub(callingPackage, callingFeatureId,
                 "getActiveSubscriptionInfoList")) {
             // Ideally we should avoid silent failure, but since this API has already been used by
             // many apps and they do not expect the security exception, we return an empty list
@@ -1912,16 +2058,15 @@ public class SubscriptionManagerService extends ISub.Stub {
             loge("getActiveSubscriptionInfoList: "
                     + callingPackage + " has no appropriate permission.");
         }
-        return getSubscriptionInfoStreamAsUser(isForAllProfiles
-                ? UserHandle.ALL : BINDER_WRAPPER.getCallingUserHandle())
-                .filter(SubscriptionInfoInternal::isActive)
+        int userId = (isForAllProfiles
+                ? UserHandle.ALL : BINDER_WRAPPER.getCallingUserHandle()).getIdentifier();
+        return getSubscriptionViews().active.stream()
+                .filter(entry -> isSubscriptionAssociatedWithUserInternal(entry.internal, userId))
                 // Remove the identifier if the caller does not have sufficient permission.
                 // carrier apps will get full subscription info on the subscriptions associated
                 // to them.
-                .map(subInfo -> conditionallyRemoveIdentifiers(subInfo.toSubscriptionInfo(),
+                .map(entry -> conditionallyRemoveIdentifiers(entry.info,
                         callingPackage, callingFeatureId, "getActiveSubscriptionInfoList"))
-                .sorted(Comparator.comparing(SubscriptionInfo::getSimSlotIndex)
-                        .thenComparing(SubscriptionInfo::getSubscriptionId))
                 .collect(Collectors.toList());
     }
 
@@ -1945,8 +2090,7 @@ public class SubscriptionManagerService extends ISub.Stub {
     })
     public int getActiveSubInfoCount(@NonNull String callingPackage,
             @Nullable String callingFeatureId, boolean isForAllProfiles) {
-        if (!TelephonyPermissions.checkReadPhoneStateOnAnyActiveSub(mContext,
-                Binder.getCallingPid(), Binder.getCallingUid(), callingPackage, callingFeatureId,
+        if (!hasReadPhoneStateOnAnyActiveSub(callingPackage, callingFeatureId,
                 "getAllSubInfoList")) {
             throw new SecurityException("Need READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE, or "
                     + "carrier privilege");
@@ -1995,10 +2139,12 @@ public class SubscriptionManagerService extends ISub.Stub {
             @Nullable String callingFeatureId) {
         enforcePermissions("getAvailableSubscriptionInfoList",
                 Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
-        return getAvailableSubscriptionsInternalStream()
-                .sorted(Comparator.comparing(SubscriptionInfoInternal::getSimSlotIndex)
-                        .thenComparing(SubscriptionInfoInternal::getSubscriptionId))
-                .map(SubscriptionInfoInternal::toSubscriptionInfo)
+        // Whether a subscription is available also depends on the state of the SIM slots, so
+        // it is checked on each call.
+        List<String> iccIds = getIccIdsOfInsertedPhysicalSims();
+        return getSubscriptionViews().all.stream()
+                .filter(entry -> isSubscriptionAvailable(entry.internal, iccIds))
+                .map(entry -> entry.info)
                 .collect(Collectors.toList());
 
     }
@@ -2014,9 +2160,19 @@ public class SubscriptionManagerService extends ISub.Stub {
         List<String> iccIds = getIccIdsOfInsertedPhysicalSims();
 
         return mSubscriptionDatabaseManager.getAllSubscriptions().stream()
-                .filter(subInfo -> subInfo.isActive() || iccIds.contains(subInfo.getIccId())
-                        || (mEuiccManager != null && mEuiccManager.isEnabled()
-                        && subInfo.isEmbedded()));
+                .filter(subInfo -> isSubscriptionAvailable(subInfo, iccIds));
+    }
+
+    /**
+     * @param subInfo The subscription.
+     * @param iccIds The ICCIDs of the inserted physical SIMs.
+     *
+     * @return {@code true} if the subscription is visible to user on the device.
+     */
+    private boolean isSubscriptionAvailable(@NonNull SubscriptionInfoInternal subInfo,
+            @NonNull List<String> iccIds) {
+        return subInfo.isActive() || iccIds.contains(subInfo.getIccId())
+                || (mEuiccManager != null && mEuiccManager.isEnabled() && subInfo.isEmbedded());
     }
 
     /**
@@ -2065,12 +2221,12 @@ public class SubscriptionManagerService extends ISub.Stub {
 
         // Verify that the callingPackage belongs to the calling UID
         mAppOpsManager.checkPackage(Binder.getCallingUid(), callingPackage);
-        return getSubscriptionInfoStreamAsUser(BINDER_WRAPPER.getCallingUserHandle())
-                .map(SubscriptionInfoInternal::toSubscriptionInfo)
-                .filter(subInfo -> subInfo.isEmbedded()
-                        && mSubscriptionManager.canManageSubscription(subInfo, callingPackage))
-                .sorted(Comparator.comparing(SubscriptionInfo::getSimSlotIndex)
-                        .thenComparing(SubscriptionInfo::getSubscriptionId))
+        int userId = BINDER_WRAPPER.getCallingUserHandle().getIdentifier();
+        return getSubscriptionViews().all.stream()
+                .filter(entry -> entry.internal.isEmbedded()
+                        && isSubscriptionAssociatedWithUserInternal(entry.internal, userId)
+                        && mSubscriptionManager.canManageSubscription(entry.info, callingPackage))
+                .map(entry -> entry.info)
                 .collect(Collectors.toList());
     }
 
@@ -2545,8 +2701,7 @@ public class SubscriptionManagerService extends ISub.Stub {
         // Check if the caller has READ_PHONE_STATE, READ_PRIVILEGED_PHONE_STATE, or carrier
         // privilege on any active subscription. The carrier app will get full subscription infos
         // on the subs it has carrier privilege.
-        if (!TelephonyPermissions.checkReadPhoneStateOnAnyActiveSub(mContext,
-                Binder.getCallingPid(), Binder.getCallingUid(), callingPackage, callingFeatureId,
+        if (!hasReadPhoneStateOnAnyActiveSub(callingPackage, callingFeatureId,
                 "getOpportunisticSubscriptions")) {
             // Ideally we should avoid silent failure, but since this API has already been used by
             // many apps and they do not expect the security exception, we return an empty list
@@ -2556,20 +2711,16 @@ public class SubscriptionManagerService extends ISub.Stub {
             return Collections.emptyList();
         }
 
-        return mSubscriptionDatabaseManager.getAllSubscriptions().stream()
+        return getSubscriptionViews().opportunistic.stream()
                 // callers have READ_PHONE_STATE or READ_PRIVILEGED_PHONE_STATE can get a full
                 // list. Carrier apps can only get the subscriptions they have privileged.
-                .filter(subInfo -> subInfo.isOpportunistic()
-                        && TelephonyPermissions.checkCallingOrSelfReadPhoneStateNoThrow(
-                        mContext, subInfo.getSubscriptionId(), callingPackage,
-                        callingFeatureId, "getOpportunisticSubscriptions"))
+                .filter(entry -> hasReadPhoneState(entry.info.getSubscriptionId(),
+                        callingPackage, callingFeatureId, "getOpportunisticSubscriptions"))
                 // Remove the identifier if the caller does not have sufficient permission.
                 // carrier apps will get full subscription info on the subscriptions associated
                 // to them.
-                .map(subInfo -> conditionallyRemoveIdentifiers(subInfo.toSubscriptionInfo(),
+                .map(entry -> conditionallyRemoveIdentifiers(entry.info,
                         callingPackage, callingFeatureId, "getOpportunisticSubscriptions"))
-                .sorted(Comparator.comparing(SubscriptionInfo::getSimSlotIndex)
-                        .thenComparing(SubscriptionInfo::getSubscriptionId))
                 .collect(Collectors.toList());
     }
 
@@ -2759,13 +2910,12 @@ public class SubscriptionManagerService extends ISub.Stub {
             }
         }
 
-        return mSubscriptionDatabaseManager.getAllSubscriptions().stream()
-                .map(SubscriptionInfoInternal::toSubscriptionInfo)
-                .filter(info -> groupUuid.equals(info.getGroupUuid())
-                        && (mSubscriptionManager.canManageSubscription(info, callingPackage)
-                        || TelephonyPermissions.checkCallingOrSelfReadPhoneStateNoThrow(
-                                mContext, info.getSubscriptionId(), callingPackage,
-                        callingFeatureId, "getSubscriptionsInGroup")))
+        return getSubscriptionViews().groups.getOrDefault(groupUuid, Collections.emptyList())
+                .stream()
+                .map(entry -> entry.info)
+                .filter(info -> mSubscriptionManager.canManageSubscription(info, callingPackage)
+                        || hasReadPhoneState(info.getSubscriptionId(), callingPackage,
+                                callingFeatureId, "getSubscriptionsInGroup"))
                 .map(subscriptionInfo -> conditionallyRemoveIdentifiers(subscriptionInfo,
                         callingPackage, callingFeatureId, "getSubscriptionsInGroup"))
                 .collect(Collectors.toList());
@@ -3909,6 +4059,24 @@ public class SubscriptionManagerService extends ISub.Stub {
         }
     }
 
+    /**
+     * @return The sorted views of the subscriptions, rebuilt if the subscription database changed
+     * since they were last built.
+     */
+    @NonNull
+    private SubscriptionViews getSubscriptionViews() {
+        // Read the version before the subscriptions, so that views built while the database is
+        // being modified are rebuilt on the next call.
+        long version = mSubscriptionDatabaseManager.getVersion();
+        SubscriptionViews views = mSubscriptionViews;
+        if (views == null || views.version != version) {
+            views = new SubscriptionViews(version,
+                    mSubscriptionDatabaseManager.getAllSubscriptions());
+            mSubscriptionViews = views;
+        }
+        return views;
+    }
+
     /**
      * Get subscriptions accessible to the caller user.
      *
@@ -4324,6 +4492,8 @@ public class SubscriptionManagerService extends ISub.Stub {
             pw.decreaseIndent();
             pw.decreaseIndent();
             pw.println();
+            mPermissionDecisionCache.dump(pw);
+            pw.println();
             mSubscriptionDatabaseManager.dump(fd, pw, args);
         } finally {
             Binder.restoreCallingIdentity(token);
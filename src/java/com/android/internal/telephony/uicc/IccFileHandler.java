@@ -21,11 +21,15 @@ import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.os.Registrant;
+import android.os.RegistrantList;
+import android.util.LongSparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 /**
  * {@hide}
@@ -100,6 +104,21 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     static protected final int EVENT_GET_RECORD_SIZE_IMG_DONE = 11;
     /** Finished retriveing record size of transparent file. */
     protected static final int EVENT_GET_EF_TRANSPARENT_SIZE_DONE = 12;
+    /** ICC refresh occurred. */
+    @VisibleForTesting
+    static final int EVENT_ICC_REFRESH = 13;
+
+    /**
+     * The maximum number of READ RECORD commands kept in flight when loading all the records of a
+     * linear fixed EF. The records are independent, so issuing the next commands without waiting
+     * for the previous response saves a round trip through the handler for each record.
+     */
+    @VisibleForTesting
+    static final int MAX_PIPELINED_READ_RECORDS = 4;
+
+    // Types of the entries in the record cache.
+    private static final long CACHE_TYPE_RECORD = 1;
+    private static final long CACHE_TYPE_BINARY = 2;
 
      // member variables
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -122,6 +141,14 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
         ArrayList<byte[]> results;
 
+        // Used when loading all the records with pipelined READ RECORD commands.
+        int mNextRecordToRead;
+        int mRecordsReceived;
+        boolean mFailed;
+
+        // The key in the record cache, or 0 if the result should not be cached.
+        long mCacheKey;
+
         @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
         LoadLinearFixedContext(int efid, int recordNum, Message onLoaded) {
             mEfid = efid;
@@ -148,6 +175,29 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         }
     }
 
+    /** Context for reading the data of an image instance file. */
+    private static class LoadImgTransparentContext {
+        final long mCacheKey;
+        final Message mOnLoaded;
+
+        LoadImgTransparentContext(long cacheKey, Message onLoaded) {
+            mCacheKey = cacheKey;
+            mOnLoaded = onLoaded;
+        }
+    }
+
+    /**
+     * Cache of the EF_IMG records and image instance data read for the SIM Toolkit icons, which
+     * are only changed through this handler or through a card REFRESH. Files that the modem can
+     * update on its own, such as EF_SMS for class 2 messages, are not cached. An IccFileHandler is
+     * created for each application on the card and disposed when the card is removed or changed,
+     * so the cache is scoped to a single ICCID.
+     */
+    private final LongSparseArray<byte[]> mRecordCache = new LongSparseArray<>();
+
+    /** Registrants notified when the images on the card may have been changed by a REFRESH. */
+    private final RegistrantList mImgChangedRegistrants = new RegistrantList();
+
     @VisibleForTesting
     public int getEfid(LoadLinearFixedContext lc) {
         return lc.mEfid;
@@ -160,6 +210,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         mParentApp = app;
         mAid = aid;
         mCi = ci;
+        mCi.registerForIccRefresh(this, EVENT_ICC_REFRESH, null);
     }
 
     @VisibleForTesting
@@ -170,10 +221,34 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     }
 
     public void dispose() {
+        mCi.unregisterForIccRefresh(this);
+        clearRecordCache();
     }
 
     //***** Public Methods
 
+    /**
+     * @return the ICCID of the card this handler reads from, or {@code null} if not known
+     */
+    public String getIccId() {
+        if (mParentApp == null || mParentApp.getUiccProfile() == null) {
+            return null;
+        }
+        return mParentApp.getUiccProfile().getIccId();
+    }
+
+    /**
+     * Register to be notified when EF_IMG or the image instances on the card may have changed,
+     * so that the icons decoded from them must be loaded again.
+     */
+    public void registerForImgChanged(Handler h, int what, Object obj) {
+        mImgChangedRegistrants.add(new Registrant(h, what, obj));
+    }
+
+    public void unregisterForImgChanged(Handler h) {
+        mImgChangedRegistrants.remove(h);
+    }
+
     /**
      * Load a record from a SIM Linear Fixed EF
      *
@@ -221,9 +296,14 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
      *
      */
     public void loadEFImgLinearFixed(int recordNum, Message onLoaded) {
-        Message response = obtainMessage(EVENT_GET_RECORD_SIZE_IMG_DONE,
-                new LoadLinearFixedContext(IccConstants.EF_IMG, recordNum,
-                        onLoaded));
+        long cacheKey = getCacheKey(CACHE_TYPE_RECORD, IccConstants.EF_IMG, recordNum, 0);
+        if (sendCachedResult(cacheKey, onLoaded)) {
+            return;
+        }
+        LoadLinearFixedContext lc = new LoadLinearFixedContext(IccConstants.EF_IMG, recordNum,
+                onLoaded);
+        lc.mCacheKey = cacheKey;
+        Message response = obtainMessage(EVENT_GET_RECORD_SIZE_IMG_DONE, lc);
 
         mCi.iccIOForApp(COMMAND_GET_RESPONSE, IccConstants.EF_IMG,
                     getEFPath(IccConstants.EF_IMG), recordNum,
@@ -367,13 +447,29 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
      */
     public void loadEFImgTransparent(int fileid, int highOffset, int lowOffset,
             int length, Message onLoaded) {
+        long cacheKey = getCacheKey(CACHE_TYPE_BINARY, fileid,
+                ((highOffset & 0xFF) << 8) | (lowOffset & 0xFF), length);
+        if (sendCachedResult(cacheKey, onLoaded)) {
+            return;
+        }
         Message response = obtainMessage(EVENT_READ_ICON_DONE, fileid, 0,
-                onLoaded);
+                new LoadImgTransparentContext(cacheKey, onLoaded));
 
         logd("IccFileHandler: loadEFImgTransparent fileid = " + fileid
                 + " filePath = " + getEFPath(EF_IMG) + " highOffset = " + highOffset
                 + " lowOffset = " + lowOffset + " length = " + length);
 
+        readEFImgTransparent(fileid, highOffset, lowOffset, length, response);
+    }
+
+    /**
+     * Send the command reading the data of an image instance file for
+     * {@link #loadEFImgTransparent}, which handles the cache and the result.
+     *
+     * @param response The message to send the {@link IccIoResult} to.
+     */
+    protected void readEFImgTransparent(int fileid, int highOffset, int lowOffset, int length,
+            Message response) {
         /* Per TS 31.102, for displaying of Icon, under
          * DF Telecom and DF Graphics , EF instance(s) (4FXX,transparent files)
          * are present. The possible image file identifiers (EF instance) for
@@ -397,6 +493,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public void updateEFLinearFixed(int fileid, String path, int recordNum, byte[] data,
             String pin2, Message onComplete) {
+        invalidateRecordCache(fileid);
         String efPath = (path == null) ? getEFPath(fileid) : path;
         mCi.iccIOForApp(COMMAND_UPDATE_RECORD, fileid, efPath,
                         recordNum, READ_RECORD_MODE_ABSOLUTE, data.length,
@@ -415,6 +512,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public void updateEFLinearFixed(int fileid, int recordNum, byte[] data,
             String pin2, Message onComplete) {
+        invalidateRecordCache(fileid);
         mCi.iccIOForApp(COMMAND_UPDATE_RECORD, fileid, getEFPath(fileid),
                         recordNum, READ_RECORD_MODE_ABSOLUTE, data.length,
                         IccUtils.bytesToHexString(data), pin2, mAid, onComplete);
@@ -427,6 +525,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public void updateEFTransparent(int fileid, byte[] data, Message onComplete) {
+        invalidateRecordCache(fileid);
         mCi.iccIOForApp(COMMAND_UPDATE_BINARY, fileid, getEFPath(fileid),
                         0, 0, data.length,
                         IccUtils.bytesToHexString(data), null, mAid, onComplete);
@@ -438,6 +537,106 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
     //***** Private Methods
 
+    private static long getCacheKey(long type, int fileid, int index, int length) {
+        return (type << 48) | ((long) (fileid & 0xFFFF) << 32) | ((long) (index & 0xFFFF) << 16)
+                | (length & 0xFFFF);
+    }
+
+    private static int getCacheKeyFileId(long cacheKey) {
+        return (int) ((cacheKey >> 32) & 0xFFFF);
+    }
+
+    /**
+     * Send the cached result if available.
+     *
+     * @param cacheKey The key in the record cache.
+     * @param response The message to send the result to.
+     * @return {@code true} if the cached result was sent.
+     */
+    private boolean sendCachedResult(long cacheKey, Message response) {
+        byte[] data;
+        synchronized (mRecordCache) {
+            data = mRecordCache.get(cacheKey);
+        }
+        if (data == null) return false;
+        if (VDBG) logd("sendCachedResult: key=" + Long.toHexString(cacheKey));
+        sendResult(response, data.clone(), null);
+        return true;
+    }
+
+    private void putRecordCache(long cacheKey, byte[] data) {
+        if (cacheKey == 0 || data == null) return;
+        synchronized (mRecordCache) {
+            mRecordCache.put(cacheKey, data.clone());
+        }
+    }
+
+    /**
+     * Remove all the cached records of the file.
+     *
+     * @param fileid EF id
+     * @return {@code true} if any record was removed
+     */
+    private boolean invalidateRecordCache(int fileid) {
+        boolean removed = false;
+        synchronized (mRecordCache) {
+            for (int i = mRecordCache.size() - 1; i >= 0; i--) {
+                if (getCacheKeyFileId(mRecordCache.keyAt(i)) == (fileid & 0xFFFF)) {
+                    mRecordCache.removeAt(i);
+                    removed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private void clearRecordCache() {
+        synchronized (mRecordCache) {
+            mRecordCache.clear();
+        }
+    }
+
+    /**
+     * Handle the card REFRESH. A single file update only invalidates the records of that file,
+     * while the card initialization or reset invalidates all the cached records.
+     */
+    private void handleIccRefresh(IccRefreshResponse refreshResponse) {
+        if (refreshResponse == null) {
+            clearRecordCache();
+            mImgChangedRegistrants.notifyRegistrants();
+            return;
+        }
+        if (refreshResponse.aid != null && mAid != null && !mAid.equals(refreshResponse.aid)) {
+            // The refresh is for another application.
+            return;
+        }
+        if (refreshResponse.refreshResult == IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE) {
+            if (invalidateRecordCache(refreshResponse.efId)
+                    || refreshResponse.efId == IccConstants.EF_IMG) {
+                mImgChangedRegistrants.notifyRegistrants();
+            }
+        } else {
+            clearRecordCache();
+            mImgChangedRegistrants.notifyRegistrants();
+        }
+    }
+
+    /**
+     * Send the next READ RECORD command when loading all the records of a linear fixed EF.
+     */
+    private void readNextRecord(LoadLinearFixedContext lc) {
+        String path = lc.mPath;
+        if (path == null) {
+            path = getEFPath(lc.mEfid);
+        }
+        int recordNum = lc.mNextRecordToRead++;
+        mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
+                recordNum,
+                READ_RECORD_MODE_ABSOLUTE,
+                lc.mRecordSize, null, null, mAid,
+                obtainMessage(EVENT_READ_RECORD_DONE, recordNum, 0, lc));
+    }
+
     private void sendResult(Message response, Object result, Throwable ex) {
         if (response == null) {
             return;
@@ -538,7 +737,16 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 lc.mCountRecords = size / lc.mRecordSize;
 
                 if (lc.mLoadAll) {
-                    lc.results = new ArrayList<byte[]>(lc.mCountRecords);
+                    // Keep at least one record to be read, which was the behavior before the
+                    // records were read in a pipeline.
+                    int count = Math.max(lc.mCountRecords, 1);
+                    lc.results = new ArrayList<byte[]>(Collections.nCopies(count, null));
+                    lc.mNextRecordToRead = lc.mRecordNum;
+                    int inFlight = Math.min(count, MAX_PIPELINED_READ_RECORDS);
+                    for (int i = 0; i < inFlight; i++) {
+                        readNextRecord(lc);
+                    }
+                    break;
                 }
 
                 if (path == null) {
@@ -591,38 +799,35 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 lc = (LoadLinearFixedContext) ar.userObj;
                 result = (IccIoResult) ar.result;
                 response = lc.mOnLoaded;
-                path = lc.mPath;
+
+                if (lc.mLoadAll && lc.mFailed) {
+                    // The result has already been sent with the failure of another record.
+                    response = null;
+                    break;
+                }
 
                 if (processException(response, (AsyncResult) msg.obj)) {
+                    lc.mFailed = true;
                     break;
                 }
 
                 if (!lc.mLoadAll) {
+                    putRecordCache(lc.mCacheKey, result.payload);
                     sendResult(response, result.payload, null);
                 } else {
-                    lc.results.add(result.payload);
-
-                    lc.mRecordNum++;
+                    lc.results.set(msg.arg1 - lc.mRecordNum, result.payload);
+                    lc.mRecordsReceived++;
 
-                    if (lc.mRecordNum > lc.mCountRecords) {
+                    if (lc.mRecordsReceived == lc.results.size()) {
                         sendResult(response, lc.results, null);
-                    } else {
-                        if (path == null) {
-                            path = getEFPath(lc.mEfid);
-                        }
-
-                        mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
-                                    lc.mRecordNum,
-                                    READ_RECORD_MODE_ABSOLUTE,
-                                    lc.mRecordSize, null, null, mAid,
-                                    obtainMessage(EVENT_READ_RECORD_DONE, lc));
+                    } else if (lc.mNextRecordToRead < lc.mRecordNum + lc.results.size()) {
+                        readNextRecord(lc);
                     }
                 }
 
             break;
 
             case EVENT_READ_BINARY_DONE:
-            case EVENT_READ_ICON_DONE:
                 ar = (AsyncResult)msg.obj;
                 response = (Message) ar.userObj;
                 result = (IccIoResult) ar.result;
@@ -634,6 +839,27 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 sendResult(response, result.payload, null);
             break;
 
+            case EVENT_READ_ICON_DONE:
+                ar = (AsyncResult) msg.obj;
+                LoadImgTransparentContext ic = (LoadImgTransparentContext) ar.userObj;
+                response = ic.mOnLoaded;
+                result = (IccIoResult) ar.result;
+
+                if (processException(response, (AsyncResult) msg.obj)) {
+                    break;
+                }
+
+                putRecordCache(ic.mCacheKey, result.payload);
+                sendResult(response, result.payload, null);
+            break;
+
+            case EVENT_ICC_REFRESH:
+                ar = (AsyncResult) msg.obj;
+                if (ar.exception == null) {
+                    handleIccRefresh((IccRefreshResponse) ar.result);
+                }
+                break;
+
             case EVENT_GET_EF_TRANSPARENT_SIZE_DONE:
                 ar = (AsyncResult) msg.obj;
                 response = (Message) ar.userObj;
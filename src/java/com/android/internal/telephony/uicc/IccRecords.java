@@ -23,6 +23,7 @@ import android.content.Context;
 import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.Message;
+import android.os.PersistableBundle;
 import android.os.Registrant;
 import android.os.RegistrantList;
 import android.os.SystemClock;
@@ -102,6 +103,7 @@ public abstract class IccRecords extends Handler implements IccConstants {
     protected TelephonyManager mTelephonyManager;
 
     protected RegistrantList mRecordsLoadedRegistrants = new RegistrantList();
+    protected RegistrantList mRecordsRestoredRegistrants = new RegistrantList();
     protected RegistrantList mLockedRecordsLoadedRegistrants = new RegistrantList();
     protected RegistrantList mNetworkLockedRecordsLoadedRegistrants = new RegistrantList();
     protected RegistrantList mImsiReadyRegistrants = new RegistrantList();
@@ -115,6 +117,16 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
     protected AdnRecordCache mAdnCache;
 
+    // Records cached in non-volatile memory, used to report the records of a known card before
+    // they have been read from the card.
+    protected IccRecordsCache mRecordsCache;
+    // ICCID of the card whose records are being loaded, used as the key of mRecordsCache.
+    protected String mRecordsCacheIccId;
+    // Records restored from mRecordsCache that are not yet revalidated against the card.
+    protected PersistableBundle mRestoredRecords;
+    // Whether mRestoredRecords have been reported to mRecordsRestoredRegistrants.
+    private boolean mRestoredRecordsNotified;
+
     // ***** Cached SIM State; cleared on channel close
 
     // SIM is not locked
@@ -126,6 +138,20 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
     protected boolean mRecordsRequested = false; // true if we've made requests for the sim records
     protected int mLockedRecordsReqReason = LOCKED_RECORDS_REQ_REASON_NONE;
+    // Keys of the records stored in mRecordsCache. Subscriber identifiers, like the MSISDN, are
+    // not cached and are only reported once read from the card.
+    private static final String CACHE_KEY_SPN = "spn";
+    private static final String CACHE_KEY_CARRIER_NAME_DISPLAY_CONDITION =
+            "carrier_name_display_condition";
+    private static final String CACHE_KEY_VOICE_MAIL_NUM = "voice_mail_num";
+    private static final String CACHE_KEY_VOICE_MAIL_TAG = "voice_mail_tag";
+    private static final String CACHE_KEY_MNC_LENGTH = "mnc_length";
+    private static final String CACHE_KEY_PNN_HOME_NAME = "pnn_home_name";
+    private static final String CACHE_KEY_GID1 = "gid1";
+    private static final String CACHE_KEY_GID2 = "gid2";
+    private static final String CACHE_KEY_EHPLMNS = "ehplmns";
+    private static final String CACHE_KEY_FPLMNS = "fplmns";
+
     // EF_SMSS fields tpmr invalid, min and max declarations
     protected static final int SMSS_INVALID_TPMR = -1;
     private static final int TPMR_MIN = 0x00;
@@ -327,6 +353,7 @@ public abstract class IccRecords extends Handler implements IccConstants {
                 Context.TELEPHONY_SERVICE);
 
         mCarrierTestOverride = new CarrierTestOverride(mParentApp.getPhoneId());
+        mRecordsCache = new IccRecordsCache(mContext);
         mCi.registerForIccRefresh(this, EVENT_REFRESH, null);
 
         mParentApp.registerForReady(this, EVENT_APP_READY, null);
@@ -370,12 +397,14 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
     protected void onDetected() {
         mRecordsRequested = false;
+        mRestoredRecords = null;
         mLoaded.set(false);
     }
 
     protected void onLocked() {
         // The LOADED state should not be indicated while the lock is effective.
         mRecordsRequested = false;
+        mRestoredRecords = null;
         mLoaded.set(false);
     }
 
@@ -465,6 +494,28 @@ public abstract class IccRecords extends Handler implements IccConstants {
         mRecordsLoadedRegistrants.remove(h);
     }
 
+    /**
+     * Register to be notified when the records of a known card have been restored from the cache,
+     * before they have been read from the card. The records may be stale; records loaded is still
+     * notified once they have been read from the card.
+     */
+    public void registerForRecordsRestored(Handler h, int what, Object obj) {
+        if (mDestroyed.get()) {
+            return;
+        }
+
+        Registrant r = new Registrant(h, what, obj);
+        mRecordsRestoredRegistrants.add(r);
+
+        if (mRestoredRecordsNotified && mRestoredRecords != null && !mLoaded.get()) {
+            r.notifyRegistrant(new AsyncResult(null, null, null));
+        }
+    }
+
+    public void unregisterForRecordsRestored(Handler h) {
+        mRecordsRestoredRegistrants.remove(h);
+    }
+
     public void unregisterForRecordsOverride(Handler h) {
         mRecordsOverrideRegistrants.remove(h);
     }
@@ -1072,6 +1123,11 @@ public abstract class IccRecords extends Handler implements IccConstants {
             return;
         }
 
+        // The content of the card may have changed, so the cached records can't be trusted
+        // anymore. They are stored again once the records have been reloaded.
+        mRecordsCache.remove(mRecordsCacheIccId, getRecordsCacheType());
+        mRestoredRecords = null;
+
         switch (refreshResponse.refreshResult) {
             case IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE:
                 if (DBG) log("handleRefresh with SIM_FILE_UPDATED");
@@ -1088,6 +1144,129 @@ public abstract class IccRecords extends Handler implements IccConstants {
 
     protected abstract void onAllRecordsLoaded();
 
+    /**
+     * Restore the records cached for a card while its records are being loaded, so that they can
+     * be reported before they have been read. Subclasses call this once the ICCID is known, and
+     * {@link #saveRecordsToCache()} once all records have been loaded to revalidate them.
+     *
+     * @param iccId the ICCID of the card
+     */
+    protected void restoreRecordsFromCache(String iccId) {
+        if (TextUtils.isEmpty(iccId)) return;
+        mRecordsCacheIccId = iccId;
+        if (!mRecordsRequested || mLoaded.get() || mRestoredRecords != null) return;
+
+        PersistableBundle records = mRecordsCache.get(iccId, getRecordsCacheType());
+        if (records == null) {
+            if (DBG) log("restoreRecordsFromCache: no cached records");
+            return;
+        }
+        try {
+            onRestoreRecords(records);
+        } catch (RuntimeException e) {
+            loge("restoreRecordsFromCache: invalid cached records " + e);
+            mRecordsCache.remove(iccId, getRecordsCacheType());
+            return;
+        }
+        mRestoredRecords = records;
+        mRestoredRecordsNotified = false;
+        log("restoreRecordsFromCache: restored cached records, revalidating");
+        onRecordsRestored();
+    }
+
+    /**
+     * Store the records loaded from the card, replacing the cached records.
+     */
+    protected void saveRecordsToCache() {
+        if (TextUtils.isEmpty(mRecordsCacheIccId)) return;
+
+        PersistableBundle records = new PersistableBundle();
+        onSaveRecords(records);
+        if (mRestoredRecords != null && !IccRecordsCache.equals(mRestoredRecords, records)) {
+            log("saveRecordsToCache: cached records were stale");
+        }
+        mRestoredRecords = null;
+        mRecordsCache.put(mRecordsCacheIccId, getRecordsCacheType(), records);
+    }
+
+    /**
+     * Called when records have been restored from the cache. By default they are reported as
+     * restored right away. Subclasses which need records that are not cached can override this
+     * and call {@link #notifyRecordsRestored()} once those are available.
+     */
+    protected void onRecordsRestored() {
+        notifyRecordsRestored();
+    }
+
+    /**
+     * Report the records restored from the cache to the records restored registrants, unless
+     * loading them from the card has already completed. The records are not reported as loaded,
+     * so {@link #isLoaded()} and {@link #getRecordsLoaded()} stay false and records loaded is
+     * only notified once all records have been read from the card.
+     */
+    protected void notifyRecordsRestored() {
+        if (mRestoredRecords == null || mRestoredRecordsNotified || mLoaded.get()
+                || getRecordsLoaded()) {
+            return;
+        }
+        if (DBG) log("notifyRecordsRestored: " + mRecordsToLoad + " records pending");
+        mRestoredRecordsNotified = true;
+        mRecordsRestoredRegistrants.notifyRegistrants(new AsyncResult(null, null, null));
+    }
+
+    /**
+     * Write the records to cache to a bundle. Subclasses adding their own records must call
+     * through to the super class. Records identifying the subscriber must not be written.
+     *
+     * @param records the bundle to write to
+     */
+    protected void onSaveRecords(PersistableBundle records) {
+        records.putString(CACHE_KEY_SPN, mSpn);
+        records.putInt(CACHE_KEY_CARRIER_NAME_DISPLAY_CONDITION, mCarrierNameDisplayCondition);
+        records.putString(CACHE_KEY_VOICE_MAIL_NUM, mVoiceMailNum);
+        records.putString(CACHE_KEY_VOICE_MAIL_TAG, mVoiceMailTag);
+        records.putInt(CACHE_KEY_MNC_LENGTH, mMncLength);
+        records.putString(CACHE_KEY_PNN_HOME_NAME, mPnnHomeName);
+        records.putString(CACHE_KEY_GID1, mGid1);
+        records.putString(CACHE_KEY_GID2, mGid2);
+        records.putStringArray(CACHE_KEY_EHPLMNS, mEhplmns);
+        records.putStringArray(CACHE_KEY_FPLMNS, mFplmns);
+    }
+
+    /**
+     * Restore the records from a bundle written by {@link #onSaveRecords}. Records which have
+     * already been read from the card are not overwritten.
+     *
+     * @param records the bundle to read from
+     */
+    protected void onRestoreRecords(PersistableBundle records) {
+        if (mSpn == null) {
+            mCarrierNameDisplayCondition = records.getInt(
+                    CACHE_KEY_CARRIER_NAME_DISPLAY_CONDITION, mCarrierNameDisplayCondition);
+            setServiceProviderName(records.getString(CACHE_KEY_SPN));
+        }
+        if (mVoiceMailNum == null) {
+            mVoiceMailNum = records.getString(CACHE_KEY_VOICE_MAIL_NUM);
+            mVoiceMailTag = records.getString(CACHE_KEY_VOICE_MAIL_TAG);
+        }
+        if (mMncLength == UNINITIALIZED) {
+            mMncLength = records.getInt(CACHE_KEY_MNC_LENGTH, UNINITIALIZED);
+        }
+        if (mPnnHomeName == null) mPnnHomeName = records.getString(CACHE_KEY_PNN_HOME_NAME);
+        if (mGid1 == null) mGid1 = records.getString(CACHE_KEY_GID1);
+        if (mGid2 == null) mGid2 = records.getString(CACHE_KEY_GID2);
+        if (mEhplmns == null) mEhplmns = records.getStringArray(CACHE_KEY_EHPLMNS);
+        if (mFplmns == null) mFplmns = records.getStringArray(CACHE_KEY_FPLMNS);
+    }
+
+    /**
+     * @return the type of the records, used to keep apart the records of the different
+     * applications of a card in the cache.
+     */
+    protected String getRecordsCacheType() {
+        return mParentApp != null ? String.valueOf(mParentApp.getType()) : "";
+    }
+
     /**
      * Retrieves the SPN/PLMN display condition from UICC.
      *
@@ -1398,6 +1577,9 @@ public abstract class IccRecords extends Handler implements IccConstants {
         pw.println(" mCi=" + mCi);
         pw.println(" mFh=" + mFh);
         pw.println(" mParentApp=" + mParentApp);
+        pw.println(" mRestoredRecords=" + (mRestoredRecords != null));
+        pw.println(" mRestoredRecordsNotified=" + mRestoredRecordsNotified);
+        pw.println(" mRecordsRestoredRegistrants: size=" + mRecordsRestoredRegistrants.size());
         pw.println(" recordsLoadedRegistrants: size=" + mRecordsLoadedRegistrants.size());
         for (int i = 0; i < mRecordsLoadedRegistrants.size(); i++) {
             pw.println("  recordsLoadedRegistrants[" + i + "]="
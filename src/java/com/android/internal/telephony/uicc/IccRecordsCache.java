@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.PersistableBundle;
+import android.text.TextUtils;
+import android.util.Base64;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class stores the records read from a UICC application in non-volatile memory, so that they
+ * can be reported as soon as the same card is inserted again while the card is being read.
+ *
+ * <p>Entries are keyed by the ICCID and the type of the records. The ICCID is only stored as a
+ * hash. The least recently written entries are discarded when more than {@link #MAX_ENTRIES}
+ * cards have been seen.
+ *
+ * <p>Records identifying the subscriber, like the MSISDN, the MDN or the IMS private and public
+ * user identities, must not be stored, so that nothing identifying the subscriber outlives the
+ * card.
+ */
+public class IccRecordsCache {
+    private static final String TAG = "IccRecordsCache";
+    private static final boolean VDBG = false;  // STOPSHIP if true
+
+    /** Maximum number of cached entries. */
+    @VisibleForTesting
+    public static final int MAX_ENTRIES = 8;
+
+    /**
+     * Version of the cached records. Entries written with a different version are ignored, so it
+     * must be increased whenever the content of the cached records changes.
+     */
+    @VisibleForTesting
+    public static final int CACHE_VERSION = 2;
+
+    private static final String SHARED_PREFS_NAME = "icc_records_cache_prefs";
+    private static final String SHARED_PREFS_RECORDS_BASE_KEY = "records_";
+    private static final String SHARED_PREFS_TIME_BASE_KEY = "time_";
+    private static final String SHARED_PREFS_VERSION_KEY = "version";
+    private static final String KEY_CACHE_VERSION = "cache_version";
+
+    private final Context mContext;
+
+    public IccRecordsCache(@NonNull Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Get the cached records of a card.
+     *
+     * @param iccId the ICCID of the card
+     * @param type the type of the records
+     * @return the cached records, or {@code null} if there are none or they are not valid
+     */
+    @Nullable
+    public PersistableBundle get(@Nullable String iccId, @NonNull String type) {
+        String key = getKey(iccId, type);
+        if (key == null) return null;
+
+        String base64Records = getSharedPreferences()
+                .getString(SHARED_PREFS_RECORDS_BASE_KEY + key, "");
+        if (base64Records.isEmpty()) return null;
+
+        try {
+            byte[] blob = Base64.decode(base64Records, Base64.DEFAULT);
+            PersistableBundle records =
+                    PersistableBundle.readFromStream(new ByteArrayInputStream(blob));
+            if (records.getInt(KEY_CACHE_VERSION, -1) != CACHE_VERSION) {
+                logd("Discarding records with version " + records.getInt(KEY_CACHE_VERSION, -1));
+                remove(iccId, type);
+                return null;
+            }
+            records.remove(KEY_CACHE_VERSION);
+            return records;
+        } catch (IOException | IllegalArgumentException e) {
+            loge("Failed to read cached records: " + e);
+            remove(iccId, type);
+            return null;
+        }
+    }
+
+    /**
+     * Store the records of a card, replacing any cached records.
+     *
+     * @param iccId the ICCID of the card
+     * @param type the type of the records
+     * @param records the records to store
+     */
+    public void put(@Nullable String iccId, @NonNull String type,
+            @NonNull PersistableBundle records) {
+        String key = getKey(iccId, type);
+        if (key == null) return;
+
+        PersistableBundle versionedRecords = new PersistableBundle(records);
+        versionedRecords.putInt(KEY_CACHE_VERSION, CACHE_VERSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            versionedRecords.writeToStream(out);
+        } catch (IOException e) {
+            loge("Failed to write records: " + e);
+            return;
+        }
+
+        SharedPreferences sharedPrefs = getSharedPreferences();
+        SharedPreferences.Editor editor = sharedPrefs.edit()
+                .putString(SHARED_PREFS_RECORDS_BASE_KEY + key,
+                        Base64.encodeToString(out.toByteArray(), Base64.DEFAULT))
+                .putLong(SHARED_PREFS_TIME_BASE_KEY + key, System.currentTimeMillis());
+        evictOldestEntries(sharedPrefs, editor, key);
+        editor.apply();
+    }
+
+    /**
+     * Remove the cached records of a card.
+     *
+     * @param iccId the ICCID of the card
+     * @param type the type of the records
+     */
+    public void remove(@Nullable String iccId, @NonNull String type) {
+        String key = getKey(iccId, type);
+        if (key == null) return;
+
+        getSharedPreferences().edit()
+                .remove(SHARED_PREFS_RECORDS_BASE_KEY + key)
+                .remove(SHARED_PREFS_TIME_BASE_KEY + key)
+                .apply();
+    }
+
+    /**
+     * Compare the content of two sets of records.
+     *
+     * @return {@code true} if both contain the same keys mapped to equal values
+     */
+    public static boolean equals(@NonNull PersistableBundle a, @NonNull PersistableBundle b) {
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (String key : a.keySet()) {
+            if (!Objects.deepEquals(a.get(key), b.get(key))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove the least recently written entries, so that at most {@link #MAX_ENTRIES} remain
+     * once the entry being written is added.
+     */
+    private void evictOldestEntries(SharedPreferences sharedPrefs,
+            SharedPreferences.Editor editor, String newKey) {
+        Map<String, ?> all = new HashMap<>(sharedPrefs.getAll());
+        int count = 0;
+        for (String prefKey : all.keySet()) {
+            if (prefKey.startsWith(SHARED_PREFS_TIME_BASE_KEY)
+                    && !prefKey.equals(SHARED_PREFS_TIME_BASE_KEY + newKey)) {
+                count++;
+            }
+        }
+        while (count >= MAX_ENTRIES) {
+            String oldestKey = null;
+            long oldestTime = Long.MAX_VALUE;
+            for (Map.Entry<String, ?> entry : all.entrySet()) {
+                String prefKey = entry.getKey();
+                if (!prefKey.startsWith(SHARED_PREFS_TIME_BASE_KEY)
+                        || prefKey.equals(SHARED_PREFS_TIME_BASE_KEY + newKey)
+                        || !(entry.getValue() instanceof Long)) {
+                    continue;
+                }
+                long time = (Long) entry.getValue();
+                if (time < oldestTime) {
+                    oldestTime = time;
+                    oldestKey = prefKey.substring(SHARED_PREFS_TIME_BASE_KEY.length());
+                }
+            }
+            if (oldestKey == null) break;
+            editor.remove(SHARED_PREFS_RECORDS_BASE_KEY + oldestKey)
+                    .remove(SHARED_PREFS_TIME_BASE_KEY + oldestKey);
+            all.remove(SHARED_PREFS_TIME_BASE_KEY + oldestKey);
+            count--;
+        }
+    }
+
+    /**
+     * Returns the shared preferences holding the cache. All the entries are discarded if they
+     * were written with another {@link #CACHE_VERSION}, so that records which are no longer
+     * cached, like the subscriber identifiers stored by version 1, do not remain stored for the
+     * cards which are not inserted again.
+     */
+    private SharedPreferences getSharedPreferences() {
+        SharedPreferences sharedPrefs =
+                mContext.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE);
+        if (sharedPrefs.getInt(SHARED_PREFS_VERSION_KEY, -1) != CACHE_VERSION) {
+            logd("Discarding all entries written with another version");
+            sharedPrefs.edit()
+                    .clear()
+                    .putInt(SHARED_PREFS_VERSION_KEY, CACHE_VERSION)
+                    .apply();
+        }
+        return sharedPrefs;
+    }
+
+    /** Returns the key of the entry for the given card and records type. */
+    @Nullable
+    private static String getKey(@Nullable String iccId, @NonNull String type) {
+        if (TextUtils.isEmpty(iccId)) return null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((type + "_" + iccId).getBytes(StandardCharsets.UTF_8));
+            return IccUtils.bytesToHexString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            loge("Failed to hash ICCID: " + e);
+            return null;
+        }
+    }
+
+    private static void logd(String msg) {
+        if (VDBG) Rlog.d(TAG, msg);
+    }
+
+    private static void loge(String msg) {
+        Rlog.e(TAG, msg);
+    }
+}
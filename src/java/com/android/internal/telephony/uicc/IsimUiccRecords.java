@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Message;
+import android.os.PersistableBundle;
 import android.telephony.SubscriptionManager;
 import android.util.Log;
 
@@ -66,6 +67,12 @@ public class IsimUiccRecords extends IccRecords implements IsimRecords {
 
     private static final int TAG_ISIM_VALUE = 0x80;     // From 3GPP TS 31.103
 
+    // Keys of the ISIM records stored in the records cache. The IMPI and IMPU identify the
+    // subscriber and are not cached.
+    private static final String CACHE_KEY_DOMAIN = "isim_domain";
+    private static final String CACHE_KEY_IST = "isim_ist";
+    private static final String CACHE_KEY_PCSCF = "isim_pcscf";
+
     @Override
     public String toString() {
         return "IsimUiccRecords: " + super.toString()
@@ -157,6 +164,16 @@ public class IsimUiccRecords extends IccRecords implements IsimRecords {
         mRecordsToLoad++;
 
         if (DBG) log("fetchIsimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
+
+        restoreRecordsFromCache(getProfileIccId());
+    }
+
+    /**
+     * @return the ICCID of the card, which is read by the SIM or CSIM application of the card
+     */
+    private String getProfileIccId() {
+        UiccProfile profile = mParentApp.getUiccProfile();
+        return profile != null ? profile.getIccId() : null;
     }
 
     protected void resetRecords() {
@@ -172,6 +189,7 @@ public class IsimUiccRecords extends IccRecords implements IsimRecords {
 
         mRecordsRequested = false;
         mLockedRecordsReqReason = LOCKED_RECORDS_REQ_REASON_NONE;
+        mRestoredRecords = null;
         mLoaded.set(false);
     }
 
@@ -340,10 +358,30 @@ public class IsimUiccRecords extends IccRecords implements IsimRecords {
     @Override
     protected void onAllRecordsLoaded() {
        if (DBG) log("record load complete");
+        if (mRecordsCacheIccId == null) {
+            mRecordsCacheIccId = getProfileIccId();
+        }
+        saveRecordsToCache();
         mLoaded.set(true);
         mRecordsLoadedRegistrants.notifyRegistrants(new AsyncResult(null, null, null));
     }
 
+    @Override
+    protected void onSaveRecords(PersistableBundle records) {
+        super.onSaveRecords(records);
+        records.putString(CACHE_KEY_DOMAIN, mIsimDomain);
+        records.putString(CACHE_KEY_IST, mIsimIst);
+        records.putStringArray(CACHE_KEY_PCSCF, mIsimPcscf);
+    }
+
+    @Override
+    protected void onRestoreRecords(PersistableBundle records) {
+        super.onRestoreRecords(records);
+        if (mIsimDomain == null) mIsimDomain = records.getString(CACHE_KEY_DOMAIN);
+        if (mIsimIst == null) mIsimIst = records.getString(CACHE_KEY_IST);
+        if (mIsimPcscf == null) mIsimPcscf = records.getStringArray(CACHE_KEY_PCSCF);
+    }
+
     @Override
     protected void handleFileUpdate(int efid) {
         switch (efid) {
@@ -37,11 +37,8 @@ public final class RuimFileHandler extends IccFileHandler {
     //***** Overridden from IccFileHandler
 
     @Override
-    public void loadEFImgTransparent(int fileid, int highOffset, int lowOffset,
-            int length, Message onLoaded) {
-        Message response = obtainMessage(EVENT_READ_ICON_DONE, fileid, 0,
-                onLoaded);
-
+    protected void readEFImgTransparent(int fileid, int highOffset, int lowOffset,
+            int length, Message response) {
         /* Per TS 31.102, for displaying of Icon, under
          * DF Telecom and DF Graphics , EF instance(s) (4FXX,transparent files)
          * are present. The possible image file identifiers (EF instance) for
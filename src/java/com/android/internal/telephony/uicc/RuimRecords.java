@@ -23,6 +23,7 @@ import android.content.res.Resources;
 import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Message;
+import android.os.PersistableBundle;
 import android.sysprop.TelephonyProperties;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
@@ -73,6 +74,13 @@ public class RuimRecords extends IccRecords {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private String mNai;
 
+    // Keys of the CSIM records stored in the records cache
+    private static final String CACHE_KEY_HOME_SYSTEM_ID = "home_system_id";
+    private static final String CACHE_KEY_HOME_NETWORK_ID = "home_network_id";
+    private static final String CACHE_KEY_PRL_VERSION = "prl_version";
+    private static final String CACHE_KEY_CSIM_SPN_DISPLAY_CONDITION =
+            "csim_spn_display_condition";
+
     @Override
     public String toString() {
         return "RuimRecords: " + super.toString()
@@ -139,6 +147,7 @@ public class RuimRecords extends IccRecords {
         log("setting0 mMncLength" + mMncLength);
         mIccId = null;
         mFullIccId = null;
+        mRestoredRecords = null;
 
         mAdnCache.reset();
 
@@ -691,6 +700,7 @@ public class RuimRecords extends IccRecords {
                 mFullIccId = IccUtils.bchToString(data, 0, data.length);
 
                 log("iccid: " + SubscriptionInfo.getPrintableId(mFullIccId));
+                restoreRecordsFromCache(mFullIccId);
 
             break;
 
@@ -814,6 +824,7 @@ public class RuimRecords extends IccRecords {
             setSimLanguage(mEFli, mEFpl);
         }
 
+        saveRecordsToCache();
         mLoaded.set(true);
         mRecordsLoadedRegistrants.notifyRegistrants(new AsyncResult(null, null, null));
 
@@ -828,6 +839,29 @@ public class RuimRecords extends IccRecords {
         }
     }
 
+    @Override
+    protected void onSaveRecords(PersistableBundle records) {
+        super.onSaveRecords(records);
+        records.putString(CACHE_KEY_HOME_SYSTEM_ID, mHomeSystemId);
+        records.putString(CACHE_KEY_HOME_NETWORK_ID, mHomeNetworkId);
+        records.putString(CACHE_KEY_PRL_VERSION, mPrlVersion);
+        records.putBoolean(CACHE_KEY_CSIM_SPN_DISPLAY_CONDITION, mCsimSpnDisplayCondition);
+    }
+
+    @Override
+    protected void onRestoreRecords(PersistableBundle records) {
+        boolean isSpnLoaded = getServiceProviderName() != null;
+        super.onRestoreRecords(records);
+        if (mHomeSystemId == null) {
+            mHomeSystemId = records.getString(CACHE_KEY_HOME_SYSTEM_ID);
+            mHomeNetworkId = records.getString(CACHE_KEY_HOME_NETWORK_ID);
+        }
+        if (mPrlVersion == null) mPrlVersion = records.getString(CACHE_KEY_PRL_VERSION);
+        if (!isSpnLoaded) {
+            mCsimSpnDisplayCondition = records.getBoolean(CACHE_KEY_CSIM_SPN_DISPLAY_CONDITION);
+        }
+    }
+
     @Override
     public void onReady() {
         fetchRuimRecords();
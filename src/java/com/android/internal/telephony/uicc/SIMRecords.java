@@ -250,6 +250,7 @@ public class SIMRecords extends IccRecords {
         mHplmnActRecords = null;
         mFplmns = null;
         mEhplmns = null;
+        mRestoredRecords = null;
 
         mAdnCache.reset();
 
@@ -675,6 +676,9 @@ public class SIMRecords extends IccRecords {
                     }
 
                     setImsi((String) ar.result);
+                    if (mRestoredRecords != null && !mLoaded.get()) {
+                        onRecordsRestored();
+                    }
                     break;
 
                 case EVENT_GET_MBI_DONE:
@@ -859,6 +863,7 @@ public class SIMRecords extends IccRecords {
                     mFullIccId = IccUtils.bchToString(data, 0, data.length);
 
                     log("iccid: " + SubscriptionInfo.getPrintableId(mFullIccId));
+                    restoreRecordsFromCache(mFullIccId);
                     break;
 
                 case EVENT_GET_AD_DONE:
@@ -1560,7 +1565,31 @@ public class SIMRecords extends IccRecords {
         setVoiceCallForwardingFlagFromSimRecords();
 
         // Some fields require more than one SIM record to set
+        String operator = updateSimOperatorProperties();
+
+        setVoiceMailByCountry(operator);
+        saveRecordsToCache();
+        mLoaded.set(true);
+        mRecordsLoadedRegistrants.notifyRegistrants(new AsyncResult(null, null, null));
+    }
+
+    @Override
+    protected void onRecordsRestored() {
+        // The operator numeric and country are derived from the IMSI, which is not cached.
+        if (mImsi == null) {
+            if (DBG) log("onRecordsRestored: waiting for IMSI");
+            return;
+        }
+        updateSimOperatorProperties();
+        notifyRecordsRestored();
+    }
 
+    /**
+     * Set the SIM operator numeric and country from the IMSI and the MNC length.
+     *
+     * @return the operator numeric, or {@code null} if not available
+     */
+    private String updateSimOperatorProperties() {
         String operator = getOperatorNumeric();
         if (!TextUtils.isEmpty(operator)) {
             log("onAllRecordsLoaded set 'gsm.sim.operator.numeric' to operator='" +
@@ -1580,10 +1609,7 @@ public class SIMRecords extends IccRecords {
         } else {
             log("onAllRecordsLoaded empty imsi skipping setting mcc");
         }
-
-        setVoiceMailByCountry(operator);
-        mLoaded.set(true);
-        mRecordsLoadedRegistrants.notifyRegistrants(new AsyncResult(null, null, null));
+        return operator;
     }
 
     //***** Private methods
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.annotation.NonNull;
+
+/**
+ * A cursor for parsing a sequence of TLV objects directly from a byte array, without copying the
+ * data or converting it to a hex string.
+ *
+ * <p>The length field is encoded as in GPC_Specification_2.2.1: 11.1.5 APDU Message and Data
+ * Length. It is either 1 byte if length < 128, or multiple bytes with the first byte specifying
+ * how many bytes are used for length, followed by the length bytes.
+ *
+ * <p>Each call to {@link #next} parses one TLV at the current position and moves the cursor after
+ * it. The value of the last parsed TLV is available through {@link #getValueOffset()} and
+ * {@link #getValueLength()}, or can be parsed further with {@link #valueCursor()}.
+ *
+ * {@hide}
+ */
+public final class TlvCursor {
+    private static final int SINGLE_BYTE_MAX_LENGTH = 0x80;
+
+    private final @NonNull byte[] mData;
+    private final int mEnd;
+    private int mPosition;
+
+    // The last parsed TLV.
+    private int mLengthFieldSize;
+    private int mValueOffset;
+    private int mValueLength;
+
+    /**
+     * Create a cursor over the whole byte array.
+     *
+     * @param data The data to parse.
+     */
+    public TlvCursor(@NonNull byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Create a cursor over a range of the byte array.
+     *
+     * @param data The data to parse.
+     * @param start The start index of the range, inclusive.
+     * @param end The end index of the range, exclusive.
+     */
+    public TlvCursor(@NonNull byte[] data, int start, int end) {
+        if (start < 0 || end > data.length || start > end) {
+            throw new IndexOutOfBoundsException("start=" + start + " end=" + end
+                    + " length=" + data.length);
+        }
+        mData = data;
+        mPosition = start;
+        mEnd = end;
+    }
+
+    /**
+     * @return {@code true} if there is data after the current position.
+     */
+    public boolean hasRemaining() {
+        return mPosition < mEnd;
+    }
+
+    /**
+     * @return The number of bytes after the current position.
+     */
+    public int remaining() {
+        return mEnd - mPosition;
+    }
+
+    /**
+     * @return The byte at the current position as an unsigned value.
+     */
+    public int peek() {
+        if (mPosition >= mEnd) {
+            throw new IndexOutOfBoundsException("No data.");
+        }
+        return mData[mPosition] & 0xFF;
+    }
+
+    /**
+     * @param tag The tag bytes.
+     * @return {@code true} if the data at the current position starts with the given tag.
+     */
+    public boolean startsWith(@NonNull byte[] tag) {
+        if (mEnd - mPosition < tag.length) return false;
+        for (int i = 0; i < tag.length; i++) {
+            if (mData[mPosition + i] != tag[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the tag and length of the TLV at the current position, without checking whether the
+     * value is complete and without moving the cursor.
+     *
+     * @param tag The expected tag bytes.
+     * @return The total size of the TLV, including the tag and length fields.
+     * @throws IllegalArgumentException if the tag does not match or the length is malformed.
+     */
+    public int peekSize(@NonNull byte[] tag) {
+        if (!startsWith(tag)) {
+            throw new IllegalArgumentException("Tags don't match.");
+        }
+        parseLength(tag.length);
+        return tag.length + mLengthFieldSize + mValueLength;
+    }
+
+    /**
+     * Parse the TLV with the given tag at the current position, and move the cursor after it.
+     *
+     * @param tag The expected tag bytes.
+     * @param shouldConsumeAll {@code true} if the TLV must end exactly at the end of the data.
+     * @throws IllegalArgumentException if the data is malformed.
+     */
+    public void next(@NonNull byte[] tag, boolean shouldConsumeAll) {
+        if (!startsWith(tag)) {
+            throw new IllegalArgumentException("Tags don't match.");
+        }
+        next(tag.length, shouldConsumeAll);
+    }
+
+    /**
+     * Parse the TLV at the current position regardless of its tag, and move the cursor after it.
+     *
+     * @param tagLength The number of bytes of the tag.
+     * @param shouldConsumeAll {@code true} if the TLV must end exactly at the end of the data.
+     * @throws IllegalArgumentException if the data is malformed.
+     */
+    public void next(int tagLength, boolean shouldConsumeAll) {
+        parseLength(tagLength);
+        int remainingLength = mEnd - (mValueOffset + mValueLength);
+        if (remainingLength < 0) {
+            throw new IllegalArgumentException("Not enough data.");
+        }
+        if (shouldConsumeAll && remainingLength != 0) {
+            throw new IllegalArgumentException("Did not consume all.");
+        }
+        mPosition = mValueOffset + mValueLength;
+    }
+
+    /**
+     * Decode the length field following a tag of the given length at the current position.
+     *
+     * @param tagLength The number of bytes of the tag.
+     */
+    private void parseLength(int tagLength) {
+        int index = mPosition + tagLength;
+        if (index + 1 > mEnd) {
+            throw new IllegalArgumentException("No length.");
+        }
+        int firstByte = mData[index] & 0xFF;
+        if (firstByte < SINGLE_BYTE_MAX_LENGTH) {
+            mLengthFieldSize = 1;
+            mValueLength = firstByte;
+        } else {
+            int numBytes = firstByte - SINGLE_BYTE_MAX_LENGTH;
+            if (numBytes == 0 || index + 1 + numBytes > mEnd) {
+                throw new IllegalArgumentException("Invalid length.");
+            }
+            long length = 0;
+            for (int i = 0; i < numBytes; i++) {
+                length = (length << 8) | (mData[index + 1 + i] & 0xFF);
+                if (length > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Length too large.");
+                }
+            }
+            mLengthFieldSize = 1 + numBytes;
+            mValueLength = (int) length;
+        }
+        mValueOffset = index + mLengthFieldSize;
+    }
+
+    /**
+     * @return The number of bytes of the length field of the last parsed TLV.
+     */
+    public int getLengthFieldSize() {
+        return mLengthFieldSize;
+    }
+
+    /**
+     * @return The index of the value of the last parsed TLV in the underlying byte array.
+     */
+    public int getValueOffset() {
+        return mValueOffset;
+    }
+
+    /**
+     * @return The length of the value of the last parsed TLV.
+     */
+    public int getValueLength() {
+        return mValueLength;
+    }
+
+    /**
+     * @return The underlying byte array.
+     */
+    public @NonNull byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return A new cursor over the value of the last parsed TLV, sharing the same data.
+     */
+    public @NonNull TlvCursor valueCursor() {
+        return new TlvCursor(mData, mValueOffset, mValueOffset + mValueLength);
+    }
+
+    /**
+     * @param expected The expected value.
+     * @return {@code true} if the value of the last parsed TLV equals the expected bytes.
+     */
+    public boolean valueEquals(@NonNull byte[] expected) {
+        if (mValueLength != expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (mData[mValueOffset + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return A copy of the value of the last parsed TLV.
+     */
+    public @NonNull byte[] copyValue() {
+        byte[] value = new byte[mValueLength];
+        System.arraycopy(mData, mValueOffset, value, 0, mValueLength);
+        return value;
+    }
+}
@@ -35,6 +35,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandException;
 import com.android.telephony.Rlog;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -91,15 +92,16 @@ public class UiccCarrierPrivilegeRules extends Handler {
      *       DB
      */
     // Values from the data standard.
-    private static final String TAG_ALL_REF_AR_DO = "FF40";
-    private static final String TAG_REF_AR_DO = "E2";
-    private static final String TAG_REF_DO = "E1";
-    private static final String TAG_DEVICE_APP_ID_REF_DO = "C1";
-    private static final String TAG_PKG_REF_DO = "CA";
-    private static final String TAG_AR_DO = "E3";
-    private static final String TAG_PERM_AR_DO = "DB";
-    private static final String TAG_AID_REF_DO = "4F";
-    private static final String CARRIER_PRIVILEGE_AID = "FFFFFFFFFFFF";
+    private static final byte[] TAG_ALL_REF_AR_DO = {(byte) 0xFF, (byte) 0x40};
+    private static final byte[] TAG_REF_AR_DO = {(byte) 0xE2};
+    private static final byte[] TAG_REF_DO = {(byte) 0xE1};
+    private static final byte[] TAG_DEVICE_APP_ID_REF_DO = {(byte) 0xC1};
+    private static final byte[] TAG_PKG_REF_DO = {(byte) 0xCA};
+    private static final byte[] TAG_AR_DO = {(byte) 0xE3};
+    private static final byte[] TAG_PERM_AR_DO = {(byte) 0xDB};
+    private static final byte[] TAG_AID_REF_DO = {(byte) 0x4F};
+    private static final byte[] CARRIER_PRIVILEGE_AID =
+            {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
 
     private static final int EVENT_OPEN_LOGICAL_CHANNEL_DONE = 1;
     private static final int EVENT_TRANSMIT_LOGICAL_CHANNEL_DONE = 2;
@@ -152,12 +154,12 @@ public class UiccCarrierPrivilegeRules extends Handler {
                 length = Integer.parseInt(data.substring(offset + 2, offset + 2 + numBytes * 2), 16) * 2;
                 lengthBytes = data.substring(offset, offset + 2 + numBytes * 2);
             }
-            log("TLV parseLength length=" + length + "lenghtBytes: " + lengthBytes);
+            if (DBG) log("TLV parseLength length=" + length + "lenghtBytes: " + lengthBytes);
             return lengthBytes;
         }
 
         public String parse(String data, boolean shouldConsumeAll) {
-            log("Parse TLV: " + tag);
+            if (DBG) log("Parse TLV: " + tag);
             if (!data.startsWith(tag)) {
                 throw new IllegalArgumentException("Tags don't match.");
             }
@@ -169,7 +171,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
             parseLength(data);
             index += lengthBytes.length();
 
-            log("index="+index+" length="+length+"data.length="+data.length());
+            if (DBG) log("index=" + index + " length=" + length + "data.length=" + data.length());
             int remainingLength = data.length() - (index + length);
             if (remainingLength < 0) {
                 throw new IllegalArgumentException("Not enough data.");
@@ -179,7 +181,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
             }
             value = data.substring(index, index + length);
 
-            log("Got TLV: " + tag + "," + length + "," + value);
+            if (DBG) log("Got TLV: " + tag + "," + length + "," + value);
 
             return data.substring(index + length);
         }
@@ -190,7 +192,8 @@ public class UiccCarrierPrivilegeRules extends Handler {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private AtomicInteger mState;
     private List<UiccAccessRule> mAccessRules;
-    private String mRules;
+    // The raw rules read from the UICC so far.
+    private ByteArrayOutputStream mRules;
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private Message mLoadedCallback;
     // LocalLog buffer to hold important status messages for debugging.
@@ -220,7 +223,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
         mState = new AtomicInteger(STATE_LOADING);
         mStatusMessage.log("Not loaded.");
         mLoadedCallback = loadedCallback;
-        mRules = "";
+        mRules = new ByteArrayOutputStream();
         mAccessRules = new ArrayList<>();
 
         // Open logical channel with ARA_D.
@@ -232,7 +235,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
     public UiccCarrierPrivilegeRules(List<UiccAccessRule> rules) {
         mAccessRules = rules;
         mState = new AtomicInteger(STATE_LOADED);
-        mRules = "";
+        mRules = new ByteArrayOutputStream();
         mStatusMessage.log("Loaded from test rules.");
     }
 
@@ -438,7 +441,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     } else {
                         if (mAIDInUse == ARAD) {
                             // Open logical channel with ARA_M.
-                            mRules = "";
+                            mRules = new ByteArrayOutputStream();
                             openChannel(ARAM);
                         }
                         if (mAIDInUse == ARAM) {
@@ -471,12 +474,11 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     if (response.sw1 == 0x90 && response.sw2 == 0x00
                             && response.payload != null && response.payload.length > 0) {
                         try {
-                            mRules += IccUtils.bytesToHexString(response.payload)
-                                    .toUpperCase(Locale.US);
+                            mRules.write(response.payload, 0, response.payload.length);
                             if (isDataComplete()) {
                                 //TODO: here's where AccessRules are being updated from the psim
                                 // b/139133814
-                                mAccessRules.addAll(parseRules(mRules));
+                                mAccessRules.addAll(parseRules(mRules.toByteArray()));
                                 if (mAIDInUse == ARAD) {
                                     mCheckedRules = true;
                                 } else {
@@ -528,7 +530,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                 log("EVENT_CLOSE_LOGICAL_CHANNEL_DONE");
                 if (mAIDInUse == ARAD) {
                     // Close logical channel with ARA_D and then open logical channel with ARA_M.
-                    mRules = "";
+                    mRules = new ByteArrayOutputStream();
                     openChannel(ARAM);
                 }
                 break;
@@ -557,43 +559,38 @@ public class UiccCarrierPrivilegeRules extends Handler {
      * For long payload, we need to fetch it repeatly before start parsing it.
      */
     private boolean isDataComplete() {
-        log("isDataComplete mRules:" + mRules);
-        if (mRules.startsWith(TAG_ALL_REF_AR_DO)) {
-            TLV allRules = new TLV(TAG_ALL_REF_AR_DO);
-            String lengthBytes = allRules.parseLength(mRules);
-            log("isDataComplete lengthBytes: " + lengthBytes);
-            if (mRules.length() == TAG_ALL_REF_AR_DO.length() + lengthBytes.length() +
-                    allRules.length) {
-                log("isDataComplete yes");
-                return true;
-            } else {
-                log("isDataComplete no");
-                return false;
-            }
+        if (DBG) log("isDataComplete mRules:" + IccUtils.bytesToHexString(mRules.toByteArray()));
+        byte[] rules = mRules.toByteArray();
+        int size = new TlvCursor(rules).peekSize(TAG_ALL_REF_AR_DO);
+        if (rules.length == size) {
+            log("isDataComplete yes");
+            return true;
         } else {
-            throw new IllegalArgumentException("Tags don't match.");
+            log("isDataComplete no");
+            return false;
         }
     }
 
     /*
-     * Parses the rules from the input string.
+     * Parses the rules from the input bytes.
      */
-    private static List<UiccAccessRule> parseRules(String rules) {
-        log("Got rules: " + rules);
+    @VisibleForTesting
+    static List<UiccAccessRule> parseRules(byte[] rules) {
+        if (DBG) log("Got rules: " + IccUtils.bytesToHexString(rules));
 
-        TLV allRefArDo = new TLV(TAG_ALL_REF_AR_DO); //FF40
-        allRefArDo.parse(rules, true);
+        TlvCursor allRefArDo = new TlvCursor(rules); //FF40
+        allRefArDo.next(TAG_ALL_REF_AR_DO, true);
 
-        String arDos = allRefArDo.value;
+        TlvCursor arDos = allRefArDo.valueCursor();
         List<UiccAccessRule> accessRules = new ArrayList<>();
-        while (!arDos.isEmpty()) {
-            TLV refArDo = new TLV(TAG_REF_AR_DO); //E2
-            arDos = refArDo.parse(arDos, false);
-            UiccAccessRule accessRule = parseRefArdo(refArDo.value);
+        while (arDos.hasRemaining()) {
+            arDos.next(TAG_REF_AR_DO, false); //E2
+            UiccAccessRule accessRule = parseRefArdo(arDos.valueCursor());
             if (accessRule != null) {
                 accessRules.add(accessRule);
             } else {
-                Rlog.e(LOG_TAG, "Skip unrecognized rule." + refArDo.value);
+                Rlog.e(LOG_TAG, "Skip unrecognized rule." + IccUtils.bytesToHexString(
+                        arDos.copyValue()).toUpperCase(Locale.US));
             }
         }
         return accessRules;
@@ -602,72 +599,63 @@ public class UiccCarrierPrivilegeRules extends Handler {
     /*
      * Parses a single rule.
      */
-    private static UiccAccessRule parseRefArdo(String rule) {
-        log("Got rule: " + rule);
+    private static UiccAccessRule parseRefArdo(TlvCursor rule) {
+        if (DBG) log("Got rule: " + IccUtils.bytesToHexString(rule.copyValue()));
 
-        String certificateHash = null;
+        byte[] certificateHash = null;
         String packageName = null;
-        String tmp = null;
         long accessType = 0;
 
-        while (!rule.isEmpty()) {
+        while (rule.hasRemaining()) {
             if (rule.startsWith(TAG_REF_DO)) {
-                TLV refDo = new TLV(TAG_REF_DO); //E1
-                rule = refDo.parse(rule, false);
+                rule.next(TAG_REF_DO, false); //E1
+                TlvCursor refDo = rule.valueCursor();
                 // Allow 4F tag with a default value "FF FF FF FF FF FF" to be compatible with
                 // devices having GP access control enforcer:
                 //  - If no 4F tag is present, it's a CP rule.
                 //  - If 4F tag has value "FF FF FF FF FF FF", it's a CP rule.
                 //  - If 4F tag has other values, it's not a CP rule and Android should ignore it.
-                TLV deviceDo = new TLV(TAG_DEVICE_APP_ID_REF_DO); //C1
-                if (refDo.value.startsWith(TAG_AID_REF_DO)) {
-                    TLV cpDo = new TLV(TAG_AID_REF_DO); //4F
-                    String remain = cpDo.parse(refDo.value, false);
-                    if (!cpDo.lengthBytes.equals("06") || !cpDo.value.equals(CARRIER_PRIVILEGE_AID)
-                            || remain.isEmpty() || !remain.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
+                if (refDo.startsWith(TAG_AID_REF_DO)) {
+                    refDo.next(TAG_AID_REF_DO, false); //4F
+                    if (refDo.getLengthFieldSize() != 1
+                            || !refDo.valueEquals(CARRIER_PRIVILEGE_AID)
+                            || !refDo.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
                         return null;
                     }
-                    tmp = deviceDo.parse(remain, false);
-                    certificateHash = deviceDo.value;
-                } else if (refDo.value.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
-                    tmp = deviceDo.parse(refDo.value, false);
-                    certificateHash = deviceDo.value;
-                } else {
+                } else if (!refDo.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
                     return null;
                 }
-                if (!tmp.isEmpty()) {
-                    if (!tmp.startsWith(TAG_PKG_REF_DO)) {
+                refDo.next(TAG_DEVICE_APP_ID_REF_DO, false); //C1
+                certificateHash = refDo.copyValue();
+                if (refDo.hasRemaining()) {
+                    if (!refDo.startsWith(TAG_PKG_REF_DO)) {
                         return null;
                     }
-                    TLV pkgDo = new TLV(TAG_PKG_REF_DO); //CA
-                    pkgDo.parse(tmp, true);
-                    packageName = new String(IccUtils.hexStringToBytes(pkgDo.value));
+                    refDo.next(TAG_PKG_REF_DO, true); //CA
+                    packageName = new String(refDo.getData(), refDo.getValueOffset(),
+                            refDo.getValueLength());
                 } else {
                     packageName = null;
                 }
             } else if (rule.startsWith(TAG_AR_DO)) {
-                TLV arDo = new TLV(TAG_AR_DO); //E3
-                rule = arDo.parse(rule, false);
+                rule.next(TAG_AR_DO, false); //E3
                 // Skip all the irrelevant tags (All the optional tags here are two bytes
                 // according to the spec GlobalPlatform Secure Element Access Control).
-                String remain = arDo.value;
-                while (!remain.isEmpty() && !remain.startsWith(TAG_PERM_AR_DO)) {
-                    TLV tmpDo = new TLV(remain.substring(0, 2));
-                    remain = tmpDo.parse(remain, false);
+                TlvCursor arDo = rule.valueCursor();
+                while (arDo.hasRemaining() && !arDo.startsWith(TAG_PERM_AR_DO)) {
+                    arDo.next(1 /* tagLength */, false);
                 }
-                if (remain.isEmpty()) {
+                if (!arDo.hasRemaining()) {
                     return null;
                 }
-                TLV permDo = new TLV(TAG_PERM_AR_DO); //DB
-                permDo.parse(remain, true);
+                arDo.next(TAG_PERM_AR_DO, true); //DB
             } else  {
                 // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
                 throw new RuntimeException("Invalid Rule type");
             }
         }
 
-        UiccAccessRule accessRule = new UiccAccessRule(
-                IccUtils.hexStringToBytes(certificateHash), packageName, accessType);
+        UiccAccessRule accessRule = new UiccAccessRule(certificateHash, packageName, accessType);
         return accessRule;
     }
 
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc.euicc;
+
+import com.android.internal.telephony.uicc.asn1.Asn1Decoder;
+import com.android.internal.telephony.uicc.asn1.Asn1Node;
+import com.android.internal.telephony.uicc.asn1.InvalidAsn1DataException;
+
+import java.util.Arrays;
+
+/**
+ * Reads BER-TLV encoded data one node at a time, without decoding it into a tree of
+ * {@link Asn1Node}s. Tags are represented as in {@link Asn1Node}.
+ *
+ * <p>{@link #next()} reads the header of the next node at the current level. The value of a
+ * constructed node can then be read with {@link #enter()} and {@link #exit()}, or the node can be
+ * decoded on its own with {@link #decodeNode()}. Nodes which are not read are skipped by the next
+ * call to {@link #next()}.
+ */
+final class Asn1Reader {
+    // The bit in the first tag byte of a constructed node.
+    private static final int CONSTRUCTED_BIT = 0x20;
+    // The tag number in the first tag byte if more tag bytes follow.
+    private static final int MULTI_BYTE_TAG_NUMBER = 0x1F;
+    private static final int MAX_DEPTH = 16;
+
+    private final byte[] mData;
+    // The position of the next node at the current level.
+    private int mPosition;
+    // The end of the current level.
+    private int mEnd;
+    // The ends of the enclosing levels.
+    private final int[] mEnds = new int[MAX_DEPTH];
+    private int mDepth;
+
+    // The current node.
+    private int mTag;
+    private int mNodeStart;
+    private int mValueStart;
+    private int mValueLength;
+
+    Asn1Reader(byte[] data) {
+        mData = data;
+        mEnd = data.length;
+        mNodeStart = -1;
+    }
+
+    /** @return Whether there is another node at the current level. */
+    boolean hasNext() {
+        return mPosition < mEnd;
+    }
+
+    /**
+     * Reads the header of the next node at the current level.
+     *
+     * @return The tag of the node.
+     * @throws InvalidAsn1DataException If there is no next node or it is not correctly encoded.
+     */
+    int next() throws InvalidAsn1DataException {
+        if (mPosition >= mEnd) {
+            throw new InvalidAsn1DataException(0, "No more node at position " + mPosition);
+        }
+        int position = mPosition;
+        int tagStart = position;
+        if ((mData[position++] & MULTI_BYTE_TAG_NUMBER) == MULTI_BYTE_TAG_NUMBER) {
+            while (position < mEnd && (mData[position] & 0x80) != 0) {
+                position++;
+            }
+            position++;
+        }
+        if (position >= mEnd || position - tagStart > 4) {
+            throw new InvalidAsn1DataException(0, "Invalid tag at position " + tagStart);
+        }
+        int tag = 0;
+        for (int i = tagStart; i < position; i++) {
+            tag = (tag << 8) | (mData[i] & 0xFF);
+        }
+
+        int length = mData[position++] & 0xFF;
+        if (length > 0x7F) {
+            int lengthBytes = length & 0x7F;
+            if (lengthBytes > 3 || position + lengthBytes > mEnd) {
+                throw new InvalidAsn1DataException(tag,
+                        "Invalid length at position " + (position - 1));
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (mData[position++] & 0xFF);
+            }
+        }
+        if (length > mEnd - position) {
+            throw new InvalidAsn1DataException(tag,
+                    "Incomplete data at position " + position + ", length " + length);
+        }
+
+        mTag = tag;
+        mNodeStart = tagStart;
+        mValueStart = position;
+        mValueLength = length;
+        mPosition = position + length;
+        return tag;
+    }
+
+    /** @return The tag of the current node. */
+    int getTag() {
+        return mTag;
+    }
+
+    /** @return Whether the current node is constructed. */
+    boolean isConstructed() {
+        return (mData[mNodeStart] & CONSTRUCTED_BIT) != 0;
+    }
+
+    /**
+     * Reads the children of the current constructed node with the following calls to
+     * {@link #next()}, until {@link #exit()} is called.
+     */
+    void enter() throws InvalidAsn1DataException {
+        if (mNodeStart < 0 || !isConstructed()) {
+            throw new InvalidAsn1DataException(mTag, "Cannot enter a primitive node.");
+        }
+        if (mDepth == MAX_DEPTH) {
+            throw new InvalidAsn1DataException(mTag, "Too many levels.");
+        }
+        mEnds[mDepth++] = mEnd;
+        mEnd = mValueStart + mValueLength;
+        mPosition = mValueStart;
+        mNodeStart = -1;
+    }
+
+    /**
+     * Skips the remaining children of the node entered last, and continues with the node after it.
+     */
+    void exit() {
+        mPosition = mEnd;
+        mEnd = mEnds[--mDepth];
+        mNodeStart = -1;
+    }
+
+    /**
+     * Reads the nodes at the current level until one with the given tag.
+     *
+     * @return Whether a node with the tag was found. If not, all nodes at the current level have
+     *     been read.
+     */
+    boolean skipTo(int tag) throws InvalidAsn1DataException {
+        while (hasNext()) {
+            if (next() == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return A copy of the value of the current node. */
+    byte[] getBytes() {
+        return Arrays.copyOfRange(mData, mValueStart, mValueStart + mValueLength);
+    }
+
+    /** @return The current node, including its children, decoded as an {@link Asn1Node}. */
+    Asn1Node decodeNode() throws InvalidAsn1DataException {
+        return new Asn1Decoder(mData, mNodeStart, mValueStart + mValueLength - mNodeStart)
+                .nextNode();
+    }
+}
@@ -56,6 +56,7 @@ import com.android.telephony.Rlog;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -70,6 +71,9 @@ public class EuiccPort extends UiccPort {
 
     private static final String ISD_R_AID = "A0000005591010FFFFFFFF8900000100";
     private static final int ICCID_LENGTH = 20;
+    // The ISD-R logical channel is kept open between APDU requests sent within this time, e.g.
+    // when the LPA reads the profiles one by one.
+    private static final long APDU_SESSION_IDLE_TIMEOUT_MS = 2000;
 
     // APDU status for SIM refresh
     private static final int APDU_ERROR_SIM_REFRESH = 0x6F00;
@@ -133,7 +137,8 @@ public class EuiccPort extends UiccPort {
             UiccCard card, MultipleEnabledProfilesMode supportedMepMode) {
         super(c, ci, ics, phoneId, lock, card);
         // TODO: Set supportExtendedApdu based on ATR.
-        mApduSender = new ApduSender(ci, ISD_R_AID, false /* supportExtendedApdu */);
+        mApduSender = new ApduSender(ci, ISD_R_AID, false /* supportExtendedApdu */,
+                APDU_SESSION_IDLE_TIMEOUT_MS);
         if (TextUtils.isEmpty(ics.eid)) {
             loge("no eid given in constructor for phone " + phoneId);
         } else {
@@ -190,15 +195,21 @@ public class EuiccPort extends UiccPort {
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_PROFILES)
                                 .addChildAsBytes(Tags.TAG_TAG_LIST, profileTags)
-                                .build().toHex())),
+                                .build().toBytes())),
                 response -> {
-                    List<Asn1Node> profileNodes = new Asn1Decoder(response).nextNode()
-                            .getChild(Tags.TAG_CTX_COMP_0).getChildren(Tags.TAG_PROFILE_INFO);
-                    int size = profileNodes.size();
-                    EuiccProfileInfo[] profiles = new EuiccProfileInfo[size];
-                    int profileCount = 0;
-                    for (int i = 0; i < size; i++) {
-                        Asn1Node profileNode = profileNodes.get(i);
+                    // Decodes the profiles one at a time instead of the whole listing at once.
+                    Asn1Reader reader = new Asn1Reader(response);
+                    reader.next();
+                    reader.enter();
+                    if (!reader.skipTo(Tags.TAG_CTX_COMP_0)) {
+                        throw new TagNotFoundException(Tags.TAG_CTX_COMP_0);
+                    }
+                    reader.enter();
+                    List<EuiccProfileInfo> profiles = new ArrayList<>();
+                    int size = 0;
+                    while (reader.skipTo(Tags.TAG_PROFILE_INFO)) {
+                        size++;
+                        Asn1Node profileNode = reader.decodeNode();
                         if (!profileNode.hasChild(Tags.TAG_ICCID)) {
                             loge("Profile must have an ICCID.");
                             continue;
@@ -209,10 +220,10 @@ public class EuiccPort extends UiccPort {
                                 new EuiccProfileInfo.Builder(strippedIccIdString);
                         buildProfile(profileNode, profileBuilder);
 
-                        EuiccProfileInfo profile = profileBuilder.build();
-                        profiles[profileCount++] = profile;
+                        profiles.add(profileBuilder.build());
                     }
-                    return profiles;
+                    // Profiles without an ICCID leave nulls at the end, as before.
+                    return profiles.toArray(new EuiccProfileInfo[size]);
                 },
                 callback, handler);
     }
@@ -236,7 +247,7 @@ public class EuiccPort extends UiccPort {
                                                 IccUtils.bcdToBytes(padTrailingFs(iccid)))
                                         .build())
                                 .addChildAsBytes(Tags.TAG_TAG_LIST, profileTags)
-                                .build().toHex())),
+                                .build().toBytes())),
                 response -> {
                     List<Asn1Node> profileNodes = new Asn1Decoder(response).nextNode()
                             .getChild(Tags.TAG_CTX_COMP_0).getChildren(Tags.TAG_PROFILE_INFO);
@@ -271,7 +282,7 @@ public class EuiccPort extends UiccPort {
                             .addChild(Asn1Node.newBuilder(Tags.TAG_CTX_COMP_0)
                                     .addChildAsBytes(Tags.TAG_ICCID, iccidBytes))
                             .addChildAsBoolean(Tags.TAG_CTX_1, refresh)
-                            .build().toHex());
+                            .build().toBytes());
                 }),
                 response -> {
                     int result;
@@ -319,7 +330,7 @@ public class EuiccPort extends UiccPort {
                                 PortUtils.convertToHalPortIndex(mSupportedMepMode,
                                         super.getPortIdx()));
                     }
-                    requestBuilder.addStoreData(builder.build().toHex());
+                    requestBuilder.addStoreData(builder.build().toBytes());
                 }),
                 response -> {
                     int result;
@@ -364,7 +375,7 @@ public class EuiccPort extends UiccPort {
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_EID)
                                 .addChildAsBytes(Tags.TAG_TAG_LIST, new byte[] {Tags.TAG_EID})
-                                .build().toHex())),
+                                .build().toBytes())),
                 response -> {
                     String eid = IccUtils.bytesToHexString(parseResponse(response)
                             .getChild(Tags.TAG_EID).asBytes());
@@ -392,7 +403,7 @@ public class EuiccPort extends UiccPort {
                                 .addChildAsBytes(Tags.TAG_ICCID,
                                         IccUtils.bcdToBytes(padTrailingFs(iccid)))
                                 .addChildAsString(Tags.TAG_NICKNAME, nickname)
-                                .build().toHex())),
+                                .build().toBytes())),
                 response -> {
                     // SGP.22 v2.0 SetNicknameResponse
                     int result = parseSimpleResult(response);
@@ -418,7 +429,7 @@ public class EuiccPort extends UiccPort {
                     byte[] iccidBytes = IccUtils.bcdToBytes(padTrailingFs(iccid));
                     requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_DELETE_PROFILE)
                             .addChildAsBytes(Tags.TAG_ICCID, iccidBytes)
-                            .build().toHex());
+                            .build().toBytes());
                 }),
                 response -> {
                     // SGP.22 v2.0 DeleteProfileRequest
@@ -446,7 +457,7 @@ public class EuiccPort extends UiccPort {
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_EUICC_MEMORY_RESET)
                                 .addChildAsBits(Tags.TAG_CTX_2, options)
-                                .build().toHex())),
+                                .build().toBytes())),
                 response -> {
                     int result = parseSimpleResult(response);
                     if (result != CODE_OK && result != CODE_NOTHING_TO_DELETE) {
@@ -470,7 +481,7 @@ public class EuiccPort extends UiccPort {
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(
                                 Asn1Node.newBuilder(Tags.TAG_GET_CONFIGURED_ADDRESSES)
-                                        .build().toHex())),
+                                        .build().toBytes())),
                 (byte[] response) -> parseResponse(response).getChild(Tags.TAG_CTX_0).asString(),
                 callback, handler);
     }
@@ -487,7 +498,7 @@ public class EuiccPort extends UiccPort {
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(
                                 Asn1Node.newBuilder(Tags.TAG_GET_CONFIGURED_ADDRESSES)
-                                        .build().toHex())),
+                                        .build().toBytes())),
                 (byte[] response) -> parseResponse(response).getChild(Tags.TAG_CTX_1).asString(),
                 callback, handler);
     }
@@ -506,7 +517,7 @@ public class EuiccPort extends UiccPort {
                         requestBuilder.addStoreData(
                                 Asn1Node.newBuilder(Tags.TAG_SET_DEFAULT_SMDP_ADDRESS)
                                         .addChildAsString(Tags.TAG_CTX_0, defaultSmdpAddress)
-                                        .build().toHex())),
+                                        .build().toBytes())),
                 response -> {
                     // SGP.22 v2.0 SetDefaultDpAddressResponse
                     int result = parseSimpleResult(response);
@@ -531,7 +542,7 @@ public class EuiccPort extends UiccPort {
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_RAT)
-                                .build().toHex())),
+                                .build().toBytes())),
                 response -> {
                     Asn1Node root = parseResponse(response);
                     List<Asn1Node> nodes = root.getChildren(Tags.TAG_CTX_COMP_0);
@@ -568,7 +579,7 @@ public class EuiccPort extends UiccPort {
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(
                                 Asn1Node.newBuilder(Tags.TAG_GET_EUICC_CHALLENGE)
-                                        .build().toHex())),
+                                        .build().toBytes())),
                 (byte[] response) -> parseResponse(response).getChild(Tags.TAG_CTX_0).asBytes(),
                 callback, handler);
     }
@@ -585,7 +596,7 @@ public class EuiccPort extends UiccPort {
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_EUICC_INFO_1)
-                                .build().toHex())),
+                                .build().toBytes())),
                 (response) -> response,
                 callback, handler);
     }
@@ -602,7 +613,7 @@ public class EuiccPort extends UiccPort {
         sendApdu(
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_GET_EUICC_INFO_2)
-                                .build().toHex())),
+                                .build().toBytes())),
                 (response) -> response,
                 callback, handler);
     }
@@ -652,7 +663,7 @@ public class EuiccPort extends UiccPort {
                             .addChild(new Asn1Decoder(euiccCiPkIdToBeUsed).nextNode())
                             .addChild(new Asn1Decoder(serverCertificate).nextNode())
                             .addChild(ctxParams1Builder)
-                            .build().toHex());
+                            .build().toBytes());
                 }),
                 response -> {
                     Asn1Node root = parseResponse(response);
@@ -690,7 +701,7 @@ public class EuiccPort extends UiccPort {
                     }
                     requestBuilder.addStoreData(
                             builder.addChild(new Asn1Decoder(smdpCertificate).nextNode())
-                                    .build().toHex());
+                                    .build().toBytes());
                 }),
                 response -> {
                     Asn1Node root = parseResponse(response);
@@ -778,22 +789,22 @@ public class EuiccPort extends UiccPort {
                     requestBuilder.addStoreData(bppNode.getHeadAsHex()
                             + initialiseSecureChannelRequest.toHex());
 
-                    requestBuilder.addStoreData(firstSequenceOf87.toHex());
+                    requestBuilder.addStoreData(firstSequenceOf87.toBytes());
 
                     requestBuilder.addStoreData(sequenceOf88.getHeadAsHex());
                     int size = metaDataSeqs.size();
                     for (int i = 0; i < size; i++) {
-                        requestBuilder.addStoreData(metaDataSeqs.get(i).toHex());
+                        requestBuilder.addStoreData(metaDataSeqs.get(i).toBytes());
                     }
 
                     if (secondSequenceOf87 != null) {
-                        requestBuilder.addStoreData(secondSequenceOf87.toHex());
+                        requestBuilder.addStoreData(secondSequenceOf87.toBytes());
                     }
 
                     requestBuilder.addStoreData(sequenceOf86.getHeadAsHex());
                     size = elementSeqs.size();
                     for (int i = 0; i < size; i++) {
-                        requestBuilder.addStoreData(elementSeqs.get(i).toHex());
+                        requestBuilder.addStoreData(elementSeqs.get(i).toBytes());
                     }
                 }),
                 response -> {
@@ -841,7 +852,7 @@ public class EuiccPort extends UiccPort {
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_CANCEL_SESSION)
                                 .addChildAsBytes(Tags.TAG_CTX_0, transactionId)
                                 .addChildAsInteger(Tags.TAG_CTX_1, reason)
-                                .build().toHex())),
+                                .build().toBytes())),
                 (byte[] response) ->
                         parseResponseAndCheckSimpleError(response,
                                 EuiccCardErrorException.OPERATION_CANCEL_SESSION).toBytes(),
@@ -862,7 +873,7 @@ public class EuiccPort extends UiccPort {
                 newRequestProvider((RequestBuilder requestBuilder) ->
                         requestBuilder.addStoreData(Asn1Node.newBuilder(Tags.TAG_LIST_NOTIFICATION)
                                 .addChildAsBits(Tags.TAG_CTX_1, events)
-                                .build().toHex())),
+                                .build().toBytes())),
                 response -> {
                     Asn1Node root = parseResponseAndCheckSimpleError(response,
                             EuiccCardErrorException.OPERATION_LIST_NOTIFICATIONS);
@@ -892,7 +903,7 @@ public class EuiccPort extends UiccPort {
                                 Asn1Node.newBuilder(Tags.TAG_RETRIEVE_NOTIFICATIONS_LIST)
                                         .addChild(Asn1Node.newBuilder(Tags.TAG_CTX_COMP_0)
                                                 .addChildAsBits(Tags.TAG_CTX_1, events))
-                                        .build().toHex())),
+                                        .build().toBytes())),
                 response -> {
                     Asn1Node root = parseResponse(response);
                     if (root.hasChild(Tags.TAG_CTX_1)) {
@@ -933,7 +944,7 @@ public class EuiccPort extends UiccPort {
                                 Asn1Node.newBuilder(Tags.TAG_RETRIEVE_NOTIFICATIONS_LIST)
                                         .addChild(Asn1Node.newBuilder(Tags.TAG_CTX_COMP_0)
                                                 .addChildAsInteger(Tags.TAG_CTX_0, seqNumber))
-                                        .build().toHex())),
+                                        .build().toBytes())),
                 response -> {
                     Asn1Node root = parseResponseAndCheckSimpleError(response,
                             EuiccCardErrorException.OPERATION_RETRIEVE_NOTIFICATION);
@@ -961,7 +972,7 @@ public class EuiccPort extends UiccPort {
                         requestBuilder.addStoreData(
                                 Asn1Node.newBuilder(Tags.TAG_REMOVE_NOTIFICATION_FROM_LIST)
                                         .addChildAsInteger(Tags.TAG_CTX_0, seqNumber)
-                                        .build().toHex())),
+                                        .build().toBytes())),
                 response -> {
                     // SGP.22 v2.0 NotificationSentResponse
                     int result = parseSimpleResult(response);
@@ -1163,7 +1174,7 @@ public class EuiccPort extends UiccPort {
             Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                null, callback, handler);
+                null, false /* closeChannel */, callback, handler);
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
@@ -1172,7 +1183,7 @@ public class EuiccPort extends UiccPort {
             AsyncResultCallback<T> callback, Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                intermediateResultHandler, callback, handler);
+                intermediateResultHandler, false /* closeChannel */, callback, handler);
     }
 
     /**
@@ -1187,6 +1198,7 @@ public class EuiccPort extends UiccPort {
     private void sendApduWithSimResetErrorWorkaround(
             RequestProvider requestBuilder, ApduResponseHandler<Void> responseHandler,
             AsyncResultCallback<Void> callback, Handler handler) {
+        // The logical channel does not survive the SIM refresh, so it is not kept open.
         sendApdu(requestBuilder, responseHandler, (e) -> {
             if (e instanceof ApduException
                     && ((ApduException) e).getApduStatus() == APDU_ERROR_SIM_REFRESH) {
@@ -1195,16 +1207,17 @@ public class EuiccPort extends UiccPort {
             } else {
                 callback.onException(new EuiccCardException("Cannot send APDU.", e));
             }
-        }, null, callback, handler);
+        }, null, true /* closeChannel */, callback, handler);
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
             ApduResponseHandler<T> responseHandler,
             ApduExceptionHandler exceptionHandler,
             @Nullable ApduIntermediateResultHandler intermediateResultHandler,
+            boolean closeChannel,
             AsyncResultCallback<T> callback,
             Handler handler) {
-        mApduSender.send(requestBuilder, new ApduSenderResultCallback() {
+        ApduSenderResultCallback resultCallback = new ApduSenderResultCallback() {
             @Override
             public void onResult(byte[] response) {
                 try {
@@ -1229,7 +1242,12 @@ public class EuiccPort extends UiccPort {
             public void onException(Throwable e) {
                 exceptionHandler.handleException(e);
             }
-        }, handler);
+        };
+        if (closeChannel) {
+            mApduSender.sendAndCloseChannel(requestBuilder, resultCallback, handler);
+        } else {
+            mApduSender.send(requestBuilder, resultCallback, handler);
+        }
     }
 
     private static void buildProfile(Asn1Node profileNode, EuiccProfileInfo.Builder profileBuilder)
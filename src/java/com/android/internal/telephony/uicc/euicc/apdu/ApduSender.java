@@ -21,6 +21,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.telephony.IccOpenLogicalChannelResponse;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.uicc.IccIoResult;
 import com.android.internal.telephony.uicc.euicc.async.AsyncResultCallback;
@@ -29,6 +30,7 @@ import com.android.telephony.Rlog;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.List;
 
 /**
@@ -38,6 +40,10 @@ import java.util.List;
  * {@link #STATUS_NO_ERROR}) or causing an exception, an {@link ApduException} will be returned
  * immediately without sending the rest of commands. This class is thread-safe.
  *
+ * <p>In session mode, the logical channel is kept open after a request and reused by the following
+ * requests, until it has been idle for the session idle timeout or a request fails. Requests sent
+ * while the channel is in use are queued and sent in order, instead of failing.
+ *
  * @hide
  */
 public class ApduSender {
@@ -50,6 +56,8 @@ public class ApduSender {
     // Status code of APDU response
     private static final int STATUS_NO_ERROR = 0x9000;
     private static final int SW1_NO_ERROR = 0x91;
+    // Status returned by TransmitApduLogicalChannelInvocation if the command could not be sent.
+    private static final int STATUS_TRANSMIT_ERROR = 0x6F00;
 
     private static final int WAIT_TIME_MS = 2000;
 
@@ -61,23 +69,69 @@ public class ApduSender {
         Rlog.d(LOG_TAG, msg);
     }
 
+    /** A request waiting for, or using, the logical channel. */
+    private static final class Request {
+        final RequestProvider mRequestProvider;
+        final ApduSenderResultCallback mResultCallback;
+        final Handler mHandler;
+        // Whether to close the channel after this request, even in session mode.
+        final boolean mCloseChannel;
+        // Whether the request is sent on a channel opened for an earlier request, which may have
+        // been closed by the modem since.
+        boolean mOnReusedChannel;
+
+        Request(RequestProvider requestProvider, ApduSenderResultCallback resultCallback,
+                Handler handler, boolean closeChannel) {
+            mRequestProvider = requestProvider;
+            mResultCallback = resultCallback;
+            mHandler = handler;
+            mCloseChannel = closeChannel;
+        }
+    }
+
     private final String mAid;
     private final boolean mSupportExtendedApdu;
+    private final long mSessionIdleTimeoutMs;
     private final OpenLogicalChannelInvocation mOpenChannel;
     private final CloseLogicalChannelInvocation mCloseChannel;
     private final TransmitApduLogicalChannelInvocation mTransmitApdu;
+    private final Runnable mCloseIdleSession = this::closeIdleSession;
 
     // Lock for accessing mChannelOpened. We only allow to open a single logical channel at any
     // time for an AID.
     private final Object mChannelLock = new Object();
+    // Whether the channel is in use by a request or, in session mode, being closed.
+    @GuardedBy("mChannelLock")
     private boolean mChannelOpened;
+    // Session mode only: the open channel and its select response.
+    @GuardedBy("mChannelLock")
+    private int mSessionChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+    @GuardedBy("mChannelLock")
+    private byte[] mSessionSelectResponse;
+    // Session mode only: the requests waiting for the channel, in order.
+    @GuardedBy("mChannelLock")
+    private final ArrayDeque<Request> mPendingRequests = new ArrayDeque<>();
+    // Session mode only: the handler on which the idle channel will be closed.
+    @GuardedBy("mChannelLock")
+    private Handler mIdleTimeoutHandler;
 
     /**
      * @param aid The AID that will be used to open a logical channel to.
      */
     public ApduSender(CommandsInterface ci, String aid, boolean supportExtendedApdu) {
+        this(ci, aid, supportExtendedApdu, 0 /* sessionIdleTimeoutMs */);
+    }
+
+    /**
+     * @param aid The AID that will be used to open a logical channel to.
+     * @param sessionIdleTimeoutMs If positive, the logical channel is kept open between requests
+     *     and closed after being idle for this time.
+     */
+    public ApduSender(CommandsInterface ci, String aid, boolean supportExtendedApdu,
+            long sessionIdleTimeoutMs) {
         mAid = aid;
         mSupportExtendedApdu = supportExtendedApdu;
+        mSessionIdleTimeoutMs = sessionIdleTimeoutMs;
         mOpenChannel = new OpenLogicalChannelInvocation(ci);
         mCloseChannel = new CloseLogicalChannelInvocation(ci);
         mTransmitApdu = new TransmitApduLogicalChannelInvocation(ci);
@@ -99,8 +153,34 @@ public class ApduSender {
             RequestProvider requestProvider,
             ApduSenderResultCallback resultCallback,
             Handler handler) {
+        send(new Request(requestProvider, resultCallback, handler, false /* closeChannel */));
+    }
+
+    /**
+     * Sends APDU commands as {@link #send(RequestProvider, ApduSenderResultCallback, Handler)},
+     * and closes the logical channel afterwards even in session mode. This should be used for
+     * commands after which the logical channel may no longer be valid, e.g. those resetting the
+     * UICC.
+     */
+    public void sendAndCloseChannel(
+            RequestProvider requestProvider,
+            ApduSenderResultCallback resultCallback,
+            Handler handler) {
+        send(new Request(requestProvider, resultCallback, handler, true /* closeChannel */));
+    }
+
+    private boolean isSessionMode() {
+        return mSessionIdleTimeoutMs > 0;
+    }
+
+    private void send(Request request) {
         synchronized (mChannelLock) {
             if (mChannelOpened) {
+                if (isSessionMode()) {
+                    logd("Logical channel is in use. Queue the request.");
+                    mPendingRequests.add(request);
+                    return;
+                }
                 if (!Looper.getMainLooper().equals(Looper.myLooper())) {
                     logd("Logical channel has already been opened. Wait.");
                     try {
@@ -111,17 +191,48 @@ public class ApduSender {
                     if (mChannelOpened) {
                         AsyncResultHelper.throwException(
                                 new ApduException("The logical channel is still in use."),
-                                resultCallback, handler);
+                                request.mResultCallback, request.mHandler);
                         return;
                     }
                 } else {
                     AsyncResultHelper.throwException(
                             new ApduException("The logical channel is in use."),
-                            resultCallback, handler);
+                            request.mResultCallback, request.mHandler);
                     return;
                 }
             }
             mChannelOpened = true;
+            cancelIdleTimeoutLocked();
+        }
+        openChannelAndSend(request);
+    }
+
+    /**
+     * Sends the request on the open session channel, or on a newly opened channel. A request
+     * closing the channel is always sent on a newly opened channel, as a failure to send it on a
+     * channel closed by the modem could not be told apart from a reset of the UICC.
+     */
+    private void openChannelAndSend(Request request) {
+        int staleChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+        synchronized (mChannelLock) {
+            if (mSessionChannel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                if (request.mCloseChannel) {
+                    staleChannel = mSessionChannel;
+                } else {
+                    request.mOnReusedChannel = true;
+                    int channel = mSessionChannel;
+                    byte[] selectResponse = mSessionSelectResponse;
+                    // Build and send the request on its handler, as when opening a channel.
+                    request.mHandler.post(() -> sendRequest(channel, selectResponse, request));
+                    return;
+                }
+            }
+        }
+        if (staleChannel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+            logd("Close the session channel before a request closing the channel.");
+            closeSessionChannel(staleChannel, () -> openChannelAndSend(request),
+                    request.mHandler);
+            return;
         }
 
         mOpenChannel.invoke(mAid, new AsyncResultCallback<IccOpenLogicalChannelResponse>() {
@@ -131,33 +242,40 @@ public class ApduSender {
                 int status = openChannelResponse.getStatus();
                 if (channel == IccOpenLogicalChannelResponse.INVALID_CHANNEL
                         || status != IccOpenLogicalChannelResponse.STATUS_NO_ERROR) {
-                    synchronized (mChannelLock) {
-                        mChannelOpened = false;
-                        mChannelLock.notify();
-                    }
-                    resultCallback.onException(
+                    returnResult(request, null /* response */,
                             new ApduException("Failed to open logical channel opened for AID: "
                                     + mAid + ", with status: " + status));
                     return;
                 }
-
-                RequestBuilder builder = new RequestBuilder(channel, mSupportExtendedApdu);
-                Throwable requestException = null;
-                try {
-                    requestProvider.buildRequest(openChannelResponse.getSelectResponse(), builder);
-                } catch (Throwable e) {
-                    requestException = e;
-                }
-                if (builder.getCommands().isEmpty() || requestException != null) {
-                    // Just close the channel if we don't have commands to send or an error
-                    // was encountered.
-                    closeAndReturn(channel, null /* response */, requestException, resultCallback,
-                            handler);
-                    return;
+                if (isSessionMode()) {
+                    synchronized (mChannelLock) {
+                        mSessionChannel = channel;
+                        mSessionSelectResponse = openChannelResponse.getSelectResponse();
+                    }
                 }
-                sendCommand(builder.getCommands(), 0 /* index */, resultCallback, handler);
+                sendRequest(channel, openChannelResponse.getSelectResponse(), request);
             }
-        }, handler);
+        }, request.mHandler);
+    }
+
+    /**
+     * Builds the request and sends its commands on the open channel.
+     */
+    private void sendRequest(int channel, byte[] selectResponse, Request request) {
+        RequestBuilder builder = new RequestBuilder(channel, mSupportExtendedApdu);
+        Throwable requestException = null;
+        try {
+            request.mRequestProvider.buildRequest(selectResponse, builder);
+        } catch (Throwable e) {
+            requestException = e;
+        }
+        if (builder.getCommands().isEmpty() || requestException != null) {
+            // Just close the channel if we don't have commands to send or an error
+            // was encountered.
+            closeAndReturn(channel, null /* response */, requestException, request);
+            return;
+        }
+        sendCommand(builder.getCommands(), 0 /* index */, request);
     }
 
     /**
@@ -170,9 +288,10 @@ public class ApduSender {
     private void sendCommand(
             List<ApduCommand> commands,
             int index,
-            ApduSenderResultCallback resultCallback,
-            Handler handler) {
+            Request request) {
         ApduCommand command = commands.get(index);
+        ApduSenderResultCallback resultCallback = request.mResultCallback;
+        Handler handler = request.mHandler;
         mTransmitApdu.invoke(command, new AsyncResultCallback<IccIoResult>() {
             @Override
             public void onResult(IccIoResult response) {
@@ -184,9 +303,19 @@ public class ApduSender {
                             public void onResult(IccIoResult fullResponse) {
                                 logv("Full APDU response: " + fullResponse);
                                 int status = (fullResponse.sw1 << 8) | fullResponse.sw2;
+                                if (index == 0 && request.mOnReusedChannel
+                                        && status == STATUS_TRANSMIT_ERROR) {
+                                    // The session channel may have been closed by the modem,
+                                    // e.g. on a SIM refresh. Send the request on a new channel.
+                                    logd("Failed to send on the session channel. Reopen.");
+                                    request.mOnReusedChannel = false;
+                                    closeSessionChannel(command.channel,
+                                            () -> openChannelAndSend(request), handler);
+                                    return;
+                                }
                                 if (status != STATUS_NO_ERROR && fullResponse.sw1 != SW1_NO_ERROR) {
                                     closeAndReturn(command.channel, null /* response */,
-                                            new ApduException(status), resultCallback, handler);
+                                            new ApduException(status), request);
                                     return;
                                 }
 
@@ -196,11 +325,11 @@ public class ApduSender {
                                                 fullResponse);
                                 if (continueSendCommand) {
                                     // Sends the next command
-                                    sendCommand(commands, index + 1, resultCallback, handler);
+                                    sendCommand(commands, index + 1, request);
                                 } else {
                                     // Returns the result of the last command
                                     closeAndReturn(command.channel, fullResponse.payload,
-                                            null /* exception */, resultCallback, handler);
+                                            null /* exception */, request);
                                 }
                             }
                         }, handler);
@@ -222,6 +351,14 @@ public class ApduSender {
             @Nullable ByteArrayOutputStream responseBuilder,
             AsyncResultCallback<IccIoResult> resultCallback,
             Handler handler) {
+        if (responseBuilder == null && lastResponse.sw1 != SW1_MORE_RESPONSE) {
+            // The response is complete in one piece, so it does not need to be copied.
+            if (lastResponse.payload == null) {
+                lastResponse.payload = new byte[0];
+            }
+            resultCallback.onResult(lastResponse);
+            return;
+        }
         ByteArrayOutputStream resultBuilder =
                 responseBuilder == null ? new ByteArrayOutputStream() : responseBuilder;
         if (lastResponse.payload != null) {
@@ -250,7 +387,8 @@ public class ApduSender {
     }
 
     /**
-     * Closes the opened logical channel.
+     * Closes the opened logical channel. In session mode, the channel is kept open unless an error
+     * happened or the request asked to close it.
      *
      * @param response If {@code exception} is null, this will be returned to {@code resultCallback}
      *     after the channel has been closed.
@@ -261,22 +399,109 @@ public class ApduSender {
             int channel,
             @Nullable byte[] response,
             @Nullable Throwable exception,
-            ApduSenderResultCallback resultCallback,
-            Handler handler) {
+            Request request) {
+        if (isSessionMode()) {
+            if (exception == null && !request.mCloseChannel) {
+                returnResult(request, response, null /* exception */);
+            } else {
+                closeSessionChannel(channel,
+                        () -> returnResult(request, response, exception), request.mHandler);
+            }
+            return;
+        }
+
         mCloseChannel.invoke(channel, new AsyncResultCallback<Boolean>() {
             @Override
             public void onResult(Boolean aBoolean) {
-                synchronized (mChannelLock) {
-                    mChannelOpened = false;
-                    mChannelLock.notify();
+                returnResult(request, response, exception);
+            }
+        }, request.mHandler);
+    }
+
+    /**
+     * Releases the channel and returns the result of the request. In session mode, the next
+     * queued request is sent, or the idle timeout is started if there is none.
+     */
+    private void returnResult(
+            Request request,
+            @Nullable byte[] response,
+            @Nullable Throwable exception) {
+        Request next;
+        synchronized (mChannelLock) {
+            next = mPendingRequests.poll();
+            if (next == null) {
+                mChannelOpened = false;
+                mChannelLock.notify();
+                if (mSessionChannel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                    mIdleTimeoutHandler = request.mHandler;
+                    mIdleTimeoutHandler.postDelayed(mCloseIdleSession, mSessionIdleTimeoutMs);
                 }
+            }
+        }
 
-                if (exception == null) {
-                    resultCallback.onResult(response);
-                } else {
-                    resultCallback.onException(exception);
+        if (exception == null) {
+            request.mResultCallback.onResult(response);
+        } else {
+            request.mResultCallback.onException(exception);
+        }
+        if (next != null) {
+            openChannelAndSend(next);
+        }
+    }
+
+    /**
+     * Closes the session channel, and then runs {@code onClosed} on {@code handler}.
+     */
+    private void closeSessionChannel(int channel, Runnable onClosed, Handler handler) {
+        synchronized (mChannelLock) {
+            mSessionChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+            mSessionSelectResponse = null;
+        }
+        mCloseChannel.invoke(channel, new AsyncResultCallback<Boolean>() {
+            @Override
+            public void onResult(Boolean aBoolean) {
+                onClosed.run();
+            }
+        }, handler);
+    }
+
+    /**
+     * Closes the session channel if it is still idle after the idle timeout.
+     */
+    private void closeIdleSession() {
+        int channel;
+        Handler handler;
+        synchronized (mChannelLock) {
+            if (mChannelOpened
+                    || mSessionChannel == IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                return;
+            }
+            // Requests sent while closing are queued.
+            mChannelOpened = true;
+            channel = mSessionChannel;
+            handler = mIdleTimeoutHandler;
+            mIdleTimeoutHandler = null;
+        }
+        logd("Close the idle logical channel.");
+        closeSessionChannel(channel, () -> {
+            Request next;
+            synchronized (mChannelLock) {
+                next = mPendingRequests.poll();
+                if (next == null) {
+                    mChannelOpened = false;
                 }
             }
+            if (next != null) {
+                openChannelAndSend(next);
+            }
         }, handler);
     }
+
+    @GuardedBy("mChannelLock")
+    private void cancelIdleTimeoutLocked() {
+        if (mIdleTimeoutHandler != null) {
+            mIdleTimeoutHandler.removeCallbacks(mCloseIdleSession);
+            mIdleTimeoutHandler = null;
+        }
+    }
 }
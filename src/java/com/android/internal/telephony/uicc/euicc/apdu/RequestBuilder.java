@@ -39,9 +39,13 @@ public class RequestBuilder {
     private static final int P1_STORE_DATA_INTERM = 0x11;
     private static final int P1_STORE_DATA_END = 0x91;
 
+    private static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+
     private final int mChannel;
     private final int mMaxApduDataLen;
     private final List<ApduCommand> mCommands = new ArrayList<>();
+    // Reused to convert the command data of each STORE DATA command to hex.
+    private char[] mHexBuffer;
 
     /**
      * Adds an APDU command by specifying every parts. The parameters are defined as in
@@ -88,6 +92,38 @@ public class RequestBuilder {
         addApdu(CLA_STORE_DATA, INS_STORE_DATA, P1_STORE_DATA_END, totalSubCmds - 1, data);
     }
 
+    /**
+     * Adds a STORE DATA command. Long command length of which is larger than {@link
+     * #mMaxApduDataLen} will be automatically split into multiple ones. Only the data of each
+     * command is converted to hex, so long commands are not copied as a whole.
+     *
+     * @param cmd The STORE DATA command as defined in GlobalPlatform Card Specification v.2.3.
+     */
+    public void addStoreData(byte[] cmd) {
+        int startPos = 0;
+        int totalLen = cmd.length;
+        int totalSubCmds = totalLen == 0 ? 1 : (totalLen + mMaxApduDataLen - 1) / mMaxApduDataLen;
+        for (int i = 1; i < totalSubCmds; ++i) {
+            String data = toHex(cmd, startPos, mMaxApduDataLen);
+            addApdu(CLA_STORE_DATA, INS_STORE_DATA, P1_STORE_DATA_INTERM, i - 1, data);
+            startPos += mMaxApduDataLen;
+        }
+        String data = toHex(cmd, startPos, totalLen - startPos);
+        addApdu(CLA_STORE_DATA, INS_STORE_DATA, P1_STORE_DATA_END, totalSubCmds - 1, data);
+    }
+
+    private String toHex(byte[] bytes, int offset, int length) {
+        if (mHexBuffer == null || mHexBuffer.length < length * 2) {
+            mHexBuffer = new char[length * 2];
+        }
+        for (int i = 0; i < length; i++) {
+            int b = bytes[offset + i] & 0xFF;
+            mHexBuffer[i * 2] = HEX_CHARS[b >>> 4];
+            mHexBuffer[i * 2 + 1] = HEX_CHARS[b & 0x0F];
+        }
+        return new String(mHexBuffer, 0, length * 2);
+    }
+
     List<ApduCommand> getCommands() {
         return mCommands;
     }
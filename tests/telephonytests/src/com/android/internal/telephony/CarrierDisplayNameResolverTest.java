@@ -24,11 +24,14 @@ import static org.mockito.Mockito.doReturn;
 import android.content.Context;
 import android.os.PersistableBundle;
 import android.telephony.CarrierConfigManager;
+import android.telephony.CellIdentityLte;
 import android.telephony.ServiceState;
 
 import com.android.internal.telephony.cdnr.CarrierDisplayNameData;
 import com.android.internal.telephony.cdnr.CarrierDisplayNameResolver;
 import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppState;
+import com.android.internal.telephony.uicc.IccRecords.OperatorPlmnInfo;
+import com.android.internal.telephony.uicc.IccRecords.PlmnNetworkName;
 import com.android.internal.telephony.uicc.RuimRecords;
 import com.android.internal.telephony.uicc.SIMRecords;
 import com.android.internal.telephony.uicc.UiccCardApplication;
@@ -38,6 +41,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.Collections;
+
 public class CarrierDisplayNameResolverTest extends TelephonyTest {
 
     private static final String PLMN_1 = "310260";
@@ -177,6 +182,36 @@ public class CarrierDisplayNameResolverTest extends TelephonyTest {
         assertThat(data.getPlmn()).isEqualTo(PNN_HOME_NAME_FROM_USIM);
     }
 
+    @Test
+    public void testGetPLMNNetworkName_oplPresent_returnTheMatchingEntryOfPNNList() {
+        SIMRecords usim = Mockito.mock(SIMRecords.class);
+        doReturn(SPN_FROM_USIM).when(usim).getServiceProviderName();
+        doReturn("home").when(usim).getPnnHomeName();
+        doReturn(new PlmnNetworkName[] {
+                new PlmnNetworkName("home", "h"),
+                new PlmnNetworkName("area 1", "a1"),
+                new PlmnNetworkName("area 2", "a2")}).when(usim).getPnns();
+        doReturn(new OperatorPlmnInfo[] {
+                new OperatorPlmnInfo("310DDD", 100, 199, 2),
+                new OperatorPlmnInfo(HOME_PLMN_NUMERIC, 150, 299, 3),
+                new OperatorPlmnInfo(HOME_PLMN_NUMERIC, 0, 0xFFFE, 1)}).when(usim).getOpl();
+        mCdnr.updateEfFromUsim(usim);
+        mSS.setRoaming(NON_ROAMING);
+
+        doReturn(createCellIdentityLte(150)).when(mSST).getCellIdentity();
+        assertThat(mCdnr.getCarrierDisplayNameData().getPlmn()).isEqualTo("area 1");
+
+        doReturn(createCellIdentityLte(200)).when(mSST).getCellIdentity();
+        assertThat(mCdnr.getCarrierDisplayNameData().getPlmn()).isEqualTo("area 2");
+
+        doReturn(createCellIdentityLte(300)).when(mSST).getCellIdentity();
+        assertThat(mCdnr.getCarrierDisplayNameData().getPlmn()).isEqualTo("home");
+
+        // No record matches the PLMN, so the operator name is shown.
+        mSS.setOperatorName("long name", "short name", "311480");
+        assertThat(mCdnr.getCarrierDisplayNameData().getPlmn()).isEqualTo("long name");
+    }
+
     @Test
     public void testShouldShowPLMNFromSourceBandOverride_notShowPLMN() {
         // Update ef records from brand override
@@ -271,4 +306,9 @@ public class CarrierDisplayNameResolverTest extends TelephonyTest {
         assertThat(data.shouldShowPlmn()).isTrue();
         assertThat(data.getPlmn()).isEqualTo(HOME_PLMN_NUMERIC);
     }
+
+    private static CellIdentityLte createCellIdentityLte(int tac) {
+        return new CellIdentityLte(1, 1, tac, 1, new int[] {1, 2}, 5000, "310", "260", "long name",
+                "short name", Collections.emptyList(), null);
+    }
 }
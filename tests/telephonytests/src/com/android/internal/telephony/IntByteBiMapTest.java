@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+public class IntByteBiMapTest {
+    @Test
+    @SmallTest
+    public void testLookupBothWays() {
+        IntByteBiMap map = new IntByteBiMap.Builder()
+                .put(0, (byte) 0x00)
+                .put(3, (byte) 0x30)
+                .put(IntByteBiMap.MAX_KEY, (byte) 0xF0)
+                .build();
+
+        assertEquals(3, map.size());
+        assertEquals((byte) 0x00, map.getValue(0));
+        assertEquals((byte) 0x30, map.getValue(3));
+        assertEquals((byte) 0xF0, map.getValue(IntByteBiMap.MAX_KEY));
+        assertEquals(0, map.getKey((byte) 0x00));
+        assertEquals(3, map.getKey((byte) 0x30));
+        assertEquals(IntByteBiMap.MAX_KEY, map.getKey((byte) 0xF0));
+
+        assertTrue(map.containsKey(3));
+        assertFalse(map.containsKey(1));
+        assertFalse(map.containsKey(-1));
+        assertFalse(map.containsKey(IntByteBiMap.MAX_KEY + 1));
+        assertTrue(map.containsValue((byte) 0xF0));
+        assertFalse(map.containsValue((byte) 0x10));
+        assertEquals(IntByteBiMap.NO_KEY, map.getKey((byte) 0x10));
+        assertEquals(IntByteBiMap.NO_KEY, map.getKey((byte) 0xFF));
+    }
+
+    @Test
+    @SmallTest
+    public void testMissingKey() {
+        IntByteBiMap map = new IntByteBiMap.Builder().put(1, (byte) 1).build();
+        try {
+            map.getValue(2);
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidMappings() {
+        IntByteBiMap.Builder builder = new IntByteBiMap.Builder().put(1, (byte) 0x10);
+        try {
+            builder.put(1, (byte) 0x20);
+            fail("Duplicate key");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.put(2, (byte) 0x10);
+            fail("Duplicate value");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.put(-1, (byte) 0x30);
+            fail("Negative key");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.put(IntByteBiMap.MAX_KEY + 1, (byte) 0x30);
+            fail("Key too large");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, builder.build().size());
+    }
+
+    @Test
+    @SmallTest
+    public void testBuiltMapIsImmutable() {
+        IntByteBiMap.Builder builder = new IntByteBiMap.Builder().put(1, (byte) 0x10);
+        IntByteBiMap map = builder.build();
+        builder.put(2, (byte) 0x20);
+
+        assertEquals(1, map.size());
+        assertFalse(map.containsKey(2));
+        assertFalse(map.containsValue((byte) 0x20));
+    }
+}
@@ -16,19 +16,24 @@
 
 package com.android.internal.telephony;
 
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
 
 import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
 
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
 
 /**
  * Test cases for the IntRangeManager class.
  */
 public class IntRangeManagerTest extends AndroidTestCase {
+    private static final String TAG = "IntRangeManagerTest";
 
     private static final int SMS_CB_CODE_SCHEME_MIN = 0;
     private static final int SMS_CB_CODE_SCHEME_MAX = 255;
@@ -1161,4 +1166,198 @@ public class IntRangeManagerTest extends AndroidTestCase {
                 testManager.flags);
         assertEquals("configlist size", 0, testManager.mConfigList.size());
     }
+
+    /** IntRangeManager keeping the ids enabled by the last update of the radio. */
+    class RadioIntRangeManager extends IntRangeManager {
+        BitSet mConfig = new BitSet();
+        BitSet mEnabledIds = new BitSet();
+        int mUpdateCount;
+
+        protected void startUpdate() {
+            mConfig = new BitSet();
+        }
+
+        protected void addRange(int startId, int endId, boolean selected) {
+            // enableRange may add an empty range when it left adjacent IntRanges unmerged
+            if (startId <= endId) {
+                mConfig.set(startId, endId + 1, selected);
+            }
+        }
+
+        protected boolean finishUpdate() {
+            mEnabledIds = mConfig;
+            mUpdateCount++;
+            return true;
+        }
+
+        /** Returns the ids enabled by a full update of the radio. */
+        BitSet getEnabledIds() {
+            updateRanges();
+            return mEnabledIds;
+        }
+    }
+
+    @Test @SmallTest
+    public void testApplyBatch() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("applying batch", testManager.applyBatch(new IntRangeManager.Batch()
+                .enableRange(4370, 4379, "client1")
+                .enableRange(4383, 4395, "client1")
+                .enableRange(4380, 4382, "client2")
+                .enableRange(4352, 4356, "client1")
+                .enableRange(4357, 4357, "client1")
+                .disableRange(4357, 4357, "client1")));
+        assertEquals("flags after test", ALL_FLAGS_SET, testManager.flags);
+        assertEquals("configlist size", 2, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 4352, 4356, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        checkConfigInfo(testManager.mConfigList.get(1), 4370, 4395, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+
+        // the enabled ids do not change: no radio update
+        testManager.reset();
+        assertTrue("applying batch", testManager.applyBatch(new IntRangeManager.Batch()
+                .enableRange(4375, 4385, "client3")
+                .disableRange(4380, 4382, "client2")));
+        assertEquals("flags after test", 0, testManager.flags);
+
+        // the clients are kept: disabling one range splits the IntRange
+        testManager.reset();
+        assertTrue("disabling range", testManager.disableRange(4375, 4385, "client3"));
+        assertEquals("flags after test", ALL_FLAGS_SET, testManager.flags);
+        assertEquals("configlist size", 3, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(1), 4370, 4379, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        checkConfigInfo(testManager.mConfigList.get(2), 4383, 4395, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+    }
+
+    @Test @SmallTest
+    public void testApplyBatchFailure() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("enabling range", testManager.enableRange(1, 5, "client1"));
+
+        // a range not enabled by the client cannot be disabled
+        testManager.reset();
+        assertFalse("applying batch", testManager.applyBatch(new IntRangeManager.Batch()
+                .enableRange(10, 20, "client1")
+                .disableRange(1, 5, "client2")));
+        assertEquals("flags after test", 0, testManager.flags);
+
+        // failed to update radio
+        testManager.finishUpdateReturnValue = false;
+        assertFalse("applying batch", testManager.applyBatch(new IntRangeManager.Batch()
+                .enableRange(10, 20, "client1")
+                .disableRange(1, 5, "client1")));
+        assertEquals("flags after test", ALL_FLAGS_SET, testManager.flags);
+
+        // neither batch changed the ranges
+        testManager.finishUpdateReturnValue = true;
+        assertEquals("[1-5]", testManager.toString());
+        testManager.reset();
+        assertTrue("disabling range", testManager.disableRange(1, 5, "client1"));
+        assertTrue("ranges empty", testManager.isEmpty());
+    }
+
+    @Test @SmallTest
+    public void testApplyBatchMatchesEnableDisableRange() {
+        Random random = new Random(0);
+        String[] clients = {"client1", "client2", "client3"};
+        for (int run = 0; run < 50; run++) {
+            RadioIntRangeManager sequentialManager = new RadioIntRangeManager();
+            RadioIntRangeManager singleBatchManager = new RadioIntRangeManager();
+            RadioIntRangeManager batchManager = new RadioIntRangeManager();
+            IntRangeManager.Batch batch = new IntRangeManager.Batch();
+            ArrayList<int[]> enabledRanges = new ArrayList<int[]>();
+            for (int i = 0; i < 100; i++) {
+                int startId;
+                int endId;
+                int client;
+                boolean enable = enabledRanges.isEmpty() || random.nextInt(5) < 3;
+                if (!enable && random.nextInt(4) > 0) {
+                    // disable a range enabled before, possibly by another client
+                    int[] range = enabledRanges.get(random.nextInt(enabledRanges.size()));
+                    startId = range[0];
+                    endId = range[1];
+                    client = random.nextInt(4) > 0 ? range[2] : random.nextInt(clients.length);
+                } else {
+                    startId = random.nextInt(200);
+                    endId = startId + random.nextInt(20);
+                    client = random.nextInt(clients.length);
+                }
+                String op = (enable ? "enable " : "disable ") + startId + "-" + endId + " "
+                        + clients[client];
+
+                boolean expected = enable
+                        ? sequentialManager.enableRange(startId, endId, clients[client])
+                        : sequentialManager.disableRange(startId, endId, clients[client]);
+                IntRangeManager.Batch singleBatch = new IntRangeManager.Batch();
+                if (enable) {
+                    singleBatch.enableRange(startId, endId, clients[client]);
+                } else {
+                    singleBatch.disableRange(startId, endId, clients[client]);
+                }
+                assertEquals(op, expected, singleBatchManager.applyBatch(singleBatch));
+                // enableRange may leave adjacent or overlapping IntRanges unmerged, so compare
+                // the enabled ids rather than the ranges
+                assertEquals(op, sequentialManager.getEnabledIds(),
+                        singleBatchManager.getEnabledIds());
+                if (expected) {
+                    if (enable) {
+                        batch.enableRange(startId, endId, clients[client]);
+                        enabledRanges.add(new int[] {startId, endId, client});
+                    } else {
+                        batch.disableRange(startId, endId, clients[client]);
+                    }
+                }
+            }
+
+            assertTrue("applying batch", batchManager.applyBatch(batch));
+            assertEquals(1, batchManager.mUpdateCount);
+            assertEquals(sequentialManager.getEnabledIds(), batchManager.mEnabledIds);
+        }
+    }
+
+    @Test @SmallTest
+    public void testApplyBatch1000OperationsBenchmark() {
+        final int operations = 1000;
+        Random random = new Random(0);
+        int[] startIds = new int[operations];
+        int[] endIds = new int[operations];
+        for (int i = 0; i < operations; i++) {
+            // channels in the CMAS, ETWS and operator ranges
+            startIds[i] = 4352 + random.nextInt(2000);
+            endIds[i] = startIds[i] + random.nextInt(8);
+        }
+
+        RadioIntRangeManager sequentialManager = new RadioIntRangeManager();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < operations; i++) {
+            if (i % 4 == 3) {
+                sequentialManager.disableRange(startIds[i - 1], endIds[i - 1], "client1");
+            } else {
+                sequentialManager.enableRange(startIds[i], endIds[i], "client1");
+            }
+        }
+        long sequentialNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        RadioIntRangeManager batchManager = new RadioIntRangeManager();
+        start = SystemClock.elapsedRealtimeNanos();
+        IntRangeManager.Batch batch = new IntRangeManager.Batch();
+        for (int i = 0; i < operations; i++) {
+            if (i % 4 == 3) {
+                batch.disableRange(startIds[i - 1], endIds[i - 1], "client1");
+            } else {
+                batch.enableRange(startIds[i], endIds[i], "client1");
+            }
+        }
+        assertTrue("applying batch", batchManager.applyBatch(batch));
+        long batchNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, operations + " channel operations: sequential=" + (sequentialNanos / 1000)
+                + "us with " + sequentialManager.mUpdateCount + " radio updates, batch="
+                + (batchNanos / 1000) + "us with " + batchManager.mUpdateCount
+                + " radio updates");
+
+        assertEquals(sequentialManager.getEnabledIds(), batchManager.getEnabledIds());
+    }
 }
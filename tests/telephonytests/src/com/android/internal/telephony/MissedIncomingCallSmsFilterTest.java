@@ -17,6 +17,7 @@
 package com.android.internal.telephony;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
@@ -91,4 +92,26 @@ public class MissedIncomingCallSmsFilterTest extends TelephonyTest {
 
         assertEquals(FAKE_CALLER_ID, uri.getSchemeSpecificPart());
     }
+
+    @Test
+    @SmallTest
+    public void testIsConfigured() {
+        assertFalse(new MissedIncomingCallSmsFilter(mPhone, null).isConfigured());
+        assertFalse(new MissedIncomingCallSmsFilter(mPhone, mBundle).isConfigured());
+
+        mBundle.putStringArray(
+                CarrierConfigManager.KEY_MISSED_INCOMING_CALL_SMS_ORIGINATOR_STRING_ARRAY,
+                new String[]{FAKE_CARRIER_SMS_ORIGINATOR});
+        assertFalse(new MissedIncomingCallSmsFilter(mPhone, mBundle).isConfigured());
+
+        mBundle.putStringArray(
+                CarrierConfigManager.KEY_MISSED_INCOMING_CALL_SMS_PATTERN_STRING_ARRAY,
+                new String[]{"^(?<callerId>[0-9]+)$"});
+        assertTrue(new MissedIncomingCallSmsFilter(mPhone, mBundle).isConfigured());
+
+        mBundle.putStringArray(
+                CarrierConfigManager.KEY_MISSED_INCOMING_CALL_SMS_ORIGINATOR_STRING_ARRAY,
+                new String[0]);
+        assertFalse(new MissedIncomingCallSmsFilter(mPhone, mBundle).isConfigured());
+    }
 }
@@ -937,10 +937,10 @@ public class SignalStrengthControllerTest extends TelephonyTest {
                 request, Message.obtain(mHandler));
         processAllMessages();
 
-        // Expect 3 non-empty thresholds (GERAN/RSSI, EUTRAN/RSRP, NR/SSRSRP)
-        // if Radio HAL ver is >= 1.5
+        // Expect 2 non-empty thresholds (EUTRAN/RSRP, NR/SSRSRP) if Radio HAL ver is >= 1.5.
+        // GERAN/RSSI is not sent again since it did not change from the default criteria.
         verifyAllEmptyThresholdAreDisabledWhenSetSignalStrengthReportingCriteria(
-                3 /*expectedNonEmptyThreshold*/);
+                2 /*expectedNonEmptyThreshold*/);
 
         // Then, test when device turns into idle mode in which all system thresholds are emptied
         // (shouldReportSystemWhileIdle is false)
@@ -954,6 +954,57 @@ public class SignalStrengthControllerTest extends TelephonyTest {
                 1 /*expectedNonEmptyThreshold*/);
     }
 
+    @Test
+    public void setReportingCriteria_appRequestsRegisterAndLeave_onlyChangedCriteriaAreSent() {
+        when(mPhone.isDeviceIdle()).thenReturn(false);
+        final int[] systemThresholds = new int[] {-115, -105, -95, -85};
+        List<SignalStrengthUpdateRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // The thresholds repeat after 48 requests, so the later requests change nothing.
+            SignalThresholdInfo info = new SignalThresholdInfo.Builder()
+                    .setRadioAccessNetworkType(AccessNetworkConstants.AccessNetworkType.EUTRAN)
+                    .setSignalMeasurementType(SIGNAL_MEASUREMENT_TYPE_RSRP)
+                    .setThresholds(new int[] {-140 + (i % 48) * 2})
+                    .build();
+            SignalStrengthUpdateRequest request = createTestSignalStrengthUpdateRequest(
+                    info,
+                    false /* shouldReportWhileIdle*/,
+                    false /* shouldReportSystemWhileIdle */);
+            requests.add(request);
+            mSsc.setSignalStrengthUpdateRequest(
+                    ACTIVE_SUB_ID, CALLING_UID + i, request, Message.obtain(mHandler));
+        }
+        processAllMessages();
+
+        List<List<SignalThresholdInfo>> sentInfos = verifyOnlyLteRsrpIsSent();
+        assertThat(sentInfos.size()).isLessThan(requests.size());
+        SignalThresholdInfo lastInfo = sentInfos.get(sentInfos.size() - 1).get(0);
+        assertThat(lastInfo.getThresholds()).isEqualTo(mSsc.getConsolidatedSignalThresholds(
+                AccessNetworkConstants.AccessNetworkType.EUTRAN, SIGNAL_MEASUREMENT_TYPE_RSRP,
+                systemThresholds, 1 /* hysteresis */));
+
+        // Nothing is sent again if nothing changed.
+        reset(mSimulatedCommandsVerifier);
+        mSsc.updateReportingCriteria();
+        verify(mSimulatedCommandsVerifier, never()).setSignalStrengthReportingCriteria(anyList(),
+                any());
+
+        reset(mSimulatedCommandsVerifier);
+        for (int i = 0; i < requests.size(); i++) {
+            mSsc.clearSignalStrengthUpdateRequest(
+                    ACTIVE_SUB_ID, CALLING_UID + i, requests.get(i), Message.obtain(mHandler));
+        }
+        processAllMessages();
+
+        // Once all the requests left, the system criteria are sent again.
+        sentInfos = verifyOnlyLteRsrpIsSent();
+        assertThat(sentInfos.size()).isLessThan(requests.size());
+        lastInfo = sentInfos.get(sentInfos.size() - 1).get(0);
+        assertThat(lastInfo.getThresholds()).isEqualTo(systemThresholds);
+        assertThat(lastInfo.getHysteresisDb()).isEqualTo(3);
+        assertThat(lastInfo.isEnabled()).isTrue();
+    }
+
     @Test
     public void testSignalStrengthChangedCallback() {
         Handler mockRegistrant = Mockito.mock(Handler.class);
@@ -1531,6 +1582,22 @@ public class SignalStrengthControllerTest extends TelephonyTest {
         }
     }
 
+    private List<List<SignalThresholdInfo>> verifyOnlyLteRsrpIsSent() {
+        ArgumentCaptor<List<SignalThresholdInfo>> signalThresholdInfoCaptor =
+                ArgumentCaptor.forClass(List.class);
+        verify(mSimulatedCommandsVerifier, atLeastOnce()).setSignalStrengthReportingCriteria(
+                signalThresholdInfoCaptor.capture(), isNull());
+        List<List<SignalThresholdInfo>> capturedInfos = signalThresholdInfoCaptor.getAllValues();
+        for (List<SignalThresholdInfo> infos : capturedInfos) {
+            assertThat(infos).hasSize(1);
+            assertThat(infos.get(0).getRadioAccessNetworkType())
+                    .isEqualTo(AccessNetworkConstants.AccessNetworkType.EUTRAN);
+            assertThat(infos.get(0).getSignalMeasurementType())
+                    .isEqualTo(SIGNAL_MEASUREMENT_TYPE_RSRP);
+        }
+        return capturedInfos;
+    }
+
     private void sendCarrierConfigUpdate() {
         CarrierConfigManager mockConfigManager = Mockito.mock(CarrierConfigManager.class);
         when(mContext.getSystemService(Context.CARRIER_CONFIG_SERVICE))
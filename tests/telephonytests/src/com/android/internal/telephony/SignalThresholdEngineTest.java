@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static android.telephony.SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP;
+import static android.telephony.SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.telephony.AccessNetworkConstants.AccessNetworkType;
+import android.telephony.SignalThresholdInfo;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SignalThresholdEngineTest {
+    private static final int[] GERAN_THRESHOLDS = new int[] {-109, -103, -97, -89};
+    private static final int[] EUTRAN_THRESHOLDS = new int[] {-128, -118, -108, -98};
+
+    private SignalThresholdEngine mEngine;
+    private int mBuildCount;
+    // The hysteresis of the built criteria, changed to emulate a change of the app requests.
+    private int mHysteresisDb = 2;
+
+    @Before
+    public void setUp() {
+        mEngine = new SignalThresholdEngine(
+                (measurementType, thresholds, defaultThresholds, ran, isEnabled) -> {
+                    mBuildCount++;
+                    return new SignalThresholdInfo.Builder()
+                            .setRadioAccessNetworkType(ran)
+                            .setSignalMeasurementType(measurementType)
+                            .setHysteresisDb(mHysteresisDb)
+                            .setThresholds(thresholds, true /* isSystem */)
+                            .setIsEnabled(isEnabled)
+                            .build();
+                });
+    }
+
+    private List<SignalThresholdInfo> update(int[] geranThresholds, int[] eutranThresholds) {
+        mEngine.beginUpdate();
+        mEngine.setSystemThresholds(SIGNAL_MEASUREMENT_TYPE_RSSI, geranThresholds,
+                GERAN_THRESHOLDS, AccessNetworkType.GERAN, true);
+        if (eutranThresholds != null) {
+            mEngine.setSystemThresholds(SIGNAL_MEASUREMENT_TYPE_RSRP, eutranThresholds,
+                    EUTRAN_THRESHOLDS, AccessNetworkType.EUTRAN, true);
+        }
+        mEngine.setConditions(0 /* subId */, false /* isDeviceIdle */,
+                true /* shouldHonorSystemThresholds */);
+        return mEngine.reconcile();
+    }
+
+    @Test
+    @SmallTest
+    public void testReconcile_noChange() {
+        assertEquals(2, update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS).size());
+        mBuildCount = 0;
+
+        // Equal thresholds in another array are not a change.
+        assertNull(update(GERAN_THRESHOLDS.clone(), EUTRAN_THRESHOLDS.clone()));
+        assertEquals(0, mBuildCount);
+    }
+
+    @Test
+    @SmallTest
+    public void testReconcile_onlyChangedCriteria() {
+        update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS);
+        int[] eutranThresholds = new int[] {-115, -105, -95, -85};
+
+        List<SignalThresholdInfo> infos = update(GERAN_THRESHOLDS, eutranThresholds);
+        assertEquals(1, infos.size());
+        assertEquals(AccessNetworkType.EUTRAN, infos.get(0).getRadioAccessNetworkType());
+        assertArrayEquals(eutranThresholds, infos.get(0).getThresholds());
+
+        // The thresholds are copied, so changing the array later is seen as a change.
+        eutranThresholds[0] = -120;
+        assertEquals(1, update(GERAN_THRESHOLDS, eutranThresholds).size());
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidate() {
+        update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS);
+        mBuildCount = 0;
+
+        // Built again, but not reported since the result is the same.
+        mEngine.invalidate(AccessNetworkType.EUTRAN, SIGNAL_MEASUREMENT_TYPE_RSRP);
+        assertNull(update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS));
+        assertEquals(1, mBuildCount);
+
+        mHysteresisDb = 1;
+        mEngine.invalidate(AccessNetworkType.EUTRAN, SIGNAL_MEASUREMENT_TYPE_RSRP);
+        List<SignalThresholdInfo> infos = update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS);
+        assertEquals(1, infos.size());
+        assertEquals(1, infos.get(0).getHysteresisDb());
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidate_notInUpdate() {
+        update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS);
+        mHysteresisDb = 1;
+        mEngine.invalidate(AccessNetworkType.EUTRAN, SIGNAL_MEASUREMENT_TYPE_RSRP);
+
+        // The criteria which are not part of the update are kept until they are.
+        assertNull(update(GERAN_THRESHOLDS, null));
+        assertEquals(1, update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS).size());
+    }
+
+    @Test
+    @SmallTest
+    public void testSetConditionsAndReset() {
+        update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS);
+        mBuildCount = 0;
+
+        mEngine.beginUpdate();
+        mEngine.setSystemThresholds(SIGNAL_MEASUREMENT_TYPE_RSSI, GERAN_THRESHOLDS,
+                GERAN_THRESHOLDS, AccessNetworkType.GERAN, true);
+        mEngine.setConditions(0 /* subId */, true /* isDeviceIdle */,
+                true /* shouldHonorSystemThresholds */);
+        assertNull(mEngine.reconcile());
+        assertEquals(1, mBuildCount);
+
+        mEngine.reset();
+        assertEquals(0, mEngine.getReportedCriteria().size());
+        assertEquals(2, update(GERAN_THRESHOLDS, EUTRAN_THRESHOLDS).size());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.Telephony;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.util.Log;
+
+import com.android.internal.util.HexDump;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SmsBroadcastUndeliveredTest extends TelephonyTest {
+    private static final String TAG = "SmsBroadcastUndeliveredTest";
+    private static final long NOW = 10_000_000L;
+    private static final long OLD_MESSAGE_TIMESTAMP = NOW - 1000L;
+
+    private FakeSmsContentProvider mContentProvider;
+    private final List<InboundSmsTracker> mDispatched = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mContentProvider = new FakeSmsContentProvider();
+        ((MockContentResolver) mContext.getContentResolver()).addProvider(
+                Telephony.Sms.CONTENT_URI.getAuthority(), mContentProvider);
+        doAnswer(invocation -> new InboundSmsTracker(invocation.getArgument(0),
+                (Cursor) invocation.getArgument(1), invocation.getArgument(2)))
+                .when(mTelephonyComponentFactory).makeInboundSmsTracker(any(Context.class),
+                        any(Cursor.class), anyBoolean());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContentProvider.shutdown();
+        mContentProvider = null;
+        mDispatched.clear();
+        super.tearDown();
+    }
+
+    private void insertRow(String address, int refNumber, int seqNumber, int count,
+            long timestamp) {
+        ContentValues values = new ContentValues();
+        values.put("pdu", HexDump.toHexString(new byte[] {(byte) refNumber, (byte) seqNumber}));
+        values.put("date", timestamp);
+        values.put("reference_number", refNumber);
+        values.put("count", count);
+        values.put("sequence", seqNumber);
+        values.put("address", address);
+        values.put("display_originating_addr", address);
+        values.put("message_body", "body " + refNumber + "/" + seqNumber);
+        values.put("sub_id", 0);
+        mContentProvider.insert(InboundSmsHandler.sRawUri, values);
+    }
+
+    private SmsBroadcastUndelivered.ScanStats scanRawTable() {
+        return SmsBroadcastUndelivered.scanRawTable(mContext, OLD_MESSAGE_TIMESTAMP,
+                mDispatched::add);
+    }
+
+    @Test
+    @MediumTest
+    public void testScanLargeRawTable() {
+        final int singleParts = 1000;
+        final int completeMultiParts = 500;
+        final int expiredMultiParts = 1000;
+        final int recentMultiParts = 10;
+
+        for (int i = 0; i < singleParts; i++) {
+            insertRow("single" + i, -1, 1, 1, NOW);
+        }
+        // The first segments of the complete messages are stored before the single part
+        // messages, so that the segments of each message are read in different chunks.
+        for (int i = 0; i < completeMultiParts; i++) {
+            insertRow("complete" + i, i, 2, 2, NOW);
+        }
+        for (int i = 0; i < expiredMultiParts; i++) {
+            insertRow("expired" + i, i, 1, 2, OLD_MESSAGE_TIMESTAMP - 1);
+        }
+        for (int i = 0; i < completeMultiParts; i++) {
+            insertRow("complete" + i, i, 1, 2, OLD_MESSAGE_TIMESTAMP - 1);
+        }
+        for (int i = 0; i < recentMultiParts; i++) {
+            insertRow("recent" + i, i, 1, 3, NOW);
+        }
+        int rows = singleParts + 2 * completeMultiParts + expiredMultiParts + recentMultiParts;
+        assertEquals(rows, mContentProvider.getNumRows());
+
+        SmsBroadcastUndelivered.ScanStats stats = scanRawTable();
+        Log.d(TAG, "testScanLargeRawTable: " + stats);
+
+        assertEquals(rows, stats.rowsScanned);
+        assertEquals((rows + SmsBroadcastUndelivered.SCAN_CHUNK_SIZE - 1)
+                / SmsBroadcastUndelivered.SCAN_CHUNK_SIZE, stats.chunks);
+        assertEquals(singleParts + completeMultiParts, stats.messagesDispatched);
+        assertEquals(singleParts + completeMultiParts, mDispatched.size());
+        Set<String> completeAddresses = new HashSet<>();
+        for (InboundSmsTracker tracker : mDispatched) {
+            if (tracker.getMessageCount() == 2) {
+                assertTrue(tracker.getAddress().startsWith("complete"));
+                completeAddresses.add(tracker.getAddress());
+            }
+        }
+        assertEquals(completeMultiParts, completeAddresses.size());
+
+        // Only the expired incomplete messages are deleted, with a few bulk deletes.
+        assertEquals(expiredMultiParts, stats.partialMessagesDeleted);
+        assertEquals(expiredMultiParts, stats.rowsDeleted);
+        assertEquals((expiredMultiParts + SmsBroadcastUndelivered.MAX_MESSAGES_PER_DELETE - 1)
+                / SmsBroadcastUndelivered.MAX_MESSAGES_PER_DELETE, stats.deleteQueries);
+        assertEquals(rows - expiredMultiParts, mContentProvider.getNumRows());
+    }
+
+    @Test
+    @MediumTest
+    public void testScanSkipsDeletedRows() {
+        insertRow("single", -1, 1, 1, NOW);
+        insertRow("multi", 1, 1, 2, NOW);
+        insertRow("multi", 1, 2, 2, NOW);
+        mContentProvider.delete(InboundSmsHandler.sRawUri, "address=?", new String[] {"multi"});
+
+        SmsBroadcastUndelivered.ScanStats stats = scanRawTable();
+
+        assertEquals(1, stats.rowsScanned);
+        assertEquals(1, mDispatched.size());
+        assertEquals("single", mDispatched.get(0).getAddress());
+        assertEquals(0, stats.deleteQueries);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class SmsReassemblyIndexTest extends TelephonyTest {
+    private static final String TAG = "SmsReassemblyIndexTest";
+    private static final String ADDRESS = "1234567890";
+    private static final int SUB_ID = 0;
+
+    private SmsReassemblyIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mIndex = new SmsReassemblyIndex();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mIndex = null;
+        super.tearDown();
+    }
+
+    private InboundSmsTracker createSegment(String address, int refNumber, int seqNumber,
+            int count, boolean is3gpp2WapPdu) {
+        byte[] pdu = new byte[] {(byte) refNumber, (byte) seqNumber, (byte) count};
+        return new InboundSmsTracker(mContext, pdu, 1000L * seqNumber, -1, is3gpp2WapPdu,
+                address, address, refNumber, seqNumber, count, is3gpp2WapPdu,
+                "part " + seqNumber, false /* isClass0 */, SUB_ID,
+                InboundSmsHandler.SOURCE_NOT_INJECTED);
+    }
+
+    private InboundSmsTracker createSegment(int refNumber, int seqNumber, int count) {
+        return createSegment(ADDRESS, refNumber, seqNumber, count, false);
+    }
+
+    @Test
+    @SmallTest
+    public void testSegmentsOfUntrackedMessageAreIgnored() {
+        InboundSmsTracker part1 = createSegment(1, 1, 2);
+
+        assertFalse(mIndex.addSegment(part1));
+        assertFalse(mIndex.isTracked(part1));
+        assertEquals(-1, mIndex.getSegmentCount(part1));
+        assertNull(mIndex.takeIfComplete(part1));
+    }
+
+    @Test
+    @SmallTest
+    public void testAssembleInSequenceOrder() {
+        InboundSmsTracker part1 = createSegment(1, 1, 3);
+        InboundSmsTracker part2 = createSegment(1, 2, 3);
+        InboundSmsTracker part3 = createSegment(1, 3, 3);
+
+        mIndex.startTracking(part3);
+        assertTrue(mIndex.addSegment(part3));
+        assertTrue(mIndex.addSegment(part1));
+        assertNull(mIndex.takeIfComplete(part1));
+        assertEquals(2, mIndex.getSegmentCount(part2));
+
+        assertTrue(mIndex.addSegment(part2));
+        SmsReassemblyIndex.AssembledMessage message = mIndex.takeIfComplete(part2);
+
+        assertNotNull(message);
+        assertArrayEquals(new byte[][] {part1.getPdu(), part2.getPdu(), part3.getPdu()},
+                message.pdus);
+        assertArrayEquals(new long[] {1000L, 2000L, 3000L}, message.timestamps);
+        assertArrayEquals(new String[] {ADDRESS, ADDRESS, ADDRESS}, message.displayAddresses);
+        assertEquals(-1, message.destPort);
+        // The message is no longer tracked once assembled.
+        assertFalse(mIndex.isTracked(part1));
+        assertEquals(0, mIndex.size());
+    }
+
+    @Test
+    @SmallTest
+    public void testDuplicateAndInvalidSegments() {
+        InboundSmsTracker part1 = createSegment(1, 1, 2);
+        InboundSmsTracker part1Copy = createSegment(1, 1, 2);
+        InboundSmsTracker invalidPart = createSegment(1, 3, 2);
+
+        mIndex.startTracking(part1);
+        mIndex.addSegment(part1);
+        mIndex.addSegment(part1Copy);
+        mIndex.addSegment(invalidPart);
+
+        assertEquals(1, mIndex.getSegmentCount(part1));
+        assertNull(mIndex.takeIfComplete(part1));
+    }
+
+    @Test
+    @SmallTest
+    public void testMessagesAreKeptApart() {
+        InboundSmsTracker part1 = createSegment(1, 1, 2);
+        InboundSmsTracker otherAddress = createSegment("0987654321", 1, 2, 2, false);
+        InboundSmsTracker otherRef = createSegment(2, 2, 2);
+        InboundSmsTracker otherCount = createSegment(1, 2, 3);
+        InboundSmsTracker wapPdu = createSegment(ADDRESS, 1, 1, 2, true);
+
+        mIndex.startTracking(part1);
+        mIndex.addSegment(part1);
+
+        assertFalse(mIndex.addSegment(otherAddress));
+        assertFalse(mIndex.addSegment(otherRef));
+        assertFalse(mIndex.addSegment(otherCount));
+        assertFalse(mIndex.addSegment(wapPdu));
+        assertEquals(1, mIndex.getSegmentCount(part1));
+    }
+
+    @Test
+    @SmallTest
+    public void testLeastRecentlyUpdatedMessagesAreDropped() {
+        for (int ref = 0; ref <= SmsReassemblyIndex.MAX_MESSAGES; ref++) {
+            InboundSmsTracker segment = createSegment(ref, 1, 2);
+            mIndex.startTracking(segment);
+            mIndex.addSegment(segment);
+        }
+
+        assertEquals(SmsReassemblyIndex.MAX_MESSAGES, mIndex.size());
+        assertFalse(mIndex.isTracked(createSegment(0, 2, 2)));
+        assertTrue(mIndex.isTracked(createSegment(SmsReassemblyIndex.MAX_MESSAGES, 2, 2)));
+    }
+
+    @Test
+    @SmallTest
+    public void testReassemblyThroughput() {
+        final int messages = SmsReassemblyIndex.MAX_MESSAGES;
+        final int count = 8;
+        List<InboundSmsTracker> segments = new ArrayList<>(messages * count);
+        for (int ref = 0; ref < messages; ref++) {
+            for (int seq = 1; seq <= count; seq++) {
+                segments.add(createSegment(ref, seq, count));
+            }
+        }
+        // Interleave the segments of all messages.
+        Collections.shuffle(segments, new Random(0));
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        int assembled = 0;
+        for (InboundSmsTracker segment : segments) {
+            if (!mIndex.addSegment(segment)) {
+                mIndex.startTracking(segment);
+                mIndex.addSegment(segment);
+            }
+            SmsReassemblyIndex.AssembledMessage message = mIndex.takeIfComplete(segment);
+            if (message != null) {
+                assembled++;
+                for (int i = 0; i < count; i++) {
+                    assertEquals(i + 1, message.pdus[i][1]);
+                    assertEquals(segment.getReferenceNumber(), message.pdus[i][0] & 0xFF);
+                }
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Reassembled " + segments.size() + " segments in " + (elapsed / 1000) + " us");
+
+        assertEquals(messages, assembled);
+        assertEquals(0, mIndex.size());
+    }
+}
@@ -22,11 +22,15 @@ import static org.mockito.Mockito.when;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.res.Resources;
+import android.os.SystemClock;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.TelephonyManager;
 import android.telephony.VisualVoicemailSmsFilterSettings;
+import android.util.Log;
 
+import com.android.internal.telephony.VisualVoicemailSmsFilter.CompiledFilter;
 import com.android.internal.telephony.VisualVoicemailSmsFilter.PhoneAccountHandleConverter;
+import com.android.internal.telephony.VisualVoicemailSmsParser.WrappedMessageData;
 
 import junit.framework.TestCase;
 
@@ -34,12 +38,17 @@ import org.junit.After;
 import org.junit.Before;
 import org.mockito.Mockito;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Unit test for {@link VisualVoicemailSmsFilter}
  */
 public class VisualVoicemailSmsFilterTest extends TestCase {
+    private static final String TAG = "VisualVoicemailSmsFilterTest";
 
     /**
      * PDU for the following message:
@@ -200,6 +209,157 @@ public class VisualVoicemailSmsFilterTest extends TestCase {
                 .filter(mContext, SYNC_PDU, SmsConstants.FORMAT_3GPP, 456, 0));
     }
 
+    public void testCompiledFilter_rebuiltOnSettingsChange() {
+        CompiledFilter compiledFilter = VisualVoicemailSmsFilter.getCompiledFilter(0,
+                new VisualVoicemailSmsFilterSettings.Builder().setClientPrefix("//VVM").build());
+        assertSame(compiledFilter, VisualVoicemailSmsFilter.getCompiledFilter(0,
+                new VisualVoicemailSmsFilterSettings.Builder().setClientPrefix("//VVM").build()));
+
+        CompiledFilter otherCompiledFilter = VisualVoicemailSmsFilter.getCompiledFilter(0,
+                new VisualVoicemailSmsFilterSettings.Builder().setClientPrefix("//VVM")
+                        .setDestinationPort(123).build());
+        assertNotSame(compiledFilter, otherCompiledFilter);
+        assertTrue(otherCompiledFilter.acceptsDestinationPort(123));
+        assertFalse(otherCompiledFilter.acceptsDestinationPort(456));
+
+        // Each subscription has its own filter.
+        assertNotSame(otherCompiledFilter, VisualVoicemailSmsFilter.getCompiledFilter(1,
+                new VisualVoicemailSmsFilterSettings.Builder().setClientPrefix("//VVM")
+                        .setDestinationPort(123).build()));
+    }
+
+    public void testCompiledFilter_destinationPort() {
+        CompiledFilter anyPort = new CompiledFilter(
+                new VisualVoicemailSmsFilterSettings.Builder().build());
+        assertTrue(anyPort.acceptsDestinationPort(-1));
+        assertTrue(anyPort.acceptsDestinationPort(123));
+
+        CompiledFilter dataSms = new CompiledFilter(new VisualVoicemailSmsFilterSettings.Builder()
+                .setDestinationPort(VisualVoicemailSmsFilterSettings.DESTINATION_PORT_DATA_SMS)
+                .build());
+        assertFalse(dataSms.acceptsDestinationPort(-1));
+        assertTrue(dataSms.acceptsDestinationPort(123));
+    }
+
+    public void testCompiledFilter_mayStartWithPrefix() {
+        CompiledFilter compiledFilter = new CompiledFilter(
+                new VisualVoicemailSmsFilterSettings.Builder().setClientPrefix("//VVM").build());
+        assertTrue(compiledFilter.mayStartWithPrefix(utf8("//VVM:STATUS:st=R")));
+        // The rest of the prefix might be in the next PDU.
+        assertTrue(compiledFilter.mayStartWithPrefix(utf8("//VV")));
+        assertTrue(compiledFilter.mayStartWithPrefix(new byte[0]));
+        assertFalse(compiledFilter.mayStartWithPrefix(utf8("//VVMX:STATUS:st=R")));
+        assertFalse(compiledFilter.mayStartWithPrefix(utf8("Hello")));
+    }
+
+    public void testCompiledFilter_parseMatchesParser() {
+        CompiledFilter compiledFilter = new CompiledFilter(
+                new VisualVoicemailSmsFilterSettings.Builder().setClientPrefix("//VVM").build());
+        String[] smsBodies = {
+                "//VVM:STATUS:st=R;rc=0;srv=1;dn=1;ipt=1;spt=0;u=eg@example.com;pw=1",
+                "//VVM:SYNC:ev=NM;id=143;c=6;t=v;s=11111111111;dt=07/03/2017 18:17 -0800;l=4",
+                "//VVM:SYNC:", "//VVM:SYNC", "//VVM:", "//VVM", "//VV", "", "//VVMSYNC:a=b",
+                "//VVM::a=b", "//VVM:SYNC:;;a=b;;", "//VVM:SYNC:a=", "//VVM:SYNC:=b",
+                "//VVM:SYNC:a", "//VVM:SYNC:a=b=c;a=d", "//VVM:SYNC:a=b:c", "Hello //VVM:SYNC:"};
+        for (String smsBody : smsBodies) {
+            assertParsedEquals(smsBody, VisualVoicemailSmsParser.parse("//VVM", smsBody),
+                    compiledFilter.parse(smsBody));
+            assertEquals(smsBody, compiledFilter.parse(smsBody) != null,
+                    compiledFilter.matchesFormat(smsBody));
+        }
+
+        Random random = new Random(0);
+        String alphabet = "/VM:;=ab";
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder builder = new StringBuilder();
+            if (random.nextBoolean()) {
+                builder.append("//VVM");
+            }
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String smsBody = builder.toString();
+            assertParsedEquals(smsBody, VisualVoicemailSmsParser.parse("//VVM", smsBody),
+                    compiledFilter.parse(smsBody));
+            assertEquals(smsBody, compiledFilter.parse(smsBody) != null,
+                    compiledFilter.matchesFormat(smsBody));
+        }
+    }
+
+    public void testParseMixedCorpusBenchmark() {
+        final int iterations = 20;
+        CompiledFilter compiledFilter = new CompiledFilter(
+                new VisualVoicemailSmsFilterSettings.Builder().setClientPrefix("//VVM").build());
+        List<byte[]> corpus = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            switch (i % 4) {
+                case 0:
+                    corpus.add(utf8("//VVM:STATUS:st=R;rc=0;srv=1;dn=1;ipt=1;spt=0;"
+                            + "u=user" + i + "@example.com;pw=1"));
+                    break;
+                case 1:
+                    corpus.add(utf8("//VVM:SYNC:ev=NM;id=" + i + ";c=6;t=v;s=11111111111;"
+                            + "dt=07/03/2017 18:17 -0800;l=4"));
+                    break;
+                default:
+                    corpus.add(utf8("Your verification code is " + i + ". Don't share it with "
+                            + "anyone, including people claiming to be from the service."));
+                    break;
+            }
+        }
+
+        int parserMatches = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            for (byte[] userData : corpus) {
+                String smsBody = new String(userData, StandardCharsets.UTF_8);
+                if (VisualVoicemailSmsParser.parse("//VVM", smsBody) != null) {
+                    parserMatches++;
+                }
+            }
+        }
+        long parserNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        int compiledMatches = 0;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            for (byte[] userData : corpus) {
+                if (!compiledFilter.mayStartWithPrefix(userData)) {
+                    continue;
+                }
+                String smsBody = new String(userData, StandardCharsets.UTF_8);
+                if (compiledFilter.parse(smsBody) != null) {
+                    compiledMatches++;
+                }
+            }
+        }
+        long compiledNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Parsed " + corpus.size() + " SMS " + iterations + " times: parser="
+                + (parserNanos / 1000) + "us, compiled=" + (compiledNanos / 1000) + "us");
+
+        assertEquals(parserMatches, compiledMatches);
+        assertEquals(iterations * corpus.size() / 2, compiledMatches);
+    }
+
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertParsedEquals(String smsBody, WrappedMessageData expected,
+            WrappedMessageData actual) {
+        if (expected == null) {
+            assertNull(smsBody, actual);
+            return;
+        }
+        assertNotNull(smsBody, actual);
+        assertEquals(smsBody, expected.prefix, actual.prefix);
+        assertEquals(smsBody, expected.fields.keySet(), actual.fields.keySet());
+        for (String key : expected.fields.keySet()) {
+            assertEquals(smsBody, expected.fields.getString(key), actual.fields.getString(key));
+        }
+    }
+
     private void setSettings(VisualVoicemailSmsFilterSettings settings) {
         when(mTelephonyManager.getActiveVisualVoicemailSmsFilterSettings(anyInt()))
                 .thenReturn(settings);
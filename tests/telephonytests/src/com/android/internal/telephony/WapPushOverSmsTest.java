@@ -66,13 +66,20 @@ public class WapPushOverSmsTest extends TelephonyTest {
         super.tearDown();
     }
 
+    private void mockPushHeaders(int headerStartIndex, int headerLength, String mimeType) {
+        WspHeaderTokenizer headers = mock(WspHeaderTokenizer.class);
+        doReturn(headerStartIndex).when(headers).getHeaderStartIndex();
+        doReturn(headerLength).when(headers).getHeaderLength();
+        doReturn(mimeType).when(headers).getMimeType();
+        doReturn((long) -1).when(headers).getBinaryContentType();
+        doReturn(true).when(mWspTypeDecoder).decodePushHeaders(anyInt());
+        doReturn(headers).when(mWspTypeDecoder).getPushHeaders();
+    }
+
     @Test @SmallTest
     public void testDispatchWapPdu() {
-        doReturn(true).when(mWspTypeDecoder).decodeUintvarInteger(anyInt());
-        doReturn(true).when(mWspTypeDecoder).decodeContentType(anyInt());
-        doReturn((long)2).when(mWspTypeDecoder).getValue32();
-        doReturn(2).when(mWspTypeDecoder).getDecodedDataLength();
-        doReturn(WspTypeDecoder.CONTENT_TYPE_B_PUSH_CO).when(mWspTypeDecoder).getValueString();
+        mockPushHeaders(4 /* headerStartIndex */, 2 /* headerLength */,
+                WspTypeDecoder.CONTENT_TYPE_B_PUSH_CO);
         byte[] pdu = new byte[]{
                 (byte) 0xFF,
                 (byte) 0x06,
@@ -123,11 +130,8 @@ public class WapPushOverSmsTest extends TelephonyTest {
 
         mFakeBlockedNumberContentProvider.mBlockedNumbers.add("16178269168");
 
-        doReturn(true).when(mWspTypeDecoder).decodeUintvarInteger(anyInt());
-        doReturn(true).when(mWspTypeDecoder).decodeContentType(anyInt());
-        doReturn((long) 2).when(mWspTypeDecoder).getValue32();
-        doReturn(2).when(mWspTypeDecoder).getDecodedDataLength();
-        doReturn(WspTypeDecoder.CONTENT_TYPE_B_PUSH_CO).when(mWspTypeDecoder).getValueString();
+        mockPushHeaders(4 /* headerStartIndex */, 2 /* headerLength */,
+                WspTypeDecoder.CONTENT_TYPE_B_PUSH_CO);
 
         byte pdu[] = {1, 6, 0, 97, 112, 112, 108, 105, 99, 97, 116, 105, 111, 110, 47,
                 118, 110, 100, 46, 119, 97, 112, 46, 109, 109, 115, 45, 109, 101, 115, 115,
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests of {@link WspHeaderTokenizer}, including differential tests against the decoder it
+ * replaces, {@link LegacyWspTypeDecoder}.
+ */
+public class WspHeaderTokenizerTest {
+    private static final String TAG = "WspHeaderTokenizerTest";
+
+    /** Index of the header length in a push PDU, after the transaction id and the PDU type. */
+    private static final int HEADER_LENGTH_INDEX = 2;
+
+    private static final int FUZZ_ITERATIONS = 20000;
+
+    private static final String CONTENT_LOCATION = "http://mms.example.com/m/1234";
+
+    /**
+     * Decode the headers of a push PDU the way WapPushOverSms did with the legacy decoder.
+     */
+    private static String decodeWithLegacyDecoder(byte[] pdu) {
+        LegacyWspTypeDecoder decoder = new LegacyWspTypeDecoder(pdu);
+        int index = HEADER_LENGTH_INDEX;
+        try {
+            if (!decoder.decodeUintvarInteger(index)) {
+                return "header length error";
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return "exception";
+        }
+        int headerLength = (int) decoder.getValue32();
+        index += decoder.getDecodedDataLength();
+        int headerStartIndex = index;
+        if (!decoder.decodeContentType(index)) {
+            return "content type error";
+        }
+        String mimeType = decoder.getValueString();
+        long binaryContentType = decoder.getValue32();
+        index += decoder.getDecodedDataLength();
+
+        String appIdStatus = "not found";
+        String appId = null;
+        if (decoder.seekXWapApplicationId(index, index + headerLength - 1)) {
+            try {
+                decoder.decodeXWapApplicationId((int) decoder.getValue32());
+                appId = decoder.getValueString();
+                if (appId == null) {
+                    appId = Integer.toString((int) decoder.getValue32());
+                }
+                appIdStatus = "found";
+            } catch (ArrayIndexOutOfBoundsException e) {
+                appIdStatus = "malformed";
+            }
+        }
+        return format(headerStartIndex, headerLength, mimeType, binaryContentType,
+                String.valueOf(decoder.getContentParameters()), appIdStatus, appId);
+    }
+
+    private static String decodeWithTokenizer(WspHeaderTokenizer tokenizer, byte[] pdu) {
+        tokenizer.reset(pdu);
+        try {
+            if (!tokenizer.decodePushHeaders(HEADER_LENGTH_INDEX)) {
+                return tokenizer.getHeaderStartIndex() < 0
+                        ? "header length error" : "content type error";
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return "exception";
+        }
+        String appIdStatus;
+        switch (tokenizer.getApplicationIdStatus()) {
+            case WspHeaderTokenizer.APPLICATION_ID_FOUND:
+                appIdStatus = "found";
+                break;
+            case WspHeaderTokenizer.APPLICATION_ID_MALFORMED:
+                appIdStatus = "malformed";
+                break;
+            default:
+                appIdStatus = "not found";
+        }
+        return format(tokenizer.getHeaderStartIndex(), tokenizer.getHeaderLength(),
+                tokenizer.getMimeType(), tokenizer.getBinaryContentType(),
+                String.valueOf(tokenizer.getContentParameters()), appIdStatus,
+                tokenizer.getApplicationId());
+    }
+
+    private static String format(int headerStartIndex, int headerLength, String mimeType,
+            long binaryContentType, String parameters, String appIdStatus, String appId) {
+        return "start=" + headerStartIndex + " length=" + headerLength + " mime=" + mimeType
+                + " binary=" + binaryContentType + " params=" + parameters + " appId="
+                + appIdStatus + "/" + appId;
+    }
+
+    /**
+     * Compare the facade with the legacy decoder for one operation at every index of the pdu.
+     */
+    private static void assertSameAsLegacy(byte[] pdu) {
+        for (int index = 0; index <= pdu.length; index++) {
+            LegacyWspTypeDecoder legacy = new LegacyWspTypeDecoder(pdu);
+            WspTypeDecoder decoder = new WspTypeDecoder(pdu);
+            String legacyResult;
+            try {
+                legacyResult = legacy.decodeContentType(index) + " " + legacy.getValue32()
+                        + " " + legacy.getValueString() + " " + legacy.getDecodedDataLength()
+                        + " " + legacy.getContentParameters();
+            } catch (RuntimeException e) {
+                legacyResult = e.getClass().getSimpleName();
+            }
+            String result;
+            try {
+                result = decoder.decodeContentType(index) + " " + decoder.getValue32()
+                        + " " + decoder.getValueString() + " " + decoder.getDecodedDataLength()
+                        + " " + decoder.getContentParameters();
+            } catch (RuntimeException e) {
+                result = e.getClass().getSimpleName();
+            }
+            assertEquals("decodeContentType(" + index + ") of " + Arrays.toString(pdu),
+                    legacyResult, result);
+
+            legacyResult = legacy.seekXWapApplicationId(index, pdu.length - 1)
+                    + " " + legacy.getValue32();
+            result = decoder.seekXWapApplicationId(index, pdu.length - 1)
+                    + " " + decoder.getValue32();
+            assertEquals("seekXWapApplicationId(" + index + ") of " + Arrays.toString(pdu),
+                    legacyResult, result);
+        }
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+        out.write(0x00);
+    }
+
+    /**
+     * Build a WAP push PDU carrying an MMS notification, as sent by MMS centers.
+     */
+    private static byte[] createMmsNotificationPdu(int transactionId) {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        // Content-Type: application/vnd.wap.mms-message
+        headers.write(0xBE);
+        // Content-Location
+        headers.write(0x8E);
+        write(headers, CONTENT_LOCATION);
+        // X-Wap-Application-Id: x-wap-application:mms.ua
+        headers.write(0xAF);
+        headers.write(0x84);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(transactionId);
+        out.write(WspTypeDecoder.PDU_TYPE_PUSH);
+        out.write(headers.size());
+        out.write(headers.toByteArray(), 0, headers.size());
+        // M-Notification.ind
+        out.write(0x8C);
+        out.write(0x82);
+        out.write(0x98);
+        write(out, "T" + transactionId);
+        out.write(0x8D);
+        out.write(0x92);
+        out.write(0x89);
+        out.write(0x08);
+        out.write(0x80);
+        write(out, "+16505550100/TYPE=PLMN");
+        out.write(0x83);
+        write(out, CONTENT_LOCATION);
+        return out.toByteArray();
+    }
+
+    @Test
+    @SmallTest
+    public void testDecodeMmsNotification() {
+        byte[] pdu = createMmsNotificationPdu(1);
+        WspHeaderTokenizer tokenizer = new WspHeaderTokenizer(pdu);
+
+        assertTrue(tokenizer.decodePushHeaders(HEADER_LENGTH_INDEX));
+        assertEquals(HEADER_LENGTH_INDEX + 1, tokenizer.getHeaderStartIndex());
+        assertEquals(pdu[HEADER_LENGTH_INDEX], tokenizer.getHeaderLength());
+        assertEquals(WspTypeDecoder.CONTENT_TYPE_B_MMS, tokenizer.getMimeType());
+        assertEquals(0x3E, tokenizer.getBinaryContentType());
+        assertTrue(tokenizer.getContentParameters().isEmpty());
+        assertEquals(WspHeaderTokenizer.APPLICATION_ID_FOUND,
+                tokenizer.getApplicationIdStatus());
+        assertEquals("4", tokenizer.getApplicationId());
+        assertEquals(CONTENT_LOCATION, tokenizer.getContentLocation());
+    }
+
+    @Test
+    @SmallTest
+    public void testDecodeTextApplicationIdAndParameters() {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        // Content-Type: application/vnd.wap.sic; charset=utf-8
+        headers.write(0x03);
+        headers.write(0xAE);
+        headers.write(0x81);
+        headers.write(0xEA);
+        // X-Wap-Application-Id: x-wap-application:wml.ua
+        headers.write(0xAF);
+        write(headers, "x-wap-application:wml.ua");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x01);
+        out.write(WspTypeDecoder.PDU_TYPE_PUSH);
+        out.write(headers.size());
+        out.write(headers.toByteArray(), 0, headers.size());
+        byte[] pdu = out.toByteArray();
+
+        WspHeaderTokenizer tokenizer = new WspHeaderTokenizer(pdu);
+        assertTrue(tokenizer.decodePushHeaders(HEADER_LENGTH_INDEX));
+        assertEquals("application/vnd.wap.sic", tokenizer.getMimeType());
+        assertEquals("106", tokenizer.getContentParameters().get("Charset"));
+        assertEquals("x-wap-application:wml.ua", tokenizer.getApplicationId());
+        assertNull(tokenizer.getContentLocation());
+        assertEquals(decodeWithLegacyDecoder(pdu), decodeWithTokenizer(tokenizer, pdu));
+    }
+
+    @Test
+    @SmallTest
+    public void testDecodeErrors() {
+        WspHeaderTokenizer tokenizer = new WspHeaderTokenizer(
+                new byte[] {0x01, 0x06, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                        (byte) 0xFF, 0x00});
+        assertFalse(tokenizer.decodePushHeaders(HEADER_LENGTH_INDEX));
+        assertEquals(-1, tokenizer.getHeaderStartIndex());
+
+        // Value-length of the content type runs past the end of the PDU.
+        tokenizer.reset(new byte[] {0x01, 0x06, 0x03, 0x1E, 0x41});
+        assertFalse(tokenizer.decodePushHeaders(HEADER_LENGTH_INDEX));
+        assertEquals(HEADER_LENGTH_INDEX + 1, tokenizer.getHeaderStartIndex());
+
+        // Text X-Wap-Application-Id without terminating zero octet.
+        tokenizer.reset(new byte[] {0x01, 0x06, 0x05, (byte) 0xBE, (byte) 0xAF, 0x41, 0x42, 0x43});
+        assertTrue(tokenizer.decodePushHeaders(HEADER_LENGTH_INDEX));
+        assertEquals(WspHeaderTokenizer.APPLICATION_ID_MALFORMED,
+                tokenizer.getApplicationIdStatus());
+    }
+
+    @Test
+    @SmallTest
+    public void testDifferentialRandomPdus() {
+        Random random = new Random(0);
+        WspHeaderTokenizer tokenizer = new WspHeaderTokenizer(new byte[0]);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            byte[] pdu = new byte[random.nextInt(48)];
+            random.nextBytes(pdu);
+            if (pdu.length > HEADER_LENGTH_INDEX && random.nextBoolean()) {
+                // Make the header length plausible to get past it more often.
+                pdu[HEADER_LENGTH_INDEX] = (byte) random.nextInt(pdu.length);
+            }
+            assertEquals(Arrays.toString(pdu), decodeWithLegacyDecoder(pdu),
+                    decodeWithTokenizer(tokenizer, pdu));
+            if (i % 16 == 0) {
+                assertSameAsLegacy(pdu);
+            }
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testDifferentialMutatedMmsNotifications() {
+        Random random = new Random(1);
+        WspHeaderTokenizer tokenizer = new WspHeaderTokenizer(new byte[0]);
+        byte[] original = createMmsNotificationPdu(1);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            byte[] pdu = Arrays.copyOf(original, random.nextInt(original.length + 1));
+            int mutations = 1 + random.nextInt(4);
+            for (int j = 0; j < mutations && pdu.length > 0; j++) {
+                pdu[random.nextInt(pdu.length)] = (byte) random.nextInt(256);
+            }
+            assertEquals(Arrays.toString(pdu), decodeWithLegacyDecoder(pdu),
+                    decodeWithTokenizer(tokenizer, pdu));
+            if (i % 16 == 0) {
+                assertSameAsLegacy(pdu);
+            }
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testDecodeMmsNotificationsBenchmark() {
+        final int count = 10000;
+        byte[][] pdus = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            pdus[i] = createMmsNotificationPdu(i & 0xFF);
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (byte[] pdu : pdus) {
+            decodeWithLegacyDecoder(pdu);
+        }
+        long legacyNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        WspHeaderTokenizer tokenizer = new WspHeaderTokenizer(new byte[0]);
+        int found = 0;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (byte[] pdu : pdus) {
+            tokenizer.reset(pdu);
+            if (tokenizer.decodePushHeaders(HEADER_LENGTH_INDEX)
+                    && tokenizer.getApplicationIdStatus()
+                    == WspHeaderTokenizer.APPLICATION_ID_FOUND) {
+                found++;
+            }
+        }
+        long tokenizerNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Decoded " + count + " MMS notification headers: legacy="
+                + (legacyNanos / 1000) + "us, tokenizer=" + (tokenizerNanos / 1000) + "us");
+
+        assertEquals(count, found);
+    }
+}
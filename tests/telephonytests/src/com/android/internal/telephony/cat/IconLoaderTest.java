@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.telephony.uicc.IccFileHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class IconLoaderTest {
+    private static final String TAG = "IconLoaderTest";
+    private static final String ICCID = "89014103211118510720";
+    private static final int TIMEOUT_MS = 5000;
+
+    // Mocked classes
+    private IccFileHandler mFh;
+
+    private IconLoader mIconLoader;
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private final List<String> mReads = new ArrayList<>();
+    private CountDownLatch mLatch;
+    private Object mResult;
+
+    @Before
+    public void setUp() throws Exception {
+        mFh = mock(IccFileHandler.class);
+        doReturn(ICCID).when(mFh).getIccId();
+        // EF_IMG record n describes a 8x1 basic image in image instance 0x4F00 + n.
+        doAnswer(invocation -> {
+            int recordNumber = invocation.getArgument(0);
+            Message response = invocation.getArgument(1);
+            synchronized (mReads) {
+                mReads.add("img" + recordNumber);
+            }
+            byte[] descriptor = new byte[] {0x01, 0x08, 0x01, 0x11, 0x4F, (byte) recordNumber,
+                    0x00, 0x00, 0x00, 0x03};
+            AsyncResult.forMessage(response, descriptor, null);
+            response.sendToTarget();
+            return null;
+        }).when(mFh).loadEFImgLinearFixed(anyInt(), any(Message.class));
+        doAnswer(invocation -> {
+            int fileId = invocation.getArgument(0);
+            Message response = invocation.getArgument(4);
+            synchronized (mReads) {
+                mReads.add("instance" + (fileId & 0xFF));
+            }
+            AsyncResult.forMessage(response, new byte[] {0x08, 0x01, (byte) fileId}, null);
+            response.sendToTarget();
+            return null;
+        }).when(mFh).loadEFImgTransparent(anyInt(), anyInt(), anyInt(), anyInt(),
+                any(Message.class));
+
+        IconLoader.invalidateCachedIcons(null);
+        mIconLoader = IconLoader.getInstance(null, mFh);
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                mResult = msg.obj;
+                mLatch.countDown();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mIconLoader.dispose();
+        mHandlerThread.quit();
+        IconLoader.invalidateCachedIcons(null);
+    }
+
+    private Object loadIcons(int[] recordNumbers) throws InterruptedException {
+        mLatch = new CountDownLatch(1);
+        mIconLoader.loadIcons(recordNumbers, mHandler.obtainMessage());
+        assertEquals(true, mLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return mResult;
+    }
+
+    @Test
+    public void testLoadIcons_Batch() throws Exception {
+        Bitmap[] icons = (Bitmap[]) loadIcons(new int[] {1, 2, 1});
+
+        assertEquals(3, icons.length);
+        assertNotNull(icons[0]);
+        assertNotNull(icons[1]);
+        assertSame(icons[0], icons[2]);
+        // 0x4F01 = 0b01001111_00000001: the last byte of the file id is the image body.
+        assertEquals(Color.WHITE, icons[0].getPixel(7, 0));
+        assertEquals(Color.BLACK, icons[0].getPixel(6, 0));
+        assertEquals(Color.WHITE, icons[1].getPixel(6, 0));
+        assertEquals(Color.BLACK, icons[1].getPixel(7, 0));
+
+        // Record 1 is read once, and all the descriptors are read before the image instances.
+        verify(mFh, times(1)).loadEFImgLinearFixed(eq(1), any(Message.class));
+        assertEquals(List.of("img1", "img2"), mReads.subList(0, 2));
+    }
+
+    @Test
+    public void testLoadIcons_Cached() throws Exception {
+        Bitmap[] icons = (Bitmap[]) loadIcons(new int[] {1, 2});
+        Bitmap[] cachedIcons = (Bitmap[]) loadIcons(new int[] {2, 1});
+
+        assertSame(icons[0], cachedIcons[1]);
+        assertSame(icons[1], cachedIcons[0]);
+        verify(mFh, times(2)).loadEFImgLinearFixed(anyInt(), any(Message.class));
+
+        // The icons are loaded again once they have changed on the card.
+        IconLoader.invalidateCachedIcons(ICCID);
+        assertNull(IconLoader.getCachedIcon(ICCID, 1));
+        loadIcons(new int[] {1});
+        verify(mFh, times(3)).loadEFImgLinearFixed(anyInt(), any(Message.class));
+    }
+
+    @Test
+    public void testLoadIcon_InvalidRecord() throws Exception {
+        mLatch = new CountDownLatch(1);
+        mIconLoader.loadIcon(-1, mHandler.obtainMessage());
+        assertEquals(true, mLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        assertNull(mResult);
+        verify(mFh, never()).loadEFImgLinearFixed(anyInt(), any(Message.class));
+    }
+
+    @Test
+    public void testIconCache_BoundedBySize() {
+        // Each icon takes a quarter of the cache.
+        int side = (int) Math.sqrt(IconLoader.ICON_CACHE_MAX_BYTES / 4 / 4);
+        Bitmap[] icons = new Bitmap[5];
+        for (int i = 0; i < icons.length; i++) {
+            icons[i] = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+            IconLoader.putCachedIcon(ICCID, i, icons[i]);
+        }
+
+        assertNull(IconLoader.getCachedIcon(ICCID, 0));
+        for (int i = 1; i < icons.length; i++) {
+            assertSame(icons[i], IconLoader.getCachedIcon(ICCID, i));
+        }
+        // Icons of another card are kept apart.
+        assertNull(IconLoader.getCachedIcon("89014103211118510721", 1));
+    }
+
+    @Test
+    public void testParseToBnW() {
+        // 3x3 image, 9 bits: 101 010 101
+        byte[] data = new byte[] {0x03, 0x03, (byte) 0xAA, (byte) 0x80};
+        Bitmap icon = IconLoader.parseToBnW(data, data.length);
+
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                int expected = ((y * 3 + x) % 2 == 0) ? Color.WHITE : Color.BLACK;
+                assertEquals(expected, icon.getPixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testParseToRGB_MatchesReference() {
+        Random random = new Random(0);
+        for (int bitsPerImg = 1; bitsPerImg <= 8; bitsPerImg++) {
+            int numOfClutEntries = 1 << bitsPerImg;
+            byte[] clut = new byte[numOfClutEntries * 3];
+            random.nextBytes(clut);
+            byte[] data = createColourImage(random, 17, 5, bitsPerImg);
+
+            Bitmap icon = IconLoader.parseToRGB(data, data.length, false, clut);
+            int[] expected = parseToRgbReference(data, clut);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals("bitsPerImg=" + bitsPerImg + " pixel=" + i,
+                        expected[i], icon.getPixel(i % 17, i / 17));
+            }
+        }
+    }
+
+    @Test
+    public void testParseToRGB_LargeColourIconBenchmark() {
+        final int iterations = 50;
+        Random random = new Random(0);
+        byte[] clut = new byte[256 * 3];
+        random.nextBytes(clut);
+        byte[] data = createColourImage(random, 255, 255, 8);
+
+        // Warm up.
+        IconLoader.parseToRGB(data, data.length, false, clut);
+        long start = SystemClock.elapsedRealtimeNanos();
+        Bitmap icon = null;
+        for (int i = 0; i < iterations; i++) {
+            icon = IconLoader.parseToRGB(data, data.length, false, clut);
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "parseToRGB 255x255x8: " + (elapsed / iterations / 1000) + " us per icon");
+
+        int[] expected = parseToRgbReference(data, clut);
+        assertEquals(expected[0], icon.getPixel(0, 0));
+        assertEquals(expected[expected.length - 1], icon.getPixel(254, 254));
+    }
+
+    private static byte[] createColourImage(Random random, int width, int height,
+            int bitsPerImg) {
+        int numOfClutEntries = 1 << bitsPerImg;
+        // Pixels of sizes not dividing 8 do not span bytes, so up to a byte per pixel is used.
+        byte[] data = new byte[6 + width * height + 1];
+        random.nextBytes(data);
+        data[0] = (byte) width;
+        data[1] = (byte) height;
+        data[2] = (byte) bitsPerImg;
+        data[3] = (byte) numOfClutEntries;
+        data[4] = 0;
+        data[5] = 0;
+        return data;
+    }
+
+    /** Straightforward decoding of a colour image, one pixel at a time. */
+    private static int[] parseToRgbReference(byte[] data, byte[] clut) {
+        int width = data[0] & 0xFF;
+        int height = data[1] & 0xFF;
+        int bitsPerImg = data[2] & 0xFF;
+        int mask = (1 << bitsPerImg) - 1;
+        int[] pixels = new int[width * height];
+        int valueIndex = 6;
+        int bitIndex = 8 - bitsPerImg;
+        byte currentByte = data[valueIndex++];
+        for (int i = 0; i < pixels.length; i++) {
+            if (bitIndex < 0) {
+                currentByte = data[valueIndex++];
+                bitIndex = (8 % bitsPerImg == 0) ? 8 - bitsPerImg : -bitIndex;
+            }
+            int clutIndex = ((currentByte >> bitIndex) & mask) * 3;
+            pixels[i] = Color.rgb(clut[clutIndex] & 0xFF, clut[clutIndex + 1] & 0xFF,
+                    clut[clutIndex + 2] & 0xFF);
+            bitIndex -= bitsPerImg;
+        }
+        return pixels;
+    }
+}
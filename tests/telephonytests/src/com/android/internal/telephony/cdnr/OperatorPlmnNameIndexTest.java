@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cdnr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.android.internal.telephony.uicc.IccRecords;
+import com.android.internal.telephony.uicc.IccRecords.OperatorPlmnInfo;
+import com.android.internal.telephony.uicc.IccRecords.PlmnNetworkName;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class OperatorPlmnNameIndexTest {
+    private static final String TAG = "OperatorPlmnNameIndexTest";
+
+    private static final String[] PLMN_PATTERNS = {"310260", "310410", "31026", "310DDD",
+            "3102D0", "DDDDDD", "46000", "4600D", "310260D"};
+    private static final String[] PLMNS = {"310260", "310410", "31026", "310123", "310200",
+            "46000", "46001", "3102600", "001010"};
+    private static final int PNN_COUNT = 32;
+
+    private static PlmnNetworkName[] createPnns() {
+        PlmnNetworkName[] pnns = new PlmnNetworkName[PNN_COUNT];
+        for (int i = 0; i < pnns.length; i++) {
+            pnns[i] = new PlmnNetworkName("full " + i, "short " + i);
+        }
+        return pnns;
+    }
+
+    private static OperatorPlmnInfo[] createOpl(Random random, int count,
+            String[] plmnPatterns) {
+        OperatorPlmnInfo[] opl = new OperatorPlmnInfo[count];
+        for (int i = 0; i < count; i++) {
+            String plmn = plmnPatterns[random.nextInt(plmnPatterns.length)];
+            int start;
+            int end;
+            switch (random.nextInt(8)) {
+                case 0:
+                    // Entire range
+                    start = 0;
+                    end = 0xFFFE;
+                    break;
+                case 1:
+                    // Empty range
+                    start = 2000 + random.nextInt(1000);
+                    end = start - 1;
+                    break;
+                default:
+                    start = random.nextInt(1000) * 10;
+                    end = start + random.nextInt(500);
+                    break;
+            }
+            // Include records without a name and records referring to a missing name.
+            int pnnRecordId = random.nextInt(PNN_COUNT + 2);
+            opl[i] = new OperatorPlmnInfo(plmn, start, end, pnnRecordId);
+        }
+        return opl;
+    }
+
+    private static String getName(PlmnNetworkName pnn) {
+        return pnn == null ? null : pnn.getName();
+    }
+
+    @Test
+    @SmallTest
+    public void testGetPlmnNetworkName() {
+        PlmnNetworkName[] pnns = createPnns();
+        OperatorPlmnInfo[] opl = {
+                new OperatorPlmnInfo("310260", 100, 199, 2),
+                new OperatorPlmnInfo("310DDD", 150, 299, 3),
+                new OperatorPlmnInfo("310260", 0, 0xFFFE, 4),
+                new OperatorPlmnInfo("310410", 100, 199, 0),
+                new OperatorPlmnInfo("310410", 300, 399, PNN_COUNT + 1)};
+        OperatorPlmnNameIndex index =
+                new OperatorPlmnNameIndex(Arrays.asList(opl), Arrays.asList(pnns));
+
+        assertSame(pnns[1], index.getPlmnNetworkName("310260", 150));
+        assertSame(pnns[2], index.getPlmnNetworkName("310260", 200));
+        assertSame(pnns[3], index.getPlmnNetworkName("310260", 300));
+        assertSame(pnns[2], index.getPlmnNetworkName("310123", 299));
+        assertNull(index.getPlmnNetworkName("310123", 300));
+        // A record without a name does not match.
+        assertSame(pnns[2], index.getPlmnNetworkName("310410", 150));
+        // A record referring to a missing name matches without a name.
+        assertNull(index.getPlmnNetworkName("310410", 350));
+        assertNull(index.getPlmnNetworkName("3102600", 150));
+        assertNull(index.getPlmnNetworkName(null, 150));
+    }
+
+    @Test
+    @SmallTest
+    public void testMatchesIccRecords() {
+        Random random = new Random(0);
+        PlmnNetworkName[] pnns = createPnns();
+        for (int table = 0; table < 10; table++) {
+            OperatorPlmnInfo[] opl = createOpl(random, 100 + random.nextInt(400), PLMN_PATTERNS);
+            OperatorPlmnNameIndex index =
+                    new OperatorPlmnNameIndex(Arrays.asList(opl), Arrays.asList(pnns));
+            int matches = 0;
+            for (String plmn : PLMNS) {
+                for (int lacTac = 0; lacTac < 11000; lacTac += 7) {
+                    String expected =
+                            IccRecords.getNetworkNameForPlmnFromPnnOpl(pnns, opl, plmn, lacTac);
+                    assertEquals(plmn + " " + lacTac, expected,
+                            getName(index.getPlmnNetworkName(plmn, lacTac)));
+                    // Again, from the last lookup.
+                    assertEquals(expected, getName(index.getPlmnNetworkName(plmn, lacTac)));
+                    if (expected != null) matches++;
+                }
+            }
+            // Make sure the random tables do name some cells.
+            assertTrue(matches > 0);
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testLookup500RecordsBenchmark() {
+        final int lookups = 100000;
+        Random random = new Random(0);
+        PlmnNetworkName[] pnns = createPnns();
+        // The records of a carrier with many partner networks, one of which has a wildcard.
+        String[] plmns = new String[64];
+        for (int i = 0; i < plmns.length; i++) {
+            plmns[i] = String.valueOf(310100 + i);
+        }
+        plmns[0] = "3101DD";
+        OperatorPlmnInfo[] opl = createOpl(random, 500, plmns);
+        String[] lookupPlmns = new String[lookups];
+        int[] lacTacs = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            lookupPlmns[i] = plmns[1 + random.nextInt(plmns.length - 1)];
+            lacTacs[i] = random.nextInt(11000);
+        }
+
+        int linearMatches = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < lookups; i++) {
+            if (IccRecords.getNetworkNameForPlmnFromPnnOpl(
+                    pnns, opl, lookupPlmns[i], lacTacs[i]) != null) {
+                linearMatches++;
+            }
+        }
+        long linearNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        int indexMatches = 0;
+        start = SystemClock.elapsedRealtimeNanos();
+        OperatorPlmnNameIndex index =
+                new OperatorPlmnNameIndex(Arrays.asList(opl), Arrays.asList(pnns));
+        for (int i = 0; i < lookups; i++) {
+            if (getName(index.getPlmnNetworkName(lookupPlmns[i], lacTacs[i])) != null) {
+                indexMatches++;
+            }
+        }
+        long indexNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Looked up " + lookups + " cells in 500 records: linear="
+                + (linearNanos / 1000) + "us, index=" + (indexNanos / 1000) + "us");
+
+        assertEquals(linearMatches, indexMatches);
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.android.internal.telephony.d2d;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -27,6 +29,7 @@ import android.telephony.ims.RtpHeaderExtension;
 import android.telephony.ims.RtpHeaderExtensionType;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.util.ArraySet;
+import android.util.Log;
 
 import androidx.test.runner.AndroidJUnit4;
 
@@ -41,6 +44,7 @@ import java.util.Set;
 
 @RunWith(AndroidJUnit4.class)
 public class RtpTransportTest {
+    private static final String TAG = "RtpTransportTest";
     private static final int CALL_STATE_LOCAL_IDENTIFIER = 1;
     private static final int DEVICE_STATE_LOCAL_IDENTIFIER = 2;
 
@@ -128,4 +132,89 @@ public class RtpTransportTest {
         mRtpTransport.onRtpHeaderExtensionsReceived(extensions);
         verify(mCallback, never()).onMessagesReceived(any());
     }
+
+    /**
+     * Verifies that every message type and value survives encoding to an RTP header extension
+     * and decoding back.
+     */
+    @SmallTest
+    @Test
+    public void testEncodeDecodeRoundTrip() {
+        testAllHeaderExtensionsSupported();
+        ArraySet<Communicator.Message> messages = new ArraySet<>();
+        for (int value : new int[] {Communicator.RADIO_ACCESS_TYPE_LTE,
+                Communicator.RADIO_ACCESS_TYPE_IWLAN, Communicator.RADIO_ACCESS_TYPE_NR}) {
+            messages.add(new Communicator.Message(Communicator.MESSAGE_CALL_RADIO_ACCESS_TYPE,
+                    value));
+        }
+        for (int value : new int[] {Communicator.AUDIO_CODEC_EVS,
+                Communicator.AUDIO_CODEC_AMR_WB, Communicator.AUDIO_CODEC_AMR_NB}) {
+            messages.add(new Communicator.Message(Communicator.MESSAGE_CALL_AUDIO_CODEC, value));
+        }
+        for (int value : new int[] {Communicator.BATTERY_STATE_LOW,
+                Communicator.BATTERY_STATE_GOOD, Communicator.BATTERY_STATE_CHARGING}) {
+            messages.add(new Communicator.Message(Communicator.MESSAGE_DEVICE_BATTERY_STATE,
+                    value));
+        }
+        for (int value : new int[] {Communicator.COVERAGE_POOR, Communicator.COVERAGE_GOOD}) {
+            messages.add(new Communicator.Message(Communicator.MESSAGE_DEVICE_NETWORK_COVERAGE,
+                    value));
+        }
+
+        mRtpTransport.sendMessages(messages);
+        verify(mRtpAdapter).sendRtpHeaderExtensions(mHeaderExtensionCaptor.capture());
+        assertEquals(messages.size(), mHeaderExtensionCaptor.getValue().size());
+
+        mRtpTransport.onRtpHeaderExtensionsReceived(mHeaderExtensionCaptor.getValue());
+        verify(mCallback).onMessagesReceived(mMessagesCaptor.capture());
+        assertEquals(messages, mMessagesCaptor.getValue());
+    }
+
+    /**
+     * Verifies that a message with a value that cannot be encoded is not sent.
+     */
+    @SmallTest
+    @Test
+    public void testEncodeInvalidValue() {
+        testAllHeaderExtensionsSupported();
+        assertNull(mRtpTransport.generateRtpHeaderExtension(
+                new Communicator.Message(Communicator.MESSAGE_CALL_AUDIO_CODEC, 15)));
+        assertNull(mRtpTransport.generateRtpHeaderExtension(
+                new Communicator.Message(Communicator.MESSAGE_DEVICE_NETWORK_COVERAGE, -1)));
+    }
+
+    /**
+     * Measures encoding of the messages sent during a call, as the call moves between radio
+     * access types and codecs and the battery and coverage change.
+     */
+    @SmallTest
+    @Test
+    public void testEncodeMessagesBenchmark() {
+        testAllHeaderExtensionsSupported();
+        final int iterations = 100000;
+        Communicator.Message[] messages = new Communicator.Message[] {
+                new Communicator.Message(Communicator.MESSAGE_CALL_RADIO_ACCESS_TYPE,
+                        Communicator.RADIO_ACCESS_TYPE_LTE),
+                new Communicator.Message(Communicator.MESSAGE_CALL_RADIO_ACCESS_TYPE,
+                        Communicator.RADIO_ACCESS_TYPE_NR),
+                new Communicator.Message(Communicator.MESSAGE_CALL_AUDIO_CODEC,
+                        Communicator.AUDIO_CODEC_EVS),
+                new Communicator.Message(Communicator.MESSAGE_CALL_AUDIO_CODEC,
+                        Communicator.AUDIO_CODEC_AMR_WB),
+                new Communicator.Message(Communicator.MESSAGE_DEVICE_BATTERY_STATE,
+                        Communicator.BATTERY_STATE_GOOD),
+                new Communicator.Message(Communicator.MESSAGE_DEVICE_NETWORK_COVERAGE,
+                        Communicator.COVERAGE_POOR)};
+
+        int checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            RtpHeaderExtension extension =
+                    mRtpTransport.generateRtpHeaderExtension(messages[i % messages.length]);
+            checksum += extension.getExtensionData()[0];
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        Log.d(TAG, "Encoded " + iterations + " messages in " + (elapsedNanos / 1000) + "us, "
+                + (elapsedNanos / iterations) + "ns per message, checksum=" + checksum);
+    }
 }
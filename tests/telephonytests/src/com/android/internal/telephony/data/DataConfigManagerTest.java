@@ -25,6 +25,7 @@ import android.net.NetworkCapabilities;
 import android.os.Looper;
 import android.os.PersistableBundle;
 import android.telephony.CarrierConfigManager;
+import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
 import android.telephony.TelephonyDisplayInfo;
 import android.telephony.TelephonyManager;
@@ -163,4 +164,54 @@ public class DataConfigManagerTest extends TelephonyTest {
                 NetworkCapabilities.NET_CAPABILITY_PRIORITIZE_BANDWIDTH,
                 NetworkCapabilities.NET_CAPABILITY_PRIORITIZE_LATENCY);
     }
+
+    @Test
+    public void testDataConfigSnapshot() {
+        DataConfig oldDataConfig = mDataConfigManagerUT.getDataConfig();
+        mBundle.putStringArray(CarrierConfigManager.KEY_UNMETERED_NETWORK_TYPES_STRING_ARRAY,
+                new String[] {"NR_NSA", "NR_SA_MMWAVE"});
+        mBundle.putStringArray(CarrierConfigManager.KEY_BANDWIDTH_STRING_ARRAY,
+                new String[] {"LTE:30000,15000", "NR_SA:100000,50000"});
+        mDataConfigManagerUT.sendEmptyMessage(1/*EVENT_CARRIER_CONFIG_CHANGED*/);
+        processAllMessages();
+
+        DataConfig dataConfig = mDataConfigManagerUT.getDataConfig();
+        assertThat(dataConfig).isNotSameInstanceAs(oldDataConfig);
+        assertThat(dataConfig.getVersion()).isGreaterThan(oldDataConfig.getVersion());
+
+        ServiceState serviceState = new ServiceState();
+        assertThat(mDataConfigManagerUT.isNetworkTypeUnmetered(new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_LTE,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA, false/*isRoaming*/),
+                serviceState)).isTrue();
+        assertThat(mDataConfigManagerUT.isNetworkTypeUnmetered(new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_NR,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_ADVANCED, false/*isRoaming*/),
+                serviceState)).isTrue();
+        assertThat(mDataConfigManagerUT.isNetworkTypeUnmetered(new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_NR, TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE,
+                false/*isRoaming*/), serviceState)).isFalse();
+
+        assertThat(mDataConfigManagerUT.getBandwidthForNetworkType(new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_LTE, TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE,
+                false/*isRoaming*/)).downlinkBandwidthKbps).isEqualTo(30000);
+        assertThat(mDataConfigManagerUT.getBandwidthForNetworkType(new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_NR, TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE,
+                false/*isRoaming*/)).uplinkBandwidthKbps).isEqualTo(50000);
+        // Not configured network type should fall back to the default bandwidth.
+        assertThat(mDataConfigManagerUT.getBandwidthForNetworkType(new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_UNKNOWN,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE, false/*isRoaming*/))
+                .downlinkBandwidthKbps).isEqualTo(14);
+
+        // The snapshot held by other components should not be affected by further updates.
+        mBundle.putStringArray(CarrierConfigManager.KEY_UNMETERED_NETWORK_TYPES_STRING_ARRAY,
+                new String[0]);
+        mDataConfigManagerUT.sendEmptyMessage(1/*EVENT_CARRIER_CONFIG_CHANGED*/);
+        processAllMessages();
+
+        assertThat(dataConfig.isNetworkTypeUnmetered(DataConfig.INDEX_NR_NSA, false)).isTrue();
+        assertThat(mDataConfigManagerUT.getDataConfig().isNetworkTypeUnmetered(
+                DataConfig.INDEX_NR_NSA, false)).isFalse();
+    }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.net.InetAddresses;
+import android.net.LinkAddress;
+import android.os.SystemClock;
+import android.telephony.data.EpsQos;
+import android.telephony.data.Qos;
+import android.telephony.data.QosBearerFilter;
+import android.telephony.data.QosBearerSession;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class QosBearerFilterIndexTest {
+    private static final String TAG = "QosBearerFilterIndexTest";
+
+    private static final int[] PROTOCOLS = {QosBearerFilter.QOS_PROTOCOL_UNSPECIFIED,
+            QosBearerFilter.QOS_PROTOCOL_TCP, QosBearerFilter.QOS_PROTOCOL_UDP,
+            QosBearerFilter.QOS_PROTOCOL_ESP};
+
+    /** Matches like a socket filter: by port, and by address unless given the any address. */
+    private static class SocketFilter implements QosCallbackTracker.IFilter {
+        final InetAddress mLocalAddress;
+        final int mLocalPort;
+        final InetAddress mRemoteAddress;
+        final int mRemotePort;
+        final int mProtocol;
+
+        SocketFilter(InetAddress localAddress, int localPort, InetAddress remoteAddress,
+                int remotePort, int protocol) {
+            mLocalAddress = localAddress;
+            mLocalPort = localPort;
+            mRemoteAddress = remoteAddress;
+            mRemotePort = remotePort;
+            mProtocol = protocol;
+        }
+
+        @Override
+        public boolean matchesLocalAddress(InetAddress address, int startPort, int endPort) {
+            return startPort <= mLocalPort && endPort >= mLocalPort
+                    && (address.isAnyLocalAddress() || mLocalAddress.equals(address));
+        }
+
+        @Override
+        public boolean matchesRemoteAddress(InetAddress address, int startPort, int endPort) {
+            return mRemoteAddress != null && startPort <= mRemotePort && endPort >= mRemotePort
+                    && (address.isAnyLocalAddress() || mRemoteAddress.equals(address));
+        }
+
+        @Override
+        public boolean matchesProtocol(int protocol) {
+            return mProtocol == protocol;
+        }
+    }
+
+    private static InetAddress createAddress(int host) {
+        return InetAddresses.parseNumericAddress("10.0.0." + host);
+    }
+
+    private static List<LinkAddress> createLinkAddresses(Random random) {
+        List<LinkAddress> addresses = new ArrayList<>();
+        if (random.nextBoolean()) {
+            addresses.add(new LinkAddress(createAddress(random.nextInt(4)), 32));
+        }
+        return addresses;
+    }
+
+    private static QosBearerFilter.PortRange createPortRange(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return null;
+            case 1:
+                // Invalid
+                return new QosBearerFilter.PortRange(0, 0);
+            default:
+                int start = 5000 + random.nextInt(100);
+                return new QosBearerFilter.PortRange(start, start + random.nextInt(10));
+        }
+    }
+
+    private static List<QosBearerSession> createSessions(Random random, int count) {
+        List<QosBearerSession> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            List<QosBearerFilter> filters = new ArrayList<>();
+            for (int j = 0; j < 4; j++) {
+                filters.add(new QosBearerFilter(createLinkAddresses(random),
+                        createLinkAddresses(random), createPortRange(random),
+                        createPortRange(random), PROTOCOLS[random.nextInt(PROTOCOLS.length)], 7,
+                        987, 678, QosBearerFilter.QOS_FILTER_DIRECTION_BIDIRECTIONAL, j));
+            }
+            sessions.add(new QosBearerSession(i,
+                    new EpsQos(new Qos.QosBandwidth(5, 6), new Qos.QosBandwidth(7, 8), 4),
+                    filters));
+        }
+        return sessions;
+    }
+
+    private static List<SocketFilter> createFilters(Random random, int count) {
+        List<SocketFilter> filters = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            filters.add(new SocketFilter(createAddress(random.nextInt(4)),
+                    5000 + random.nextInt(120),
+                    random.nextInt(4) == 0 ? null : createAddress(random.nextInt(4)),
+                    5000 + random.nextInt(120),
+                    random.nextBoolean() ? QosBearerFilter.QOS_PROTOCOL_TCP
+                            : QosBearerFilter.QOS_PROTOCOL_UDP));
+        }
+        return filters;
+    }
+
+    // Checks every bearer filter of every session, as QosCallbackTracker did before the index.
+    private static Set<Integer> findMatchingSessionsLinear(List<QosBearerSession> sessions,
+            QosCallbackTracker.IFilter filter) {
+        Set<Integer> matches = new HashSet<>();
+        for (QosBearerSession session : sessions) {
+            for (QosBearerFilter sessionFilter : session.getQosBearerFilterList()) {
+                if (QosBearerFilterIndex.matches(sessionFilter, filter)) {
+                    matches.add(session.getQosBearerSessionId());
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static Set<Integer> findMatchingSessions(QosBearerFilterIndex index,
+            QosCallbackTracker.IFilter filter, QosBearerFilterIndex.FilterKey key) {
+        Set<Integer> matches = new HashSet<>();
+        index.forEachMatchingSession(filter, key,
+                session -> assertTrue(matches.add(session.getQosBearerSessionId())));
+        return matches;
+    }
+
+    @Test
+    @SmallTest
+    public void testFilterKey() {
+        SocketFilter filter = new SocketFilter(createAddress(1), 5004, createAddress(2), 443,
+                QosBearerFilter.QOS_PROTOCOL_UDP);
+        QosBearerFilterIndex.FilterKey key = QosBearerFilterIndex.FilterKey.of(filter);
+        assertEquals(5004, key.mLocalPort);
+        assertEquals(443, key.mRemotePort);
+        assertFalse(key.mMatchesTcp);
+        assertTrue(key.mMatchesUdp);
+        assertTrue(key.isIndexable());
+
+        filter = new SocketFilter(createAddress(1), 5004, null, 0,
+                QosBearerFilter.QOS_PROTOCOL_TCP);
+        key = QosBearerFilterIndex.FilterKey.of(filter);
+        assertEquals(QosBearerFilterIndex.FilterKey.NO_PORT, key.mRemotePort);
+        assertTrue(key.isIndexable());
+    }
+
+    @Test
+    @SmallTest
+    public void testFilterKeyOfFilterMatchingManyPorts() {
+        // Matches any range of two or more ports, so it has no single port.
+        QosCallbackTracker.IFilter filter = new SocketFilter(createAddress(1), 0, null, 0,
+                QosBearerFilter.QOS_PROTOCOL_TCP) {
+            @Override
+            public boolean matchesLocalAddress(InetAddress address, int startPort, int endPort) {
+                return endPort > startPort;
+            }
+        };
+        QosBearerFilterIndex.FilterKey key = QosBearerFilterIndex.FilterKey.of(filter);
+        assertEquals(QosBearerFilterIndex.FilterKey.UNKNOWN_PORT, key.mLocalPort);
+        assertFalse(key.isIndexable());
+
+        List<QosBearerSession> sessions = createSessions(new Random(0), 16);
+        assertEquals(findMatchingSessionsLinear(sessions, filter),
+                findMatchingSessions(new QosBearerFilterIndex(sessions), filter, key));
+    }
+
+    @Test
+    @SmallTest
+    public void testMatchesLikeLinearSearch() {
+        Random random = new Random(0);
+        List<QosBearerSession> sessions = createSessions(random, 64);
+        QosBearerFilterIndex index = new QosBearerFilterIndex(sessions);
+        int matches = 0;
+        for (SocketFilter filter : createFilters(random, 1000)) {
+            Set<Integer> expected = findMatchingSessionsLinear(sessions, filter);
+            assertEquals(expected, findMatchingSessions(index, filter,
+                    QosBearerFilterIndex.FilterKey.of(filter)));
+            matches += expected.size();
+        }
+        // Make sure the random filters do match some sessions.
+        assertTrue(matches > 0);
+    }
+
+    @Test
+    @SmallTest
+    public void testMatch64BearersWith256FiltersBenchmark() {
+        final int iterations = 20;
+        Random random = new Random(0);
+        List<QosBearerSession> sessions = createSessions(random, 64);
+        List<SocketFilter> filters = createFilters(random, 256);
+        List<QosBearerFilterIndex.FilterKey> keys = new ArrayList<>();
+        for (SocketFilter filter : filters) {
+            keys.add(QosBearerFilterIndex.FilterKey.of(filter));
+        }
+
+        int linearMatches = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            for (SocketFilter filter : filters) {
+                linearMatches += findMatchingSessionsLinear(sessions, filter).size();
+            }
+        }
+        long linearNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        int[] indexMatches = new int[1];
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            QosBearerFilterIndex index = new QosBearerFilterIndex(sessions);
+            for (int j = 0; j < filters.size(); j++) {
+                index.forEachMatchingSession(filters.get(j), keys.get(j),
+                        session -> indexMatches[0]++);
+            }
+        }
+        long indexNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Matched 64 bearers with 256 filters " + iterations + " times: linear="
+                + (linearNanos / 1000) + "us, index=" + (indexNanos / 1000) + "us");
+
+        assertEquals(linearMatches, indexMatches[0]);
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.internal.telephony.data;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
@@ -660,5 +661,46 @@ public class QosCallbackTrackerTest extends TelephonyTest {
         verify(mRcsStats, times(1))
                 .onImsDedicatedBearerListenerRemoved(callbackId);
     }
+
+    @Test
+    public void testUpdateSameSessions() throws Exception {
+        Filter filter = new Filter(new InetSocketAddress(
+                InetAddresses.parseNumericAddress("155.55.55.55"), 2222),
+                new InetSocketAddress(InetAddresses.parseNumericAddress("144.44.44.44"), 2223));
+        mQosCallbackTracker.addFilter(1, filter);
+
+        ArrayList<QosBearerFilter> qosFilters1 = new ArrayList<>();
+        qosFilters1.add(createIpv4QosFilter("155.55.55.55", "144.44.44.44",
+                new QosBearerFilter.PortRange(2222, 2222),
+                new QosBearerFilter.PortRange(2223, 2223), 45));
+        ArrayList<QosBearerSession> qosSessions = new ArrayList<>();
+        qosSessions.add(new QosBearerSession(1234, createEpsQos(5, 6, 7, 8), qosFilters1));
+        mQosCallbackTracker.updateSessions(qosSessions);
+        processAllMessages();
+
+        verify(mINetworkAgentRegistry, times(1)).sendEpsQosSessionAvailable(eq(1),
+                any(QosSession.class), any(EpsBearerQosSessionAttributes.class));
+        verify(mRcsStats, times(1)).onImsDedicatedBearerEvent(
+                anyInt(), anyInt(), anyInt(), anyInt(), anyBoolean(), anyBoolean(), eq(true));
+
+        // The same sessions are reported again, so nothing changed.
+        ArrayList<QosBearerSession> sameQosSessions = new ArrayList<>();
+        sameQosSessions.add(new QosBearerSession(1234, createEpsQos(5, 6, 7, 8),
+                new ArrayList<>(qosFilters1)));
+        mQosCallbackTracker.updateSessions(sameQosSessions);
+        processAllMessages();
+
+        verify(mINetworkAgentRegistry, times(1)).sendEpsQosSessionAvailable(eq(1),
+                any(QosSession.class), any(EpsBearerQosSessionAttributes.class));
+        verify(mRcsStats, times(1)).onImsDedicatedBearerEvent(
+                anyInt(), anyInt(), anyInt(), anyInt(), anyBoolean(), anyBoolean(), anyBoolean());
+
+        mQosCallbackTracker.updateSessions(new ArrayList<>());
+        processAllMessages();
+
+        verify(mINetworkAgentRegistry, times(1)).sendQosSessionLost(eq(1), any(QosSession.class));
+        verify(mRcsStats, times(2)).onImsDedicatedBearerEvent(
+                anyInt(), anyInt(), anyInt(), anyInt(), anyBoolean(), anyBoolean(), eq(true));
+    }
 }
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import static com.android.internal.telephony.emergency.EmergencyConstants.MODE_EMERGENCY_NONE;
+import static com.android.internal.telephony.emergency.EmergencyConstants.MODE_EMERGENCY_WWAN;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.emergency.EmergencyNumber;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class EmergencyContextTest {
+    private static final String TAG = "EmergencyContextTest";
+
+    @Before
+    public void setUp() {
+        EmergencyContext.reset();
+    }
+
+    @After
+    public void tearDown() {
+        EmergencyContext.reset();
+    }
+
+    private static EmergencyNumber createEmergencyNumber(String number, int routing) {
+        return new EmergencyNumber(number, "us", "", 0, new ArrayList<String>(),
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING, routing);
+    }
+
+    private static List<EmergencyNumber> createEmergencyNumbers(int count) {
+        List<EmergencyNumber> emergencyNumbers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            emergencyNumbers.add(createEmergencyNumber(String.valueOf(900 + i),
+                    EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN));
+        }
+        return emergencyNumbers;
+    }
+
+    // Checks the number as EmergencyNumberTracker#isEmergencyNumber does with the radio list.
+    private static boolean isEmergencyNumberInList(List<EmergencyNumber> emergencyNumbers,
+            String number) {
+        if (number == null || PhoneNumberUtils.isUriNumber(number)) {
+            return false;
+        }
+        number = PhoneNumberUtils.extractNetworkPortionAlt(number);
+        for (EmergencyNumber num : emergencyNumbers) {
+            if (num.getNumber().equals(number)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    @SmallTest
+    public void testVersion() {
+        EmergencyContext first = EmergencyContext.getCurrent();
+        EmergencyContext.update(builder -> builder.setPhoneState(0, null, "us"));
+        EmergencyContext second = EmergencyContext.getCurrent();
+
+        assertTrue(second.getVersion() > first.getVersion());
+        // A published snapshot never changes.
+        assertEquals("", first.getLastKnownCountryIso(0));
+        assertEquals("us", second.getLastKnownCountryIso(0));
+
+        EmergencyContext.reset();
+        assertTrue(EmergencyContext.getCurrent().getVersion() > second.getVersion());
+        assertEquals("", EmergencyContext.getCurrent().getLastKnownCountryIso(0));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmergencyNumbers() {
+        EmergencyNumber police = createEmergencyNumber("112",
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY);
+        EmergencyNumber fire = createEmergencyNumber("112",
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL);
+        EmergencyNumber other = createEmergencyNumber("911",
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN);
+        EmergencyContext.update(builder -> builder
+                .setPhoneState(0, List.of(police, fire, other), "us")
+                .setPhoneState(1, null, "ca"));
+        EmergencyContext context = EmergencyContext.getCurrent();
+
+        assertTrue(context.hasEmergencyNumbers(0));
+        assertTrue(context.isEmergencyNumber(0, "112"));
+        assertTrue(context.isEmergencyNumber(0, "9-1-1"));
+        assertFalse(context.isEmergencyNumber(0, "1120"));
+        assertFalse(context.isEmergencyNumber(0, "911@example.com"));
+        assertFalse(context.isEmergencyNumber(0, null));
+        assertEquals(List.of(police, fire), context.getEmergencyNumbers(0, "112"));
+        assertEquals(EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN,
+                context.getEmergencyNumbers(0, "911").get(0).getEmergencyCallRouting());
+
+        // The phone without the emergency numbers from the radio is left to the tracker.
+        assertFalse(context.hasEmergencyNumbers(1));
+        assertFalse(context.isEmergencyNumber(1, "112"));
+        assertEquals("ca", context.getLastKnownCountryIso(1));
+        assertFalse(context.hasEmergencyNumbers(2));
+        assertEquals("", context.getLastKnownCountryIso(2));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmergencyModeAndCallbackMode() {
+        EmergencyContext.update(builder -> builder
+                .setEmergencyMode(1, MODE_EMERGENCY_WWAN)
+                .setCallbackModeState(true, false, false, false));
+        EmergencyContext context = EmergencyContext.getCurrent();
+        assertEquals(MODE_EMERGENCY_NONE, context.getEmergencyMode(0));
+        assertEquals(MODE_EMERGENCY_WWAN, context.getEmergencyMode(1));
+        assertTrue(context.isInEmergencyCall());
+        assertFalse(context.isInEcm());
+
+        // Changing the callback mode keeps the emergency numbers and the emergency mode.
+        EmergencyContext.update(builder -> builder.setPhoneState(0,
+                Collections.singletonList(createEmergencyNumber("112",
+                        EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN)), "us"));
+        EmergencyContext.update(builder -> builder.setCallbackModeState(false, true, true, false));
+        context = EmergencyContext.getCurrent();
+        assertTrue(context.isEmergencyNumber(0, "112"));
+        assertEquals(MODE_EMERGENCY_WWAN, context.getEmergencyMode(1));
+        assertFalse(context.isInEmergencyCall());
+        assertTrue(context.isInEcm());
+        assertTrue(context.isInImsEcm());
+        assertFalse(context.isInCdmaEcm());
+    }
+
+    @Test
+    @SmallTest
+    public void testConcurrentUpdates() throws Exception {
+        final int updates = 1000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int phoneId = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < updates; j++) {
+                    String countryIso = String.valueOf(j);
+                    EmergencyContext.update(builder ->
+                            builder.setPhoneState(phoneId, null, countryIso));
+                }
+            });
+        }
+        long version = EmergencyContext.getCurrent().getVersion();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        EmergencyContext context = EmergencyContext.getCurrent();
+        // No update is lost.
+        assertEquals(version + threads.length * updates, context.getVersion());
+        for (int i = 0; i < threads.length; i++) {
+            assertEquals(String.valueOf(updates - 1), context.getLastKnownCountryIso(i));
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testIsEmergencyNumberBenchmark() {
+        final int lookups = 100000;
+        List<EmergencyNumber> emergencyNumbers = createEmergencyNumbers(64);
+        EmergencyContext.update(builder -> builder.setPhoneState(0, emergencyNumbers, "us"));
+        String[] numbers = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            numbers[i] = String.valueOf(900 + (i * 7) % 128);
+        }
+
+        int listMatches = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < lookups; i++) {
+            if (isEmergencyNumberInList(emergencyNumbers, numbers[i])) {
+                listMatches++;
+            }
+        }
+        long listNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        int contextMatches = 0;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < lookups; i++) {
+            if (EmergencyContext.getCurrent().isEmergencyNumber(0, numbers[i])) {
+                contextMatches++;
+            }
+        }
+        long contextNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Checked " + lookups + " numbers against 64 emergency numbers: list="
+                + (listNanos / 1000) + "us, context=" + (contextNanos / 1000) + "us");
+
+        assertEquals(listMatches, contextMatches);
+    }
+}
@@ -20,6 +20,7 @@ import static com.android.internal.telephony.TelephonyTestUtils.waitForMs;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -48,10 +49,14 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncResult;
 import android.os.Bundle;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Telephony;
+import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
 import android.test.mock.MockContentResolver;
 import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
@@ -459,6 +464,157 @@ public class GsmInboundSmsHandlerTest extends TelephonyTest {
         assertEquals("IdleState", getCurrentState().getName());
     }
 
+    private List<String> getSmsFilterStageNames() {
+        List<String> names = new ArrayList<>();
+        for (InboundSmsHandler.SmsFilter filter : mGsmInboundSmsHandler.getSmsFilters()) {
+            names.add(((InboundSmsHandler.SmsFilterStage) filter).getName());
+        }
+        return names;
+    }
+
+    @Test
+    @MediumTest
+    public void testDefaultSmsFilters_rebuiltOnCarrierConfigChange() {
+        ArgumentCaptor<CarrierConfigManager.CarrierConfigChangeListener> listenerArgumentCaptor =
+                ArgumentCaptor.forClass(CarrierConfigManager.CarrierConfigChangeListener.class);
+        verify(mCarrierConfigManager, atLeastOnce())
+                .registerCarrierConfigChangeListener(any(), listenerArgumentCaptor.capture());
+        CarrierConfigManager.CarrierConfigChangeListener listener =
+                listenerArgumentCaptor.getValue();
+
+        // Without the carrier config, the missed incoming call SMS filter can never match.
+        mGsmInboundSmsHandler.setSmsFiltersForTesting(null);
+        assertEquals(List.of("CarrierServicesSmsFilter", "VisualVoicemailSmsFilter"),
+                getSmsFilterStageNames());
+
+        putMissedIncomingCallSmsConfig(mContextFixture.getCarrierConfigBundle());
+        listener.onCarrierConfigChanged(mPhone.getPhoneId(), mSubId0,
+                TelephonyManager.UNKNOWN_CARRIER_ID, TelephonyManager.UNKNOWN_CARRIER_ID);
+        processAllMessages();
+        assertEquals(List.of("CarrierServicesSmsFilter", "VisualVoicemailSmsFilter",
+                "MissedIncomingCallSmsFilter"), getSmsFilterStageNames());
+
+        // The filters set for testing are kept.
+        mGsmInboundSmsHandler.setSmsFiltersForTesting(mSmsFilters);
+        listener.onCarrierConfigChanged(mPhone.getPhoneId(), mSubId0,
+                TelephonyManager.UNKNOWN_CARRIER_ID, TelephonyManager.UNKNOWN_CARRIER_ID);
+        processAllMessages();
+        assertSame(mSmsFilters, mGsmInboundSmsHandler.getSmsFilters());
+    }
+
+    @Test
+    @MediumTest
+    public void testNewSms_filterStageCounters() {
+        InboundSmsHandler.SmsFilterStage stage =
+                new InboundSmsHandler.SmsFilterStage("test", mSmsFilter);
+        mGsmInboundSmsHandler.setSmsFiltersForTesting(List.of(stage, mSmsFilter2));
+        transitionFromStartupToIdle();
+
+        sendNewSms();
+        verifySmsIntentBroadcasts(0);
+
+        assertEquals(1, stage.getInvocationCount());
+        assertEquals(0, stage.getHitCount());
+        assertTrue(stage.getTotalLatencyNanos() >= 0);
+
+        when(mSmsFilter.filterSms(any(byte[][].class), anyInt(),
+                any(InboundSmsTracker.class), any(InboundSmsHandler.SmsBroadcastReceiver.class),
+                anyBoolean(), anyBoolean(), Mockito.<List<InboundSmsHandler.SmsFilter>>any()))
+                .thenAnswer((Answer<Boolean>) invocation -> {
+                    mGsmInboundSmsHandler.sendMessage(InboundSmsHandler.EVENT_BROADCAST_COMPLETE);
+                    return true;
+                });
+        doReturn(createInboundSmsTracker(System.currentTimeMillis() + 1, mMessageBody + 1))
+                .when(mTelephonyComponentFactory)
+                .makeInboundSmsTracker(any(Context.class), nullable(byte[].class), anyLong(),
+                        anyInt(), anyBoolean(),
+                        anyBoolean(), nullable(String.class), nullable(String.class),
+                        nullable(String.class), anyBoolean(), anyInt(), anyInt());
+        sendNewSms();
+
+        assertEquals(2, stage.getInvocationCount());
+        assertEquals(1, stage.getHitCount());
+        assertEquals("IdleState", getCurrentState().getName());
+    }
+
+    private InboundSmsTracker createInboundSmsTracker(long timestamp, String messageBody) {
+        return new InboundSmsTracker(
+                mContext,
+                mSmsPdu, /* pdu */
+                timestamp, /* timestamp */
+                -1, /* destPort */
+                false, /* is3gpp2 */
+                false, /* is3gpp2WapPdu */
+                "1234567890", /* address */
+                "1234567890", /* displayAddress */
+                messageBody, /* messageBody */
+                false, /* isClass0 */
+                mSubId0,
+                InboundSmsHandler.SOURCE_NOT_INJECTED);
+    }
+
+    private void putMissedIncomingCallSmsConfig(PersistableBundle bundle) {
+        bundle.putStringArray(
+                CarrierConfigManager.KEY_MISSED_INCOMING_CALL_SMS_ORIGINATOR_STRING_ARRAY,
+                new String[]{"+18584121234"});
+        bundle.putStringArray(
+                CarrierConfigManager.KEY_MISSED_INCOMING_CALL_SMS_PATTERN_STRING_ARRAY,
+                new String[]{"^(?<callerId>[0-9]+)$"});
+    }
+
+    /**
+     * Measures the time from EVENT_NEW_SMS to the SMS_DELIVER broadcast through the default SMS
+     * filters, and checks that every stage ran for every message without diverting it.
+     */
+    private void runNewSmsToDeliverBroadcastBenchmark(String name, int expectedStages) {
+        final int messages = 50;
+        // Use the default filters instead of the mocked ones.
+        mGsmInboundSmsHandler.setSmsFiltersForTesting(null);
+        assertEquals(expectedStages, mGsmInboundSmsHandler.getSmsFilters().size());
+        transitionFromStartupToIdle();
+
+        long totalNanos = 0;
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < messages; i++) {
+            doReturn(createInboundSmsTracker(timestamp + i, mMessageBody + i))
+                    .when(mTelephonyComponentFactory)
+                    .makeInboundSmsTracker(any(Context.class), nullable(byte[].class), anyLong(),
+                            anyInt(), anyBoolean(),
+                            anyBoolean(), nullable(String.class), nullable(String.class),
+                            nullable(String.class), anyBoolean(), anyInt(), anyInt());
+
+            // From the new SMS indication until SMS_DELIVER is sent.
+            long start = SystemClock.elapsedRealtimeNanos();
+            sendNewSms();
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            verifySmsIntentBroadcasts(2 * i);
+        }
+        logd(name + ": delivered " + messages + " SMS: averageLatencyUs="
+                + (totalNanos / messages / 1000));
+
+        for (InboundSmsHandler.SmsFilter filter : mGsmInboundSmsHandler.getSmsFilters()) {
+            InboundSmsHandler.SmsFilterStage stage = (InboundSmsHandler.SmsFilterStage) filter;
+            logd(name + ": " + stage);
+            assertEquals(messages, stage.getInvocationCount());
+            assertEquals(0, stage.getHitCount());
+        }
+    }
+
+    @Test
+    @MediumTest
+    public void testNewSmsToDeliverBroadcastBenchmark() {
+        runNewSmsToDeliverBroadcastBenchmark("default filters", 2 /* expectedStages */);
+    }
+
+    @Test
+    @MediumTest
+    public void testNewSmsToDeliverBroadcastBenchmark_missedIncomingCallSmsConfigured() {
+        putMissedIncomingCallSmsConfig(mContextFixture.getCarrierConfigBundle());
+        runNewSmsToDeliverBroadcastBenchmark("missed incoming call SMS configured",
+                3 /* expectedStages */);
+    }
+
     private void verifyDataSmsIntentBroadcasts(int numPastBroadcasts) {
         ArgumentCaptor<Intent> intentArgumentCaptor = ArgumentCaptor.forClass(Intent.class);
         verify(mContext, times(1 + numPastBroadcasts)).sendBroadcast(
@@ -748,6 +904,34 @@ public class GsmInboundSmsHandlerTest extends TelephonyTest {
         assertEquals("IdleState", getCurrentState().getName());
     }
 
+    @Test
+    @MediumTest
+    public void testMultiPartSmsWithSegmentStoredBeforeRestart() {
+        transitionFromStartupToIdle();
+
+        // prepare SMS part 1 and part 2
+        prepareMultiPartSms(false);
+
+        // part 1 was stored in the raw table before the handler was created
+        mContentProvider.insert(sRawUri, mInboundSmsTrackerPart1.getContentValues());
+
+        mSmsHeader.concatRef = new SmsHeader.ConcatRef();
+        doReturn(mSmsHeader).when(mGsmSmsMessage).getUserDataHeader();
+
+        doReturn(mInboundSmsTrackerPart2).when(mTelephonyComponentFactory)
+                .makeInboundSmsTracker(any(Context.class), nullable(byte[].class), anyLong(),
+                        anyInt(), anyBoolean(),
+                        nullable(String.class), nullable(String.class), anyInt(), anyInt(),
+                        anyInt(), anyBoolean(), nullable(String.class), anyBoolean(), anyInt(),
+                        anyInt());
+        sendNewSms();
+
+        // both segments are reassembled from the raw table and the message is broadcast
+        verifySmsIntentBroadcasts(0);
+        verifySmsFiltersInvoked(times(1));
+        assertEquals("IdleState", getCurrentState().getName());
+    }
+
     @Test
     @MediumTest
     public void testMultiPartIncompleteSms() {
@@ -27,6 +27,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -68,6 +69,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -904,6 +907,126 @@ public class ImsResolverTest extends ImsTestBase {
         verify(deviceController2, times(1)).bind(eq(deviceFeatures2), any(SparseIntArray.class));
     }
 
+    /**
+     * Test that the dynamic queries of the device ImsServices are all in flight at once and the
+     * ImsServices are bound once the slowest query completes. Verify that the query latency and
+     * the time to the first MMTEL bind are reported in dump.
+     */
+    @Test
+    @SmallTest
+    public void testDeviceDynamicQueriesConcurrentWithLatency() throws RemoteException {
+        List<ResolveInfo> info = new ArrayList<>();
+        info.add(getResolveInfo(TEST_DEVICE_DEFAULT_NAME, new HashSet<>(), true));
+        info.add(getResolveInfo(TEST_DEVICE2_DEFAULT_NAME, new HashSet<>(), true));
+        setupPackageQuery(info);
+        setupResolver(1 /*numSlots*/, TEST_DEVICE_DEFAULT_NAME.getPackageName(),
+                TEST_DEVICE2_DEFAULT_NAME.getPackageName());
+        long[] elapsedRealtimeMs = {10000};
+        mTestImsResolver.setElapsedRealtimeSupplier(() -> elapsedRealtimeMs[0]);
+        ImsServiceController deviceController = mock(ImsServiceController.class);
+        ImsServiceController deviceController2 = mock(ImsServiceController.class);
+        Map<String, ImsServiceController> controllerMap = new ArrayMap<>();
+        controllerMap.put(TEST_DEVICE_DEFAULT_NAME.getPackageName(), deviceController);
+        controllerMap.put(TEST_DEVICE2_DEFAULT_NAME.getPackageName(), deviceController2);
+        setImsServiceControllerFactory(controllerMap);
+        Set<ImsFeatureConfiguration.FeatureSlotPair> deviceFeatures1 =
+                convertToFeatureSlotPairs(0, ImsResolver.METADATA_MMTEL_FEATURE);
+        Set<ImsFeatureConfiguration.FeatureSlotPair> deviceFeatures2 =
+                convertToFeatureSlotPairs(0, ImsResolver.METADATA_RCS_FEATURE);
+
+        startBindNoCarrierConfig(1);
+        processAllMessages();
+        // Both queries are started before either ImsService has responded.
+        verify(mMockQueryManager, times(1)).startQuery(eq(TEST_DEVICE_DEFAULT_NAME),
+                any(String.class));
+        verify(mMockQueryManager, times(1)).startQuery(eq(TEST_DEVICE2_DEFAULT_NAME),
+                any(String.class));
+
+        // The second ImsService responds after 300ms, while the first is still being queried.
+        when(mMockQueryManager.isQueryInProgress()).thenReturn(true);
+        elapsedRealtimeMs[0] += 300;
+        mDynamicQueryListener.onComplete(TEST_DEVICE2_DEFAULT_NAME, deviceFeatures2);
+        processAllMessages();
+        verify(deviceController2, never()).bind(any(), any(SparseIntArray.class));
+
+        // The first ImsService responds after 1000ms.
+        when(mMockQueryManager.isQueryInProgress()).thenReturn(false);
+        elapsedRealtimeMs[0] += 700;
+        mDynamicQueryListener.onComplete(TEST_DEVICE_DEFAULT_NAME, deviceFeatures1);
+        processAllMessages();
+        verify(deviceController).bind(eq(deviceFeatures1), any(SparseIntArray.class));
+        verify(deviceController2).bind(eq(deviceFeatures2), any(SparseIntArray.class));
+
+        StringWriter dump = new StringWriter();
+        mTestImsResolver.dump(null, new PrintWriter(dump), null);
+        assertTrue(dump.toString().contains(
+                "First MMTEL bind: 11000ms after boot, 1000ms after initialize"));
+        assertTrue(dump.toString().contains("Dynamic queries: completed=2, errors=0, "
+                + "in progress=0, average latency=650ms, max latency=1000ms"));
+    }
+
+    /**
+     * Test that when a package with a dynamic ImsService is updated, the ImsService is not unbound
+     * in between the removal and addition and only the updated package is queried again.
+     */
+    @Test
+    @SmallTest
+    public void testDeviceDynamicPackageReplacedOnlyRequeriesPackage() throws RemoteException {
+        List<ResolveInfo> info = new ArrayList<>();
+        info.add(getResolveInfo(TEST_DEVICE_DEFAULT_NAME, new HashSet<>(), true));
+        info.add(getResolveInfo(TEST_DEVICE2_DEFAULT_NAME, new HashSet<>(), true));
+        setupPackageQuery(info);
+        List<ResolveInfo> deviceInfo = new ArrayList<>();
+        deviceInfo.add(getResolveInfo(TEST_DEVICE_DEFAULT_NAME, new HashSet<>(), true));
+        doReturn(deviceInfo).when(mMockPM).queryIntentServicesAsUser(
+                argThat(argument -> ImsService.SERVICE_INTERFACE.equals(argument.getAction())
+                        && TEST_DEVICE_DEFAULT_NAME.getPackageName().equals(
+                                argument.getPackage())),
+                anyInt(), any());
+        setupResolver(1 /*numSlots*/, TEST_DEVICE_DEFAULT_NAME.getPackageName(),
+                TEST_DEVICE2_DEFAULT_NAME.getPackageName());
+        ImsServiceController deviceController = mock(ImsServiceController.class);
+        ImsServiceController deviceController2 = mock(ImsServiceController.class);
+        Map<String, ImsServiceController> controllerMap = new ArrayMap<>();
+        controllerMap.put(TEST_DEVICE_DEFAULT_NAME.getPackageName(), deviceController);
+        controllerMap.put(TEST_DEVICE2_DEFAULT_NAME.getPackageName(), deviceController2);
+        setImsServiceControllerFactory(controllerMap);
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> deviceFeatures1 =
+                convertToFeatureSlotPairs(0, ImsResolver.METADATA_MMTEL_FEATURE);
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> deviceFeatures2 =
+                convertToFeatureSlotPairs(0, ImsResolver.METADATA_RCS_FEATURE);
+
+        startBindNoCarrierConfig(1);
+        setupDynamicQueryFeatures(TEST_DEVICE2_DEFAULT_NAME, deviceFeatures2, 1);
+        setupDynamicQueryFeatures(TEST_DEVICE_DEFAULT_NAME, deviceFeatures1, 1);
+        verify(deviceController, atLeastOnce()).bind(eq(deviceFeatures1),
+                any(SparseIntArray.class));
+
+        // The package is updated: removed and then added again, both with EXTRA_REPLACING.
+        Intent removePackageIntent = new Intent(Intent.ACTION_PACKAGE_REMOVED);
+        removePackageIntent.setData(new Uri.Builder().scheme("package")
+                .opaquePart(TEST_DEVICE_DEFAULT_NAME.getPackageName()).build());
+        removePackageIntent.putExtra(Intent.EXTRA_REPLACING, true);
+        mTestPackageBroadcastReceiver.onReceive(null, removePackageIntent);
+        processAllMessages();
+        verify(deviceController, never()).unbind();
+        assertNotNull(mTestImsResolver.getImsServiceInfoFromCache(
+                TEST_DEVICE_DEFAULT_NAME.getPackageName()));
+
+        Intent addPackageIntent = new Intent(Intent.ACTION_PACKAGE_ADDED);
+        addPackageIntent.setData(new Uri.Builder().scheme("package")
+                .opaquePart(TEST_DEVICE_DEFAULT_NAME.getPackageName()).build());
+        addPackageIntent.putExtra(Intent.EXTRA_REPLACING, true);
+        mTestPackageBroadcastReceiver.onReceive(null, addPackageIntent);
+        setupDynamicQueryFeatures(TEST_DEVICE_DEFAULT_NAME, deviceFeatures1, 2);
+
+        // Only the updated package is queried again.
+        verify(mMockQueryManager, times(1)).startQuery(eq(TEST_DEVICE2_DEFAULT_NAME),
+                any(String.class));
+        verify(deviceController, never()).unbind();
+        verify(deviceController2, never()).unbind();
+    }
+
     /**
      * Test that when a device and carrier override package are set, both ImsServices are bound.
      * Verify that the carrier ImsService features are created and the device default features
@@ -1740,6 +1863,60 @@ public class ImsResolverTest extends ImsTestBase {
         assertEquals(TEST_DEVICE_DEFAULT_NAME, deviceController.getComponentName());
     }
 
+    /**
+     * If one ImsService of a package returns a permanent error during the dynamic feature query,
+     * verify that all ImsServices of that package are removed from the cache and unbound, and the
+     * device ImsService takes over their features.
+     */
+    @Test
+    @SmallTest
+    public void testPermanentBindFailureDuringFeatureQueryRemovesPackage() throws RemoteException {
+        setupResolver(1 /*numSlots*/, TEST_DEVICE_DEFAULT_NAME.getPackageName(),
+                TEST_DEVICE_DEFAULT_NAME.getPackageName());
+        ComponentName carrierName2 = new ComponentName(TEST_CARRIER_DEFAULT_NAME.getPackageName(),
+                "CarrierImsService2");
+        List<ResolveInfo> info = new ArrayList<>();
+        Set<String> deviceFeatures = new HashSet<>();
+        deviceFeatures.add(ImsResolver.METADATA_MMTEL_FEATURE);
+        deviceFeatures.add(ImsResolver.METADATA_RCS_FEATURE);
+        // Set the carrier override package for slot 0
+        setConfigCarrierStringMmTelRcs(0, TEST_CARRIER_DEFAULT_NAME.getPackageName());
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> carrierFeatures = new HashSet<>();
+        // Carrier service doesn't support the voice feature.
+        carrierFeatures.add(new ImsFeatureConfiguration.FeatureSlotPair(0, ImsFeature.FEATURE_RCS));
+        // Use device default package, which will load the ImsService that the device provides
+        info.add(getResolveInfo(TEST_DEVICE_DEFAULT_NAME, deviceFeatures, true));
+        // The carrier package contains two ImsServices.
+        info.add(getResolveInfo(TEST_CARRIER_DEFAULT_NAME, new HashSet<>(), true));
+        info.add(getResolveInfo(carrierName2, new HashSet<>(), true));
+        setupPackageQuery(info);
+        ImsServiceController deviceController = mock(ImsServiceController.class);
+        ImsServiceController carrierController = mock(ImsServiceController.class);
+        setImsServiceControllerFactory(deviceController, carrierController);
+
+        startBindCarrierConfigAlreadySet();
+        setupDynamicQueryFeatures(TEST_CARRIER_DEFAULT_NAME, carrierFeatures, 1);
+        verify(carrierController).bind(eq(carrierFeatures), any(SparseIntArray.class));
+        assertNotNull(mTestImsResolver.getImsServiceInfoFromCache(
+                TEST_CARRIER_DEFAULT_NAME.getPackageName()));
+
+        // The dynamic query of the other ImsService of the package results in a failure.
+        setupDynamicQueryFeaturesFailure(carrierName2, 1);
+
+        // Verify that both ImsServices of the carrier package are removed and the bound one is
+        // unbound.
+        verify(carrierController).unbind();
+        assertNull(mTestImsResolver.getImsServiceInfoFromCache(
+                TEST_CARRIER_DEFAULT_NAME.getPackageName()));
+        // Verify that the device ImsService features are changed to include the ones previously
+        // taken by the carrier app.
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> deviceFeatureSet =
+                convertToHashSet(deviceFeatures, 0);
+        verify(deviceController).changeImsServiceFeatures(eq(deviceFeatureSet),
+                any(SparseIntArray.class));
+        verify(deviceController, never()).unbind();
+    }
+
     /**
      * If a misbehaving ImsService returns null for the Binder connection when we perform bind,
      * verify the service is disconnected.
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.ims;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.test.TestLooper;
+import android.telephony.ims.ImsService;
+import android.telephony.ims.aidl.IImsServiceController;
+import android.telephony.ims.feature.ImsFeature;
+import android.telephony.ims.stub.ImsFeatureConfiguration;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for ImsServiceFeatureQueryManager
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImsServiceFeatureQueryManagerTest {
+
+    private static final ComponentName TEST_SERVICE_NAME =
+            new ComponentName("TestPkg", "ImsServiceName");
+
+    @Mock Context mMockContext;
+    @Mock ImsServiceFeatureQueryManager.Listener mMockListener;
+    @Mock IImsServiceController mMockServiceController;
+    @Mock IBinder mMockBinder;
+
+    private TestLooper mTestLooper;
+    private ImsServiceFeatureQueryManager mQueryManager;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mTestLooper = new TestLooper();
+        when(mMockContext.bindService(any(Intent.class), anyInt(), any(Executor.class),
+                any(ServiceConnection.class))).thenReturn(true);
+        when(mMockBinder.queryLocalInterface(anyString())).thenReturn(mMockServiceController);
+        // Run the connection callbacks on the test thread.
+        mQueryManager = new ImsServiceFeatureQueryManager(mMockContext, mMockListener,
+                Runnable::run, new Handler(mTestLooper.getLooper()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mQueryManager = null;
+        mTestLooper = null;
+    }
+
+    /**
+     * The ImsService returns its features before the timeout, ensure they are reported and the
+     * timeout does not report an error afterwards.
+     */
+    @Test
+    @SmallTest
+    public void testQueryComplete() throws Exception {
+        ImsFeatureConfiguration config = new ImsFeatureConfiguration.Builder()
+                .addFeature(0, ImsFeature.FEATURE_MMTEL).build();
+        when(mMockServiceController.querySupportedImsFeatures()).thenReturn(config);
+
+        ServiceConnection connection = startQuery();
+        connection.onServiceConnected(TEST_SERVICE_NAME, mMockBinder);
+
+        verify(mMockListener).onComplete(eq(TEST_SERVICE_NAME), eq(config.getServiceFeatures()));
+        verify(mMockContext).unbindService(connection);
+        assertFalse(mQueryManager.isQueryInProgress());
+
+        mTestLooper.moveTimeForward(ImsServiceFeatureQueryManager.QUERY_TIMEOUT_MS);
+        mTestLooper.dispatchAll();
+        verify(mMockListener, never()).onError(any(ComponentName.class));
+    }
+
+    /**
+     * The ImsService does not connect before the timeout, ensure the query is stopped and
+     * reported as an error so that it is retried.
+     */
+    @Test
+    @SmallTest
+    public void testQueryTimeout() throws Exception {
+        ServiceConnection connection = startQuery();
+
+        mTestLooper.moveTimeForward(ImsServiceFeatureQueryManager.QUERY_TIMEOUT_MS - 1);
+        mTestLooper.dispatchAll();
+        verify(mMockListener, never()).onError(any(ComponentName.class));
+        assertTrue(mQueryManager.isQueryInProgress());
+
+        mTestLooper.moveTimeForward(1);
+        mTestLooper.dispatchAll();
+        verify(mMockListener).onError(TEST_SERVICE_NAME);
+        verify(mMockContext).unbindService(connection);
+        assertFalse(mQueryManager.isQueryInProgress());
+    }
+
+    /**
+     * The ImsService returns its features after the query timed out, ensure the late result is
+     * dropped and only the timeout error is reported.
+     */
+    @Test
+    @SmallTest
+    public void testQueryResultAfterTimeoutDropped() throws Exception {
+        when(mMockServiceController.querySupportedImsFeatures()).thenReturn(
+                new ImsFeatureConfiguration.Builder()
+                        .addFeature(0, ImsFeature.FEATURE_MMTEL).build());
+
+        ServiceConnection connection = startQuery();
+        mTestLooper.moveTimeForward(ImsServiceFeatureQueryManager.QUERY_TIMEOUT_MS);
+        mTestLooper.dispatchAll();
+        verify(mMockListener).onError(TEST_SERVICE_NAME);
+
+        connection.onServiceConnected(TEST_SERVICE_NAME, mMockBinder);
+
+        verify(mMockListener, never()).onComplete(any(ComponentName.class),
+                any(Set.class));
+        verify(mMockListener, never()).onPermanentError(any(ComponentName.class));
+        // The connection was only unbound once, by the timeout.
+        verify(mMockContext, times(1)).unbindService(connection);
+        assertFalse(mQueryManager.isQueryInProgress());
+    }
+
+    /**
+     * A new query for the same ImsService after a timeout is not affected by a late result of
+     * the query that timed out.
+     */
+    @Test
+    @SmallTest
+    public void testQueryResultAfterTimeoutDoesNotCompleteRetry() throws Exception {
+        when(mMockServiceController.querySupportedImsFeatures()).thenReturn(
+                new ImsFeatureConfiguration.Builder()
+                        .addFeature(0, ImsFeature.FEATURE_MMTEL).build());
+
+        ServiceConnection timedOutConnection = startQuery();
+        mTestLooper.moveTimeForward(ImsServiceFeatureQueryManager.QUERY_TIMEOUT_MS);
+        mTestLooper.dispatchAll();
+        assertTrue(mQueryManager.startQuery(TEST_SERVICE_NAME,
+                ImsService.SERVICE_INTERFACE));
+
+        timedOutConnection.onServiceConnected(TEST_SERVICE_NAME, mMockBinder);
+
+        verify(mMockListener, never()).onComplete(any(ComponentName.class),
+                any(Set.class));
+        assertTrue(mQueryManager.isQueryInProgress());
+    }
+
+    /**
+     * The ImsService returns a null binder, which is a permanent error and is not retried.
+     */
+    @Test
+    @SmallTest
+    public void testQueryNullBinder() throws Exception {
+        ServiceConnection connection = startQuery();
+
+        connection.onServiceConnected(TEST_SERVICE_NAME, null);
+
+        verify(mMockListener).onPermanentError(TEST_SERVICE_NAME);
+        verify(mMockContext).unbindService(connection);
+        mTestLooper.moveTimeForward(ImsServiceFeatureQueryManager.QUERY_TIMEOUT_MS);
+        mTestLooper.dispatchAll();
+        verify(mMockListener, never()).onError(any(ComponentName.class));
+        verify(mMockListener, never()).onComplete(any(ComponentName.class),
+                eq(Collections.emptySet()));
+    }
+
+    private ServiceConnection startQuery() {
+        assertTrue(mQueryManager.startQuery(TEST_SERVICE_NAME, ImsService.SERVICE_INTERFACE));
+        assertTrue(mQueryManager.isQueryInProgress());
+        ArgumentCaptor<ServiceConnection> connectionCaptor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mMockContext).bindService(any(Intent.class), anyInt(), any(Executor.class),
+                connectionCaptor.capture());
+        return connectionCaptor.getValue();
+    }
+}
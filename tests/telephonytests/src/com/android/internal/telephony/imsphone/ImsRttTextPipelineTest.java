@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Looper;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import com.android.internal.telephony.TelephonyTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests of the buffering and pacing of text sent to the network by {@link ImsRttTextHandler},
+ * without the in-call pipes.
+ */
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class ImsRttTextPipelineTest extends TelephonyTest {
+    private static final long STEP_MILLIS = 10;
+
+    // ASCII, 2, 3 and 4 byte UTF-8 characters, emoji with surrogate pairs, a flag and a ZWJ
+    // sequence.
+    private static final String[] TEXT_PIECES = {
+            "a", "Z", " ", "é", "ß", "中", "文", "€",
+            "😀", "👍", "🇺🇸",
+            "👨‍👩‍👧"};
+
+    private static class Write {
+        final long mTimeMillis;
+        final String mText;
+
+        Write(long timeMillis, String text) {
+            mTimeMillis = timeMillis;
+            mText = text;
+        }
+    }
+
+    private final List<Write> mWrites = new ArrayList<>();
+    private long mNowMillis;
+    private ImsRttTextHandler mRttTextHandlerUT;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mNowMillis = 1000;
+        mRttTextHandlerUT = new ImsRttTextHandler(Looper.myLooper(),
+                s -> mWrites.add(new Write(mNowMillis, s)), () -> mNowMillis);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRttTextHandlerUT = null;
+        mWrites.clear();
+        super.tearDown();
+    }
+
+    private static String randomText(Random random, int pieces) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            sb.append(TEXT_PIECES[random.nextInt(TEXT_PIECES.length)]);
+        }
+        return sb.toString();
+    }
+
+    private void advanceTime(long millis) {
+        for (long elapsed = 0; elapsed < millis; elapsed += STEP_MILLIS) {
+            mNowMillis += STEP_MILLIS;
+            moveTimeForward(STEP_MILLIS);
+            processAllMessages();
+        }
+    }
+
+    private String getWrittenText() {
+        StringBuilder sb = new StringBuilder();
+        for (Write write : mWrites) {
+            sb.append(write.mText);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testRingBufferStress() throws Exception {
+        RttTextRingBuffer ringBuffer = new RttTextRingBuffer(64);
+        StringBuilder sent = new StringBuilder();
+        Random random = new Random(0);
+        while (sent.length() < 200000) {
+            sent.append(randomText(random, 1 + random.nextInt(8)));
+        }
+        String input = sent.toString();
+        int codepoints = input.codePointCount(0, input.length());
+
+        Thread producer = new Thread(() -> {
+            Random chunks = new Random(1);
+            int offset = 0;
+            while (offset < input.length()) {
+                int end = Math.min(input.length(), offset + 1 + chunks.nextInt(16));
+                // Keep surrogate pairs together, so that the codepoints can be counted up front.
+                if (end < input.length() && Character.isLowSurrogate(input.charAt(end))) {
+                    end++;
+                }
+                String chunk = input.substring(offset, end);
+                int chunkOffset = 0;
+                while (chunkOffset < chunk.length()) {
+                    chunkOffset = ringBuffer.offer(chunk, chunkOffset, offset);
+                    Thread.yield();
+                }
+                offset = end;
+            }
+        });
+        producer.start();
+
+        StringBuilder received = new StringBuilder();
+        Random polls = new Random(2);
+        int receivedCodepoints = 0;
+        long lastTimestamp = 0;
+        while (receivedCodepoints < codepoints) {
+            int size = ringBuffer.size();
+            assertThat(size).isAtMost(ringBuffer.capacity());
+            if (size == 0) {
+                Thread.yield();
+                continue;
+            }
+            int count = 1 + polls.nextInt(size);
+            // Timestamps are the char offsets of the chunks, so they never decrease.
+            long timestamp = ringBuffer.getTimestamp(count - 1);
+            assertThat(timestamp).isAtLeast(lastTimestamp);
+            lastTimestamp = timestamp;
+            received.append(ringBuffer.poll(count));
+            receivedCodepoints += count;
+        }
+        producer.join();
+
+        assertThat(ringBuffer.size()).isEqualTo(0);
+        assertThat(received.toString()).isEqualTo(input);
+    }
+
+    @Test
+    public void testSustainedInputIsPaced() {
+        Random random = new Random(3);
+        StringBuilder input = new StringBuilder();
+        long startMillis = mNowMillis;
+        // Type 3 characters every 100ms for 20 seconds, above the rate limit.
+        for (int i = 0; i < 200; i++) {
+            String text = randomText(random, 3);
+            input.append(text);
+            assertThat(mRttTextHandlerUT.appendToNetworkBuffer(text)).isTrue();
+            advanceTime(100);
+        }
+        String backlog = mRttTextHandlerUT.getNetworkBufferText();
+        assertThat(backlog).isNotEmpty();
+        advanceTime((backlog.codePointCount(0, backlog.length())
+                / ImsRttTextHandler.MAX_CODEPOINTS_PER_SECOND + 1) * 1000L);
+
+        assertThat(getWrittenText()).isEqualTo(input.toString());
+        assertThat(mRttTextHandlerUT.getNetworkBufferText()).isEmpty();
+
+        // The token bucket allows a burst of one second worth of codepoints, then the rate.
+        int totalSent = 0;
+        for (Write write : mWrites) {
+            totalSent += write.mText.codePointCount(0, write.mText.length());
+            long elapsed = write.mTimeMillis - startMillis;
+            assertThat(totalSent).isAtMost(ImsRttTextHandler.MAX_CODEPOINTS_PER_SECOND
+                    + (int) (elapsed * ImsRttTextHandler.MAX_CODEPOINTS_PER_SECOND / 1000));
+        }
+        // The input is throttled, so the text waits for seconds before it is sent.
+        assertThat(mRttTextHandlerUT.getMaxSendLatencyMillis()).isGreaterThan(1000L);
+        assertThat(mRttTextHandlerUT.getAverageSendLatencyMillis()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void testSlowInputSentWithinBufferingDelay() {
+        Random random = new Random(4);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            String text = randomText(random, 2);
+            input.append(text);
+            mRttTextHandlerUT.appendToNetworkBuffer(text);
+            processAllMessages();
+            // Fewer codepoints than MAX_BUFFERED_CHARACTER_COUNT are held back.
+            if (text.codePointCount(0, text.length())
+                    < ImsRttTextHandler.MAX_BUFFERED_CHARACTER_COUNT) {
+                assertThat(mRttTextHandlerUT.getNetworkBufferText()).isEqualTo(text);
+            }
+            advanceTime(500);
+            assertThat(mRttTextHandlerUT.getNetworkBufferText()).isEmpty();
+        }
+
+        assertThat(getWrittenText()).isEqualTo(input.toString());
+        assertThat(mWrites).hasSize(50);
+        assertThat(mRttTextHandlerUT.getMaxSendLatencyMillis())
+                .isAtMost((long) ImsRttTextHandler.MAX_BUFFERING_DELAY_MILLIS);
+    }
+
+    @Test
+    public void testBufferedCharactersSentAsBatch() {
+        mRttTextHandlerUT.appendToNetworkBuffer("ab😀");
+        processAllMessages();
+        assertThat(mWrites).isEmpty();
+
+        mRttTextHandlerUT.appendToNetworkBuffer("中é");
+        processAllMessages();
+        assertThat(mWrites).hasSize(1);
+        assertThat(mWrites.get(0).mText).isEqualTo("ab😀中é");
+        assertThat(mRttTextHandlerUT.getMaxSendLatencyMillis()).isEqualTo(0L);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.telephony.CallQuality;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class CallQualityAggregatorTest {
+    // One hour call with a report every second.
+    private static final int CALL_DURATION_MS = 60 * 60 * 1000;
+    private static final int REPORT_INTERVAL_MS = 1000;
+    private static final int PACKETS_PER_INTERVAL = 50;
+
+    private static CallQuality constructCallQuality(int dlQuality, int ulQuality, int durationMs,
+            int transmitted, int received, int transmittedLost, int notReceived, int jitter) {
+        return new CallQuality(dlQuality, ulQuality, durationMs, transmitted, received,
+                transmittedLost, notReceived, jitter, jitter, 0, 0);
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * Feed an hour long call with quality changes, packet loss and jitter, where some reports
+     * arrive out of order, and verify the summaries.
+     */
+    @Test
+    @SmallTest
+    public void testHourLongCall() {
+        Random random = new Random(0);
+        List<CallQuality> reports = new ArrayList<>();
+        long[] expectedUlDurationsMs = new long[CallQualityAggregator.LEVEL_COUNT];
+        long[] expectedDlDurationsMs = new long[CallQualityAggregator.LEVEL_COUNT];
+        int ulLevel = CallQuality.CALL_QUALITY_EXCELLENT;
+        int dlLevel = CallQuality.CALL_QUALITY_EXCELLENT;
+        int transmitted = 0;
+        int transmittedLost = 0;
+        int received = 0;
+        int notReceived = 0;
+        int minJitter = Integer.MAX_VALUE;
+        int maxJitter = Integer.MIN_VALUE;
+        long totalJitter = 0;
+        for (int durationMs = REPORT_INTERVAL_MS; durationMs <= CALL_DURATION_MS;
+                durationMs += REPORT_INTERVAL_MS) {
+            if (random.nextInt(30) == 0) {
+                ulLevel = random.nextInt(CallQualityAggregator.LEVEL_COUNT);
+            }
+            if (random.nextInt(30) == 0) {
+                dlLevel = random.nextInt(CallQualityAggregator.LEVEL_COUNT);
+            }
+            // The time since the previous report is spent in the level of the report.
+            expectedUlDurationsMs[ulLevel] += REPORT_INTERVAL_MS;
+            expectedDlDurationsMs[dlLevel] += REPORT_INTERVAL_MS;
+            int lost = random.nextInt(11);
+            transmitted += PACKETS_PER_INTERVAL;
+            transmittedLost += lost;
+            received += PACKETS_PER_INTERVAL - lost;
+            notReceived += lost;
+            int jitter = random.nextInt(300);
+            minJitter = Math.min(minJitter, jitter);
+            maxJitter = Math.max(maxJitter, jitter);
+            totalJitter += jitter;
+            reports.add(constructCallQuality(dlLevel, ulLevel, durationMs, transmitted, received,
+                    transmittedLost, notReceived, jitter));
+        }
+        // Swap some neighbouring reports, as they may be reported out of order.
+        for (int i = 1; i < reports.size(); i++) {
+            if (random.nextInt(10) == 0) {
+                reports.set(i - 1, reports.set(i, reports.get(i - 1)));
+                i++;
+            }
+        }
+
+        CallQualityAggregator aggregator = new CallQualityAggregator();
+        int reportsInOrder = 0;
+        int lastDurationMs = -1;
+        for (CallQuality cq : reports) {
+            aggregator.add(cq);
+            if (cq.getCallDuration() > lastDurationMs) {
+                reportsInOrder++;
+                lastDurationMs = cq.getCallDuration();
+            }
+        }
+
+        assertEquals(0, aggregator.getLateReportCount());
+        assertArrayEquals(expectedUlDurationsMs, aggregator.getLevelDurationsMs(true));
+        assertArrayEquals(expectedDlDurationsMs, aggregator.getLevelDurationsMs(false));
+        assertEquals(CALL_DURATION_MS,
+                Arrays.stream(aggregator.getLevelDurationsMs(true)).sum());
+
+        // Loss is only calculated for the reports that arrive in order. Up to 10 of 50 packets,
+        // or 2 intervals of 100 packets when a report in between arrives late, are lost.
+        for (boolean uplink : new boolean[] {true, false}) {
+            CallQualityAggregator.Distribution loss = aggregator.getPacketLossPercent(uplink);
+            assertEquals(reportsInOrder, loss.getCount());
+            assertEquals(reportsInOrder, sum(loss.getHistogram()));
+            assertEquals(0, loss.getMin());
+            assertEquals(20, loss.getMax());
+            assertEquals(10, loss.getMean(), 1.0);
+        }
+
+        CallQualityAggregator.Distribution jitter = aggregator.getDownlinkJitterMillis();
+        assertEquals(reports.size(), jitter.getCount());
+        assertEquals(reports.size(), sum(jitter.getHistogram()));
+        assertEquals(minJitter, jitter.getMin());
+        assertEquals(maxJitter, jitter.getMax());
+        assertEquals((int) (totalJitter / reports.size()), jitter.getMean());
+    }
+
+    /**
+     * Verify that a report older than the reorder window is not included in the durations.
+     */
+    @Test
+    @SmallTest
+    public void testLateReportIgnored() {
+        CallQualityAggregator aggregator = new CallQualityAggregator();
+        for (int i = 1; i <= CallQualityAggregator.REORDER_WINDOW + 2; i++) {
+            aggregator.add(constructCallQuality(CallQuality.CALL_QUALITY_GOOD,
+                    CallQuality.CALL_QUALITY_GOOD, i * 1000, 0, 0, 0, 0, 0));
+        }
+        aggregator.add(constructCallQuality(CallQuality.CALL_QUALITY_BAD,
+                CallQuality.CALL_QUALITY_BAD, 500, 0, 0, 0, 0, 0));
+
+        assertEquals(1, aggregator.getLateReportCount());
+        long[] durations = aggregator.getLevelDurationsMs(false);
+        assertEquals((CallQualityAggregator.REORDER_WINDOW + 2) * 1000,
+                durations[CallQuality.CALL_QUALITY_GOOD]);
+        assertEquals(0, durations[CallQuality.CALL_QUALITY_BAD]);
+    }
+
+    /**
+     * Verify that the packet loss restarts from the counters of a report when they are reset.
+     */
+    @Test
+    @SmallTest
+    public void testPacketCountersReset() {
+        CallQualityAggregator aggregator = new CallQualityAggregator();
+        aggregator.add(constructCallQuality(CallQuality.CALL_QUALITY_GOOD,
+                CallQuality.CALL_QUALITY_GOOD, 1000, 100, 90, 10, 10, 0));
+        aggregator.add(constructCallQuality(CallQuality.CALL_QUALITY_GOOD,
+                CallQuality.CALL_QUALITY_GOOD, 2000, 200, 190, 10, 10, 0));
+        aggregator.add(constructCallQuality(CallQuality.CALL_QUALITY_GOOD,
+                CallQuality.CALL_QUALITY_GOOD, 3000, 50, 25, 25, 25, 0));
+
+        CallQualityAggregator.Distribution loss = aggregator.getPacketLossPercent(true);
+        assertEquals(3, loss.getCount());
+        assertEquals(0, loss.getMin());
+        assertEquals(50, loss.getMax());
+        // 10%, 0% and 50%
+        assertArrayEquals(new int[] {1, 0, 0, 0, 1, 1}, loss.getHistogram());
+    }
+}
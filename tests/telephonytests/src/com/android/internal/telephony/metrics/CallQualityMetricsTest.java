@@ -16,7 +16,9 @@
 
 package com.android.internal.telephony.metrics;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -346,4 +348,37 @@ public class CallQualityMetricsTest extends TelephonyTest {
         CallQualitySummary ulSummary = mCallQualityMetrics.getCallQualitySummaryUl();
         assertEquals(14, ulSummary.snapshotOfEnd.durationInSeconds);
     }
+
+    /**
+     * Verifies that the time in each quality level and the packet loss and jitter distributions
+     * are exported in the summaries.
+     */
+    @Test
+    public void testDistributions() {
+        // 10% packet loss on both links in the first 5s, none in the next 5s.
+        CallQuality cq1 = new CallQuality(CallQuality.CALL_QUALITY_EXCELLENT,
+                CallQuality.CALL_QUALITY_BAD, 5000, 100, 90, 10, 10, 30, 50, 0, 0);
+        CallQuality cq2 = new CallQuality(CallQuality.CALL_QUALITY_GOOD,
+                CallQuality.CALL_QUALITY_BAD, 10000, 200, 190, 10, 10, 10, 20, 0, 0);
+
+        mCallQualityMetrics.saveCallQuality(cq1);
+        mCallQualityMetrics.saveCallQuality(cq2);
+
+        CallQualitySummary dlSummary = mCallQualityMetrics.getCallQualitySummaryDl();
+        assertArrayEquals(new int[] {5, 5, 0, 0, 0}, dlSummary.durationPerLevelInSeconds);
+        assertEquals(2, dlSummary.packetLossPercent.count);
+        assertEquals(0, dlSummary.packetLossPercent.min);
+        assertEquals(10, dlSummary.packetLossPercent.max);
+        assertEquals(2, dlSummary.relativeJitterMillis.count);
+        assertEquals(10, dlSummary.relativeJitterMillis.min);
+        assertEquals(30, dlSummary.relativeJitterMillis.max);
+        assertEquals(20, dlSummary.relativeJitterMillis.mean);
+        assertArrayEquals(new int[] {1, 1, 0, 0, 0, 0}, dlSummary.relativeJitterMillis.histogram);
+
+        CallQualitySummary ulSummary = mCallQualityMetrics.getCallQualitySummaryUl();
+        assertArrayEquals(new int[] {0, 0, 0, 0, 10}, ulSummary.durationPerLevelInSeconds);
+        assertEquals(2, ulSummary.packetLossPercent.count);
+        assertEquals(5, ulSummary.packetLossPercent.mean);
+        assertNull(ulSummary.relativeJitterMillis);
+    }
 }
@@ -25,12 +25,17 @@ import static com.android.internal.telephony.nitz.TimeZoneLookupHelper.CountryRe
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import android.icu.util.GregorianCalendar;
 import android.icu.util.TimeZone;
+import android.os.SystemClock;
 import android.timezone.CountryTimeZones.OffsetResult;
+import android.timezone.TimeZoneFinder;
+import android.util.Log;
 
 import com.android.internal.telephony.NitzData;
 import com.android.internal.telephony.nitz.TimeZoneLookupHelper.CountryResult;
@@ -39,13 +44,19 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 public class TimeZoneLookupHelperTest {
+    private static final String TAG = "TimeZoneLookupHelperTest";
+
     // Note: Historical dates are used to avoid the test breaking due to data changes.
     /* Arbitrary summer date in the Northern hemisphere. */
     private static final long NH_SUMMER_TIME_MILLIS = createUnixEpochTime(2015, 6, 20, 1, 2, 3);
@@ -468,6 +479,164 @@ public class TimeZoneLookupHelperTest {
         assertTrue(knownIds.contains(offsetResult.getTimeZone().getID()));
     }
 
+    @Test
+    public void testLookupResultsAreCached() {
+        NitzData nitzData = NitzData.createForTests((int) TimeUnit.HOURS.toMillis(1),
+                (int) TimeUnit.HOURS.toMillis(1), NH_SUMMER_TIME_MILLIS,
+                null /* emulatorTimeZone */);
+        // A NITZ signal repeated a few minutes later.
+        NitzData repeatedNitzData = NitzData.createForTests((int) TimeUnit.HOURS.toMillis(1),
+                (int) TimeUnit.HOURS.toMillis(1),
+                NH_SUMMER_TIME_MILLIS + TimeUnit.MINUTES.toMillis(10),
+                null /* emulatorTimeZone */);
+
+        OffsetResult result = mTimeZoneLookupHelper.lookupByNitzCountry(nitzData, "gb");
+        assertEquals(zone("Europe/London"), result.getTimeZone());
+        assertSame(result, mTimeZoneLookupHelper.lookupByNitzCountry(repeatedNitzData, "gb"));
+
+        result = mTimeZoneLookupHelper.lookupByNitz(nitzData);
+        assertSame(result, mTimeZoneLookupHelper.lookupByNitz(repeatedNitzData));
+
+        CountryResult countryResult =
+                mTimeZoneLookupHelper.lookupByCountry("us", NH_SUMMER_TIME_MILLIS);
+        assertSame(countryResult, mTimeZoneLookupHelper.lookupByCountry("us",
+                NH_SUMMER_TIME_MILLIS + TimeUnit.MINUTES.toMillis(10)));
+    }
+
+    @Test
+    public void testLookupResultsAreNotCachedAcrossTransition() {
+        // America/St_Johns started DST at 05:30 UTC on this day, in the middle of the hour.
+        long beforeTransitionMillis = createUnixEpochTime(2015, 3, 8, 5, 10, 0);
+        long afterTransitionMillis = createUnixEpochTime(2015, 3, 8, 5, 50, 0);
+        int standardOffsetMillis = (int) -TimeUnit.MINUTES.toMillis(3 * 60 + 30);
+        int dstOffsetMillis = (int) -TimeUnit.MINUTES.toMillis(2 * 60 + 30);
+
+        NitzData beforeNitzData = NitzData.createForTests(standardOffsetMillis, 0,
+                beforeTransitionMillis, null /* emulatorTimeZone */);
+        OffsetResult result = mTimeZoneLookupHelper.lookupByNitzCountry(beforeNitzData, "ca");
+        assertEquals(zone("America/St_Johns"), result.getTimeZone());
+        // The standard offset is not valid anymore after the transition.
+        NitzData afterNitzData = NitzData.createForTests(standardOffsetMillis, 0,
+                afterTransitionMillis, null /* emulatorTimeZone */);
+        assertNull(mTimeZoneLookupHelper.lookupByNitzCountry(afterNitzData, "ca"));
+
+        afterNitzData = NitzData.createForTests(dstOffsetMillis,
+                (int) TimeUnit.HOURS.toMillis(1), afterTransitionMillis,
+                null /* emulatorTimeZone */);
+        result = mTimeZoneLookupHelper.lookupByNitz(afterNitzData);
+        assertOffsetResultZoneOffsets(afterTransitionMillis, dstOffsetMillis,
+                (int) TimeUnit.HOURS.toMillis(1), result);
+        assertNotSame(result, mTimeZoneLookupHelper.lookupByNitz(afterNitzData));
+    }
+
+    @Test
+    public void testLookupCacheInvalidatedByTzDataChange() {
+        AtomicReference<String> tzDataVersion = new AtomicReference<>("2015a");
+        TimeZoneLookupHelper timeZoneLookupHelper =
+                new TimeZoneLookupHelper(16 /* maxCachedResults */, tzDataVersion::get);
+        NitzData nitzData = NitzData.createForTests((int) TimeUnit.HOURS.toMillis(1),
+                (int) TimeUnit.HOURS.toMillis(1), NH_SUMMER_TIME_MILLIS,
+                null /* emulatorTimeZone */);
+
+        OffsetResult result = timeZoneLookupHelper.lookupByNitzCountry(nitzData, "gb");
+        assertSame(result, timeZoneLookupHelper.lookupByNitzCountry(nitzData, "gb"));
+        CountryResult countryResult =
+                timeZoneLookupHelper.lookupByCountry("gb", NH_SUMMER_TIME_MILLIS);
+        assertSame(countryResult,
+                timeZoneLookupHelper.lookupByCountry("gb", NH_SUMMER_TIME_MILLIS));
+
+        // The version is not read again until the time zone data is signalled as updated.
+        tzDataVersion.set("2015b");
+        assertSame(result, timeZoneLookupHelper.lookupByNitzCountry(nitzData, "gb"));
+        timeZoneLookupHelper.onTzDataUpdated();
+        OffsetResult newResult = timeZoneLookupHelper.lookupByNitzCountry(nitzData, "gb");
+        assertNotSame(result, newResult);
+        assertEquals(result.getTimeZone(), newResult.getTimeZone());
+        assertNotSame(countryResult,
+                timeZoneLookupHelper.lookupByCountry("gb", NH_SUMMER_TIME_MILLIS));
+    }
+
+    @Test
+    public void testLookupCacheEvictsLeastRecentlyUsed() {
+        TimeZoneLookupHelper timeZoneLookupHelper =
+                new TimeZoneLookupHelper(2 /* maxCachedResults */, () -> "2015a");
+        CountryResult gbResult = timeZoneLookupHelper.lookupByCountry("gb", NH_SUMMER_TIME_MILLIS);
+        CountryResult frResult = timeZoneLookupHelper.lookupByCountry("fr", NH_SUMMER_TIME_MILLIS);
+        assertSame(gbResult, timeZoneLookupHelper.lookupByCountry("gb", NH_SUMMER_TIME_MILLIS));
+
+        // Evicts "fr", which was used less recently than "gb".
+        timeZoneLookupHelper.lookupByCountry("de", NH_SUMMER_TIME_MILLIS);
+        assertSame(gbResult, timeZoneLookupHelper.lookupByCountry("gb", NH_SUMMER_TIME_MILLIS));
+        assertNotSame(frResult,
+                timeZoneLookupHelper.lookupByCountry("fr", NH_SUMMER_TIME_MILLIS));
+    }
+
+    @Test
+    public void testRepeatedNitzLookups50CountriesBenchmark() {
+        final int rounds = 20;
+        String[] countries = {"ad", "ae", "ar", "at", "au", "be", "bg", "br", "ca", "ch", "cl",
+                "cn", "cz", "de", "dk", "eg", "es", "fi", "fr", "gb", "gr", "hk", "hu", "id", "ie",
+                "il", "in", "it", "jp", "kr", "mx", "my", "ng", "nl", "no", "nz", "ph", "pk", "pl",
+                "pt", "ro", "ru", "se", "sg", "th", "tr", "ua", "us", "vn", "za"};
+        assertEquals(50, countries.length);
+
+        // NITZ signals with the offsets of each country's default zone, resent every 10 seconds.
+        List<NitzData> nitzDatas = new ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            long timeMillis = NH_SUMMER_TIME_MILLIS + round * TimeUnit.SECONDS.toMillis(10);
+            for (String country : countries) {
+                TimeZone defaultZone = zone(
+                        mTimeZoneLookupHelper.lookupByCountry(country, timeMillis).zoneId);
+                int[] offsets = new int[2];
+                defaultZone.getOffset(timeMillis, false /* local */, offsets);
+                nitzDatas.add(NitzData.createForTests(offsets[0] + offsets[1], offsets[1],
+                        timeMillis, null /* emulatorTimeZone */));
+            }
+        }
+
+        // The real time zone data version is used, so that reading it is part of the measure.
+        AtomicInteger tzDataVersionReads = new AtomicInteger();
+        Supplier<String> tzDataVersionSupplier = () -> {
+            tzDataVersionReads.incrementAndGet();
+            return TimeZoneFinder.getInstance().getIanaVersion();
+        };
+        TimeZoneLookupHelper uncachedHelper =
+                new TimeZoneLookupHelper(0 /* maxCachedResults */, tzDataVersionSupplier);
+        List<String> uncachedZones = new ArrayList<>();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < nitzDatas.size(); i++) {
+            NitzData nitzData = nitzDatas.get(i);
+            String country = countries[i % countries.length];
+            uncachedZones.add(uncachedHelper.lookupByNitzCountry(nitzData, country)
+                    .getTimeZone().getID());
+            uncachedZones.add(uncachedHelper.lookupByNitz(nitzData).getTimeZone().getID());
+            uncachedZones.add(uncachedHelper.lookupByCountry(country,
+                    nitzData.getCurrentTimeInMillis()).zoneId);
+        }
+        long uncachedNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        TimeZoneLookupHelper cachedHelper = new TimeZoneLookupHelper(
+                64 /* maxCachedResults */, tzDataVersionSupplier);
+        List<String> cachedZones = new ArrayList<>();
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < nitzDatas.size(); i++) {
+            NitzData nitzData = nitzDatas.get(i);
+            String country = countries[i % countries.length];
+            cachedZones.add(cachedHelper.lookupByNitzCountry(nitzData, country)
+                    .getTimeZone().getID());
+            cachedZones.add(cachedHelper.lookupByNitz(nitzData).getTimeZone().getID());
+            cachedZones.add(cachedHelper.lookupByCountry(country,
+                    nitzData.getCurrentTimeInMillis()).zoneId);
+        }
+        long cachedNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Looked up " + nitzDatas.size() + " NITZ signals of 50 countries: uncached="
+                + (uncachedNanos / 1000) + "us, cached=" + (cachedNanos / 1000) + "us");
+
+        assertEquals(uncachedZones, cachedZones);
+        // The version is only read when each helper is created, not for each lookup.
+        assertEquals(2, tzDataVersionReads.get());
+    }
+
     /**
      * Assert the time zone in the OffsetResult has the expected properties at the specified time.
      */
@@ -59,6 +59,8 @@ import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -361,6 +363,28 @@ public class PointingAppControllerTest extends TelephonyTest {
         mResultListener.clear();
     }
 
+    @Test
+    public void testDump_includesDeliveryStats() throws Exception {
+        mPointingAppController.registerForSatelliteTransmissionUpdates(SUB_ID,
+                mSatelliteTransmissionUpdateCallback);
+        mPointingAppController.updateSendDatagramTransferState(SUB_ID,
+                SatelliteManager.SATELLITE_DATAGRAM_TRANSFER_STATE_SEND_SUCCESS, 1,
+                SatelliteManager.SATELLITE_RESULT_SUCCESS);
+        assertTrue(waitForSendDatagramStateChangedRessult(1));
+
+        StringWriter stringWriter = new StringWriter();
+        mPointingAppController.dump(new PrintWriter(stringWriter));
+        String dump = stringWriter.toString();
+        assertThat(dump).contains("subId=" + SUB_ID);
+        assertThat(dump).contains("callbacks=1");
+        assertThat(dump).contains("EVENT_SEND_DATAGRAM_STATE_CHANGED: count=1");
+        assertThat(dump).contains("averageLatencyUs=");
+        assertThat(dump).contains("maxLatencyUs=");
+        mPointingAppController.unregisterForSatelliteTransmissionUpdates(SUB_ID,
+                    mResultListener::offer, mSatelliteTransmissionUpdateCallback);
+        mResultListener.clear();
+    }
+
     @Test
     public void testUpdateReceiveDatagramTransferState() throws Exception {
         mPointingAppController.registerForSatelliteTransmissionUpdates(SUB_ID,
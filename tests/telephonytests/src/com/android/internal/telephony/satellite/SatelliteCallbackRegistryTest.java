@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.satellite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.DeadObjectException;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.RemoteException;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SatelliteCallbackRegistryTest {
+    private static final String TAG = "SatelliteCallbackRegistryTest";
+    private static final String EVENT = "EVENT";
+
+    private interface TestCallback extends IInterface {
+        void onEvent() throws RemoteException;
+    }
+
+    private static TestCallback createCallback() {
+        TestCallback callback = mock(TestCallback.class);
+        when(callback.asBinder()).thenReturn(mock(IBinder.class));
+        return callback;
+    }
+
+    private static IBinder.DeathRecipient getDeathRecipient(TestCallback callback)
+            throws RemoteException {
+        ArgumentCaptor<IBinder.DeathRecipient> captor =
+                ArgumentCaptor.forClass(IBinder.DeathRecipient.class);
+        verify(callback.asBinder()).linkToDeath(captor.capture(), anyInt());
+        return captor.getValue();
+    }
+
+    @Test
+    @SmallTest
+    public void testRegisterAndNotify() throws Exception {
+        SatelliteCallbackRegistry<TestCallback> registry = new SatelliteCallbackRegistry<>(TAG);
+        TestCallback callback1 = createCallback();
+        TestCallback callback2 = createCallback();
+
+        assertTrue(registry.register(callback1));
+        assertTrue(registry.register(callback2));
+        // Registering the same binder again replaces the callback.
+        assertTrue(registry.register(callback2));
+        assertEquals(2, registry.size());
+        assertTrue(registry.contains(callback1));
+
+        registry.notifyCallbacks(EVENT, TestCallback::onEvent);
+        verify(callback1).onEvent();
+        verify(callback2).onEvent();
+
+        registry.unregister(callback1);
+        assertFalse(registry.contains(callback1));
+        verify(callback1.asBinder()).unlinkToDeath(any(), anyInt());
+        registry.notifyCallbacks(EVENT, TestCallback::onEvent);
+        verify(callback1, times(1)).onEvent();
+        verify(callback2, times(2)).onEvent();
+
+        assertEquals(2, registry.getDeliveryStats(EVENT).getCount());
+        assertNull(registry.getDeliveryStats("OTHER_EVENT"));
+    }
+
+    @Test
+    @SmallTest
+    public void testRegisterDeadCallback() throws Exception {
+        SatelliteCallbackRegistry<TestCallback> registry = new SatelliteCallbackRegistry<>(TAG);
+        TestCallback callback = createCallback();
+        doThrow(new RemoteException()).when(callback.asBinder()).linkToDeath(any(), anyInt());
+
+        assertFalse(registry.register(callback));
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void testDiedCallbacksRemovedTogether() throws Exception {
+        SatelliteCallbackRegistry<TestCallback> registry = new SatelliteCallbackRegistry<>(TAG);
+        List<TestCallback> callbacks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            TestCallback callback = createCallback();
+            callbacks.add(callback);
+            registry.register(callback);
+        }
+
+        getDeathRecipient(callbacks.get(1)).binderDied();
+        getDeathRecipient(callbacks.get(3)).binderDied();
+        registry.notifyCallbacks(EVENT, TestCallback::onEvent);
+
+        assertEquals(3, registry.size());
+        for (int i = 0; i < callbacks.size(); i++) {
+            TestCallback callback = callbacks.get(i);
+            boolean died = i == 1 || i == 3;
+            assertEquals(!died, registry.contains(callback));
+            verify(callback, times(died ? 0 : 1)).onEvent();
+            verify(callback.asBinder(), times(died ? 1 : 0)).unlinkToDeath(
+                    eq(getDeathRecipient(callback)), anyInt());
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testDeadObjectRemovesCallback() throws Exception {
+        SatelliteCallbackRegistry<TestCallback> registry = new SatelliteCallbackRegistry<>(TAG);
+        TestCallback deadCallback = createCallback();
+        TestCallback failingCallback = createCallback();
+        doThrow(new DeadObjectException()).when(deadCallback).onEvent();
+        doThrow(new RemoteException()).when(failingCallback).onEvent();
+        registry.register(deadCallback);
+        registry.register(failingCallback);
+
+        registry.notifyCallbacks(EVENT, TestCallback::onEvent);
+
+        // Only a callback whose process died is removed.
+        assertFalse(registry.contains(deadCallback));
+        assertTrue(registry.contains(failingCallback));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    @SmallTest
+    public void testParallelDelivery() throws Exception {
+        SatelliteCallbackRegistry<TestCallback> registry = new SatelliteCallbackRegistry<>(TAG);
+        int count = SatelliteCallbackRegistry.PARALLEL_DELIVERY_THRESHOLD * 4 + 1;
+        List<TestCallback> callbacks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TestCallback callback = createCallback();
+            callbacks.add(callback);
+            registry.register(callback);
+        }
+
+        Map<TestCallback, Integer> deliveries = new ConcurrentHashMap<>();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        registry.notifyCallbacks(EVENT, callback -> {
+            deliveries.merge(callback, 1, Integer::sum);
+            threads.add(Thread.currentThread());
+        });
+
+        // Every callback has been notified exactly once when notifyCallbacks returns.
+        assertEquals(count, deliveries.size());
+        for (TestCallback callback : callbacks) {
+            assertEquals(1, (int) deliveries.get(callback));
+        }
+        assertTrue(threads.contains(Thread.currentThread()));
+        assertTrue(threads.size() <= SatelliteCallbackRegistry.MAX_DELIVERY_THREADS);
+        assertEquals(1, registry.getDeliveryStats(EVENT).getCount());
+    }
+}
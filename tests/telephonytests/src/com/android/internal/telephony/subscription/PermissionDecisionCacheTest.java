@@ -0,0 +1,302 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.subscription;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verify;
+
+import android.app.AppOpsManager;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Looper;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import com.android.internal.telephony.CarrierPrivilegesTracker;
+import com.android.internal.telephony.TelephonyTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.function.BooleanSupplier;
+
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class PermissionDecisionCacheTest extends TelephonyTest {
+    private static final int UID1 = 10001;
+    private static final int UID2 = 10002;
+    private static final String PACKAGE1 = "com.example.app1";
+    private static final String PACKAGE2 = "com.example.app2";
+    private static final int SUB_ID1 = 1;
+    private static final int SUB_ID2 = 2;
+
+    private PermissionDecisionCache mPermissionDecisionCacheUT;
+    private long mNowMillis;
+
+    /** A permission check that counts how many times the decision is made. */
+    private static class CountingCheck implements BooleanSupplier {
+        boolean mGranted = true;
+        int mCount;
+
+        @Override
+        public boolean getAsBoolean() {
+            mCount++;
+            return mGranted;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        logd("PermissionDecisionCacheTest +Setup!");
+        super.setUp(getClass().getSimpleName());
+        PermissionDecisionCache.setDisabledForTest(false);
+        mNowMillis = 1000;
+        mPermissionDecisionCacheUT = new PermissionDecisionCache(mContext, Looper.myLooper(),
+                () -> mNowMillis);
+        logd("PermissionDecisionCacheTest -Setup!");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CarrierPrivilegesTracker.unregisterForCarrierPrivilegesChanged(
+                mPermissionDecisionCacheUT);
+        mPermissionDecisionCacheUT = null;
+        PermissionDecisionCache.setDisabledForTest(true);
+        super.tearDown();
+    }
+
+    private boolean check(int uid, String packageName, int subId, CountingCheck check) {
+        return mPermissionDecisionCacheUT.check(uid, packageName, subId,
+                PermissionDecisionCache.PERMISSION_PHONE_NUMBER, true /* reportFailure */, check,
+                () -> true /* isAppOpIndependent */);
+    }
+
+    @Test
+    public void testDecisionCachedUntilExpired() {
+        CountingCheck check = new CountingCheck();
+
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isTrue();
+        check.mGranted = false;
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isTrue();
+        assertThat(check.mCount).isEqualTo(1);
+        assertThat(mPermissionDecisionCacheUT.getHitCount()).isEqualTo(1);
+        assertThat(mPermissionDecisionCacheUT.getMissCount()).isEqualTo(1);
+
+        mNowMillis += PermissionDecisionCache.TTL_MILLIS;
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check.mCount).isEqualTo(2);
+        assertThat(mPermissionDecisionCacheUT.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDecisionsKeyedByCaller() {
+        CountingCheck check = new CountingCheck();
+
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        check(UID2, PACKAGE1, SUB_ID1, check);
+        check(UID1, PACKAGE2, SUB_ID1, check);
+        check(UID1, PACKAGE1, SUB_ID2, check);
+        mPermissionDecisionCacheUT.check(UID1, PACKAGE1, SUB_ID1,
+                PermissionDecisionCache.PERMISSION_SUBSCRIBER_IDENTIFIERS,
+                true /* reportFailure */, check, () -> true /* isAppOpIndependent */);
+        mPermissionDecisionCacheUT.check(UID1, PACKAGE1, SUB_ID1,
+                PermissionDecisionCache.PERMISSION_PHONE_NUMBER, false /* reportFailure */, check,
+                () -> true /* isAppOpIndependent */);
+        assertThat(check.mCount).isEqualTo(6);
+
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        assertThat(check.mCount).isEqualTo(6);
+    }
+
+    @Test
+    public void testDenialNotCached() {
+        CountingCheck check = new CountingCheck();
+        check.mGranted = false;
+
+        // A denial may depend on a foreground only app-op mode, and may have to be reported.
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check.mCount).isEqualTo(2);
+        assertThat(mPermissionDecisionCacheUT.size()).isEqualTo(0);
+
+        check.mGranted = true;
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isTrue();
+        assertThat(check.mCount).isEqualTo(3);
+    }
+
+    @Test
+    public void testAppOpDependentGrantNotCached() {
+        CountingCheck check = new CountingCheck();
+        for (int i = 0; i < 2; i++) {
+            assertThat(mPermissionDecisionCacheUT.check(UID1, PACKAGE1, SUB_ID1,
+                    PermissionDecisionCache.PERMISSION_PHONE_NUMBER, true /* reportFailure */,
+                    check, () -> false /* isAppOpIndependent */)).isTrue();
+        }
+
+        // The app-ops are noted by the check on every access.
+        assertThat(check.mCount).isEqualTo(2);
+        assertThat(mPermissionDecisionCacheUT.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testExceptionNotCached() {
+        BooleanSupplier throwingCheck = () -> {
+            throw new SecurityException("Package does not belong to uid");
+        };
+        try {
+            mPermissionDecisionCacheUT.check(UID1, PACKAGE1, SUB_ID1,
+                    PermissionDecisionCache.PERMISSION_PHONE_NUMBER, true /* reportFailure */,
+                    throwingCheck, () -> true /* isAppOpIndependent */);
+        } catch (SecurityException expected) {
+        }
+
+        CountingCheck check = new CountingCheck();
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isTrue();
+        assertThat(check.mCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        CountingCheck check = new CountingCheck();
+        for (int subId = 0; subId <= PermissionDecisionCache.MAX_ENTRIES; subId++) {
+            check(UID1, PACKAGE1, subId, check);
+        }
+        assertThat(mPermissionDecisionCacheUT.size())
+                .isEqualTo(PermissionDecisionCache.MAX_ENTRIES);
+
+        // The least recently used decision was evicted.
+        check(UID1, PACKAGE1, 0, check);
+        assertThat(check.mCount).isEqualTo(PermissionDecisionCache.MAX_ENTRIES + 2);
+    }
+
+    @Test
+    public void testInvalidatedByPermissionChange() {
+        ArgumentCaptor<PackageManager.OnPermissionsChangedListener> captor =
+                ArgumentCaptor.forClass(PackageManager.OnPermissionsChangedListener.class);
+        verify(mPackageManager).addOnPermissionsChangeListener(captor.capture());
+        CountingCheck check = new CountingCheck();
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        check(UID2, PACKAGE2, SUB_ID1, check);
+
+        // Permission revoked from UID1.
+        check.mGranted = false;
+        captor.getValue().onPermissionsChanged(UID1);
+
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check(UID2, PACKAGE2, SUB_ID1, check)).isTrue();
+        assertThat(check.mCount).isEqualTo(3);
+    }
+
+    @Test
+    public void testInvalidatedByPackageChange() {
+        CountingCheck check = new CountingCheck();
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        check(UID2, PACKAGE2, SUB_ID1, check);
+
+        check.mGranted = false;
+        Intent intent = new Intent(Intent.ACTION_PACKAGE_REPLACED,
+                Uri.fromParts("package", PACKAGE1, null));
+        intent.putExtra(Intent.EXTRA_UID, UID1);
+        mContext.sendBroadcast(intent);
+
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check(UID2, PACKAGE2, SUB_ID1, check)).isTrue();
+        assertThat(check.mCount).isEqualTo(3);
+    }
+
+    @Test
+    public void testInvalidatedByAppOpChange() {
+        ArgumentCaptor<AppOpsManager.OnOpChangedListener> captor =
+                ArgumentCaptor.forClass(AppOpsManager.OnOpChangedListener.class);
+        verify(mAppOpsManager).startWatchingMode(eq(AppOpsManager.OPSTR_READ_PHONE_NUMBERS),
+                isNull(), captor.capture());
+        CountingCheck check = new CountingCheck();
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        check(UID2, PACKAGE2, SUB_ID1, check);
+
+        check.mGranted = false;
+        captor.getValue().onOpChanged(AppOpsManager.OPSTR_READ_PHONE_NUMBERS, PACKAGE1);
+
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check(UID2, PACKAGE2, SUB_ID1, check)).isTrue();
+        assertThat(check.mCount).isEqualTo(3);
+    }
+
+    @Test
+    public void testInvalidatedByCarrierPrivilegesChange() {
+        CountingCheck check = new CountingCheck();
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        check(UID2, PACKAGE2, SUB_ID2, check);
+
+        check.mGranted = false;
+        CarrierPrivilegesTracker.notifyCarrierPrivilegesChangedRegistrants(0);
+        processAllMessages();
+
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check(UID2, PACKAGE2, SUB_ID2, check)).isFalse();
+        assertThat(check.mCount).isEqualTo(4);
+    }
+
+    @Test
+    public void testInvalidatedBySubscriptionChange() {
+        CountingCheck check = new CountingCheck();
+        mPermissionDecisionCacheUT.onSubscriptionsChanged(1);
+        check(UID1, PACKAGE1, SUB_ID1, check);
+
+        mPermissionDecisionCacheUT.onSubscriptionsChanged(1);
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        assertThat(check.mCount).isEqualTo(1);
+
+        mPermissionDecisionCacheUT.onSubscriptionsChanged(2);
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        assertThat(check.mCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testDecisionMadeDuringInvalidationNotCached() {
+        CountingCheck check = new CountingCheck();
+        BooleanSupplier racingCheck = () -> {
+            // The permission changes while the decision is being made.
+            mPermissionDecisionCacheUT.invalidateUid(UID1);
+            return check.getAsBoolean();
+        };
+        mPermissionDecisionCacheUT.check(UID1, PACKAGE1, SUB_ID1,
+                PermissionDecisionCache.PERMISSION_PHONE_NUMBER, true /* reportFailure */,
+                racingCheck, () -> true /* isAppOpIndependent */);
+
+        check.mGranted = false;
+        assertThat(check(UID1, PACKAGE1, SUB_ID1, check)).isFalse();
+        assertThat(check.mCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testDisabledForTest() {
+        PermissionDecisionCache.setDisabledForTest(true);
+        CountingCheck check = new CountingCheck();
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        check(UID1, PACKAGE1, SUB_ID1, check);
+        assertThat(check.mCount).isEqualTo(2);
+        assertThat(mPermissionDecisionCacheUT.size()).isEqualTo(0);
+    }
+}
@@ -56,6 +56,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
@@ -73,6 +74,7 @@ import android.content.ContentValues;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -232,11 +234,16 @@ public class SubscriptionManagerServiceTest extends TelephonyTest {
         doReturn(true).when(mUserManager)
                 .isManagedProfile(eq(FAKE_MANAGED_PROFILE_USER_HANDLE.getIdentifier()));
 
+        // Run with the permission decision cache, as in production. The permissions granted
+        // to the caller until now are not cached, as the cache was disabled.
+        PermissionDecisionCache.setDisabledForTest(false);
+
         logd("SubscriptionManagerServiceTest -Setup!");
     }
 
     @After
     public void tearDown() throws Exception {
+        PermissionDecisionCache.setDisabledForTest(true);
         Settings.Global.putInt(mContext.getContentResolver(),
                 Settings.Global.MULTI_SIM_VOICE_CALL_SUBSCRIPTION,
                 SubscriptionManager.INVALID_SUBSCRIPTION_ID);
@@ -788,6 +795,105 @@ public class SubscriptionManagerServiceTest extends TelephonyTest {
         assertThat(subInfos.get(0)).isEqualTo(FAKE_SUBSCRIPTION_INFO1.toSubscriptionInfo());
     }
 
+    @Test
+    public void testGetActiveSubscriptionInfoList_updatedWithDatabase() {
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.MODIFY_PHONE_STATE);
+        int subId1 = insertSubscription(FAKE_SUBSCRIPTION_INFO1);
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.READ_PHONE_STATE);
+        setCarrierPrivilegesForSubId(true, subId1);
+
+        List<SubscriptionInfo> subInfos = mSubscriptionManagerServiceUT
+                .getActiveSubscriptionInfoList(CALLING_PACKAGE, CALLING_FEATURE, true);
+        assertThat(subInfos).hasSize(1);
+
+        // The cached views are rebuilt when the database changes.
+        int subId2 = insertSubscription(FAKE_SUBSCRIPTION_INFO2);
+        subInfos = mSubscriptionManagerServiceUT
+                .getActiveSubscriptionInfoList(CALLING_PACKAGE, CALLING_FEATURE, true);
+        assertThat(subInfos).hasSize(2);
+        assertThat(subInfos.get(0).getSubscriptionId()).isEqualTo(subId1);
+        assertThat(subInfos.get(1).getSubscriptionId()).isEqualTo(subId2);
+        // The identifiers are removed per caller.
+        assertThat(subInfos.get(0).getIccId()).isEqualTo(FAKE_ICCID1);
+        assertThat(subInfos.get(1).getIccId()).isEmpty();
+
+        mSubscriptionManagerServiceUT.setDisplayNameUsingSrc("New name", subId2,
+                SubscriptionManager.NAME_SOURCE_USER_INPUT);
+        processAllMessages();
+        subInfos = mSubscriptionManagerServiceUT
+                .getActiveSubscriptionInfoList(CALLING_PACKAGE, CALLING_FEATURE, true);
+        assertThat(subInfos.get(1).getDisplayName().toString()).isEqualTo("New name");
+    }
+
+    @Test
+    public void testGetActiveSubscriptionInfoList_permissionRevoked() {
+        ArgumentCaptor<PackageManager.OnPermissionsChangedListener> captor =
+                ArgumentCaptor.forClass(PackageManager.OnPermissionsChangedListener.class);
+        verify(mPackageManager, atLeastOnce()).addOnPermissionsChangeListener(captor.capture());
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.MODIFY_PHONE_STATE);
+        insertSubscription(FAKE_SUBSCRIPTION_INFO1);
+        mContextFixture.addCallingOrSelfPermission(
+                Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
+
+        // The grant does not depend on app-ops, so it is served from the cache afterwards.
+        for (int i = 0; i < 2; i++) {
+            List<SubscriptionInfo> subInfos = mSubscriptionManagerServiceUT
+                    .getActiveSubscriptionInfoList(CALLING_PACKAGE, CALLING_FEATURE, true);
+            assertThat(subInfos).hasSize(1);
+            assertThat(subInfos.get(0).getIccId()).isEqualTo(FAKE_ICCID1);
+        }
+
+        // The permission is revoked.
+        mContextFixture.removeCallingOrSelfPermission(
+                Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
+        for (PackageManager.OnPermissionsChangedListener listener : captor.getAllValues()) {
+            listener.onPermissionsChanged(Binder.getCallingUid());
+        }
+
+        assertThat(mSubscriptionManagerServiceUT.getActiveSubscriptionInfoList(
+                CALLING_PACKAGE, CALLING_FEATURE, true)).isEmpty();
+    }
+
+    @Test
+    public void testGetActiveSubscriptionInfoList_appOpNotCached() {
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.MODIFY_PHONE_STATE);
+        insertSubscription(FAKE_SUBSCRIPTION_INFO1);
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.READ_PHONE_STATE);
+        doReturn(AppOpsManager.MODE_ALLOWED).when(mAppOpsManager).noteOpNoThrow(
+                eq(AppOpsManager.OPSTR_READ_PHONE_STATE), anyInt(), nullable(String.class),
+                nullable(String.class), nullable(String.class));
+        assertThat(mSubscriptionManagerServiceUT.getActiveSubscriptionInfoList(
+                CALLING_PACKAGE, CALLING_FEATURE, true)).hasSize(1);
+
+        // The app-op is denied, e.g. as the caller went to the background with a foreground
+        // only mode, which does not notify any change.
+        doReturn(AppOpsManager.MODE_IGNORED).when(mAppOpsManager).noteOpNoThrow(
+                eq(AppOpsManager.OPSTR_READ_PHONE_STATE), anyInt(), nullable(String.class),
+                nullable(String.class), nullable(String.class));
+        assertThat(mSubscriptionManagerServiceUT.getActiveSubscriptionInfoList(
+                CALLING_PACKAGE, CALLING_FEATURE, true)).isEmpty();
+    }
+
+    @Test
+    public void testGetActiveSubscriptionInfoList_benchmark() {
+        final int iterations = 10000;
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.MODIFY_PHONE_STATE);
+        insertSubscription(FAKE_SUBSCRIPTION_INFO1);
+        insertSubscription(FAKE_SUBSCRIPTION_INFO2);
+        mContextFixture.addCallingOrSelfPermission(Manifest.permission.READ_PHONE_STATE);
+
+        List<SubscriptionInfo> subInfos = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            subInfos = mSubscriptionManagerServiceUT.getActiveSubscriptionInfoList(
+                    CALLING_PACKAGE, CALLING_FEATURE, true);
+        }
+        long elapsed = System.nanoTime() - start;
+        logd("getActiveSubscriptionInfoList: " + (elapsed / iterations) + " ns per call");
+
+        assertThat(subInfos).hasSize(2);
+    }
+
     @Test
     public void testGetActiveSubscriptionInfoForSimSlotIndex() {
         insertSubscription(FAKE_SUBSCRIPTION_INFO1);
@@ -534,4 +534,108 @@ public class IccFileHandlerTest {
         verify(mCi, times(1)).iccIOForApp(anyInt(), anyInt(), anyString(),
                 anyInt(), anyInt(), anyInt(), anyString(), isNull(), isNull(), any(Message.class));
     }
+
+    private Message obtainResultMessage(ArrayList<AsyncResult> results) {
+        Handler handler = new Handler(mTestLooper.getLooper(), msg -> {
+            results.add((AsyncResult) msg.obj);
+            return true;
+        });
+        return Message.obtain(handler);
+    }
+
+    @Test
+    public void loadEFLinearFixedAll_PipelinedReadRecords() {
+        int efid = 0x4f30;
+        int numRecords = 8;
+        ArrayList<Message> pendingResponses = new ArrayList<>();
+        doAnswer(
+                invocation -> {
+                    Message response = invocation.getArgument(9);
+                    String hexString;
+                    if (response.what == 6) {
+                        // 8 records of 16 bytes.
+                        hexString = "000000804F30040000FFFF01020110";
+                    } else {
+                        int recordNum = invocation.getArgument(3);
+                        hexString = String.format("%02X", recordNum).repeat(16);
+                    }
+                    AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00,
+                            IccUtils.hexStringToBytes(hexString)), null);
+                    pendingResponses.add(response);
+                    return null;
+                }).when(mCi).iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(),
+                anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+
+        ArrayList<AsyncResult> asyncResults = new ArrayList<>();
+        mIccFileHandler.loadEFLinearFixedAll(efid, null, obtainResultMessage(asyncResults));
+
+        // Simulate the latency of the card by delivering the responses round by round.
+        int rounds = 0;
+        while (!pendingResponses.isEmpty()) {
+            ArrayList<Message> responses = new ArrayList<>(pendingResponses);
+            pendingResponses.clear();
+            responses.forEach(Message::sendToTarget);
+            mTestLooper.dispatchAll();
+            rounds++;
+            if (rounds == 1) {
+                assertEquals(IccFileHandler.MAX_PIPELINED_READ_RECORDS, pendingResponses.size());
+            }
+        }
+
+        // One round for GET RESPONSE, then the records are read with multiple commands in flight
+        // instead of one round for each record.
+        assertEquals(1 + numRecords / IccFileHandler.MAX_PIPELINED_READ_RECORDS, rounds);
+        verify(mCi, times(1 + numRecords)).iccIOForApp(anyInt(), anyInt(), anyString(),
+                anyInt(), anyInt(), anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+        assertEquals(1, asyncResults.size());
+        AsyncResult ar = asyncResults.get(0);
+        assertNull(ar.exception);
+        ArrayList<byte[]> results = (ArrayList<byte[]>) ar.result;
+        assertEquals(numRecords, results.size());
+        for (int i = 0; i < numRecords; i++) {
+            assertEquals(i + 1, results.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void loadEFImgTransparent_Cached() {
+        doAnswer(
+                invocation -> {
+                    Message response = invocation.getArgument(9);
+                    AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00,
+                            IccUtils.hexStringToBytes("0102030405")), null);
+                    response.sendToTarget();
+                    return null;
+                })
+                .when(mCi)
+                .iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                        isNull(), isNull(), isNull(), any(Message.class));
+
+        ArrayList<AsyncResult> asyncResults = new ArrayList<>();
+        mIccFileHandler.loadEFImgTransparent(0x4f01, 0, 0, 5, obtainResultMessage(asyncResults));
+        mTestLooper.dispatchAll();
+
+        // The second read is served from the cache.
+        mIccFileHandler.loadEFImgTransparent(0x4f01, 0, 0, 5, obtainResultMessage(asyncResults));
+        mTestLooper.dispatchAll();
+        assertEquals(2, asyncResults.size());
+        for (AsyncResult ar : asyncResults) {
+            assertEquals("0102030405", IccUtils.bytesToHexString((byte[]) ar.result));
+        }
+        verify(mCi, times(1)).iccIOForApp(anyInt(), anyInt(), anyString(),
+                anyInt(), anyInt(), anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+
+        // REFRESH of the file invalidates the cache.
+        IccRefreshResponse refreshResponse = new IccRefreshResponse();
+        refreshResponse.refreshResult = IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE;
+        refreshResponse.efId = 0x4f01;
+        mIccFileHandler.obtainMessage(IccFileHandler.EVENT_ICC_REFRESH,
+                new AsyncResult(null, refreshResponse, null)).sendToTarget();
+        mTestLooper.dispatchAll();
+
+        mIccFileHandler.loadEFImgTransparent(0x4f01, 0, 0, 5, obtainResultMessage(asyncResults));
+        mTestLooper.dispatchAll();
+        verify(mCi, times(2)).iccIOForApp(anyInt(), anyInt(), anyString(),
+                anyInt(), anyInt(), anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+    }
 }
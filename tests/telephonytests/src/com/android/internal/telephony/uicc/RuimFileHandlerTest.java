@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Message;
+import android.os.test.TestLooper;
+
+import com.android.internal.telephony.CommandsInterface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class RuimFileHandlerTest {
+    private CommandsInterface mCi;
+    private RuimFileHandler mRuimFileHandler;
+    private TestLooper mTestLooper;
+    private Handler mTestHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        mCi = mock(CommandsInterface.class);
+        mTestLooper = new TestLooper();
+        mTestHandler = new Handler(mTestLooper.getLooper());
+        mTestHandler.post(() -> mRuimFileHandler =
+                new RuimFileHandler(mock(UiccCardApplication.class), null, mCi));
+        mTestLooper.dispatchAll();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mTestLooper.dispatchAll();
+        mTestHandler.removeCallbacksAndMessages(null);
+        mRuimFileHandler = null;
+        mCi = null;
+    }
+
+    private Message obtainResultMessage(ArrayList<AsyncResult> results) {
+        Handler handler = new Handler(mTestLooper.getLooper(), msg -> {
+            results.add((AsyncResult) msg.obj);
+            return true;
+        });
+        return Message.obtain(handler);
+    }
+
+    @Test
+    public void loadEFImgTransparent_resultIsDelivered() {
+        doAnswer(
+                invocation -> {
+                    Message response = invocation.getArgument(9);
+                    AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00,
+                            IccUtils.hexStringToBytes("0102030405")), null);
+                    response.sendToTarget();
+                    return null;
+                })
+                .when(mCi)
+                .iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                        isNull(), isNull(), isNull(), any(Message.class));
+
+        ArrayList<AsyncResult> asyncResults = new ArrayList<>();
+        mRuimFileHandler.loadEFImgTransparent(0x4f01, 0, 0, 5, obtainResultMessage(asyncResults));
+        mTestLooper.dispatchAll();
+
+        // RUIM reads the image instance with GET RESPONSE.
+        verify(mCi, times(1)).iccIOForApp(eq(IccFileHandler.COMMAND_GET_RESPONSE), eq(0x4f01),
+                anyString(), eq(0), eq(0), eq(IccFileHandler.GET_RESPONSE_EF_IMG_SIZE_BYTES),
+                isNull(), isNull(), isNull(), any(Message.class));
+        assertEquals(1, asyncResults.size());
+        assertNull(asyncResults.get(0).exception);
+        assertEquals("0102030405", IccUtils.bytesToHexString((byte[]) asyncResults.get(0).result));
+
+        // The second read is served from the cache.
+        mRuimFileHandler.loadEFImgTransparent(0x4f01, 0, 0, 5, obtainResultMessage(asyncResults));
+        mTestLooper.dispatchAll();
+        assertEquals(2, asyncResults.size());
+        assertEquals("0102030405", IccUtils.bytesToHexString((byte[]) asyncResults.get(1).result));
+        verify(mCi, times(1)).iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(),
+                anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+    }
+}
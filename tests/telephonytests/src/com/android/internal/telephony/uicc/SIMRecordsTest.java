@@ -17,6 +17,8 @@
 package com.android.internal.telephony.uicc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -948,6 +950,107 @@ public class SIMRecordsTest extends TelephonyTest {
         assertEquals(alphaTag, mSIMRecordsUT.getVoiceMailAlphaTag());
     }
 
+    @Test
+    public void testRecordsCache_RestoredAndRevalidated() {
+        final String iccId = "89014103211118510720";
+        IccRecordsCache cache = new IccRecordsCache(mContext);
+        cache.remove(iccId, mSIMRecordsUT.getRecordsCacheType());
+
+        // Records loaded from the card are stored for the ICCID.
+        mSIMRecordsUT.mRecordsRequested = true;
+        mSIMRecordsUT.restoreRecordsFromCache(iccId);
+        mSIMRecordsUT.mGid1 = "ab";
+        mSIMRecordsUT.mMsisdn = "5551234";
+        mSIMRecordsUT.mMncLength = 3;
+        mSIMRecordsUT.mFplmns = new String[] {"12345"};
+        mSIMRecordsUT.saveRecordsToCache();
+        assertEquals("ab", cache.get(iccId, mSIMRecordsUT.getRecordsCacheType())
+                .getString("gid1"));
+        // The MSISDN identifies the subscriber and is not cached.
+        assertFalse(cache.get(iccId, mSIMRecordsUT.getRecordsCacheType())
+                .containsKey("msisdn"));
+
+        // The same card is inserted again.
+        mSIMRecordsUT.resetRecords();
+        final int eventRecordsLoaded = 1;
+        final int eventRecordsRestored = 2;
+        ArrayList<Message> loaded = new ArrayList<>();
+        ArrayList<Message> restored = new ArrayList<>();
+        Handler handler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == eventRecordsLoaded) {
+                    loaded.add(Message.obtain(msg));
+                } else if (msg.what == eventRecordsRestored) {
+                    restored.add(Message.obtain(msg));
+                }
+            }
+        };
+        mSIMRecordsUT.registerForRecordsLoaded(handler, eventRecordsLoaded, null);
+        mSIMRecordsUT.registerForRecordsRestored(handler, eventRecordsRestored, null);
+        mSIMRecordsUT.mRecordsRequested = true;
+        mSIMRecordsUT.restoreRecordsFromCache(iccId);
+
+        // The cached records are restored, but not reported before the IMSI is known.
+        assertEquals("ab", mSIMRecordsUT.getGid1());
+        assertNull(mSIMRecordsUT.getMsisdnNumber());
+        assertTrue(Arrays.equals(new String[] {"12345"}, mSIMRecordsUT.mFplmns));
+        assertFalse(mSIMRecordsUT.isLoaded());
+
+        mTestLooper.dispatchAll();
+        assertEquals(0, restored.size());
+
+        // The restored records are reported once the IMSI is known, but not as loaded.
+        mSIMRecordsUT.setImsi("310260123456789");
+        mSIMRecordsUT.onRecordsRestored();
+        mSIMRecordsUT.onRecordsRestored();
+        mTestLooper.dispatchAll();
+        assertEquals(1, restored.size());
+        assertEquals(0, loaded.size());
+        assertFalse(mSIMRecordsUT.isLoaded());
+        assertFalse(mSIMRecordsUT.getRecordsLoaded());
+        assertEquals("310260", mSIMRecordsUT.getOperatorNumeric());
+
+        // The card content changed since the records were cached, so the records read from the
+        // card replace the stale cached records. Records loaded is notified once, only now.
+        mSIMRecordsUT.mGid1 = "cd";
+        mSIMRecordsUT.onAllRecordsLoaded();
+        mTestLooper.dispatchAll();
+        assertEquals(1, restored.size());
+        assertEquals(1, loaded.size());
+        assertTrue(mSIMRecordsUT.isLoaded());
+        assertNull(mSIMRecordsUT.mRestoredRecords);
+        assertEquals("cd", cache.get(iccId, mSIMRecordsUT.getRecordsCacheType())
+                .getString("gid1"));
+        cache.remove(iccId, mSIMRecordsUT.getRecordsCacheType());
+    }
+
+    @Test
+    public void testRecordsCache_ClearedOnRefresh() {
+        final String iccId = "89014103211118510721";
+        IccRecordsCache cache = new IccRecordsCache(mContext);
+        mSIMRecordsUT.mRecordsRequested = true;
+        mSIMRecordsUT.restoreRecordsFromCache(iccId);
+        mSIMRecordsUT.mGid1 = "ab";
+        mSIMRecordsUT.saveRecordsToCache();
+        assertNotNull(cache.get(iccId, mSIMRecordsUT.getRecordsCacheType()));
+
+        IccRefreshResponse refreshResponse = new IccRefreshResponse();
+        refreshResponse.refreshResult = IccRefreshResponse.REFRESH_RESULT_INIT;
+        Message message = mSIMRecordsUT.obtainMessage(IccRecords.EVENT_REFRESH);
+        AsyncResult.forMessage(message, refreshResponse, null);
+        mSIMRecordsUT.handleMessage(message);
+        assertNull(cache.get(iccId, mSIMRecordsUT.getRecordsCacheType()));
+
+        // Nothing is restored for the card anymore, the records must be read from the card.
+        mSIMRecordsUT.resetRecords();
+        mSIMRecordsUT.mRecordsRequested = true;
+        mSIMRecordsUT.restoreRecordsFromCache(iccId);
+        assertNull(mSIMRecordsUT.getGid1());
+        assertNull(mSIMRecordsUT.mRestoredRecords);
+        assertFalse(mSIMRecordsUT.isLoaded());
+    }
+
     public interface Condition {
         Object expected();
 
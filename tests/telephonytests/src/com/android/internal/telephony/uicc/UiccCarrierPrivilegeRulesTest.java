@@ -42,8 +42,11 @@ import org.junit.runner.RunWith;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
 @RunWith(AndroidTestingRunner.class)
@@ -811,4 +814,121 @@ public class UiccCarrierPrivilegeRulesTest extends TelephonyTest {
         assertEquals(0, mUiccCarrierPrivilegeRules.getCarrierPrivilegeStatus(signature,
                 mUiccCarrierPrivilegeRules.getPackageNames().get(0)));
     }
+
+    private static String encodeTlv(String tag, String value) {
+        int length = value.length() / 2;
+        String lengthHex;
+        if (length < 0x80) {
+            lengthHex = String.format("%02X", length);
+        } else if (length <= 0xFF) {
+            lengthHex = String.format("81%02X", length);
+        } else {
+            lengthHex = String.format("82%04X", length);
+        }
+        return tag + lengthHex + value;
+    }
+
+    @Test
+    @SmallTest
+    public void testParseRules_LargeRuleSet() {
+        final int numRules = 300;
+        StringBuilder refArDos = new StringBuilder();
+        for (int i = 0; i < numRules; i++) {
+            String hash = String.format("%040X", i);
+            String packageName = IccUtils.bytesToHexString(("com.example.app" + i).getBytes());
+            String refDo = encodeTlv("E1", encodeTlv("C1", hash) + encodeTlv("CA", packageName));
+            String arDo = encodeTlv("E3", encodeTlv("DB", "0000000000000001"));
+            refArDos.append(encodeTlv("E2", refDo + arDo));
+        }
+        String rules = encodeTlv("FF40", refArDos.toString());
+
+        List<UiccAccessRule> accessRules =
+                UiccCarrierPrivilegeRules.parseRules(IccUtils.hexStringToBytes(rules));
+
+        assertEquals(numRules, accessRules.size());
+        for (int i = 0; i < numRules; i++) {
+            assertEquals("com.example.app" + i, accessRules.get(i).getPackageName());
+            assertEquals(String.format("%040x", i),
+                    accessRules.get(i).getCertificateHexString().toLowerCase());
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testTlvCursor_MatchesStringTlv() {
+        final String[] tags = {"FF40", "E2", "E1", "C1", "CA", "E3", "DB", "4F"};
+        Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            String tag = tags[random.nextInt(tags.length)];
+            byte[] data = new byte[random.nextInt(16)];
+            random.nextBytes(data);
+            // Make most of the inputs start with the tag, and bias the length field towards small
+            // or multi-byte lengths so that both the valid and invalid paths are covered.
+            byte[] tagBytes = IccUtils.hexStringToBytes(tag);
+            if (random.nextInt(4) != 0 && data.length >= tagBytes.length) {
+                System.arraycopy(tagBytes, 0, data, 0, tagBytes.length);
+                if (data.length > tagBytes.length) {
+                    int choice = random.nextInt(3);
+                    if (choice == 0) {
+                        data[tagBytes.length] = (byte) random.nextInt(data.length);
+                    } else if (choice == 1) {
+                        data[tagBytes.length] = (byte) (0x80 + random.nextInt(4));
+                    }
+                }
+            }
+            boolean shouldConsumeAll = random.nextBoolean();
+            String hex = IccUtils.bytesToHexString(data).toUpperCase(Locale.US);
+
+            String expectedValue = null;
+            String expectedRemain = null;
+            try {
+                UiccCarrierPrivilegeRules.TLV tlv = new UiccCarrierPrivilegeRules.TLV(tag);
+                expectedRemain = tlv.parse(hex, shouldConsumeAll);
+                expectedValue = tlv.getValue();
+            } catch (RuntimeException e) {
+                // Expected for malformed data.
+            }
+
+            String actualValue = null;
+            String actualRemain = null;
+            try {
+                TlvCursor cursor = new TlvCursor(data);
+                cursor.next(tagBytes, shouldConsumeAll);
+                actualValue = IccUtils.bytesToHexString(cursor.copyValue())
+                        .toUpperCase(Locale.US);
+                actualRemain = IccUtils.bytesToHexString(Arrays.copyOfRange(data,
+                        data.length - cursor.remaining(), data.length)).toUpperCase(Locale.US);
+            } catch (IllegalArgumentException e) {
+                // Expected for malformed data.
+            }
+
+            assertEquals("input=" + hex, expectedValue, actualValue);
+            assertEquals("input=" + hex, expectedRemain, actualRemain);
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testParseRules_Fuzz() {
+        final String rules =
+                "FF4045E243E135C114ABCD92CBB156B280FA4E1429A6ECEEB6E5C1BFE4CA1D636F6D2E676F6F676"
+                        + "C652E616E64726F69642E617070732E6D79617070E30ADB080000000000000001";
+        byte[] original = IccUtils.hexStringToBytes(rules);
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            byte[] data = Arrays.copyOf(original, random.nextInt(original.length + 1));
+            int mutations = random.nextInt(3);
+            for (int j = 0; j < mutations && data.length > 0; j++) {
+                data[random.nextInt(data.length)] = (byte) random.nextInt(256);
+            }
+            try {
+                UiccCarrierPrivilegeRules.parseRules(data);
+            } catch (IllegalArgumentException e) {
+                // Malformed data is reported as IllegalArgumentException.
+            } catch (RuntimeException e) {
+                // Unknown rule type.
+                assertEquals("Invalid Rule type", e.getMessage());
+            }
+        }
+    }
 }
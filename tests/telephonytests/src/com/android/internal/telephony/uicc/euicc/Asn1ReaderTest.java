@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc.euicc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.android.internal.telephony.uicc.IccUtils;
+import com.android.internal.telephony.uicc.asn1.Asn1Decoder;
+import com.android.internal.telephony.uicc.asn1.Asn1Node;
+import com.android.internal.telephony.uicc.asn1.InvalidAsn1DataException;
+import com.android.internal.telephony.uicc.asn1.TagNotFoundException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Asn1ReaderTest {
+    private static final String TAG = "Asn1ReaderTest";
+
+    // A profile listing as returned by the eUICC for ES10c.GetProfilesInfo.
+    private static byte[] createProfileListing(int profileCount) {
+        Asn1Node.Builder profilesBuilder = Asn1Node.newBuilder(Tags.TAG_CTX_COMP_0);
+        for (int i = 0; i < profileCount; i++) {
+            profilesBuilder.addChild(Asn1Node.newBuilder(Tags.TAG_PROFILE_INFO)
+                    .addChildAsBytes(Tags.TAG_ICCID,
+                            IccUtils.bcdToBytes(String.format("89670000000000%06d", i)))
+                    .addChildAsString(Tags.TAG_NICKNAME, "nickname " + i)
+                    .addChildAsString(Tags.TAG_SERVICE_PROVIDER_NAME, "provider " + i)
+                    .addChildAsString(Tags.TAG_PROFILE_NAME, "profile " + i)
+                    .addChild(Asn1Node.newBuilder(Tags.TAG_OPERATOR_ID)
+                            .addChildAsBytesFromHex(Tags.TAG_CTX_0, "12F345")
+                            .addChildAsBytesFromHex(Tags.TAG_CTX_1, "010203")
+                            .addChildAsBytesFromHex(Tags.TAG_CTX_2, "040506"))
+                    .addChildAsInteger(Tags.TAG_PROFILE_STATE, i == 0 ? 1 : 0)
+                    .addChildAsInteger(Tags.TAG_PROFILE_CLASS, 2)
+                    .addChildAsBits(Tags.TAG_PROFILE_POLICY_RULE, 0));
+        }
+        return Asn1Node.newBuilder(Tags.TAG_GET_PROFILES).addChild(profilesBuilder).build()
+                .toBytes();
+    }
+
+    // Decodes the whole listing, as EuiccPort#getAllProfiles did before the reader.
+    private static List<String> readIccidsFromTree(byte[] response)
+            throws InvalidAsn1DataException, TagNotFoundException {
+        List<String> iccids = new ArrayList<>();
+        List<Asn1Node> profileNodes = new Asn1Decoder(response).nextNode()
+                .getChild(Tags.TAG_CTX_COMP_0).getChildren(Tags.TAG_PROFILE_INFO);
+        for (Asn1Node profileNode : profileNodes) {
+            iccids.add(IccUtils.bchToString(profileNode.getChild(Tags.TAG_ICCID).asBytes(), 0,
+                    10));
+        }
+        return iccids;
+    }
+
+    private static List<String> readIccids(byte[] response)
+            throws InvalidAsn1DataException, TagNotFoundException {
+        List<String> iccids = new ArrayList<>();
+        Asn1Reader reader = new Asn1Reader(response);
+        reader.next();
+        reader.enter();
+        assertTrue(reader.skipTo(Tags.TAG_CTX_COMP_0));
+        reader.enter();
+        while (reader.skipTo(Tags.TAG_PROFILE_INFO)) {
+            Asn1Node profileNode = reader.decodeNode();
+            iccids.add(IccUtils.bchToString(profileNode.getChild(Tags.TAG_ICCID).asBytes(), 0,
+                    10));
+        }
+        return iccids;
+    }
+
+    @Test
+    @SmallTest
+    public void testRead() throws InvalidAsn1DataException {
+        // BF2D { A0 { E3 { 5A, 9F70 }, 80 }, 81 }
+        Asn1Reader reader = new Asn1Reader(IccUtils.hexStringToBytes(
+                "BF2D11A00CE3085A0211229F7001018000810101"));
+        assertTrue(reader.hasNext());
+        assertEquals(0xBF2D, reader.next());
+        assertTrue(reader.isConstructed());
+        reader.enter();
+
+        assertEquals(0xA0, reader.next());
+        reader.enter();
+        assertEquals(0xE3, reader.next());
+        reader.enter();
+        assertEquals(0x5A, reader.next());
+        assertFalse(reader.isConstructed());
+        assertArrayEquals(new byte[] {0x11, 0x22}, reader.getBytes());
+        assertEquals(0x9F70, reader.next());
+        assertEquals(0x9F70, reader.getTag());
+        assertArrayEquals(new byte[] {0x01}, reader.getBytes());
+        assertFalse(reader.hasNext());
+        reader.exit();
+        assertEquals(0x80, reader.next());
+        assertArrayEquals(new byte[0], reader.getBytes());
+        reader.exit();
+
+        // The remaining node at the top level.
+        assertEquals(0x81, reader.next());
+        assertFalse(reader.hasNext());
+        reader.exit();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    @SmallTest
+    public void testSkipTo() throws InvalidAsn1DataException {
+        Asn1Reader reader = new Asn1Reader(IccUtils.hexStringToBytes(
+                "A00B800101E3035A0101810100"));
+        reader.next();
+        reader.enter();
+        assertTrue(reader.skipTo(0xE3));
+        // Skips the children of E3.
+        assertTrue(reader.skipTo(0x81));
+        assertFalse(reader.skipTo(0x80));
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    @SmallTest
+    public void testLongLength() throws InvalidAsn1DataException {
+        byte[] value = new byte[0x1234];
+        value[value.length - 1] = 0x55;
+        byte[] data = Asn1Node.newBuilder(0xBF2D)
+                .addChildAsBytes(0x5A, value)
+                .addChildAsInteger(0x80, 7)
+                .build().toBytes();
+        Asn1Reader reader = new Asn1Reader(data);
+        reader.next();
+        reader.enter();
+        assertEquals(0x5A, reader.next());
+        assertArrayEquals(value, reader.getBytes());
+        assertEquals(0x80, reader.next());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    @SmallTest
+    public void testDecodeNode() throws InvalidAsn1DataException, TagNotFoundException {
+        Asn1Reader reader = new Asn1Reader(IccUtils.hexStringToBytes(
+                "A00B800101E3035A0101810100"));
+        reader.next();
+        reader.enter();
+        reader.skipTo(0xE3);
+        Asn1Node node = reader.decodeNode();
+        assertEquals(0xE3, node.getTag());
+        assertEquals(1, node.getChild(0x5A).asInteger());
+        assertEquals(0x81, reader.next());
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidData() {
+        String[] invalidHexes = {
+                // Missing length
+                "5A",
+                // Multi-byte tag without length
+                "9F70",
+                // Value shorter than the length
+                "5A0301",
+                // Long-form length with missing length bytes
+                "5A8201",
+                // Child longer than its parent
+                "A0035A0501"};
+        for (String hex : invalidHexes) {
+            Asn1Reader reader = new Asn1Reader(IccUtils.hexStringToBytes(hex));
+            try {
+                while (reader.hasNext()) {
+                    reader.next();
+                    if (reader.isConstructed()) {
+                        reader.enter();
+                    }
+                }
+                fail("Invalid data must fail: " + hex);
+            } catch (InvalidAsn1DataException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testEnterPrimitiveNode() throws InvalidAsn1DataException {
+        Asn1Reader reader = new Asn1Reader(IccUtils.hexStringToBytes("5A0101"));
+        reader.next();
+        try {
+            reader.enter();
+            fail("Primitive nodes cannot be entered.");
+        } catch (InvalidAsn1DataException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testReadProfileListing() throws Exception {
+        byte[] response = createProfileListing(20);
+        List<String> iccids = readIccids(response);
+        assertEquals(20, iccids.size());
+        assertEquals(readIccidsFromTree(response), iccids);
+        assertEquals("89670000000000000019", iccids.get(19));
+    }
+
+    @Test
+    @SmallTest
+    public void testRead20ProfilesBenchmark() throws Exception {
+        final int iterations = 2000;
+        byte[] response = createProfileListing(20);
+
+        int treeProfiles = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            treeProfiles += readIccidsFromTree(response).size();
+        }
+        long treeNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        int readerProfiles = 0;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            readerProfiles += readIccids(response).size();
+        }
+        long readerNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Read 20 profiles " + iterations + " times: tree=" + (treeNanos / 1000)
+                + "us, reader=" + (readerNanos / 1000) + "us");
+
+        assertEquals(treeProfiles, readerProfiles);
+    }
+}
@@ -23,6 +23,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -30,11 +31,14 @@ import static org.mockito.Mockito.verify;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Message;
 import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
+import android.util.Log;
 
 import com.android.internal.telephony.CommandException;
 import com.android.internal.telephony.CommandsInterface;
+import com.android.internal.telephony.SimulatedCommands;
 import com.android.internal.telephony.uicc.IccIoResult;
 import com.android.internal.telephony.uicc.IccUtils;
 
@@ -42,6 +46,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 
 @RunWith(AndroidTestingRunner.class)
 @TestableLooper.RunWithLooper
@@ -82,7 +87,9 @@ public class ApduSenderTest {
     private Handler mHandler;
     private ResponseCaptor mResponseCaptor;
     private byte[] mSelectResponse;
+    private static final String LOG_TAG = "ApduSenderTest";
     private static final String AID = "B2C3D4";
+    private static final long SESSION_IDLE_TIMEOUT_MS = 1000;
     private ApduSender mSender;
 
     @Before
@@ -278,6 +285,32 @@ public class ApduSenderTest {
                 eq(1), eq(0xFF), eq(s2), anyBoolean(), any());
     }
 
+    @Test
+    public void testSendStoreDataLongDataBytes() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "9000", "9000",
+                "B2222B9000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+
+        // Each segment has 0xFF (the limit of a single command) bytes.
+        String s1 = new String(new char[0xFF]).replace("\0", "AA");
+        String s2 = new String(new char[0xFF]).replace("\0", "BB");
+        String s3 = new String(new char[16]).replace("\0", "C3");
+        byte[] longData = IccUtils.hexStringToBytes(s1 + s2 + s3);
+        mSender.send((selectResponse, requestBuilder) -> {
+            requestBuilder.addStoreData(longData);
+        }, mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("B2222B", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi).iccTransmitApduLogicalChannel(eq(channel), eq(0x81), eq(0xE2), eq(0x11),
+                eq(0), eq(0xFF), eq(s1), anyBoolean(), any());
+        verify(mMockCi).iccTransmitApduLogicalChannel(eq(channel), eq(0x81), eq(0xE2), eq(0x11),
+                eq(1), eq(0xFF), eq(s2), anyBoolean(), any());
+        verify(mMockCi).iccTransmitApduLogicalChannel(eq(channel), eq(0x81), eq(0xE2), eq(0x91),
+                eq(2), eq(16), eq(s3), anyBoolean(), any());
+    }
+
     @Test
     public void testSendStoreDataLen0() throws InterruptedException {
         int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
@@ -341,4 +374,226 @@ public class ApduSenderTest {
         assertTrue(mResponseCaptor.exception instanceof ApduException);
         verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
     }
+
+    @Test
+    public void testSessionReusesChannel() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "A1A1A19000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        assertEquals("A1", IccUtils.bytesToHexString(mResponseCaptor.response));
+
+        ResponseCaptor responseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> {
+            mSelectResponse = selectResponse;
+            requestBuilder.addApdu(10, 1, 2, 3, 0, "b");
+        }, responseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A2", IccUtils.bytesToHexString(responseCaptor.response));
+        // The select response of the channel is given to every request.
+        assertEquals("A1A1A19000", IccUtils.bytesToHexString(mSelectResponse));
+        verify(mMockCi).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, never()).iccCloseLogicalChannel(anyInt(), anyBoolean(), any());
+
+        mLooper.moveTimeForward(SESSION_IDLE_TIMEOUT_MS);
+        mLooper.processAllMessages();
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+    }
+
+    @Test
+    public void testSessionQueuesRequests() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+
+        ResponseCaptor outerResponseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> {
+            // Sent while the channel is in use, so it is queued.
+            sender.send((selectResponseOther, requestBuilderOther) ->
+                    requestBuilderOther.addApdu(10, 1, 2, 3, 0, "b"), mResponseCaptor, mHandler);
+            requestBuilder.addApdu(10, 1, 2, 3, 0, "a");
+        }, outerResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A1", IccUtils.bytesToHexString(outerResponseCaptor.response));
+        assertEquals("A2", IccUtils.bytesToHexString(mResponseCaptor.response));
+        assertNull(mResponseCaptor.exception);
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+    }
+
+    @Test
+    public void testSessionClosesChannelOnError() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "6985", "A19000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals(0x6985, ((ApduException) mResponseCaptor.exception).getApduStatus());
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+
+        // The next request opens a new channel.
+        ResponseCaptor responseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "b"), responseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A1", IccUtils.bytesToHexString(responseCaptor.response));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+    }
+
+    @Test
+    public void testSessionReopensChannelClosedByModem() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        // The channel is no longer valid for the second request.
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "6F00",
+                "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        ResponseCaptor responseCaptor = new ResponseCaptor();
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "b"), responseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A2", IccUtils.bytesToHexString(responseCaptor.response));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, times(2)).iccTransmitApduLogicalChannel(eq(channel), eq(channel | 10),
+                eq(1), eq(2), eq(3), eq(0), eq("b"), anyBoolean(), any());
+    }
+
+    @Test
+    public void testSendAndCloseChannelInSession() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+
+        sender.sendAndCloseChannel((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A1", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+    }
+
+    @Test
+    public void testSendAndCloseChannelAfterSessionDoesNotReuseChannel()
+            throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        ApduSender sender = new ApduSender(mMockCi, AID, false /* supportExtendedApdu */,
+                SESSION_IDLE_TIMEOUT_MS);
+
+        sender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        // The idle session channel may have been closed by the modem since, so the request
+        // closing the channel must not be sent on it.
+        ResponseCaptor responseCaptor = new ResponseCaptor();
+        sender.sendAndCloseChannel((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "b"), responseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertEquals("A2", IccUtils.bytesToHexString(responseCaptor.response));
+        assertNull(responseCaptor.exception);
+        InOrder inOrder = inOrder(mMockCi);
+        inOrder.verify(mMockCi).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        inOrder.verify(mMockCi).iccTransmitApduLogicalChannel(eq(channel), eq(channel | 10),
+                eq(1), eq(2), eq(3), eq(0), eq("a"), anyBoolean(), any());
+        inOrder.verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+        inOrder.verify(mMockCi).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        inOrder.verify(mMockCi).iccTransmitApduLogicalChannel(eq(channel), eq(channel | 10),
+                eq(1), eq(2), eq(3), eq(0), eq("b"), anyBoolean(), any());
+        inOrder.verify(mMockCi).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+
+        // No channel is left open, so nothing is closed on the idle timeout.
+        mLooper.moveTimeForward(SESSION_IDLE_TIMEOUT_MS);
+        mLooper.processAllMessages();
+        verify(mMockCi, times(2)).iccCloseLogicalChannel(anyInt(), anyBoolean(), any());
+    }
+
+    @Test
+    public void testApduRoundTripsPerProfileListing() throws Exception {
+        // Listing the profiles takes one request for the list and one for each profile.
+        final int requests = 1 + 8;
+        CountingSimulatedCommands ci = new CountingSimulatedCommands();
+        try {
+            ci.setOpenChannelId(1);
+            ci.setIccIoResultForApduLogicalChannel(new IccIoResult(0x90, 0x00, "BF2D00"));
+
+            sendProfileListing(new ApduSender(ci, AID, false /* supportExtendedApdu */),
+                    requests);
+            int roundTrips = ci.mRoundTrips;
+            assertEquals(3 * requests, roundTrips);
+
+            ci.mRoundTrips = 0;
+            sendProfileListing(new ApduSender(ci, AID, false /* supportExtendedApdu */,
+                    SESSION_IDLE_TIMEOUT_MS), requests);
+            mLooper.moveTimeForward(SESSION_IDLE_TIMEOUT_MS);
+            mLooper.processAllMessages();
+            int sessionRoundTrips = ci.mRoundTrips;
+            Log.d(LOG_TAG, "APDU round trips per profile listing: " + roundTrips
+                    + ", in session mode: " + sessionRoundTrips);
+
+            // The channel is opened and closed once.
+            assertEquals(requests + 2, sessionRoundTrips);
+        } finally {
+            ci.dispose();
+        }
+    }
+
+    // Sends each request when the previous one returns, as the LPA reads the profiles.
+    private void sendProfileListing(ApduSender sender, int requests) {
+        for (int i = 0; i < requests; i++) {
+            ResponseCaptor responseCaptor = new ResponseCaptor();
+            sender.send((selectResponse, requestBuilder) -> requestBuilder.addStoreData("BF2D00"),
+                    responseCaptor, mHandler);
+            mLooper.processAllMessages();
+            assertEquals("BF2D00", IccUtils.bytesToHexString(responseCaptor.response));
+        }
+    }
+
+    /** Counts the APDU round trips, including opening and closing the logical channel. */
+    private static class CountingSimulatedCommands extends SimulatedCommands {
+        volatile int mRoundTrips;
+
+        @Override
+        public void iccOpenLogicalChannel(String aid, int p2, Message response) {
+            mRoundTrips++;
+            super.iccOpenLogicalChannel(aid, p2, response);
+        }
+
+        @Override
+        public void iccCloseLogicalChannel(int channel, boolean isEs10, Message response) {
+            mRoundTrips++;
+            resultSuccess(response, null);
+        }
+
+        @Override
+        public void iccTransmitApduLogicalChannel(int channel, int cla, int instruction,
+                int p1, int p2, int p3, String data, boolean isEs10Command, Message response) {
+            mRoundTrips++;
+            super.iccTransmitApduLogicalChannel(channel, cla, instruction, p1, p2, p3, data,
+                    isEs10Command, response);
+        }
+    }
 }